@@ -0,0 +1,76 @@
+package nz.net.dnh.mapstream.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collector;
+import java.util.stream.Collector.Characteristics;
+import java.util.stream.Collectors;
+
+import nz.net.dnh.mapstream.EntryCollectors;
+import nz.net.dnh.mapstream.MultimapStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * {@link EntryCollectors#toMap(java.util.function.BinaryOperator)} and {@link MultimapStream#toMultimap()} against equivalent stream and
+ * for-loop baselines. A merge function is used since the multimap source has duplicate keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectBenchmark {
+	@Benchmark
+	public Map<Integer, Integer> toMapMapStream(final SourceState state) {
+		return state.mapStream().mapValues(v -> v + 1).collect(EntryCollectors.toMap(Integer::sum));
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> toMapStream(final SourceState state) {
+		return state.entryStream().collect(Collectors.toMap(Entry::getKey, e -> e.getValue() + 1, Integer::sum));
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> toMapLoop(final SourceState state) {
+		final Map<Integer, Integer> map = new HashMap<>();
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			map.merge(e.getKey(), e.getValue() + 1, Integer::sum);
+		}
+		return map;
+	}
+
+	@Benchmark
+	public Multimap<Integer, Integer> toMultimapMapStream(final SourceState state) {
+		return state.mapStream().mapValues(v -> v + 1).collect(MultimapStream.toMultimap());
+	}
+
+	@Benchmark
+	public Multimap<Integer, Integer> toMultimapStream(final SourceState state) {
+		return state.entryStream().collect(Collector.<Entry<Integer, Integer>, Multimap<Integer, Integer>> of(HashMultimap::create,
+				(m, e) -> m.put(e.getKey(), e.getValue() + 1), (m1, m2) -> {
+					m1.putAll(m2);
+					return m1;
+				}, Characteristics.UNORDERED, Characteristics.IDENTITY_FINISH));
+	}
+
+	@Benchmark
+	public Multimap<Integer, Integer> toMultimapLoop(final SourceState state) {
+		final Multimap<Integer, Integer> multimap = HashMultimap.create();
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			multimap.put(e.getKey(), e.getValue() + 1);
+		}
+		return multimap;
+	}
+}
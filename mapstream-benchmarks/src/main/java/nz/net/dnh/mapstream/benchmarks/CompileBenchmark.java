@@ -0,0 +1,107 @@
+package nz.net.dnh.mapstream.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import nz.net.dnh.mapstream.MapStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@code compile()} against the same pipeline evaluated normally, after many other pipelines have run through the same stages so that
+ * their call sites have seen many different functions, as in a long-running service. The pipelines use both functions of pairs and the
+ * functions of only keys or values taken by e.g. {@code filterKeys} and {@code mapValues}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+	@State(Scope.Benchmark)
+	public static class PollutedState {
+		private final Map<Integer, Integer> map = new HashMap<>();
+		private MapStream<Integer, Integer> compiled;
+		private MapStream<Integer, Integer> compiledKeyValue;
+
+		@Setup
+		public void setup() {
+			final Random random = new Random(42);
+			for (int i = 0; i < 100_000; i++) {
+				this.map.put(i, random.nextInt(100_000));
+			}
+			final List<UnaryOperator<MapStream<Integer, Integer>>> others = new ArrayList<>();
+			others.add(s -> s.filter((k, v) -> k % 3 == 0).mapValues(v -> v + 1));
+			others.add(s -> s.filter((k, v) -> v % 5 != 0).mapValues(v -> v - 1));
+			others.add(s -> s.filter((k, v) -> k > v).mapValues(v -> v / 2));
+			others.add(s -> s.filter((k, v) -> k < 50_000).mapValues(v -> -v));
+			others.add(s -> s.filter((k, v) -> (k ^ v) % 7 == 0).mapValues(v -> v * v));
+			others.add(s -> s.filter((k, v) -> v > 10).mapValues(v -> v << 1));
+			others.add(s -> s.filter((k, v) -> k + v > 0).mapValues(Integer::reverse));
+			others.add(s -> s.filter((k, v) -> k != 42).mapValues(v -> v & 0xff));
+			others.add(s -> s.filterKeys(k -> k % 3 == 0).mapValues(v -> v + 1));
+			others.add(s -> s.filterKeys(k -> k < 50_000).mapValues(v -> v - 1));
+			others.add(s -> s.filterKeys(k -> k != 42).mapValues(v -> v / 2));
+			others.add(s -> s.filterValues(v -> v % 5 != 0).mapValues(v -> -v));
+			others.add(s -> s.filterValues(v -> v > 10).mapValues(v -> v * v).mapValues(v -> v >> 1));
+			others.add(s -> s.filterKeys(k -> (k & 1) == 1).mapValues(Integer::reverse));
+			final Blackhole blackhole = new Blackhole(
+					"Today's password is swordfish. I understand instantiating Blackholes directly is dangerous.");
+			for (int round = 0; round < 20; round++) {
+				for (final UnaryOperator<MapStream<Integer, Integer>> other : others) {
+					other.apply(MapStream.of(this.map)).forEach((k, v) -> blackhole.consume(v));
+				}
+			}
+			this.compiled = pipeline(MapStream.of(this.map)).compile();
+			this.compiledKeyValue = keyValuePipeline(MapStream.of(this.map)).compile();
+		}
+
+		MapStream<Integer, Integer> pipeline(final MapStream<Integer, Integer> source) {
+			return source.filter((k, v) -> k % 2 == 0).mapValues(v -> v * 2);
+		}
+
+		MapStream<Integer, Integer> keyValuePipeline(final MapStream<Integer, Integer> source) {
+			return source.filterKeys(k -> k % 2 == 0).mapValues(v -> v * 2);
+		}
+	}
+
+	@Benchmark
+	public void interpretedMapStream(final PollutedState state, final Blackhole blackhole) {
+		state.pipeline(MapStream.of(state.map)).forEach((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void compiledMapStream(final PollutedState state, final Blackhole blackhole) {
+		state.compiled.forEach((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void interpretedKeyValueMapStream(final PollutedState state, final Blackhole blackhole) {
+		state.keyValuePipeline(MapStream.of(state.map)).forEach((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void compiledKeyValueMapStream(final PollutedState state, final Blackhole blackhole) {
+		state.compiledKeyValue.forEach((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void compiledEachTimeMapStream(final PollutedState state, final Blackhole blackhole) {
+		state.pipeline(MapStream.of(state.map)).compile().forEach((k, v) -> blackhole.consume(v));
+	}
+}
@@ -0,0 +1,77 @@
+package nz.net.dnh.mapstream.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import nz.net.dnh.mapstream.MapStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code MapStream.of(ConcurrentHashMap, long)}, evaluated by the map's bulk operations, against a parallel MapStream of the same map and
+ * a parallel stream of its entries
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentMapBenchmark {
+	@State(Scope.Benchmark)
+	public static class ConcurrentMapState {
+		private final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<>();
+
+		@Setup
+		public void setup() {
+			final Random random = new Random(42);
+			for (int i = 0; i < 1_000_000; i++) {
+				this.map.put(i, random.nextInt(1_000_000));
+			}
+		}
+	}
+
+	@Benchmark
+	public long filterCountBulkMapStream(final ConcurrentMapState state) {
+		return MapStream.of(state.map, 1).filter((k, v) -> k % 2 == 0 && v % 3 == 0).count();
+	}
+
+	@Benchmark
+	public long filterCountParallelMapStream(final ConcurrentMapState state) {
+		return MapStream.of(state.map).parallel().filter((k, v) -> k % 2 == 0 && v % 3 == 0).count();
+	}
+
+	@Benchmark
+	public long filterCountParallelStream(final ConcurrentMapState state) {
+		return state.map.entrySet().parallelStream().filter(e -> e.getKey() % 2 == 0 && e.getValue() % 3 == 0).count();
+	}
+
+	@Benchmark
+	public int sumBulkMapStream(final ConcurrentMapState state) {
+		return MapStream.of(state.map, 1).mapValuesToInt(v -> v).sum();
+	}
+
+	@Benchmark
+	public int sumParallelMapStream(final ConcurrentMapState state) {
+		return MapStream.of(state.map).parallel().mapValuesToInt(v -> v).sum();
+	}
+
+	@Benchmark
+	public boolean anyMatchBulkMapStream(final ConcurrentMapState state) {
+		return MapStream.of(state.map, 1).anyMatch((k, v) -> v < 0);
+	}
+
+	@Benchmark
+	public boolean anyMatchParallelMapStream(final ConcurrentMapState state) {
+		return MapStream.of(state.map).parallel().anyMatch((k, v) -> v < 0);
+	}
+}
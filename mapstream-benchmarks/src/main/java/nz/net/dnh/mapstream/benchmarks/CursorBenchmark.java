@@ -0,0 +1,67 @@
+package nz.net.dnh.mapstream.benchmarks;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import nz.net.dnh.mapstream.BiCursor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** {@code cursor()} against {@code iterator()} and a for-loop baseline, pulling the pairs from a source and through a filter */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CursorBenchmark {
+	@Benchmark
+	public void cursorMapStream(final SourceState state, final Blackhole blackhole) {
+		final BiCursor<Integer, Integer> cursor = state.mapStream().cursor();
+		while (cursor.advance()) {
+			blackhole.consume(cursor.key());
+			blackhole.consume(cursor.value());
+		}
+	}
+
+	@Benchmark
+	public void iteratorMapStream(final SourceState state, final Blackhole blackhole) {
+		final Iterator<Entry<Integer, Integer>> iterator = state.mapStream().iterator();
+		while (iterator.hasNext()) {
+			final Entry<Integer, Integer> e = iterator.next();
+			blackhole.consume(e.getKey());
+			blackhole.consume(e.getValue());
+		}
+	}
+
+	@Benchmark
+	public void filterCursorMapStream(final SourceState state, final Blackhole blackhole) {
+		final BiCursor<Integer, Integer> cursor = state.mapStream().filterKeys(k -> k % 2 == 0).cursor();
+		while (cursor.advance()) {
+			blackhole.consume(cursor.value());
+		}
+	}
+
+	@Benchmark
+	public void filterIteratorMapStream(final SourceState state, final Blackhole blackhole) {
+		final Iterator<Entry<Integer, Integer>> iterator = state.mapStream().filterKeys(k -> k % 2 == 0).iterator();
+		while (iterator.hasNext()) {
+			blackhole.consume(iterator.next().getValue());
+		}
+	}
+
+	@Benchmark
+	public void loop(final SourceState state, final Blackhole blackhole) {
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			blackhole.consume(e.getKey());
+			blackhole.consume(e.getValue());
+		}
+	}
+}
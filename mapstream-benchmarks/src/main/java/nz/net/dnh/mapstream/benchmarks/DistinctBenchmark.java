@@ -0,0 +1,66 @@
+package nz.net.dnh.mapstream.benchmarks;
+
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** {@code distinctKeys} and {@code distinctValues} against equivalent stream and for-loop baselines */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistinctBenchmark {
+	@Benchmark
+	public void distinctKeysMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().distinctKeys().forEach((k, v) -> blackhole.consume(k));
+	}
+
+	@Benchmark
+	public void distinctKeysStream(final SourceState state, final Blackhole blackhole) {
+		final Set<Integer> seen = ConcurrentHashMap.newKeySet();
+		state.entryStream().filter(e -> seen.add(e.getKey())).forEach(e -> blackhole.consume(e.getKey()));
+	}
+
+	@Benchmark
+	public void distinctKeysLoop(final SourceState state, final Blackhole blackhole) {
+		final Set<Integer> seen = new HashSet<>();
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			if (seen.add(e.getKey())) {
+				blackhole.consume(e.getKey());
+			}
+		}
+	}
+
+	@Benchmark
+	public void distinctValuesMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().distinctValues().forEach((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void distinctValuesStream(final SourceState state, final Blackhole blackhole) {
+		final Set<Integer> seen = ConcurrentHashMap.newKeySet();
+		state.entryStream().filter(e -> seen.add(e.getValue())).forEach(e -> blackhole.consume(e.getValue()));
+	}
+
+	@Benchmark
+	public void distinctValuesLoop(final SourceState state, final Blackhole blackhole) {
+		final Set<Integer> seen = new HashSet<>();
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			if (seen.add(e.getValue())) {
+				blackhole.consume(e.getValue());
+			}
+		}
+	}
+}
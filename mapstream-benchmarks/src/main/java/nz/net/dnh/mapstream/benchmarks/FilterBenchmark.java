@@ -0,0 +1,78 @@
+package nz.net.dnh.mapstream.benchmarks;
+
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** {@code filter}, {@code filterKeys} and {@code filterValues} against equivalent stream and for-loop baselines */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+	@Benchmark
+	public void filterMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().filter((k, v) -> k % 2 == 0 && v % 3 == 0).forEach((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void filterStream(final SourceState state, final Blackhole blackhole) {
+		state.entryStream().filter(e -> e.getKey() % 2 == 0 && e.getValue() % 3 == 0).forEach(e -> blackhole.consume(e.getValue()));
+	}
+
+	@Benchmark
+	public void filterLoop(final SourceState state, final Blackhole blackhole) {
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			if (e.getKey() % 2 == 0 && e.getValue() % 3 == 0) {
+				blackhole.consume(e.getValue());
+			}
+		}
+	}
+
+	@Benchmark
+	public void filterKeysMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().filterKeys(k -> k % 2 == 0).forEach((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void filterKeysStream(final SourceState state, final Blackhole blackhole) {
+		state.entryStream().filter(e -> e.getKey() % 2 == 0).forEach(e -> blackhole.consume(e.getValue()));
+	}
+
+	@Benchmark
+	public void filterKeysLoop(final SourceState state, final Blackhole blackhole) {
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			if (e.getKey() % 2 == 0) {
+				blackhole.consume(e.getValue());
+			}
+		}
+	}
+
+	@Benchmark
+	public void filterValuesMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().filterValues(v -> v % 2 == 0).forEach((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void filterValuesStream(final SourceState state, final Blackhole blackhole) {
+		state.entryStream().filter(e -> e.getValue() % 2 == 0).forEach(e -> blackhole.consume(e.getValue()));
+	}
+
+	@Benchmark
+	public void filterValuesLoop(final SourceState state, final Blackhole blackhole) {
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			if (e.getValue() % 2 == 0) {
+				blackhole.consume(e.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package nz.net.dnh.mapstream.benchmarks;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@code mapKeys} and {@code mapValues} against equivalent stream and for-loop baselines. Each pipeline maps twice, so the cost of
+ * intermediate entries shows up in the stream baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapBenchmark {
+	@Benchmark
+	public void mapKeysMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().mapKeys(k -> k + 1).mapKeys(k -> k * 2).forEach((k, v) -> blackhole.consume(k));
+	}
+
+	@Benchmark
+	public void mapKeysStream(final SourceState state, final Blackhole blackhole) {
+		state.entryStream().map(e -> new SimpleImmutableEntry<>(e.getKey() + 1, e.getValue()))
+				.map(e -> new SimpleImmutableEntry<>(e.getKey() * 2, e.getValue())).forEach(e -> blackhole.consume(e.getKey()));
+	}
+
+	@Benchmark
+	public void mapKeysLoop(final SourceState state, final Blackhole blackhole) {
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			blackhole.consume((e.getKey() + 1) * 2);
+		}
+	}
+
+	@Benchmark
+	public void mapValuesMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().mapValues(v -> v + 1).mapValues(v -> v * 2).forEach((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void mapValuesStream(final SourceState state, final Blackhole blackhole) {
+		state.entryStream().map(e -> new SimpleImmutableEntry<>(e.getKey(), e.getValue() + 1))
+				.map(e -> new SimpleImmutableEntry<>(e.getKey(), e.getValue() * 2)).forEach(e -> blackhole.consume(e.getValue()));
+	}
+
+	@Benchmark
+	public void mapValuesLoop(final SourceState state, final Blackhole blackhole) {
+		for (final Entry<Integer, Integer> e : state.entries()) {
+			blackhole.consume((e.getValue() + 1) * 2);
+		}
+	}
+}
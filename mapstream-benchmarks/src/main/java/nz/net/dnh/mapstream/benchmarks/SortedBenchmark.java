@@ -0,0 +1,71 @@
+package nz.net.dnh.mapstream.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** {@code sortedKeys}, {@code sortedValues} and their radix-sorted {@code ByInt} forms against equivalent stream and for-loop baselines */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortedBenchmark {
+	@Benchmark
+	public void sortedKeysMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().sortedKeys().forEachOrdered((k, v) -> blackhole.consume(k));
+	}
+
+	@Benchmark
+	public void sortedKeysByIntMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().sortedKeysByInt(k -> k).forEachOrdered((k, v) -> blackhole.consume(k));
+	}
+
+	@Benchmark
+	public void sortedKeysStream(final SourceState state, final Blackhole blackhole) {
+		state.entryStream().sorted(Entry.comparingByKey()).forEachOrdered(e -> blackhole.consume(e.getKey()));
+	}
+
+	@Benchmark
+	public void sortedKeysLoop(final SourceState state, final Blackhole blackhole) {
+		final List<Entry<Integer, Integer>> entries = new ArrayList<>(state.entries());
+		entries.sort(Entry.comparingByKey());
+		for (final Entry<Integer, Integer> e : entries) {
+			blackhole.consume(e.getKey());
+		}
+	}
+
+	@Benchmark
+	public void sortedValuesMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().sortedValues().forEachOrdered((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void sortedValuesByIntMapStream(final SourceState state, final Blackhole blackhole) {
+		state.mapStream().sortedValuesByInt(v -> v).forEachOrdered((k, v) -> blackhole.consume(v));
+	}
+
+	@Benchmark
+	public void sortedValuesStream(final SourceState state, final Blackhole blackhole) {
+		state.entryStream().sorted(Entry.comparingByValue()).forEachOrdered(e -> blackhole.consume(e.getValue()));
+	}
+
+	@Benchmark
+	public void sortedValuesLoop(final SourceState state, final Blackhole blackhole) {
+		final List<Entry<Integer, Integer>> entries = new ArrayList<>(state.entries());
+		entries.sort(Entry.comparingByValue());
+		for (final Entry<Integer, Integer> e : entries) {
+			blackhole.consume(e.getValue());
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package nz.net.dnh.mapstream.benchmarks;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import nz.net.dnh.mapstream.MapStream;
+import nz.net.dnh.mapstream.MultimapStream;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * The source data shared by all benchmarks: {@link #size} entries from a {@link SourceType}, evaluated sequentially or in parallel.
+ * <p>
+ * Values are pseudo-random integers in {@code [0, size)}, so roughly a third of them are duplicates. Map sources have distinct keys; the
+ * multimap source has each key twice.
+ */
+@State(Scope.Benchmark)
+public class SourceState {
+	public enum SourceType {
+		HASH_MAP, TREE_MAP, IMMUTABLE_MULTIMAP
+	}
+
+	@Param({ "10", "1000", "100000", "10000000" })
+	public int size;
+
+	@Param
+	public SourceType source;
+
+	/** Whether the MapStream and Stream variants are parallel; the for-loop variants are always sequential */
+	@Param({ "false", "true" })
+	public boolean parallel;
+
+	private Map<Integer, Integer> map;
+	private Multimap<Integer, Integer> multimap;
+
+	@Setup
+	public void setup() {
+		final Random random = new Random(42);
+		switch (this.source) {
+		case HASH_MAP:
+		case TREE_MAP:
+			this.map = this.source == SourceType.HASH_MAP ? new HashMap<>() : new TreeMap<>();
+			for (int i = 0; i < this.size; i++) {
+				this.map.put(i, random.nextInt(this.size));
+			}
+			break;
+		case IMMUTABLE_MULTIMAP:
+			final ImmutableListMultimap.Builder<Integer, Integer> builder = ImmutableListMultimap.builder();
+			for (int i = 0; i < this.size; i++) {
+				builder.put(i / 2, random.nextInt(this.size));
+			}
+			this.multimap = builder.build();
+			break;
+		}
+	}
+
+	/** @return a MapStream over the source */
+	public MapStream<Integer, Integer> mapStream() {
+		final MapStream<Integer, Integer> stream = this.multimap == null ? MapStream.of(this.map) : MultimapStream.of(this.multimap);
+		return this.parallel ? stream.parallel() : stream;
+	}
+
+	/** @return a stream of the source entries, for the hand-written stream baselines */
+	public Stream<Entry<Integer, Integer>> entryStream() {
+		final Stream<Entry<Integer, Integer>> stream = entries().stream();
+		return this.parallel ? stream.parallel() : stream;
+	}
+
+	/** @return the source entries, for the hand-written for-loop baselines */
+	public Collection<Entry<Integer, Integer>> entries() {
+		return this.multimap == null ? this.map.entrySet() : this.multimap.entries();
+	}
+}
@@ -0,0 +1,34 @@
+package nz.net.dnh.mapstream;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * A pull-based cursor over key-value pairs, e.g. from {@link MapStream#cursor()}: each call to {@link #advance()} moves to the next pair,
+ * whose key and value are then returned by {@link #key()} and {@link #value()}, without creating an {@link Entry} per pair as an
+ * {@link Iterator} of entries does. This suits merging the pairs with other data by hand, e.g. walking two sorted sources in step.
+ * 
+ * @param <K>
+ *            the type of the keys
+ * @param <V>
+ *            the type of the values
+ */
+public interface BiCursor<K, V> {
+	/**
+	 * Move to the next pair, if there is one; the cursor starts before the first pair, so this must be called before the first pair can be
+	 * read
+	 * 
+	 * @return true if the cursor is now on a pair, false if there are no more pairs
+	 */
+	boolean advance();
+
+	/**
+	 * @return the key of the current pair; the result is unspecified if {@link #advance()} hasn't been called or returned false
+	 */
+	K key();
+
+	/**
+	 * @return the value of the current pair; the result is unspecified if {@link #advance()} hasn't been called or returned false
+	 */
+	V value();
+}
@@ -0,0 +1,374 @@
+package nz.net.dnh.mapstream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+
+/**
+ * A file of key-value pairs in a compact binary format, written by {@link MapStream#writeTo(Path, Serializer, Serializer)} and read by
+ * {@link MapStream#ofFile(Path, Serializer, Serializer)}.
+ * <p>
+ * The file starts with a header: a magic number, the format version and flags. The pairs follow in blocks of about
+ * {@value #BLOCK_SIZE} bytes, each of which is just the serialized keys and values of its pairs. After the blocks is an index with the
+ * offset, length and number of pairs of each block, and, if the file was written with a comparator of its keys, the least and greatest
+ * key in the block. The file ends with a trailer: the offset of the index, the number of blocks and the magic number again.
+ * <p>
+ * The file is read through memory-mapped buffers, and pairs are decoded only when they are traversed. Its spliterator splits on block
+ * boundaries, and skips the blocks whose keys are all outside a {@link KeyRange}.
+ */
+final class BlockFile<K, V> {
+	static final int MAGIC = 0x4d534246;
+	static final int VERSION = 1;
+	/** The flag set if the index has the least and greatest key of each block */
+	static final int FLAG_KEY_RANGES = 1;
+	static final int BLOCK_SIZE = 1 << 16;
+	private static final int HEADER_SIZE = 12;
+	private static final int TRAILER_SIZE = 16;
+	/** The maximum size of a mapped buffer; the blocks of a file are mapped in chunks of at most this size */
+	private static final long MAX_CHUNK_SIZE = 1 << 30;
+
+	private final Serializer<K> keySerializer;
+	private final Serializer<V> valueSerializer;
+	private final KeyRange<K> range;
+	/** The mapped buffer containing each block to read, and the position and length of the block in it */
+	private final ByteBuffer[] chunks;
+	private final int[] positions;
+	private final int[] lengths;
+	/** The number of pairs in the blocks before each block to read, and in total at the end */
+	private final long[] cumulativeCounts;
+	/** Whether the keys of each block to read must be checked against the range, because not all of them are known to be in it */
+	private final boolean[] filtered;
+
+	private BlockFile(final Serializer<K> keySerializer, final Serializer<V> valueSerializer, final KeyRange<K> range,
+			final ByteBuffer[] chunks, final int[] positions, final int[] lengths, final long[] cumulativeCounts, final boolean[] filtered) {
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		this.range = range;
+		this.chunks = chunks;
+		this.positions = positions;
+		this.lengths = lengths;
+		this.cumulativeCounts = cumulativeCounts;
+		this.filtered = filtered;
+	}
+
+	/**
+	 * Write the pairs of a MapStream to a block file, in encounter order; if writing fails, the file is deleted
+	 * 
+	 * @param comparator
+	 *            the order of the keys, or null to write no key ranges to the index
+	 */
+	static <K, V> void write(final MapStream<K, V> mapStream, final Path path, final Serializer<K> keySerializer,
+			final Serializer<V> valueSerializer, final Comparator<? super K> comparator) throws IOException {
+		final Writer<K, V> writer = new Writer<>(path, keySerializer, valueSerializer, comparator);
+		boolean written = false;
+		try {
+			try (Writer<K, V> w = writer) {
+				mapStream.forEachOrdered(w);
+			} catch (final UncheckedIOException e) {
+				throw e.getCause();
+			}
+			written = true;
+		} finally {
+			if (!written) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/**
+	 * Open a block file, reading its index and mapping its blocks
+	 * 
+	 * @param range
+	 *            the keys to read, or null to read all of them; blocks are skipped using the index only if the file was written with a
+	 *            comparator, which must be consistent with the range's
+	 */
+	static <K, V> BlockFile<K, V> open(final Path path, final Serializer<K> keySerializer, final Serializer<V> valueSerializer,
+			final KeyRange<K> range) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			if (size < HEADER_SIZE + TRAILER_SIZE) {
+				throw new IOException("Not a MapStream block file: " + path);
+			}
+			final ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+			final ByteBuffer trailer = readFully(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+			final long indexOffset = trailer.getLong();
+			final int blockCount = trailer.getInt();
+			if (header.getInt() != MAGIC || trailer.getInt() != MAGIC || indexOffset < HEADER_SIZE || indexOffset > size - TRAILER_SIZE) {
+				throw new IOException("Not a MapStream block file: " + path);
+			}
+			if (header.getInt() != VERSION) {
+				throw new IOException("Unsupported MapStream block file version: " + path);
+			}
+			final boolean keyRanges = (header.getInt() & FLAG_KEY_RANGES) != 0;
+
+			// Read the index, keeping the blocks which may have keys in the range
+			final ByteBufferDataInput index = new ByteBufferDataInput(channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, size
+					- TRAILER_SIZE - indexOffset));
+			final long[] offsets = new long[blockCount];
+			final int[] lengths = new int[blockCount];
+			final long[] cumulativeCounts = new long[blockCount + 1];
+			final boolean[] filtered = new boolean[blockCount];
+			int blocks = 0;
+			for (int i = 0; i < blockCount; i++) {
+				final long offset = index.readLong();
+				final int length = index.readInt();
+				final int count = index.readInt();
+				boolean filter = range != null;
+				if (keyRanges) {
+					final K min = keySerializer.read(index);
+					final K max = keySerializer.read(index);
+					if (range != null && !range.overlaps(min, max)) {
+						continue;
+					}
+					filter = range != null && !range.encloses(min, max);
+				}
+				offsets[blocks] = offset;
+				lengths[blocks] = length;
+				cumulativeCounts[blocks + 1] = cumulativeCounts[blocks] + count;
+				filtered[blocks] = filter;
+				blocks++;
+			}
+
+			// Map runs of consecutive blocks into chunks; the mappings remain valid after the channel is closed
+			final ByteBuffer[] chunks = new ByteBuffer[blocks];
+			final int[] positions = new int[blocks];
+			for (int first = 0; first < blocks;) {
+				final long start = offsets[first];
+				int last = first;
+				while (last + 1 < blocks && offsets[last + 1] == offsets[last] + lengths[last]
+						&& offsets[last + 1] + lengths[last + 1] - start <= MAX_CHUNK_SIZE) {
+					last++;
+				}
+				final ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, offsets[last] + lengths[last] - start);
+				for (int i = first; i <= last; i++) {
+					chunks[i] = chunk;
+					positions[i] = (int) (offsets[i] - start);
+				}
+				first = last + 1;
+			}
+			return new BlockFile<>(keySerializer, valueSerializer, range, chunks, positions, lengths, cumulativeCounts, filtered);
+		}
+	}
+
+	private static ByteBuffer readFully(final FileChannel channel, final long position, final int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+		((Buffer) buffer).flip();
+		return buffer;
+	}
+
+	/** @return the number of pairs which will be read from the file, or -1 if only a range of keys is read */
+	long size() {
+		return this.range == null ? this.cumulativeCounts[this.chunks.length] : -1;
+	}
+
+	/** @return a spliterator over the pairs in the blocks read from the file, which splits on block boundaries */
+	PairSpliterator<K, V> spliterator() {
+		return new BlockPairSpliterator(0, this.chunks.length);
+	}
+
+	/** Reads the pairs of the blocks from {@code next} to {@code end}, decoding one pair at a time; it is its own {@link #cursor()} */
+	private final class BlockPairSpliterator implements PairSpliterator<K, V>, BiCursor<K, V> {
+		private int next;
+		private final int end;
+		/** The input from the current block, and the number of pairs remaining in it */
+		private ByteBufferDataInput input;
+		private int remaining;
+		private boolean filter;
+		/** The pair most recently decoded by {@link #advance()} */
+		private K key;
+		private V value;
+
+		BlockPairSpliterator(final int next, final int end) {
+			this.next = next;
+			this.end = end;
+		}
+
+		@Override
+		public boolean advance() {
+			try {
+				while (true) {
+					while (this.remaining == 0) {
+						if (this.next == this.end) {
+							this.key = null;
+							this.value = null;
+							return false;
+						}
+						openBlock(this.next++);
+					}
+					this.remaining--;
+					this.key = BlockFile.this.keySerializer.read(this.input);
+					this.value = BlockFile.this.valueSerializer.read(this.input);
+					if (!this.filter || BlockFile.this.range.contains(this.key)) {
+						return true;
+					}
+				}
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public K key() {
+			return this.key;
+		}
+
+		@Override
+		public V value() {
+			return this.value;
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			if (!advance()) {
+				return false;
+			}
+			action.accept(this.key, this.value);
+			return true;
+		}
+
+		@Override
+		public BiCursor<K, V> cursor() {
+			return this;
+		}
+
+		private void openBlock(final int block) {
+			final ByteBuffer buffer = BlockFile.this.chunks[block].duplicate();
+			final int position = BlockFile.this.positions[block];
+			((Buffer) buffer).limit(position + BlockFile.this.lengths[block]).position(position);
+			this.input = new ByteBufferDataInput(buffer);
+			this.remaining = (int) (BlockFile.this.cumulativeCounts[block + 1] - BlockFile.this.cumulativeCounts[block]);
+			this.filter = BlockFile.this.filtered[block];
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			// The prefix can't include the rest of the current block
+			if (this.remaining > 0 || this.end - this.next < 2) {
+				return null;
+			}
+			final int middle = this.next + this.end >>> 1;
+			final PairSpliterator<K, V> prefix = new BlockPairSpliterator(this.next, middle);
+			this.next = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return BlockFile.this.cumulativeCounts[this.end] - BlockFile.this.cumulativeCounts[this.next] + this.remaining;
+		}
+
+		@Override
+		public int characteristics() {
+			final int characteristics = Spliterator.ORDERED | Spliterator.IMMUTABLE;
+			return BlockFile.this.range == null ? characteristics | Spliterator.SIZED | Spliterator.SUBSIZED : characteristics;
+		}
+	}
+
+	/**
+	 * Writes pairs to a block file. If it has a comparator, the least and greatest key of each block is written to the index, so that
+	 * blocks can be skipped when reading a range of keys.
+	 */
+	static final class Writer<K, V> implements BiConsumer<K, V>, Closeable {
+		private final Serializer<K> keySerializer;
+		private final Serializer<V> valueSerializer;
+		private final Comparator<? super K> comparator;
+		private final DataOutputStream output;
+		private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + BLOCK_SIZE / 4);
+		private final DataOutputStream blockOutput = new DataOutputStream(this.block);
+		private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+		private final DataOutputStream index = new DataOutputStream(this.indexBytes);
+		private long position = HEADER_SIZE;
+		private int blocks;
+		private int count;
+		private K min;
+		private K max;
+
+		/**
+		 * @param comparator
+		 *            the order of the keys, or null to write no key ranges to the index
+		 */
+		Writer(final Path path, final Serializer<K> keySerializer, final Serializer<V> valueSerializer,
+				final Comparator<? super K> comparator) throws IOException {
+			this.keySerializer = keySerializer;
+			this.valueSerializer = valueSerializer;
+			this.comparator = comparator;
+			this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BLOCK_SIZE));
+			this.output.writeInt(MAGIC);
+			this.output.writeInt(VERSION);
+			this.output.writeInt(comparator != null ? FLAG_KEY_RANGES : 0);
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			try {
+				this.keySerializer.write(key, this.blockOutput);
+				this.valueSerializer.write(value, this.blockOutput);
+				if (this.comparator != null) {
+					if (this.count == 0 || this.comparator.compare(key, this.min) < 0) {
+						this.min = key;
+					}
+					if (this.count == 0 || this.comparator.compare(key, this.max) > 0) {
+						this.max = key;
+					}
+				}
+				this.count++;
+				if (this.block.size() >= BLOCK_SIZE) {
+					writeBlock();
+				}
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			if (this.count == 0) {
+				return;
+			}
+			this.index.writeLong(this.position);
+			this.index.writeInt(this.block.size());
+			this.index.writeInt(this.count);
+			if (this.comparator != null) {
+				this.keySerializer.write(this.min, this.index);
+				this.keySerializer.write(this.max, this.index);
+				this.min = null;
+				this.max = null;
+			}
+			this.block.writeTo(this.output);
+			this.position += this.block.size();
+			this.block.reset();
+			this.blocks++;
+			this.count = 0;
+		}
+
+		/** Write the last block, the index and the trailer, and close the file */
+		@Override
+		public void close() throws IOException {
+			try {
+				writeBlock();
+				this.indexBytes.writeTo(this.output);
+				this.output.writeLong(this.position);
+				this.output.writeInt(this.blocks);
+				this.output.writeInt(MAGIC);
+			} finally {
+				this.output.close();
+			}
+		}
+	}
+}
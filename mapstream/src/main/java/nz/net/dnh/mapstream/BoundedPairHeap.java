@@ -0,0 +1,136 @@
+package nz.net.dnh.mapstream;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the first {@code limit} key-value pairs pushed into it, in the order given by a comparator of their keys or values, using a binary
+ * heap bounded by the limit. Ties are broken by encounter order, so the result is the same as a stable sort followed by a limit, but takes
+ * O(limit) memory and O(n log limit) time.
+ */
+final class BoundedPairHeap<K, V> implements PairTask.Sink<K, V, BoundedPairHeap<K, V>> {
+	private final int limit;
+	private final Comparator<Object> comparator;
+	/** Whether the comparator compares keys; otherwise it compares values */
+	private final boolean byKey;
+	/** The heap, in parallel arrays; the root is the pair which is last in order, i.e. the next to be dropped */
+	private Object[] keys;
+	private Object[] values;
+	/** The encounter index of each pair, to break ties */
+	private long[] sequence;
+	private int size;
+	/** The number of pairs pushed into this heap, including those dropped */
+	private long count;
+
+	@SuppressWarnings("unchecked")
+	BoundedPairHeap(final int limit, final Comparator<?> comparator, final boolean byKey) {
+		this.limit = limit;
+		this.comparator = (Comparator<Object>) comparator;
+		this.byKey = byKey;
+		final int capacity = Math.min(limit, 16);
+		this.keys = new Object[capacity];
+		this.values = new Object[capacity];
+		this.sequence = new long[capacity];
+	}
+
+	@Override
+	public void accept(final K key, final V value) {
+		offer(key, value, this.count++);
+	}
+
+	@Override
+	public BoundedPairHeap<K, V> get() {
+		return this;
+	}
+
+	/** Merge the pairs from {@code right}, which were encountered after all of the pairs pushed into {@code left}, into {@code left} */
+	static <K, V> BoundedPairHeap<K, V> merge(final BoundedPairHeap<K, V> left, final BoundedPairHeap<K, V> right) {
+		for (int i = 0; i < right.size; i++) {
+			left.offer(right.keys[i], right.values[i], left.count + right.sequence[i]);
+		}
+		left.count += right.count;
+		return left;
+	}
+
+	/**
+	 * Sort the retained pairs and return a spliterator over them; the heap can't be used afterwards
+	 * 
+	 * @param characteristics
+	 *            additional characteristics of the spliterator
+	 */
+	PairSpliterator<K, V> spliterator(final int characteristics) {
+		for (int end = this.size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+		return PairSpliterator.ofArrays(this.keys, this.values, 0, this.size, characteristics);
+	}
+
+	private void offer(final Object key, final Object value, final long sequence) {
+		if (this.size < this.limit) {
+			if (this.size == this.keys.length) {
+				final int capacity = (int) Math.min(this.limit, this.size * 2L);
+				this.keys = Arrays.copyOf(this.keys, capacity);
+				this.values = Arrays.copyOf(this.values, capacity);
+				this.sequence = Arrays.copyOf(this.sequence, capacity);
+			}
+			set(this.size, key, value, sequence);
+			siftUp(this.size++);
+		} else if (this.size > 0 && compare(key, value, sequence, 0) < 0) {
+			set(0, key, value, sequence);
+			siftDown(0, this.size);
+		}
+	}
+
+	private void set(final int index, final Object key, final Object value, final long sequence) {
+		this.keys[index] = key;
+		this.values[index] = value;
+		this.sequence[index] = sequence;
+	}
+
+	private int compare(final Object key, final Object value, final long sequence, final int index) {
+		final int comparison = this.byKey ? this.comparator.compare(key, this.keys[index]) : this.comparator.compare(value,
+				this.values[index]);
+		return comparison != 0 ? comparison : Long.compare(sequence, this.sequence[index]);
+	}
+
+	private int compare(final int i, final int j) {
+		return compare(this.keys[i], this.values[i], this.sequence[i], j);
+	}
+
+	private void siftUp(int index) {
+		while (index > 0) {
+			final int parent = index - 1 >>> 1;
+			if (compare(index, parent) <= 0) {
+				return;
+			}
+			swap(index, parent);
+			index = parent;
+		}
+	}
+
+	/** Restore the heap property below the given index, in the heap of the given size */
+	private void siftDown(int index, final int size) {
+		while (true) {
+			final int left = 2 * index + 1;
+			if (left >= size) {
+				return;
+			}
+			final int right = left + 1;
+			final int largest = right < size && compare(right, left) > 0 ? right : left;
+			if (compare(largest, index) <= 0) {
+				return;
+			}
+			swap(index, largest);
+			index = largest;
+		}
+	}
+
+	private void swap(final int i, final int j) {
+		final Object key = this.keys[i];
+		final Object value = this.values[i];
+		final long sequence = this.sequence[i];
+		set(i, this.keys[j], this.values[j], this.sequence[j]);
+		set(j, key, value, sequence);
+	}
+}
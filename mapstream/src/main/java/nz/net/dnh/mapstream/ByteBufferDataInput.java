@@ -0,0 +1,131 @@
+package nz.net.dnh.mapstream;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * A DataInput which reads from a ByteBuffer, e.g. a memory-mapped file, without copying it: each field is read with a single
+ * {@link ByteBuffer} get rather than byte by byte through an InputStream. The buffer must be big-endian, as {@link java.io.DataOutput}
+ * writes.
+ */
+final class ByteBufferDataInput implements DataInput {
+	private final ByteBuffer buffer;
+
+	ByteBufferDataInput(final ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/** Throw an EOFException, as DataInput requires, if fewer than {@code length} bytes remain */
+	private void require(final int length) throws EOFException {
+		if (this.buffer.remaining() < length) {
+			throw new EOFException();
+		}
+	}
+
+	@Override
+	public void readFully(final byte[] bytes) throws IOException {
+		readFully(bytes, 0, bytes.length);
+	}
+
+	@Override
+	public void readFully(final byte[] bytes, final int offset, final int length) throws IOException {
+		require(length);
+		this.buffer.get(bytes, offset, length);
+	}
+
+	@Override
+	public int skipBytes(final int n) {
+		final int skipped = Math.max(0, Math.min(n, this.buffer.remaining()));
+		// Cast to Buffer, whose position(int) exists on Java 8, unlike ByteBuffer's covariant override
+		((Buffer) this.buffer).position(this.buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	@Override
+	public byte readByte() throws IOException {
+		require(Byte.BYTES);
+		return this.buffer.get();
+	}
+
+	@Override
+	public int readUnsignedByte() throws IOException {
+		return readByte() & 0xff;
+	}
+
+	@Override
+	public short readShort() throws IOException {
+		require(Short.BYTES);
+		return this.buffer.getShort();
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException {
+		return readShort() & 0xffff;
+	}
+
+	@Override
+	public char readChar() throws IOException {
+		require(Character.BYTES);
+		return this.buffer.getChar();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+		require(Integer.BYTES);
+		return this.buffer.getInt();
+	}
+
+	@Override
+	public long readLong() throws IOException {
+		require(Long.BYTES);
+		return this.buffer.getLong();
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+		require(Float.BYTES);
+		return this.buffer.getFloat();
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+		require(Double.BYTES);
+		return this.buffer.getDouble();
+	}
+
+	/** Read a line terminated by a newline, a carriage return, or both, or the end of the buffer; null at the end of the buffer */
+	@Override
+	public String readLine() {
+		if (!this.buffer.hasRemaining()) {
+			return null;
+		}
+		final StringBuilder line = new StringBuilder();
+		while (this.buffer.hasRemaining()) {
+			final char c = (char) (this.buffer.get() & 0xff);
+			if (c == '\n') {
+				break;
+			} else if (c == '\r') {
+				if (this.buffer.hasRemaining() && this.buffer.get(this.buffer.position()) == '\n') {
+					this.buffer.get();
+				}
+				break;
+			}
+			line.append(c);
+		}
+		return line.toString();
+	}
+
+	@Override
+	public String readUTF() throws IOException {
+		return DataInputStream.readUTF(this);
+	}
+}
@@ -0,0 +1,185 @@
+package nz.net.dnh.mapstream;
+
+import static nz.net.dnh.mapstream.MapStreamHelpers.mix;
+import static nz.net.dnh.mapstream.MapStreamHelpers.tableSize;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+
+/**
+ * An immutable map which stores its keys and values in flat parallel arrays, in insertion order, indexed by an open-addressing table of
+ * array positions with linear probing. There are no entry objects, so the map retains a fraction of the memory of a
+ * {@link java.util.HashMap}, and iteration and splitting are over contiguous arrays. Null keys are permitted; null values are not.
+ * 
+ * @see EntryCollectors#toCompactMap()
+ */
+final class CompactMap<K, V> extends AbstractMap<K, V> {
+	private final Object[] keys;
+	private final Object[] values;
+	/** The position of each key in the arrays plus one, or zero for an empty slot */
+	private final int[] slots;
+	private Set<Entry<K, V>> entrySet;
+
+	private CompactMap(final Object[] keys, final Object[] values, final int[] slots) {
+		this.keys = keys;
+		this.values = values;
+		this.slots = slots;
+	}
+
+	@Override
+	public int size() {
+		return this.keys.length;
+	}
+
+	@Override
+	public boolean containsKey(final Object key) {
+		return this.slots[slotOf(this.keys, this.slots, key)] != 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(final Object key) {
+		final int index = this.slots[slotOf(this.keys, this.slots, key)] - 1;
+		return index < 0 ? null : (V) this.values[index];
+	}
+
+	@Override
+	public V getOrDefault(final Object key, final V defaultValue) {
+		final V value = get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void forEach(final BiConsumer<? super K, ? super V> action) {
+		for (int i = 0; i < this.keys.length; i++) {
+			action.accept((K) this.keys[i], (V) this.values[i]);
+		}
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		if (this.entrySet == null) {
+			this.entrySet = new AbstractSet<Entry<K, V>>() {
+				@Override
+				public int size() {
+					return CompactMap.this.size();
+				}
+
+				@Override
+				public boolean contains(final Object o) {
+					if (!(o instanceof Entry)) {
+						return false;
+					}
+					final Entry<?, ?> entry = (Entry<?, ?>) o;
+					final int index = CompactMap.this.slots[slotOf(CompactMap.this.keys, CompactMap.this.slots, entry.getKey())] - 1;
+					return index >= 0 && CompactMap.this.values[index].equals(entry.getValue());
+				}
+
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					return Spliterators.iterator(spliterator());
+				}
+
+				@Override
+				public Spliterator<Entry<K, V>> spliterator() {
+					return PairSpliterator.toEntries(pairSpliterator());
+				}
+			};
+		}
+		return this.entrySet;
+	}
+
+	/** @return a spliterator over the keys and values of this map, which splits the arrays in half */
+	PairSpliterator<K, V> pairSpliterator() {
+		return PairSpliterator.ofArrays(this.keys, this.values, 0, this.keys.length, Spliterator.DISTINCT | Spliterator.IMMUTABLE);
+	}
+
+	/** @return the slot containing the given key, or an empty slot if the key is not present */
+	private static int slotOf(final Object[] keys, final int[] slots, final Object key) {
+		final int mask = slots.length - 1;
+		int slot = mix(Objects.hashCode(key)) & mask;
+		while (slots[slot] != 0 && !Objects.equals(keys[slots[slot] - 1], key)) {
+			slot = slot + 1 & mask;
+		}
+		return slot;
+	}
+
+	/** Accumulates the entries of a {@link CompactMap}; used as the accumulation type of its collector */
+	static final class Builder<K, V> {
+		/** Merges the values for duplicate keys; null to throw an {@link IllegalStateException} for duplicate keys */
+		private final BinaryOperator<V> mergeFunction;
+		private Object[] keys;
+		private Object[] values;
+		private int[] slots;
+		private int size;
+
+		Builder(final BinaryOperator<V> mergeFunction) {
+			this.mergeFunction = mergeFunction;
+			this.keys = new Object[8];
+			this.values = new Object[8];
+			this.slots = new int[tableSize(8)];
+		}
+
+		@SuppressWarnings("unchecked")
+		void put(final K key, final V value) {
+			Objects.requireNonNull(value);
+			final int slot = slotOf(this.keys, this.slots, key);
+			final int index = this.slots[slot] - 1;
+			if (index >= 0) {
+				if (this.mergeFunction == null) {
+					throw new IllegalStateException(String.format("Duplicate key %s (attempted merging values %s and %s)", key,
+							this.values[index], value));
+				}
+				this.values[index] = Objects.requireNonNull(this.mergeFunction.apply((V) this.values[index], value));
+				return;
+			}
+			if (this.size == this.keys.length) {
+				this.keys = Arrays.copyOf(this.keys, this.size * 2);
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			this.keys[this.size] = key;
+			this.values[this.size] = value;
+			this.slots[slot] = ++this.size;
+			if (this.size > this.slots.length / 2) {
+				resize();
+			}
+		}
+
+		/** Put the entries from the given builder, which were encountered after those in this builder */
+		@SuppressWarnings("unchecked")
+		Builder<K, V> putAll(final Builder<K, V> other) {
+			for (int i = 0; i < other.size; i++) {
+				put((K) other.keys[i], (V) other.values[i]);
+			}
+			return this;
+		}
+
+		/** @return a map of the entries in this builder; the builder must not be used afterwards */
+		CompactMap<K, V> build() {
+			// The slot table refers to positions in the arrays, which don't change when they are trimmed
+			return new CompactMap<>(Arrays.copyOf(this.keys, this.size), Arrays.copyOf(this.values, this.size), this.slots);
+		}
+
+		private void resize() {
+			final int[] slots = new int[this.slots.length * 2];
+			final int mask = slots.length - 1;
+			for (int i = 0; i < this.size; i++) {
+				int slot = mix(Objects.hashCode(this.keys[i])) & mask;
+				while (slots[slot] != 0) {
+					slot = slot + 1 & mask;
+				}
+				slots[slot] = i + 1;
+			}
+			this.slots = slots;
+		}
+	}
+}
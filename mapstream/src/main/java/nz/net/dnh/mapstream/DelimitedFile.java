@@ -0,0 +1,206 @@
+package nz.net.dnh.mapstream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+
+/**
+ * A text file of lines of a key and a value separated by a delimiter, e.g. tab-separated values, read by
+ * {@link MapStream#ofDelimitedFile(Path, byte, FieldParser, FieldParser)}.
+ * <p>
+ * The file is read through memory-mapped buffers, in chunks which end at line boundaries, and keys and values are parsed directly from
+ * the bytes of each line. Its spliterator splits a range of bytes at the first line boundary after the middle of the range, so it splits
+ * as evenly as a spliterator over an array.
+ */
+final class DelimitedFile<K, V> {
+	/** The maximum size of a mapped buffer */
+	private static final int MAX_CHUNK_SIZE = 1 << 30;
+	/** A guess at the length of a line, to estimate the number of pairs in a range of bytes */
+	private static final int ESTIMATED_LINE_LENGTH = 32;
+
+	private final byte delimiter;
+	private final FieldParser<K> keyParser;
+	private final FieldParser<V> valueParser;
+	/** The mapped buffers, the offset of each in the file, and the number of bytes of whole lines in each */
+	private final ByteBuffer[] chunks;
+	private final long[] offsets;
+	private final int[] limits;
+
+	private DelimitedFile(final byte delimiter, final FieldParser<K> keyParser, final FieldParser<V> valueParser,
+			final ByteBuffer[] chunks, final long[] offsets, final int[] limits) {
+		this.delimiter = delimiter;
+		this.keyParser = keyParser;
+		this.valueParser = valueParser;
+		this.chunks = chunks;
+		this.offsets = offsets;
+		this.limits = limits;
+	}
+
+	/** Open a delimited file, mapping it in chunks which end at line boundaries */
+	static <K, V> DelimitedFile<K, V> open(final Path path, final byte delimiter, final FieldParser<K> keyParser,
+			final FieldParser<V> valueParser) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final List<ByteBuffer> chunks = new ArrayList<>();
+			final List<Long> offsets = new ArrayList<>();
+			final List<Integer> limits = new ArrayList<>();
+			for (long offset = 0; offset < size;) {
+				// The mappings remain valid after the channel is closed
+				final ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAX_CHUNK_SIZE, size - offset));
+				int limit = chunk.capacity();
+				if (offset + limit < size) {
+					while (limit > 0 && chunk.get(limit - 1) != '\n') {
+						limit--;
+					}
+					if (limit == 0) {
+						throw new IOException("Line longer than " + MAX_CHUNK_SIZE + " bytes at offset " + offset + " of " + path);
+					}
+				}
+				chunks.add(chunk);
+				offsets.add(offset);
+				limits.add(limit);
+				offset += limit;
+			}
+			return new DelimitedFile<>(delimiter, keyParser, valueParser, chunks.toArray(new ByteBuffer[chunks.size()]), offsets.stream()
+					.mapToLong(Long::longValue).toArray(), limits.stream().mapToInt(Integer::intValue).toArray());
+		}
+	}
+
+	/** @return a spliterator over the pairs parsed from the lines of the file */
+	PairSpliterator<K, V> spliterator() {
+		return new LinePairSpliterator(0, this.chunks.length, 0, this.chunks.length == 0 ? 0 : this.limits[this.chunks.length - 1]);
+	}
+
+	/** Parse a decimal long, accumulating it negatively so that {@link Long#MIN_VALUE} can be parsed */
+	static long parseLong(final ByteBuffer buffer, final int from, final int to) {
+		int i = from;
+		final boolean negative = i < to && buffer.get(i) == '-';
+		if (i < to && (negative || buffer.get(i) == '+')) {
+			i++;
+		}
+		if (i == to) {
+			throw new NumberFormatException("Not a number: \"" + FieldParser.ofStrings().parse(buffer, from, to) + "\"");
+		}
+		long value = 0;
+		for (; i < to; i++) {
+			final int digit = buffer.get(i) - '0';
+			if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+				throw new NumberFormatException("Not a long: \"" + FieldParser.ofStrings().parse(buffer, from, to) + "\"");
+			}
+			value = value * 10 - digit;
+		}
+		if (!negative) {
+			if (value == Long.MIN_VALUE) {
+				throw new NumberFormatException("Not a long: \"" + FieldParser.ofStrings().parse(buffer, from, to) + "\"");
+			}
+			return -value;
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the lines from {@code position} in chunk {@code chunk} to {@code lastEnd} in chunk {@code endChunk - 1}. Empty lines are
+	 * skipped, and a carriage return before a line feed is ignored.
+	 */
+	private final class LinePairSpliterator implements PairSpliterator<K, V> {
+		private int chunk;
+		private final int endChunk;
+		private int position;
+		private final int lastEnd;
+
+		LinePairSpliterator(final int chunk, final int endChunk, final int position, final int lastEnd) {
+			this.chunk = chunk;
+			this.endChunk = endChunk;
+			this.position = position;
+			this.lastEnd = lastEnd;
+		}
+
+		/** @return the end of the bytes to read in the current chunk */
+		private int end() {
+			return this.chunk == this.endChunk - 1 ? this.lastEnd : DelimitedFile.this.limits[this.chunk];
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			while (this.chunk < this.endChunk) {
+				final ByteBuffer buffer = DelimitedFile.this.chunks[this.chunk];
+				final int end = end();
+				while (this.position < end) {
+					final int start = this.position;
+					int lineEnd = start;
+					int delimiterIndex = -1;
+					for (byte b; lineEnd < end && (b = buffer.get(lineEnd)) != '\n'; lineEnd++) {
+						if (b == DelimitedFile.this.delimiter && delimiterIndex < 0) {
+							delimiterIndex = lineEnd;
+						}
+					}
+					this.position = lineEnd + 1;
+					if (lineEnd > start && buffer.get(lineEnd - 1) == '\r') {
+						lineEnd--;
+					}
+					if (lineEnd == start) {
+						continue;
+					}
+					if (delimiterIndex < 0 || delimiterIndex >= lineEnd) {
+						throw new IllegalArgumentException("No delimiter in line at offset " + (DelimitedFile.this.offsets[this.chunk] + start));
+					}
+					action.accept(DelimitedFile.this.keyParser.parse(buffer, start, delimiterIndex), DelimitedFile.this.valueParser.parse(
+							buffer, delimiterIndex + 1, lineEnd));
+					return true;
+				}
+				this.chunk++;
+				this.position = 0;
+			}
+			return false;
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			if (this.endChunk - this.chunk > 1) {
+				// Split off the first half of the chunks
+				final int middle = this.chunk + 1 + this.endChunk >>> 1;
+				final PairSpliterator<K, V> prefix = new LinePairSpliterator(this.chunk, middle, this.position,
+						DelimitedFile.this.limits[middle - 1]);
+				this.chunk = middle;
+				this.position = 0;
+				return prefix;
+			}
+			if (this.chunk == this.endChunk) {
+				return null;
+			}
+			// Split the bytes of the chunk after the first line feed after the middle
+			final ByteBuffer buffer = DelimitedFile.this.chunks[this.chunk];
+			int split = this.position + this.lastEnd >>> 1;
+			while (split < this.lastEnd && buffer.get(split) != '\n') {
+				split++;
+			}
+			split++;
+			if (split >= this.lastEnd) {
+				return null;
+			}
+			final PairSpliterator<K, V> prefix = new LinePairSpliterator(this.chunk, this.chunk + 1, this.position, split);
+			this.position = split;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			long bytes = 0;
+			for (int c = this.chunk; c < this.endChunk; c++) {
+				bytes += (c == this.endChunk - 1 ? this.lastEnd : DelimitedFile.this.limits[c]) - (c == this.chunk ? this.position : 0);
+			}
+			return (bytes + ESTIMATED_LINE_LENGTH - 1) / ESTIMATED_LINE_LENGTH;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.IMMUTABLE;
+		}
+	}
+}
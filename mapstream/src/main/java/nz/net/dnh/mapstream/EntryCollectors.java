@@ -0,0 +1,341 @@
+package nz.net.dnh.mapstream;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+/**
+ * Helper {@link Collector Collectors} for use with map entries
+ * <p>
+ * The map collectors which create their own maps can be presized for an expected number of entries, to avoid rehashing as the map grows.
+ * When the size of a {@link MapStream} returned by the {@code MapStream.of} methods is known (e.g. {@code MapStream.of(map).mapValues(f)}
+ * ), {@link MapStream#collect(Collector)} passes it to these collectors automatically.
+ */
+public class EntryCollectors {
+	/**
+	 * Return a {@link Collector} that accumulates elements from a {@link MapStream} into a {@link Map} whose keys and values are equal to
+	 * the keys and values from the {@link MapStream}.
+	 * <p>
+	 * If the keys have duplicates, an {@link IllegalStateException} is thrown when the collection operation is performed.
+	 * 
+	 * @see MapStream#collect(Collector)
+	 * @see Collectors#toMap(java.util.function.Function, java.util.function.Function)
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, Map<K, V>> toMap() {
+		return new MapCollector<>(EntryCollectors::newHashMap, null, false, -1);
+	}
+
+	/**
+	 * Return a {@link Collector} like {@link #toMap()}, whose map is presized to hold the given number of entries without rehashing
+	 * 
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, Map<K, V>> toMapWithExpectedSize(final int expectedSize) {
+		return new MapCollector<>(EntryCollectors::newHashMap, null, false, expectedSize);
+	}
+
+	/**
+	 * Return a {@link Collector} that accumulates elements from a {@link MapStream} into a {@link Map} whose keys and values are equal to
+	 * the keys and values from the {@link MapStream}.
+	 * <p>
+	 * If the keys have duplicates, the given {@link BinaryOperator} is called to merge the values into a single value.
+	 * 
+	 * @param mergeFunction
+	 *            a merge function, used to resolve collisions between values associated with the same key, as supplied to
+	 *            {@link Map#merge(Object, Object, java.util.function.BiFunction)}
+	 * @see MapStream#collect(Collector)
+	 * @see Collectors#toMap(java.util.function.Function, java.util.function.Function, BinaryOperator)
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, Map<K, V>> toMap(final BinaryOperator<V> mergeFunction) {
+		return new MapCollector<>(EntryCollectors::newHashMap, Objects.requireNonNull(mergeFunction), false, -1);
+	}
+
+	/**
+	 * Return a {@link Collector} like {@link #toMap(BinaryOperator)}, whose map is presized to hold the given number of entries without
+	 * rehashing
+	 * 
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, Map<K, V>> toMapWithExpectedSize(final BinaryOperator<V> mergeFunction,
+			final int expectedSize) {
+		return new MapCollector<>(EntryCollectors::newHashMap, Objects.requireNonNull(mergeFunction), false, expectedSize);
+	}
+
+	/**
+	 * Return a {@link Collector} that accumulates elements from a {@link MapStream} into a {@link Map} whose keys and values are equal to
+	 * the keys and values from the {@link MapStream}.
+	 * <p>
+	 * The map is constructed by the given {@link Supplier}, e.g. {@code TreeMap::new}
+	 * <p>
+	 * If the keys have duplicates, the given {@link BinaryOperator} is called to merge the values into a single value.
+	 * 
+	 * @param mergeFunction
+	 *            a merge function, used to resolve collisions between values associated with the same key, as supplied to
+	 *            {@link Map#merge(Object, Object, java.util.function.BiFunction)}
+	 * @param mapSupplier
+	 *            a function which returns a new, empty Map into which the results will be inserted
+	 * @see MapStream#collect(Collector)
+	 * @see Collectors#toMap(java.util.function.Function, java.util.function.Function, BinaryOperator, Supplier)
+	 */
+	public static <K, V, M extends Map<K, V>> Collector<Entry<K, V>, ?, M> toMap(final BinaryOperator<V> mergeFunction,
+			final Supplier<M> mapSupplier) {
+		return Collectors.toMap(Entry::getKey, Entry::getValue, mergeFunction, mapSupplier);
+	}
+
+	/**
+	 * Return a concurrent {@link Collector} that accumulates elements from a {@link MapStream} into a {@link ConcurrentMap} whose keys and
+	 * values are equal to the keys and values from the {@link MapStream}.
+	 * <p>
+	 * The collector is {@link Collector.Characteristics#CONCURRENT CONCURRENT} and {@link Collector.Characteristics#UNORDERED UNORDERED},
+	 * so a parallel collection accumulates into a single shared map rather than merging a map per thread.
+	 * <p>
+	 * If the keys have duplicates, an {@link IllegalStateException} is thrown when the collection operation is performed.
+	 * 
+	 * @see MapStream#collect(Collector)
+	 * @see Collectors#toConcurrentMap(java.util.function.Function, java.util.function.Function)
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, ConcurrentMap<K, V>> toConcurrentMap() {
+		return new MapCollector<>(EntryCollectors::newConcurrentHashMap, null, true, -1);
+	}
+
+	/**
+	 * Return a {@link Collector} like {@link #toConcurrentMap()}, whose map is presized to hold the given number of entries without
+	 * rehashing
+	 * 
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, ConcurrentMap<K, V>> toConcurrentMapWithExpectedSize(final int expectedSize) {
+		return new MapCollector<>(EntryCollectors::newConcurrentHashMap, null, true, expectedSize);
+	}
+
+	/**
+	 * Return a concurrent {@link Collector} like {@link #toConcurrentMap()}; if the keys have duplicates, the given {@link BinaryOperator}
+	 * is called to merge the values into a single value.
+	 * 
+	 * @param mergeFunction
+	 *            a merge function, used to resolve collisions between values associated with the same key, as supplied to
+	 *            {@link Map#merge(Object, Object, java.util.function.BiFunction)}
+	 * @see MapStream#collect(Collector)
+	 * @see Collectors#toConcurrentMap(java.util.function.Function, java.util.function.Function, BinaryOperator)
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, ConcurrentMap<K, V>> toConcurrentMap(final BinaryOperator<V> mergeFunction) {
+		return new MapCollector<>(EntryCollectors::newConcurrentHashMap, Objects.requireNonNull(mergeFunction), true, -1);
+	}
+
+	/**
+	 * Return a {@link Collector} like {@link #toConcurrentMap(BinaryOperator)}, whose map is presized to hold the given number of entries
+	 * without rehashing
+	 * 
+	 * @param expectedSize
+	 *            the expected number of entries
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, ConcurrentMap<K, V>> toConcurrentMapWithExpectedSize(
+			final BinaryOperator<V> mergeFunction, final int expectedSize) {
+		return new MapCollector<>(EntryCollectors::newConcurrentHashMap, Objects.requireNonNull(mergeFunction), true, expectedSize);
+	}
+
+	/**
+	 * Return a concurrent {@link Collector} like {@link #toConcurrentMap(BinaryOperator)}, whose map is constructed by the given
+	 * {@link Supplier}, e.g. {@code ConcurrentSkipListMap::new}
+	 * 
+	 * @param mergeFunction
+	 *            a merge function, used to resolve collisions between values associated with the same key, as supplied to
+	 *            {@link Map#merge(Object, Object, java.util.function.BiFunction)}
+	 * @param mapSupplier
+	 *            a function which returns a new, empty ConcurrentMap into which the results will be inserted
+	 * @see MapStream#collect(Collector)
+	 * @see Collectors#toConcurrentMap(java.util.function.Function, java.util.function.Function, BinaryOperator, Supplier)
+	 */
+	public static <K, V, M extends ConcurrentMap<K, V>> Collector<Entry<K, V>, ?, M> toConcurrentMap(
+			final BinaryOperator<V> mergeFunction, final Supplier<M> mapSupplier) {
+		return Collectors.toConcurrentMap(Entry::getKey, Entry::getValue, mergeFunction, mapSupplier);
+	}
+
+	/**
+	 * Return a {@link Collector} that accumulates elements from a {@link MapStream} into an immutable {@link Map} whose keys and values are
+	 * equal to the keys and values from the {@link MapStream}.
+	 * <p>
+	 * The map stores its keys and values in flat arrays, indexed by an open-addressing hash table, rather than in an entry object per key.
+	 * This makes it much smaller than a {@link HashMap} and faster to iterate, so it is suited to large lookup tables which are kept for a
+	 * long time. Its iteration order is the encounter order of the keys. Null values are not permitted. A {@link MapStream} of the map (from
+	 * {@link MapStream#of(Map)}) reads the arrays directly.
+	 * <p>
+	 * If the keys have duplicates, an {@link IllegalStateException} is thrown when the collection operation is performed.
+	 * 
+	 * @see MapStream#collect(Collector)
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, Map<K, V>> toCompactMap() {
+		return compactMapCollector(null);
+	}
+
+	/**
+	 * Return a {@link Collector} like {@link #toCompactMap()}; if the keys have duplicates, the given {@link BinaryOperator} is called to
+	 * merge the values into a single value.
+	 * 
+	 * @param mergeFunction
+	 *            a merge function, used to resolve collisions between values associated with the same key, as supplied to
+	 *            {@link Map#merge(Object, Object, java.util.function.BiFunction)}
+	 * @see MapStream#collect(Collector)
+	 */
+	public static <K, V> Collector<Entry<K, V>, ?, Map<K, V>> toCompactMap(final BinaryOperator<V> mergeFunction) {
+		return compactMapCollector(Objects.requireNonNull(mergeFunction));
+	}
+
+	private static <K, V> Collector<Entry<K, V>, ?, Map<K, V>> compactMapCollector(final BinaryOperator<V> mergeFunction) {
+		return Collector.<Entry<K, V>, CompactMap.Builder<K, V>, Map<K, V>> of(() -> new CompactMap.Builder<>(mergeFunction), (b, e) -> b
+				.put(e.getKey(), e.getValue()), CompactMap.Builder::putAll, CompactMap.Builder::build);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            supplies the expected number of entries, or -1 if unknown; only called if the collector supports presizing
+	 * @return a collector which is equivalent to the given collector, but presized for the expected number of entries if the collector
+	 *         supports presizing and wasn't created with an expected size
+	 */
+	static <T, A, R> Collector<T, A, R> withExpectedSize(final Collector<T, A, R> collector, final LongSupplier expectedSize) {
+		if (collector instanceof MapCollector) {
+			final long size = expectedSize.getAsLong();
+			if (size >= 0 && size <= Integer.MAX_VALUE) {
+				return ((MapCollector<T, A, R>) collector).withExpectedSize((int) size);
+			}
+		}
+		return collector;
+	}
+
+	/**
+	 * @return a copy of the given map made by the given collector without traversing its entries, if the collector is one of the
+	 *         {@code toMap} or {@code toConcurrentMap} collectors and it would accept the map's entries; otherwise null
+	 */
+	@SuppressWarnings("unchecked")
+	static <R> R copyOf(final Collector<?, ?, R> collector, final Map<?, ?> map) {
+		return collector instanceof MapCollector ? ((MapCollector<?, ?, R>) collector).copyOf(map) : null;
+	}
+
+	/** @return a HashMap which can hold the given number of entries without rehashing, or the default HashMap if the size is unknown */
+	private static <K, V> Map<K, V> newHashMap(final int expectedSize) {
+		return expectedSize < 0 ? new HashMap<>() : new HashMap<>((int) Math.min(expectedSize / 0.75 + 1, Integer.MAX_VALUE));
+	}
+
+	/** @return a ConcurrentHashMap which can hold the given number of entries without resizing, or the default size if it is unknown */
+	private static <K, V> ConcurrentMap<K, V> newConcurrentHashMap(final int expectedSize) {
+		return expectedSize < 0 ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(expectedSize);
+	}
+
+	/**
+	 * Collects entries into a map created for an expected size; like the collectors from {@link Collectors#toMap}, but the size can be
+	 * supplied after the collector is created
+	 * 
+	 * @param <T>
+	 *            the type of the entries; always {@code Entry<K, V>} for a map of {@code K} to {@code V}
+	 * @param <M>
+	 *            the type of the map; the accumulation and result type
+	 */
+	private static final class MapCollector<T, A, M> implements Collector<T, A, M> {
+		private static final Set<Characteristics> CHARACTERISTICS = Collections.unmodifiableSet(EnumSet.of(
+				Characteristics.IDENTITY_FINISH));
+		private static final Set<Characteristics> CONCURRENT_CHARACTERISTICS = Collections.unmodifiableSet(EnumSet.of(
+				Characteristics.IDENTITY_FINISH, Characteristics.CONCURRENT, Characteristics.UNORDERED));
+
+		/** Creates the map given the expected size, which is -1 if unknown */
+		private final IntFunction<? extends Map<?, ?>> mapFactory;
+		/** Merges the values for duplicate keys; null to throw an {@link IllegalStateException} for duplicate keys */
+		private final BinaryOperator<?> mergeFunction;
+		private final boolean concurrent;
+		private final int expectedSize;
+
+		MapCollector(final IntFunction<? extends Map<?, ?>> mapFactory, final BinaryOperator<?> mergeFunction, final boolean concurrent,
+				final int expectedSize) {
+			this.mapFactory = mapFactory;
+			this.mergeFunction = mergeFunction;
+			this.concurrent = concurrent;
+			this.expectedSize = expectedSize;
+		}
+
+		/** @return this collector if it has an expected size, otherwise a copy of this collector with the given expected size */
+		MapCollector<T, A, M> withExpectedSize(final int expectedSize) {
+			return this.expectedSize >= 0 ? this : new MapCollector<>(this.mapFactory, this.mergeFunction, this.concurrent, expectedSize);
+		}
+
+		/**
+		 * @return a map of this collector's type containing the entries of the given map, whose keys are distinct so never need merging, or
+		 *         null if the given map has a null value, which this collector rejects
+		 */
+		@SuppressWarnings("unchecked")
+		M copyOf(final Map<?, ?> source) {
+			try {
+				if (source.containsValue(null)) {
+					return null;
+				}
+			} catch (final NullPointerException e) {
+				// The map doesn't permit null values
+			}
+			final Map<Object, Object> map = (Map<Object, Object>) this.mapFactory.apply(this.expectedSize >= 0 ? this.expectedSize : source
+					.size());
+			map.putAll(source);
+			return (M) map;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Supplier<A> supplier() {
+			return () -> (A) this.mapFactory.apply(this.expectedSize);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public BiConsumer<A, T> accumulator() {
+			return (map, entry) -> put((Map<Object, Object>) map, (Entry<?, ?>) entry);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public BinaryOperator<A> combiner() {
+			return (left, right) -> {
+				((Map<Object, Object>) right).entrySet().forEach(e -> put((Map<Object, Object>) left, e));
+				return left;
+			};
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Function<A, M> finisher() {
+			return map -> (M) map;
+		}
+
+		@Override
+		public Set<Characteristics> characteristics() {
+			return this.concurrent ? CONCURRENT_CHARACTERISTICS : CHARACTERISTICS;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void put(final Map<Object, Object> map, final Entry<?, ?> entry) {
+			final Object value = Objects.requireNonNull(entry.getValue());
+			if (this.mergeFunction == null) {
+				final Object existing = map.putIfAbsent(entry.getKey(), value);
+				if (existing != null) {
+					throw new IllegalStateException(String.format("Duplicate key %s (attempted merging values %s and %s)", entry.getKey(),
+							existing, value));
+				}
+			} else {
+				map.merge(entry.getKey(), value, (BinaryOperator<Object>) this.mergeFunction);
+			}
+		}
+	}
+}
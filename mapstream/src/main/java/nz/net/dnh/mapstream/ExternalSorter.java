@@ -0,0 +1,362 @@
+package nz.net.dnh.mapstream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+
+/**
+ * Sorts the pairs pushed into it by key, keeping at most a memory budget of pairs on the heap. Pairs are serialized as they arrive, and
+ * their serialized size plus a fixed overhead per pair is counted against the budget. When the budget is exceeded the buffered pairs are
+ * sorted and written to a temporary file as a run; {@link #spliterator()} then merges the runs, read through memory-mapped buffers, with
+ * the pairs still buffered, deleting each run file once it has been read. The sort is stable: runs are merged in the order they were
+ * written, so pairs with equal keys remain in the order they were pushed.
+ */
+final class ExternalSorter<K, V> implements BiConsumer<K, V> {
+	/** The estimated heap size of a buffered pair beyond its serialized size: its array slots and the headers of its key and value */
+	private static final int PAIR_OVERHEAD = 48;
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private final Comparator<? super K> comparator;
+	private final Serializer<K> keySerializer;
+	private final Serializer<V> valueSerializer;
+	/** The memory budget, capped so the serialized pairs of a run fit in an array and a single mapped buffer */
+	private final long memoryBudget;
+	private final List<Path> runFiles = new ArrayList<>();
+	private final RunBuffer bytes = new RunBuffer();
+	private final DataOutputStream output = new DataOutputStream(this.bytes);
+	private Object[] keys = new Object[16];
+	private Object[] values = new Object[16];
+	/** The offset of each buffered pair in {@link #bytes} */
+	private int[] offsets = new int[16];
+	private int size;
+	/** The number of pairs pushed into this sorter, including those written to runs */
+	private long count;
+
+	ExternalSorter(final Comparator<? super K> comparator, final Serializer<K> keySerializer, final Serializer<V> valueSerializer,
+			final long memoryBudget) {
+		this.comparator = comparator;
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		this.memoryBudget = Math.min(memoryBudget, Integer.MAX_VALUE - 8);
+	}
+
+	@Override
+	public void accept(final K key, final V value) {
+		if (this.size == this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, this.size * 2);
+			this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+		}
+		this.offsets[this.size] = this.bytes.size();
+		try {
+			this.keySerializer.write(key, this.output);
+			this.valueSerializer.write(value, this.output);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.keys[this.size] = key;
+		this.values[this.size] = value;
+		this.size++;
+		this.count++;
+		if (this.bytes.size() + (long) this.size * PAIR_OVERHEAD > this.memoryBudget) {
+			spill();
+		}
+	}
+
+	/** @return the number of runs written to temporary files */
+	int runCount() {
+		return this.runFiles.size();
+	}
+
+	/**
+	 * @return a spliterator over all of the pairs pushed into this sorter, sorted by key; it is only splittable if no runs were written to
+	 *         files
+	 */
+	PairSpliterator<K, V> spliterator() {
+		final int[] order = sortedOrder();
+		if (this.runFiles.isEmpty()) {
+			final Object[] sortedKeys = new Object[this.size];
+			final Object[] sortedValues = new Object[this.size];
+			for (int i = 0; i < this.size; i++) {
+				sortedKeys[i] = this.keys[order[i]];
+				sortedValues[i] = this.values[order[i]];
+			}
+			return new MapStreamPipeline.KeyCharacteristicsPairSpliterator<>(PairSpliterator.ofArrays(sortedKeys, sortedValues, 0, this.size,
+					0), Spliterator.SORTED, this.comparator);
+		}
+		final List<Cursor<K, V>> cursors = new ArrayList<>(this.runFiles.size() + 1);
+		for (final Path file : this.runFiles) {
+			cursors.add(new FileCursor<>(cursors.size(), file, this.keySerializer, this.valueSerializer));
+		}
+		cursors.add(new BufferCursor<>(cursors.size(), this.keys, this.values, order, this.size));
+		return new MergingPairSpliterator<>(cursors, this.comparator, this.count);
+	}
+
+	/** Delete the temporary files holding the runs which haven't already been deleted after being read */
+	void deleteRuns() {
+		UncheckedIOException failure = null;
+		for (final Path file : this.runFiles) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (final IOException e) {
+				if (failure == null) {
+					failure = new UncheckedIOException(e);
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/** Sort the buffered pairs and write their serialized forms to a new temporary file, in order */
+	private void spill() {
+		final int[] order = sortedOrder();
+		try {
+			final Path file = Files.createTempFile("mapstream-sort", ".run");
+			this.runFiles.add(file);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				final byte[] bytes = this.bytes.array();
+				final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+				for (int i = 0; i < this.size; i++) {
+					final int index = order[i];
+					final int offset = this.offsets[index];
+					final int length = (index + 1 < this.size ? this.offsets[index + 1] : this.bytes.size()) - offset;
+					if (length > buffer.remaining()) {
+						((Buffer) buffer).flip();
+						writeFully(channel, buffer);
+						((Buffer) buffer).clear();
+					}
+					if (length > buffer.capacity()) {
+						writeFully(channel, ByteBuffer.wrap(bytes, offset, length));
+					} else {
+						buffer.put(bytes, offset, length);
+					}
+				}
+				((Buffer) buffer).flip();
+				writeFully(channel, buffer);
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		Arrays.fill(this.keys, 0, this.size, null);
+		Arrays.fill(this.values, 0, this.size, null);
+		this.bytes.reset();
+		this.size = 0;
+	}
+
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/** @return the indices of the buffered pairs in order of their keys, or encounter order for equal keys */
+	@SuppressWarnings("unchecked")
+	private int[] sortedOrder() {
+		final int[] order = new int[this.size];
+		for (int i = 0; i < this.size; i++) {
+			order[i] = i;
+		}
+		mergeSort(order, order.clone(), 0, this.size, (Comparator<Object>) this.comparator);
+		return order;
+	}
+
+	/** Stable sort of {@code order[from, to)} by the keys at those indices; {@code copy} must start with the same contents */
+	private void mergeSort(final int[] order, final int[] copy, final int from, final int to, final Comparator<Object> comparator) {
+		if (to - from < 8) {
+			for (int i = from + 1; i < to; i++) {
+				final int index = order[i];
+				int j = i;
+				while (j > from && comparator.compare(this.keys[order[j - 1]], this.keys[index]) > 0) {
+					order[j] = order[j - 1];
+					j--;
+				}
+				order[j] = index;
+			}
+			return;
+		}
+		final int middle = from + to >>> 1;
+		// Sort each half of the copy, then merge the halves into the order
+		mergeSort(copy, order, from, middle, comparator);
+		mergeSort(copy, order, middle, to, comparator);
+		for (int i = from, left = from, right = middle; i < to; i++) {
+			if (right >= to || left < middle && comparator.compare(this.keys[copy[left]], this.keys[copy[right]]) <= 0) {
+				order[i] = copy[left++];
+			} else {
+				order[i] = copy[right++];
+			}
+		}
+	}
+
+	/** A ByteArrayOutputStream which exposes its array, so a run can be written without copying it */
+	private static final class RunBuffer extends ByteArrayOutputStream {
+		byte[] array() {
+			return this.buf;
+		}
+	}
+
+	/** A position in a sorted run */
+	private abstract static class Cursor<K, V> {
+		/** The index of the run, which orders pairs with equal keys */
+		final int run;
+		K key;
+		V value;
+
+		Cursor(final int run) {
+			this.run = run;
+		}
+
+		/** Move to the next pair in the run, and return true, or return false if there are no more pairs */
+		abstract boolean advance();
+	}
+
+	/** A cursor over the pairs which were still buffered when the sorter was traversed */
+	private static final class BufferCursor<K, V> extends Cursor<K, V> {
+		private final Object[] keys;
+		private final Object[] values;
+		private final int[] order;
+		private final int size;
+		private int position;
+
+		BufferCursor(final int run, final Object[] keys, final Object[] values, final int[] order, final int size) {
+			super(run);
+			this.keys = keys;
+			this.values = values;
+			this.order = order;
+			this.size = size;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		boolean advance() {
+			if (this.position == this.size) {
+				return false;
+			}
+			final int index = this.order[this.position++];
+			this.key = (K) this.keys[index];
+			this.value = (V) this.values[index];
+			return true;
+		}
+	}
+
+	/** A cursor over a run file, read through a memory-mapped buffer, which deletes the file once it has been read */
+	private static final class FileCursor<K, V> extends Cursor<K, V> {
+		private final Path file;
+		private final Serializer<K> keySerializer;
+		private final Serializer<V> valueSerializer;
+		private final MappedByteBuffer buffer;
+		private final ByteBufferDataInput input;
+
+		FileCursor(final int run, final Path file, final Serializer<K> keySerializer, final Serializer<V> valueSerializer) {
+			super(run);
+			this.file = file;
+			this.keySerializer = keySerializer;
+			this.valueSerializer = valueSerializer;
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				// The mapping remains valid after the channel is closed
+				this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			this.input = new ByteBufferDataInput(this.buffer);
+		}
+
+		@Override
+		boolean advance() {
+			if (!this.buffer.hasRemaining()) {
+				try {
+					Files.deleteIfExists(this.file);
+				} catch (final IOException e) {
+					// Some platforms can't delete a mapped file; it's deleted when the pipeline is closed instead
+				}
+				return false;
+			}
+			try {
+				this.key = this.keySerializer.read(this.input);
+				this.value = this.valueSerializer.read(this.input);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return true;
+		}
+	}
+
+	/** Merges sorted runs, taking the pair with the least key, or from the earliest run for equal keys, from a priority queue of cursors */
+	private static final class MergingPairSpliterator<K, V> implements PairSpliterator<K, V> {
+		private final List<Cursor<K, V>> cursors;
+		private final Comparator<? super K> comparator;
+		private PriorityQueue<Cursor<K, V>> queue;
+		private long remaining;
+
+		MergingPairSpliterator(final List<Cursor<K, V>> cursors, final Comparator<? super K> comparator, final long size) {
+			this.cursors = cursors;
+			this.comparator = comparator;
+			this.remaining = size;
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			if (this.queue == null) {
+				this.queue = new PriorityQueue<>(this.cursors.size(), (a, b) -> {
+					final int comparison = this.comparator.compare(a.key, b.key);
+					return comparison != 0 ? comparison : Integer.compare(a.run, b.run);
+				});
+				for (final Cursor<K, V> cursor : this.cursors) {
+					if (cursor.advance()) {
+						this.queue.add(cursor);
+					}
+				}
+			}
+			final Cursor<K, V> cursor = this.queue.poll();
+			if (cursor == null) {
+				return false;
+			}
+			final K key = cursor.key;
+			final V value = cursor.value;
+			if (cursor.advance()) {
+				this.queue.add(cursor);
+			}
+			this.remaining--;
+			action.accept(key, value);
+			return true;
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.remaining;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.SIZED;
+		}
+
+		@Override
+		public Comparator<? super K> getComparator() {
+			return this.comparator;
+		}
+	}
+}
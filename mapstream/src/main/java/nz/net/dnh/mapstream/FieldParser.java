@@ -0,0 +1,52 @@
+package nz.net.dnh.mapstream;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses objects of a type from a range of bytes, for sources which read keys and values directly from the bytes of a text file, e.g.
+ * {@link MapStream#ofDelimitedFile(java.nio.file.Path, byte, FieldParser, FieldParser)}.
+ * 
+ * @param <T>
+ *            the type of the objects
+ */
+@FunctionalInterface
+public interface FieldParser<T> {
+	/**
+	 * Parse an object from the bytes of a buffer between {@code from}, inclusive, and {@code to}, exclusive. The buffer's position and
+	 * limit are unspecified, and must not be changed; read it with absolute gets.
+	 */
+	T parse(ByteBuffer buffer, int from, int to);
+
+	/** @return a parser of strings, encoded in UTF-8 */
+	static FieldParser<String> ofStrings() {
+		return (buffer, from, to) -> {
+			final byte[] bytes = new byte[to - from];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = buffer.get(from + i);
+			}
+			return new String(bytes, StandardCharsets.UTF_8);
+		};
+	}
+
+	/** @return a parser of decimal integers, with an optional sign, which parses the bytes directly without creating a string */
+	static FieldParser<Integer> ofIntegers() {
+		return (buffer, from, to) -> {
+			final long value = DelimitedFile.parseLong(buffer, from, to);
+			if (value != (int) value) {
+				throw new NumberFormatException("Integer out of range: " + ofStrings().parse(buffer, from, to));
+			}
+			return (int) value;
+		};
+	}
+
+	/** @return a parser of decimal longs, with an optional sign, which parses the bytes directly without creating a string */
+	static FieldParser<Long> ofLongs() {
+		return DelimitedFile::parseLong;
+	}
+
+	/** @return a parser of doubles, in any format accepted by {@link Double#parseDouble(String)} */
+	static FieldParser<Double> ofDoubles() {
+		return (buffer, from, to) -> Double.parseDouble(ofStrings().parse(buffer, from, to));
+	}
+}
@@ -0,0 +1,160 @@
+package nz.net.dnh.mapstream;
+
+import static nz.net.dnh.mapstream.MapStreamHelpers.mix;
+import static nz.net.dnh.mapstream.MapStreamHelpers.tableSize;
+
+import java.util.function.BinaryOperator;
+
+import nz.net.dnh.mapstream.IntObjMapStream.IntObjConsumer;
+
+/**
+ * A hash map from primitive {@code int} keys to object values, using open addressing with linear probing so that neither entry objects
+ * nor boxed keys are created. Values may be null. Mappings cannot be removed.
+ * 
+ * @see IntObjMapStream#toMap()
+ */
+public class IntObjHashMap<V> {
+	private int[] keys;
+	private Object[] values;
+	private boolean[] used;
+	private int size;
+
+	/** Create an empty map */
+	public IntObjHashMap() {
+		this(0);
+	}
+
+	/** Create an empty map which can hold the given number of mappings without resizing */
+	public IntObjHashMap(final int expectedSize) {
+		final int capacity = tableSize(expectedSize);
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		this.used = new boolean[capacity];
+	}
+
+	/** @return the number of mappings in this map */
+	public int size() {
+		return this.size;
+	}
+
+	/** @return true if this map contains no mappings */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/** @return true if this map contains a mapping for the given key */
+	public boolean containsKey(final int key) {
+		return this.used[indexOf(key)];
+	}
+
+	/** @return the value mapped to the given key, or null if there is no mapping for the key */
+	public V get(final int key) {
+		return getOrDefault(key, null);
+	}
+
+	/** @return the value mapped to the given key, or {@code defaultValue} if there is no mapping for the key */
+	@SuppressWarnings("unchecked")
+	public V getOrDefault(final int key, final V defaultValue) {
+		final int index = indexOf(key);
+		return this.used[index] ? (V) this.values[index] : defaultValue;
+	}
+
+	/** Map the given key to the given value, replacing any existing mapping */
+	public void put(final int key, final V value) {
+		final int index = indexOf(key);
+		if (this.used[index]) {
+			this.values[index] = value;
+		} else {
+			insert(index, key, value);
+		}
+	}
+
+	/**
+	 * If the given key has no mapping, map it to the given value; otherwise replace its value with the result of applying the given function
+	 * to the existing value and the given value
+	 * 
+	 * @return the new value mapped to the key
+	 * @see java.util.Map#merge(Object, Object, java.util.function.BiFunction)
+	 */
+	@SuppressWarnings("unchecked")
+	public V merge(final int key, final V value, final BinaryOperator<V> remappingFunction) {
+		final int index = indexOf(key);
+		if (!this.used[index]) {
+			insert(index, key, value);
+			return value;
+		}
+		final V merged = remappingFunction.apply((V) this.values[index], value);
+		this.values[index] = merged;
+		return merged;
+	}
+
+	/** Map the given key to the given value, failing with an {@link IllegalStateException} if the key is already mapped */
+	void putUnique(final int key, final V value) {
+		final int index = indexOf(key);
+		if (this.used[index]) {
+			throw new IllegalStateException("Duplicate key " + key);
+		}
+		insert(index, key, value);
+	}
+
+	/** Merge all mappings from the given map into this map using the given function; see {@link #merge(int, Object, BinaryOperator)} */
+	public void mergeAll(final IntObjHashMap<? extends V> other, final BinaryOperator<V> remappingFunction) {
+		other.forEach((k, v) -> merge(k, v, remappingFunction));
+	}
+
+	/** Perform the given action on each key-value pair in this map */
+	@SuppressWarnings("unchecked")
+	public void forEach(final IntObjConsumer<? super V> action) {
+		final boolean[] used = this.used;
+		for (int i = 0; i < used.length; i++) {
+			if (used[i]) {
+				action.accept(this.keys[i], (V) this.values[i]);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("{");
+		forEach((k, v) -> builder.append(builder.length() == 1 ? "" : ", ").append(k).append('=').append(v));
+		return builder.append('}').toString();
+	}
+
+	/** @return the index of the given key, or of the empty slot where it would be inserted */
+	private int indexOf(final int key) {
+		final int[] keys = this.keys;
+		final boolean[] used = this.used;
+		final int mask = keys.length - 1;
+		int index = mix(key) & mask;
+		while (used[index] && keys[index] != key) {
+			index = index + 1 & mask;
+		}
+		return index;
+	}
+
+	private void insert(final int index, final int key, final V value) {
+		this.keys[index] = key;
+		this.values[index] = value;
+		this.used[index] = true;
+		if (++this.size > this.keys.length / 2) {
+			resize();
+		}
+	}
+
+	private void resize() {
+		final int[] oldKeys = this.keys;
+		final Object[] oldValues = this.values;
+		final boolean[] oldUsed = this.used;
+		this.keys = new int[oldKeys.length * 2];
+		this.values = new Object[oldKeys.length * 2];
+		this.used = new boolean[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				final int index = indexOf(oldKeys[i]);
+				this.keys[index] = oldKeys[i];
+				this.values[index] = oldValues[i];
+				this.used[index] = true;
+			}
+		}
+	}
+}
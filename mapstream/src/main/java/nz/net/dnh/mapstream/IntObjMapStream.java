@@ -0,0 +1,161 @@
+package nz.net.dnh.mapstream;
+
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A {@link MapStream} whose keys are primitive {@code int}s, so that the keys are never boxed.
+ * <p>
+ * To obtain an {@link IntObjMapStream} from a {@link MapStream}, use {@link MapStream#mapKeysToInt(java.util.function.ToIntFunction)}.
+ * To convert back to a {@link MapStream}, use {@link #boxed()} or {@link #mapKeysToObj(IntFunction)}.
+ * 
+ * @see MapStream
+ */
+public interface IntObjMapStream<V> {
+	/** An operation on a primitive {@code int} key and a value */
+	@FunctionalInterface
+	interface IntObjConsumer<V> {
+		void accept(int key, V value);
+	}
+
+	/** A predicate on a primitive {@code int} key and a value */
+	@FunctionalInterface
+	interface IntObjPredicate<V> {
+		boolean test(int key, V value);
+	}
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream which match the given predicate
+	 * 
+	 * @see MapStream#filter(java.util.function.BiPredicate)
+	 */
+	IntObjMapStream<V> filter(IntObjPredicate<? super V> predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose keys match the given predicate
+	 * 
+	 * @see MapStream#filterKeys(Predicate)
+	 */
+	IntObjMapStream<V> filterKeys(IntPredicate predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose values match the given predicate
+	 * 
+	 * @see MapStream#filterValues(Predicate)
+	 */
+	IntObjMapStream<V> filterValues(Predicate<? super V> predicate);
+
+	/**
+	 * Return a stream whose keys are the result of applying the given function to the keys of this stream
+	 * 
+	 * @see MapStream#mapKeys(Function)
+	 */
+	IntObjMapStream<V> mapKeys(IntUnaryOperator mapper);
+
+	/**
+	 * Return a {@link MapStream} whose keys are the result of applying the given function to the keys of this stream
+	 * 
+	 * @see MapStream#mapKeys(Function)
+	 */
+	<K> MapStream<K, V> mapKeysToObj(IntFunction<? extends K> mapper);
+
+	/**
+	 * Return a stream whose values are the result of applying the given function to the values of this stream
+	 * 
+	 * @see MapStream#mapValues(Function)
+	 */
+	<V2> IntObjMapStream<V2> mapValues(Function<? super V, ? extends V2> mapper);
+
+	/** Return a {@link MapStream} with the keys of this stream boxed */
+	MapStream<Integer, V> boxed();
+
+	/**
+	 * Return a stream consisting of the key-value pairs of this stream, additionally performing the given action on each key-value pair as
+	 * they are consumed
+	 * 
+	 * @see MapStream#peek(java.util.function.BiConsumer)
+	 */
+	IntObjMapStream<V> peek(IntObjConsumer<? super V> action);
+
+	/** @return a stream of the keys from this stream */
+	IntStream keyStream();
+
+	/** @return a stream of the values from this stream */
+	Stream<V> valueStream();
+
+	/** @see MapStream#isParallel() */
+	boolean isParallel();
+
+	/** @see MapStream#parallel() */
+	IntObjMapStream<V> parallel();
+
+	/** @see MapStream#sequential() */
+	IntObjMapStream<V> sequential();
+
+	// Terminal operations
+
+	/**
+	 * Perform an action on each key-value pair of this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see MapStream#forEach(java.util.function.BiConsumer)
+	 */
+	void forEach(IntObjConsumer<? super V> action);
+
+	/**
+	 * Return the count of the key-value pairs in this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	long count();
+
+	/**
+	 * Return whether any key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean anyMatch(IntObjPredicate<? super V> predicate);
+
+	/**
+	 * Return whether all key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean allMatch(IntObjPredicate<? super V> predicate);
+
+	/**
+	 * Return whether no key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean noneMatch(IntObjPredicate<? super V> predicate);
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link IntObjHashMap}.
+	 * <p>
+	 * If the keys have duplicates, an {@link IllegalStateException} is thrown.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap()
+	 */
+	IntObjHashMap<V> toMap();
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link IntObjHashMap}.
+	 * <p>
+	 * If the keys have duplicates, the given function is called to merge the values into a single value.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap(BinaryOperator)
+	 */
+	IntObjHashMap<V> toMap(BinaryOperator<V> mergeFunction);
+}
@@ -0,0 +1,180 @@
+package nz.net.dnh.mapstream;
+
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implementation of {@link IntObjMapStream} on top of a {@link MapStreamPipeline}. The primitive stages are a function which wraps a
+ * primitive sink in a sink accepting the upstream pipeline's pairs, so terminal operations are evaluated by the upstream pipeline (in
+ * parallel if it is parallel) without boxing the keys.
+ */
+final class IntObjPipeline<V> implements IntObjMapStream<V> {
+	@SuppressWarnings("unchecked")
+	static <K, V> IntObjMapStream<V> of(final MapStream<K, V> mapStream, final ToIntFunction<? super K> mapper) {
+		return new IntObjPipeline<V>((MapStreamPipeline<Object, Object>) MapStreamPipeline.of(mapStream), sink -> (k, v) -> sink.accept(
+				mapper.applyAsInt((K) k), (V) v));
+	}
+
+	private final MapStreamPipeline<Object, Object> upstream;
+	private final Function<IntObjConsumer<? super V>, BiConsumer<Object, Object>> wrap;
+
+	private IntObjPipeline(final MapStreamPipeline<Object, Object> upstream,
+			final Function<IntObjConsumer<? super V>, BiConsumer<Object, Object>> wrap) {
+		this.upstream = upstream;
+		this.wrap = wrap;
+	}
+
+	/** @return a new pipeline with the given stage, which wraps a sink of the new pipeline's pairs in a sink of this pipeline's pairs */
+	private <V2> IntObjPipeline<V2> then(final Function<IntObjConsumer<? super V2>, IntObjConsumer<V>> stage) {
+		return new IntObjPipeline<>(this.upstream, sink -> this.wrap.apply(stage.apply(sink)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private IntObjPipeline<V> withUpstream(final MapStream<Object, Object> upstream) {
+		return new IntObjPipeline<>((MapStreamPipeline<Object, Object>) upstream, this.wrap);
+	}
+
+	@Override
+	public IntObjMapStream<V> filter(final IntObjPredicate<? super V> predicate) {
+		return then(sink -> (k, v) -> {
+			if (predicate.test(k, v)) {
+				sink.accept(k, v);
+			}
+		});
+	}
+
+	@Override
+	public IntObjMapStream<V> filterKeys(final IntPredicate predicate) {
+		return filter((k, v) -> predicate.test(k));
+	}
+
+	@Override
+	public IntObjMapStream<V> filterValues(final Predicate<? super V> predicate) {
+		return filter((k, v) -> predicate.test(v));
+	}
+
+	@Override
+	public IntObjMapStream<V> mapKeys(final IntUnaryOperator mapper) {
+		return then(sink -> (k, v) -> sink.accept(mapper.applyAsInt(k), v));
+	}
+
+	@Override
+	public <K> MapStream<K, V> mapKeysToObj(final IntFunction<? extends K> mapper) {
+		return new MapStreamPipeline.SinkStage<Object, Object, K, V>(this.upstream, sink -> this.wrap.apply((k, v) -> sink.accept(mapper
+				.apply(k), v)));
+	}
+
+	@Override
+	public <V2> IntObjMapStream<V2> mapValues(final Function<? super V, ? extends V2> mapper) {
+		return this.<V2> then(sink -> (k, v) -> sink.accept(k, mapper.apply(v)));
+	}
+
+	@Override
+	public MapStream<Integer, V> boxed() {
+		return mapKeysToObj(Integer::valueOf);
+	}
+
+	@Override
+	public IntObjMapStream<V> peek(final IntObjConsumer<? super V> action) {
+		return then(sink -> (k, v) -> {
+			action.accept(k, v);
+			sink.accept(k, v);
+		});
+	}
+
+	@Override
+	public IntStream keyStream() {
+		final boolean parallel = isParallel();
+		return StreamSupport.intStream(() -> new PrimitivePairSpliterators.OfInt(this.upstream.pairSpliterator(parallel), sink -> this.wrap
+				.apply((k, v) -> sink.accept(k))), Spliterator.ORDERED, parallel).onClose(this.upstream::close);
+	}
+
+	@Override
+	public Stream<V> valueStream() {
+		// The keys are discarded, so don't box them
+		return mapKeysToObj(k -> null).valueStream();
+	}
+
+	@Override
+	public boolean isParallel() {
+		return this.upstream.isParallel();
+	}
+
+	@Override
+	public IntObjMapStream<V> parallel() {
+		return withUpstream(this.upstream.parallel());
+	}
+
+	@Override
+	public IntObjMapStream<V> sequential() {
+		return withUpstream(this.upstream.sequential());
+	}
+
+	@Override
+	public void forEach(final IntObjConsumer<? super V> action) {
+		this.upstream.evaluate(() -> PairTask.chain(this.wrap.apply(action), () -> null, null), (a, b) -> null, false);
+	}
+
+	@Override
+	public long count() {
+		return this.upstream.evaluate(() -> {
+			final long[] count = new long[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> count[0]++), () -> count[0], null);
+		}, Long::sum, false);
+	}
+
+	@Override
+	public boolean anyMatch(final IntObjPredicate<? super V> predicate) {
+		return ((IntObjPipeline<V>) filter(predicate)).any();
+	}
+
+	@Override
+	public boolean allMatch(final IntObjPredicate<? super V> predicate) {
+		return !anyMatch((k, v) -> !predicate.test(k, v));
+	}
+
+	@Override
+	public boolean noneMatch(final IntObjPredicate<? super V> predicate) {
+		return !anyMatch(predicate);
+	}
+
+	/** @return whether this stream contains any key-value pairs, stopping at the first */
+	private boolean any() {
+		return this.upstream.evaluate(() -> {
+			final boolean[] found = new boolean[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> found[0] = true), () -> found[0], () -> found[0]);
+		}, (a, b) -> a || b, true);
+	}
+
+	@Override
+	public IntObjHashMap<V> toMap() {
+		return this.upstream.evaluate(() -> {
+			final IntObjHashMap<V> map = new IntObjHashMap<>();
+			return PairTask.chain(this.wrap.apply(map::putUnique), () -> map, null);
+		}, (a, b) -> {
+			b.forEach(a::putUnique);
+			return a;
+		}, false);
+	}
+
+	@Override
+	public IntObjHashMap<V> toMap(final BinaryOperator<V> mergeFunction) {
+		return this.upstream.evaluate(() -> {
+			final IntObjHashMap<V> map = new IntObjHashMap<>();
+			return PairTask.chain(this.wrap.apply((k, v) -> map.merge(k, v, mergeFunction)), () -> map, null);
+		}, (a, b) -> {
+			a.mergeAll(b, mergeFunction);
+			return a;
+		}, false);
+	}
+}
@@ -0,0 +1,336 @@
+package nz.net.dnh.mapstream;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * {@link PairSpliterator PairSpliterators} which join the pairs of two spliterators by key, for {@link MapStream#join(MapStream, BiFunction)}
+ * and the outer joins.
+ */
+final class JoinPairSpliterators {
+	private JoinPairSpliterators() {
+	}
+
+	/** The values for a key on the build side of a hash join */
+	static final class Bucket {
+		final List<Object> values = new ArrayList<>(1);
+		/** Whether a probe pair has matched this bucket; set without synchronization, so only read after the probe has finished */
+		boolean matched;
+
+		Bucket(final Object value) {
+			this.values.add(value);
+		}
+
+		Bucket add(final Object value) {
+			this.values.add(value);
+			return this;
+		}
+
+		Bucket addAll(final Bucket later) {
+			this.values.addAll(later.values);
+			return this;
+		}
+	}
+
+	/**
+	 * Probes a hash table of buckets with each pair from a probe spliterator, producing a pair for each value in the bucket for its key. The
+	 * probe spliterator may be split, in which case the splits share the table.
+	 * 
+	 * @param <P>
+	 *            the type of the probe values
+	 */
+	static final class HashJoin<K, P, R> implements PairSpliterator<K, R>, BiConsumer<K, P> {
+		private final PairSpliterator<K, P> probe;
+		private final Map<Object, Bucket> table;
+		/** Combines a probe value and a build value, either of which is null for an unmatched pair */
+		private final BiFunction<Object, Object, ? extends R> combiner;
+		/** Whether probe pairs with no bucket produce a pair with a null build value */
+		private final boolean keepUnmatchedProbe;
+		/** Whether to mark the buckets which match a probe pair */
+		private final boolean markMatched;
+		/** Whether buckets which no probe pair matched produce pairs with a null probe value once the probe is exhausted */
+		private final boolean emitUnmatchedBuild;
+		private BiConsumer<? super K, ? super R> action;
+		/** The probe pair whose bucket is being traversed by {@link #tryAdvance(BiConsumer)} */
+		private K key;
+		private P probeValue;
+		private List<Object> bucketValues;
+		private int bucketIndex;
+		private boolean advanced;
+		private Iterator<Entry<Object, Bucket>> unmatchedBuckets;
+
+		HashJoin(final PairSpliterator<K, P> probe, final Map<Object, Bucket> table, final BiFunction<Object, Object, ? extends R> combiner,
+				final boolean keepUnmatchedProbe, final boolean markMatched, final boolean emitUnmatchedBuild) {
+			this.probe = probe;
+			this.table = table;
+			this.combiner = combiner;
+			this.keepUnmatchedProbe = keepUnmatchedProbe;
+			this.markMatched = markMatched;
+			this.emitUnmatchedBuild = emitUnmatchedBuild;
+		}
+
+		/** Probe the table with a pair; during {@link #tryAdvance(BiConsumer)}, only the first result is passed on */
+		@Override
+		public void accept(final K key, final P value) {
+			final Bucket bucket = this.table.get(key);
+			if (bucket == null) {
+				if (this.keepUnmatchedProbe) {
+					this.advanced = true;
+					this.action.accept(key, this.combiner.apply(value, null));
+				}
+				return;
+			}
+			if (this.markMatched) {
+				bucket.matched = true;
+			}
+			this.key = key;
+			this.probeValue = value;
+			this.bucketValues = bucket.values;
+			this.bucketIndex = 0;
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super R> action) {
+			this.action = action;
+			this.advanced = false;
+			while (true) {
+				if (this.bucketValues != null) {
+					if (this.bucketIndex < this.bucketValues.size()) {
+						action.accept(this.key, this.combiner.apply(this.probeValue, this.bucketValues.get(this.bucketIndex++)));
+						return true;
+					}
+					this.bucketValues = null;
+				}
+				if (this.unmatchedBuckets != null || !this.probe.tryAdvance(this)) {
+					return this.emitUnmatchedBuild && tryAdvanceUnmatched(action);
+				} else if (this.advanced) {
+					return true;
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private boolean tryAdvanceUnmatched(final BiConsumer<? super K, ? super R> action) {
+			if (this.unmatchedBuckets == null) {
+				this.unmatchedBuckets = this.table.entrySet().iterator();
+			}
+			while (this.unmatchedBuckets.hasNext()) {
+				final Entry<Object, Bucket> entry = this.unmatchedBuckets.next();
+				if (!entry.getValue().matched) {
+					// Traverse the bucket with a null probe value
+					this.key = (K) entry.getKey();
+					this.probeValue = null;
+					this.bucketValues = entry.getValue().values;
+					this.bucketIndex = 1;
+					action.accept(this.key, this.combiner.apply(null, this.bucketValues.get(0)));
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void forEachRemaining(final BiConsumer<? super K, ? super R> action) {
+			if (this.bucketValues != null || this.unmatchedBuckets != null) {
+				PairSpliterator.super.forEachRemaining(action);
+				return;
+			}
+			this.probe.forEachRemaining((k, v) -> {
+				final Bucket bucket = this.table.get(k);
+				if (bucket == null) {
+					if (this.keepUnmatchedProbe) {
+						action.accept(k, this.combiner.apply(v, null));
+					}
+					return;
+				}
+				if (this.markMatched) {
+					bucket.matched = true;
+				}
+				for (final Object buildValue : bucket.values) {
+					action.accept(k, this.combiner.apply(v, buildValue));
+				}
+			});
+			if (this.emitUnmatchedBuild) {
+				PairSpliterator.super.forEachRemaining(action);
+			}
+		}
+
+		@Override
+		public PairSpliterator<K, R> trySplit() {
+			if (this.emitUnmatchedBuild || this.bucketValues != null) {
+				// Unmatched build pairs can only be found once the whole probe side has been traversed
+				return null;
+			}
+			final PairSpliterator<K, P> split = this.probe.trySplit();
+			return split == null ? null : new HashJoin<>(split, this.table, this.combiner, this.keepUnmatchedProbe, this.markMatched, false);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.probe.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			// Pairs are produced in probe order, so sorted probe keys remain sorted unless unmatched build pairs are appended
+			final int characteristics = this.emitUnmatchedBuild ? Spliterator.ORDERED : Spliterator.ORDERED | Spliterator.SORTED;
+			return this.probe.characteristics() & characteristics;
+		}
+
+		@Override
+		public Comparator<? super K> getComparator() {
+			return this.probe.getComparator();
+		}
+	}
+
+	/**
+	 * Joins two spliterators whose keys are sorted by the same comparator by traversing them together, buffering only the right values for
+	 * the current key. Not splittable.
+	 */
+	static final class MergeJoin<K, V, W, R> implements PairSpliterator<K, R> {
+		private final PairSpliterator<K, V> left;
+		private final PairSpliterator<K, W> right;
+		private final Comparator<? super K> comparator;
+		private final BiFunction<? super V, ? super W, ? extends R> combiner;
+		private final boolean keepUnmatchedLeft;
+		private final boolean keepUnmatchedRight;
+		private final BiConsumer<K, V> leftSetter = (k, v) -> {
+			this.leftKey = k;
+			this.leftValue = v;
+		};
+		private final BiConsumer<K, W> rightSetter = (k, w) -> {
+			this.nextRightKey = k;
+			this.nextRightValue = w;
+		};
+		private boolean started;
+		private K leftKey;
+		private V leftValue;
+		private boolean hasLeft;
+		/** The first right pair after the current run */
+		private K nextRightKey;
+		private W nextRightValue;
+		private boolean hasNextRight;
+		/** The values of the current run of right pairs with equal keys */
+		private final List<W> run = new ArrayList<>();
+		private K runKey;
+		private boolean runMatched;
+		/** The index of the next value in the run to combine with the current left value, or -1 if the run is not being traversed */
+		private int runIndex = -1;
+		/** Whether the run is being traversed because no left pair matched it */
+		private boolean runUnmatched;
+
+		MergeJoin(final PairSpliterator<K, V> left, final PairSpliterator<K, W> right, final Comparator<? super K> comparator,
+				final BiFunction<? super V, ? super W, ? extends R> combiner, final boolean keepUnmatchedLeft,
+				final boolean keepUnmatchedRight) {
+			this.left = left;
+			this.right = right;
+			this.comparator = comparator;
+			this.combiner = combiner;
+			this.keepUnmatchedLeft = keepUnmatchedLeft;
+			this.keepUnmatchedRight = keepUnmatchedRight;
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super R> action) {
+			if (!this.started) {
+				this.started = true;
+				this.hasLeft = this.left.tryAdvance(this.leftSetter);
+				this.hasNextRight = this.right.tryAdvance(this.rightSetter);
+				loadRun();
+			}
+			while (true) {
+				if (this.runIndex >= 0) {
+					if (this.runIndex < this.run.size()) {
+						final W rightValue = this.run.get(this.runIndex++);
+						action.accept(this.runUnmatched ? this.runKey : this.leftKey, this.combiner.apply(this.runUnmatched ? null
+								: this.leftValue, rightValue));
+						return true;
+					}
+					this.runIndex = -1;
+					if (this.runUnmatched) {
+						this.runUnmatched = false;
+						loadRun();
+					} else {
+						this.hasLeft = this.left.tryAdvance(this.leftSetter);
+					}
+					continue;
+				}
+				final int comparison;
+				if (this.hasLeft && this.run.isEmpty()) {
+					if (!this.keepUnmatchedLeft) {
+						return false;
+					}
+					comparison = -1;
+				} else if (!this.hasLeft && !this.run.isEmpty()) {
+					comparison = 1;
+				} else if (this.hasLeft) {
+					comparison = this.comparator.compare(this.leftKey, this.runKey);
+				} else {
+					return false;
+				}
+				if (comparison < 0) {
+					final K key = this.leftKey;
+					final V value = this.leftValue;
+					this.hasLeft = this.left.tryAdvance(this.leftSetter);
+					if (this.keepUnmatchedLeft) {
+						action.accept(key, this.combiner.apply(value, null));
+						return true;
+					}
+				} else if (comparison > 0) {
+					if (this.keepUnmatchedRight && !this.runMatched) {
+						this.runUnmatched = true;
+						this.runIndex = 0;
+					} else if (!this.hasLeft && !this.keepUnmatchedRight) {
+						return false;
+					} else {
+						loadRun();
+					}
+				} else {
+					this.runMatched = true;
+					this.runIndex = 0;
+				}
+			}
+		}
+
+		/** Read the next run of right pairs with equal keys */
+		private void loadRun() {
+			this.run.clear();
+			if (!this.hasNextRight) {
+				return;
+			}
+			this.runKey = this.nextRightKey;
+			this.runMatched = false;
+			do {
+				this.run.add(this.nextRightValue);
+				this.hasNextRight = this.right.tryAdvance(this.rightSetter);
+			} while (this.hasNextRight && this.comparator.compare(this.nextRightKey, this.runKey) == 0);
+		}
+
+		@Override
+		public PairSpliterator<K, R> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.SORTED;
+		}
+
+		@Override
+		public Comparator<? super K> getComparator() {
+			return this.comparator;
+		}
+	}
+}
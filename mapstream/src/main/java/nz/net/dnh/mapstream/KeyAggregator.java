@@ -0,0 +1,210 @@
+package nz.net.dnh.mapstream;
+
+import static nz.net.dnh.mapstream.MapStreamHelpers.mix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Aggregates the values for each key of a {@link PairSpliterator}, for {@link MapStream#reduceByKey(BinaryOperator)} and
+ * {@link MapStream#aggregateByKey(java.util.function.Supplier, java.util.function.BiConsumer, BinaryOperator)}.
+ * <p>
+ * A sequential aggregation uses a single hash table which keeps the keys in order of first occurrence. A parallel aggregation is done in two
+ * phases, neither of which merges whole tables pairwise: first each leaf task aggregates its pairs into its own tables, one per hash
+ * partition of the keys; then the tables for each partition are merged, in encounter order, with the partitions merged in parallel.
+ * 
+ * @param <A>
+ *            the type of the aggregate of the values for a key
+ */
+final class KeyAggregator<K, V, A> {
+	/** Creates the aggregate for a key from its first value */
+	private final Function<? super V, A> first;
+	/** Adds a subsequent value to the aggregate for a key */
+	private final BiFunction<A, ? super V, A> add;
+	/** Combines the aggregates for a key from an earlier and a later part of the stream */
+	private final BinaryOperator<A> combine;
+
+	KeyAggregator(final Function<? super V, A> first, final BiFunction<A, ? super V, A> add, final BinaryOperator<A> combine) {
+		this.first = first;
+		this.add = add;
+		this.combine = combine;
+	}
+
+	/** @return a spliterator over each distinct key from the given spliterator and the aggregate of its values */
+	PairSpliterator<K, A> aggregate(final PairSpliterator<K, V> spliterator, final boolean parallel) {
+		if (!parallel) {
+			final Table<K, V, A> table = new Table<>(this);
+			spliterator.forEachRemaining((k, v) -> table.accumulate(k, mix(Objects.hashCode(k)), v));
+			return table.spliterator();
+		}
+		final int partitions = Integer.highestOneBit(ForkJoinPool.getCommonPoolParallelism() * 8 - 1);
+		final List<Table<K, V, A>[]> leaves = PairTask.invoke(spliterator, () -> new PartitioningSink<>(this, partitions),
+				KeyAggregator::concat, false);
+		final Table<K, V, A>[] merged = newTables(partitions);
+		IntStream.range(0, partitions).parallel().forEach(p -> {
+			final Table<K, V, A> table = leaves.get(0)[p];
+			for (int i = 1; i < leaves.size(); i++) {
+				table.combineAll(leaves.get(i)[p]);
+			}
+			merged[p] = table;
+		});
+		int size = 0;
+		for (final Table<K, V, A> table : merged) {
+			size += table.size;
+		}
+		final Object[] keys = new Object[size];
+		final Object[] values = new Object[size];
+		int offset = 0;
+		for (final Table<K, V, A> table : merged) {
+			System.arraycopy(table.keys, 0, keys, offset, table.size);
+			System.arraycopy(table.values, 0, values, offset, table.size);
+			offset += table.size;
+		}
+		return PairSpliterator.ofArrays(keys, values, 0, size, Spliterator.DISTINCT);
+	}
+
+	/** @return the combination of the aggregates for a key from an earlier and a later part of the stream */
+	A combine(final A earlier, final A later) {
+		return this.combine.apply(earlier, later);
+	}
+
+	/** Concatenate the tables of two leaf tasks, in encounter order */
+	private static <T> List<T> concat(final List<T> left, final List<T> right) {
+		left.addAll(right);
+		return left;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static <K, V, A> Table<K, V, A>[] newTables(final int length) {
+		return new Table[length];
+	}
+
+	/** The sink for a leaf task of a parallel aggregation, which aggregates into one table per hash partition */
+	private static final class PartitioningSink<K, V, A> implements PairTask.Sink<K, V, List<Table<K, V, A>[]>> {
+		private final Table<K, V, A>[] tables;
+		/** Shift which selects the partition from the high bits of a hash; the table index uses the low bits */
+		private final int shift;
+
+		PartitioningSink(final KeyAggregator<K, V, A> aggregator, final int partitions) {
+			this.tables = newTables(partitions);
+			for (int i = 0; i < partitions; i++) {
+				this.tables[i] = new Table<>(aggregator);
+			}
+			this.shift = Integer.numberOfLeadingZeros(partitions) + 1;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			final int hash = mix(Objects.hashCode(key));
+			this.tables[this.shift == 32 ? 0 : hash >>> this.shift].accumulate(key, hash, value);
+		}
+
+		@Override
+		public List<Table<K, V, A>[]> get() {
+			final List<Table<K, V, A>[]> leaves = new ArrayList<>();
+			leaves.add(this.tables);
+			return leaves;
+		}
+	}
+
+	/**
+	 * A hash table from keys to aggregates which keeps the keys and aggregates in dense arrays in insertion order, indexed by an
+	 * open-addressing table of positions in the dense arrays. Null keys are permitted.
+	 */
+	private static final class Table<K, V, A> {
+		private final KeyAggregator<K, V, A> aggregator;
+		private Object[] keys = new Object[8];
+		private Object[] values = new Object[8];
+		private int[] hashes = new int[8];
+		private int size;
+		/** The position of each key in the dense arrays plus one, or zero for an empty slot */
+		private int[] slots = new int[16];
+
+		Table(final KeyAggregator<K, V, A> aggregator) {
+			this.aggregator = aggregator;
+		}
+
+		void accumulate(final Object key, final int hash, final V value) {
+			final int slot = slotOf(key, hash);
+			final int index = this.slots[slot] - 1;
+			if (index < 0) {
+				insert(slot, key, hash, this.aggregator.first.apply(value));
+			} else {
+				this.values[index] = this.aggregator.add.apply(aggregate(index), value);
+			}
+		}
+
+		/** Combine the aggregates from the given table, for a later part of the stream, into this table */
+		void combineAll(final Table<K, V, A> later) {
+			for (int i = 0; i < later.size; i++) {
+				final int slot = slotOf(later.keys[i], later.hashes[i]);
+				final int index = this.slots[slot] - 1;
+				if (index < 0) {
+					insert(slot, later.keys[i], later.hashes[i], later.aggregate(i));
+				} else {
+					this.values[index] = this.aggregator.combine.apply(aggregate(index), later.aggregate(i));
+				}
+			}
+		}
+
+		PairSpliterator<K, A> spliterator() {
+			return PairSpliterator.ofArrays(this.keys, this.values, 0, this.size, Spliterator.DISTINCT);
+		}
+
+		@SuppressWarnings("unchecked")
+		private A aggregate(final int index) {
+			return (A) this.values[index];
+		}
+
+		/** @return the slot containing the given key, or the empty slot where it would be inserted */
+		private int slotOf(final Object key, final int hash) {
+			final int[] slots = this.slots;
+			final int mask = slots.length - 1;
+			int slot = hash & mask;
+			while (slots[slot] != 0) {
+				final int index = slots[slot] - 1;
+				if (this.hashes[index] == hash && Objects.equals(this.keys[index], key)) {
+					break;
+				}
+				slot = slot + 1 & mask;
+			}
+			return slot;
+		}
+
+		private void insert(final int slot, final Object key, final int hash, final A value) {
+			if (this.size == this.keys.length) {
+				this.keys = Arrays.copyOf(this.keys, this.size * 2);
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+				this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+			}
+			this.keys[this.size] = key;
+			this.values[this.size] = value;
+			this.hashes[this.size] = hash;
+			this.slots[slot] = ++this.size;
+			if (this.size > this.slots.length / 2) {
+				resize();
+			}
+		}
+
+		private void resize() {
+			final int[] slots = new int[this.slots.length * 2];
+			final int mask = slots.length - 1;
+			for (int i = 0; i < this.size; i++) {
+				int slot = this.hashes[i] & mask;
+				while (slots[slot] != 0) {
+					slot = slot + 1 & mask;
+				}
+				slots[slot] = i + 1;
+			}
+			this.slots = slots;
+		}
+	}
+}
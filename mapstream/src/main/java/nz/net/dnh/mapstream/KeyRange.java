@@ -0,0 +1,42 @@
+package nz.net.dnh.mapstream;
+
+import java.util.Comparator;
+
+/**
+ * A half-open range of keys, {@code [from, to)}, in the order of a comparator; either bound may be null, for a range which is unbounded
+ * at that end.
+ */
+final class KeyRange<K> {
+	private final Comparator<? super K> comparator;
+	private final K from;
+	private final K to;
+
+	/**
+	 * @param comparator
+	 *            the order of the keys, or null for their natural order
+	 */
+	@SuppressWarnings("unchecked")
+	KeyRange(final Comparator<? super K> comparator, final K from, final K to) {
+		this.comparator = comparator != null ? comparator : (Comparator<? super K>) Comparator.naturalOrder();
+		this.from = from;
+		this.to = to;
+	}
+
+	/** @return whether the given key is in this range */
+	boolean contains(final K key) {
+		return (this.from == null || this.comparator.compare(key, this.from) >= 0)
+				&& (this.to == null || this.comparator.compare(key, this.to) < 0);
+	}
+
+	/** @return whether any key between {@code min} and {@code max}, inclusive, is in this range */
+	boolean overlaps(final K min, final K max) {
+		return (this.from == null || this.comparator.compare(max, this.from) >= 0)
+				&& (this.to == null || this.comparator.compare(min, this.to) < 0);
+	}
+
+	/** @return whether every key between {@code min} and {@code max}, inclusive, is in this range */
+	boolean encloses(final K min, final K max) {
+		return (this.from == null || this.comparator.compare(min, this.from) >= 0)
+				&& (this.to == null || this.comparator.compare(max, this.to) < 0);
+	}
+}
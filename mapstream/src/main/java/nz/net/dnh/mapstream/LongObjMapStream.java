@@ -0,0 +1,161 @@
+package nz.net.dnh.mapstream;
+
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * A {@link MapStream} whose keys are primitive {@code long}s, so that the keys are never boxed.
+ * <p>
+ * To obtain an {@link LongObjMapStream} from a {@link MapStream}, use {@link MapStream#mapKeysToLong(java.util.function.ToLongFunction)}.
+ * To convert back to a {@link MapStream}, use {@link #boxed()} or {@link #mapKeysToObj(LongFunction)}.
+ * 
+ * @see MapStream
+ */
+public interface LongObjMapStream<V> {
+	/** An operation on a primitive {@code long} key and a value */
+	@FunctionalInterface
+	interface LongObjConsumer<V> {
+		void accept(long key, V value);
+	}
+
+	/** A predicate on a primitive {@code long} key and a value */
+	@FunctionalInterface
+	interface LongObjPredicate<V> {
+		boolean test(long key, V value);
+	}
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream which match the given predicate
+	 * 
+	 * @see MapStream#filter(java.util.function.BiPredicate)
+	 */
+	LongObjMapStream<V> filter(LongObjPredicate<? super V> predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose keys match the given predicate
+	 * 
+	 * @see MapStream#filterKeys(Predicate)
+	 */
+	LongObjMapStream<V> filterKeys(LongPredicate predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose values match the given predicate
+	 * 
+	 * @see MapStream#filterValues(Predicate)
+	 */
+	LongObjMapStream<V> filterValues(Predicate<? super V> predicate);
+
+	/**
+	 * Return a stream whose keys are the result of applying the given function to the keys of this stream
+	 * 
+	 * @see MapStream#mapKeys(Function)
+	 */
+	LongObjMapStream<V> mapKeys(LongUnaryOperator mapper);
+
+	/**
+	 * Return a {@link MapStream} whose keys are the result of applying the given function to the keys of this stream
+	 * 
+	 * @see MapStream#mapKeys(Function)
+	 */
+	<K> MapStream<K, V> mapKeysToObj(LongFunction<? extends K> mapper);
+
+	/**
+	 * Return a stream whose values are the result of applying the given function to the values of this stream
+	 * 
+	 * @see MapStream#mapValues(Function)
+	 */
+	<V2> LongObjMapStream<V2> mapValues(Function<? super V, ? extends V2> mapper);
+
+	/** Return a {@link MapStream} with the keys of this stream boxed */
+	MapStream<Long, V> boxed();
+
+	/**
+	 * Return a stream consisting of the key-value pairs of this stream, additionally performing the given action on each key-value pair as
+	 * they are consumed
+	 * 
+	 * @see MapStream#peek(java.util.function.BiConsumer)
+	 */
+	LongObjMapStream<V> peek(LongObjConsumer<? super V> action);
+
+	/** @return a stream of the keys from this stream */
+	LongStream keyStream();
+
+	/** @return a stream of the values from this stream */
+	Stream<V> valueStream();
+
+	/** @see MapStream#isParallel() */
+	boolean isParallel();
+
+	/** @see MapStream#parallel() */
+	LongObjMapStream<V> parallel();
+
+	/** @see MapStream#sequential() */
+	LongObjMapStream<V> sequential();
+
+	// Terminal operations
+
+	/**
+	 * Perform an action on each key-value pair of this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see MapStream#forEach(java.util.function.BiConsumer)
+	 */
+	void forEach(LongObjConsumer<? super V> action);
+
+	/**
+	 * Return the count of the key-value pairs in this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	long count();
+
+	/**
+	 * Return whether any key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean anyMatch(LongObjPredicate<? super V> predicate);
+
+	/**
+	 * Return whether all key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean allMatch(LongObjPredicate<? super V> predicate);
+
+	/**
+	 * Return whether no key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean noneMatch(LongObjPredicate<? super V> predicate);
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link LongObjHashMap}.
+	 * <p>
+	 * If the keys have duplicates, an {@link IllegalStateException} is thrown.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap()
+	 */
+	LongObjHashMap<V> toMap();
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link LongObjHashMap}.
+	 * <p>
+	 * If the keys have duplicates, the given function is called to merge the values into a single value.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap(BinaryOperator)
+	 */
+	LongObjHashMap<V> toMap(BinaryOperator<V> mergeFunction);
+}
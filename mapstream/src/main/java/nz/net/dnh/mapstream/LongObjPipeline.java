@@ -0,0 +1,180 @@
+package nz.net.dnh.mapstream;
+
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implementation of {@link LongObjMapStream} on top of a {@link MapStreamPipeline}. The primitive stages are a function which wraps a
+ * primitive sink in a sink accepting the upstream pipeline's pairs, so terminal operations are evaluated by the upstream pipeline (in
+ * parallel if it is parallel) without boxing the keys.
+ */
+final class LongObjPipeline<V> implements LongObjMapStream<V> {
+	@SuppressWarnings("unchecked")
+	static <K, V> LongObjMapStream<V> of(final MapStream<K, V> mapStream, final ToLongFunction<? super K> mapper) {
+		return new LongObjPipeline<V>((MapStreamPipeline<Object, Object>) MapStreamPipeline.of(mapStream), sink -> (k, v) -> sink.accept(
+				mapper.applyAsLong((K) k), (V) v));
+	}
+
+	private final MapStreamPipeline<Object, Object> upstream;
+	private final Function<LongObjConsumer<? super V>, BiConsumer<Object, Object>> wrap;
+
+	private LongObjPipeline(final MapStreamPipeline<Object, Object> upstream,
+			final Function<LongObjConsumer<? super V>, BiConsumer<Object, Object>> wrap) {
+		this.upstream = upstream;
+		this.wrap = wrap;
+	}
+
+	/** @return a new pipeline with the given stage, which wraps a sink of the new pipeline's pairs in a sink of this pipeline's pairs */
+	private <V2> LongObjPipeline<V2> then(final Function<LongObjConsumer<? super V2>, LongObjConsumer<V>> stage) {
+		return new LongObjPipeline<>(this.upstream, sink -> this.wrap.apply(stage.apply(sink)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private LongObjPipeline<V> withUpstream(final MapStream<Object, Object> upstream) {
+		return new LongObjPipeline<>((MapStreamPipeline<Object, Object>) upstream, this.wrap);
+	}
+
+	@Override
+	public LongObjMapStream<V> filter(final LongObjPredicate<? super V> predicate) {
+		return then(sink -> (k, v) -> {
+			if (predicate.test(k, v)) {
+				sink.accept(k, v);
+			}
+		});
+	}
+
+	@Override
+	public LongObjMapStream<V> filterKeys(final LongPredicate predicate) {
+		return filter((k, v) -> predicate.test(k));
+	}
+
+	@Override
+	public LongObjMapStream<V> filterValues(final Predicate<? super V> predicate) {
+		return filter((k, v) -> predicate.test(v));
+	}
+
+	@Override
+	public LongObjMapStream<V> mapKeys(final LongUnaryOperator mapper) {
+		return then(sink -> (k, v) -> sink.accept(mapper.applyAsLong(k), v));
+	}
+
+	@Override
+	public <K> MapStream<K, V> mapKeysToObj(final LongFunction<? extends K> mapper) {
+		return new MapStreamPipeline.SinkStage<Object, Object, K, V>(this.upstream, sink -> this.wrap.apply((k, v) -> sink.accept(mapper
+				.apply(k), v)));
+	}
+
+	@Override
+	public <V2> LongObjMapStream<V2> mapValues(final Function<? super V, ? extends V2> mapper) {
+		return this.<V2> then(sink -> (k, v) -> sink.accept(k, mapper.apply(v)));
+	}
+
+	@Override
+	public MapStream<Long, V> boxed() {
+		return mapKeysToObj(Long::valueOf);
+	}
+
+	@Override
+	public LongObjMapStream<V> peek(final LongObjConsumer<? super V> action) {
+		return then(sink -> (k, v) -> {
+			action.accept(k, v);
+			sink.accept(k, v);
+		});
+	}
+
+	@Override
+	public LongStream keyStream() {
+		final boolean parallel = isParallel();
+		return StreamSupport.longStream(() -> new PrimitivePairSpliterators.OfLong(this.upstream.pairSpliterator(parallel), sink -> this.wrap
+				.apply((k, v) -> sink.accept(k))), Spliterator.ORDERED, parallel).onClose(this.upstream::close);
+	}
+
+	@Override
+	public Stream<V> valueStream() {
+		// The keys are discarded, so don't box them
+		return mapKeysToObj(k -> null).valueStream();
+	}
+
+	@Override
+	public boolean isParallel() {
+		return this.upstream.isParallel();
+	}
+
+	@Override
+	public LongObjMapStream<V> parallel() {
+		return withUpstream(this.upstream.parallel());
+	}
+
+	@Override
+	public LongObjMapStream<V> sequential() {
+		return withUpstream(this.upstream.sequential());
+	}
+
+	@Override
+	public void forEach(final LongObjConsumer<? super V> action) {
+		this.upstream.evaluate(() -> PairTask.chain(this.wrap.apply(action), () -> null, null), (a, b) -> null, false);
+	}
+
+	@Override
+	public long count() {
+		return this.upstream.evaluate(() -> {
+			final long[] count = new long[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> count[0]++), () -> count[0], null);
+		}, Long::sum, false);
+	}
+
+	@Override
+	public boolean anyMatch(final LongObjPredicate<? super V> predicate) {
+		return ((LongObjPipeline<V>) filter(predicate)).any();
+	}
+
+	@Override
+	public boolean allMatch(final LongObjPredicate<? super V> predicate) {
+		return !anyMatch((k, v) -> !predicate.test(k, v));
+	}
+
+	@Override
+	public boolean noneMatch(final LongObjPredicate<? super V> predicate) {
+		return !anyMatch(predicate);
+	}
+
+	/** @return whether this stream contains any key-value pairs, stopping at the first */
+	private boolean any() {
+		return this.upstream.evaluate(() -> {
+			final boolean[] found = new boolean[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> found[0] = true), () -> found[0], () -> found[0]);
+		}, (a, b) -> a || b, true);
+	}
+
+	@Override
+	public LongObjHashMap<V> toMap() {
+		return this.upstream.evaluate(() -> {
+			final LongObjHashMap<V> map = new LongObjHashMap<>();
+			return PairTask.chain(this.wrap.apply(map::putUnique), () -> map, null);
+		}, (a, b) -> {
+			b.forEach(a::putUnique);
+			return a;
+		}, false);
+	}
+
+	@Override
+	public LongObjHashMap<V> toMap(final BinaryOperator<V> mergeFunction) {
+		return this.upstream.evaluate(() -> {
+			final LongObjHashMap<V> map = new LongObjHashMap<>();
+			return PairTask.chain(this.wrap.apply((k, v) -> map.merge(k, v, mergeFunction)), () -> map, null);
+		}, (a, b) -> {
+			a.mergeAll(b, mergeFunction);
+			return a;
+		}, false);
+	}
+}
@@ -0,0 +1,1165 @@
+package nz.net.dnh.mapstream;
+
+import static java.util.function.Function.identity;
+import static nz.net.dnh.mapstream.MapStreamHelpers.distinctPredicate;
+import static nz.net.dnh.mapstream.MapStreamHelpers.entryConsumer;
+import static nz.net.dnh.mapstream.MapStreamHelpers.entryFunction;
+import static nz.net.dnh.mapstream.MapStreamHelpers.entryPredicate;
+import static nz.net.dnh.mapstream.MapStreamHelpers.keyBiFunction;
+import static nz.net.dnh.mapstream.MapStreamHelpers.mappedPredicate;
+import static nz.net.dnh.mapstream.MapStreamHelpers.valueBiFunction;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.BaseStream;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An equivalent of {@link Stream} that operates on key-value pairs, e.g. from a {@link Map}.
+ * <p>
+ * To obtain a {@link MapStream} from a {@link Map} or a {@link Stream}, use {@link MapStream#of(Map)},
+ * {@link MapStream#of(Stream, Function)}, or {@link MapStream#of(Stream, Function, Function)}.
+ * <p>
+ * To implement {@link MapStream}, only {@link #entryStream()} must be implemented. All other methods have appropriate default
+ * implementations.
+ * <p>
+ * The MapStreams returned by the {@code of} methods don't create an {@link Entry} per key-value pair per stage: stateless operations are
+ * fused into a chain which passes keys and values directly, and entries are created only when they are needed, e.g. by
+ * {@link #entryStream()}, {@link #iterator()} or {@link #collect(Collector)}.
+ * 
+ * @see MultimapStream Obtaining a {@link MapStream} from a multimap
+ */
+@FunctionalInterface
+public interface MapStream<K, V> {
+	/** Return a new {@link MapStream} based on the entries from the given map */
+	public static <K, V> MapStream<K, V> of(final Map<K, V> map) {
+		return new MapStreamPipeline.MapSource<>(map);
+	}
+
+	/**
+	 * Return a new {@link MapStream} based on the entries from the given concurrent map, whose terminal operations (e.g.
+	 * {@link #forEach(BiConsumer)}, {@link #anyMatch(BiPredicate)}, {@link #count()} and the reductions of the primitive-specialized
+	 * streams) are evaluated by the map's own bulk operations, after any filters, mappings and peeks, rather than by a stream of its
+	 * entries. The bulk operations split over the map's table without creating an entry per mapping, and run in parallel in the
+	 * {@link java.util.concurrent.ForkJoinPool#commonPool() common pool} if the map has at least {@code parallelismThreshold} mappings, so
+	 * the functions given to the MapStream must be safe to call from several threads at once, as for a {@link #parallel() parallel}
+	 * MapStream. Terminal operations which need an encounter order, and operations after a stateful operation (e.g. a sort), are evaluated
+	 * as for {@link #of(Map)}.
+	 * 
+	 * @param parallelismThreshold
+	 *            the number of mappings at which the bulk operations run in parallel, as for {@link ConcurrentHashMap#forEach(long,
+	 *            BiConsumer)}; 1 runs them in as many parts as possible, and {@link Long#MAX_VALUE} doesn't use them, so the MapStream is
+	 *            sequential, and if made {@link #parallel() parallel} is split as for {@link #of(Map)}
+	 */
+	public static <K, V> MapStream<K, V> of(final ConcurrentHashMap<K, V> map, final long parallelismThreshold) {
+		return new MapStreamPipeline.ConcurrentMapSource<>(map, parallelismThreshold);
+	}
+
+	/**
+	 * Return a new {@link MapStream} based on the elements from the given stream. Entries in the {@link MapStream} are the result of
+	 * applying the given mapping functions to elements from the given stream.
+	 * <p>
+	 * The given stream should not be used after creating a {@link MapStream} from it.
+	 * 
+	 * @param stream
+	 *            The stream to transform into a {@link MapStream}
+	 * @param keyFunction
+	 *            A mapping function to produce keys
+	 * @param valueFunction
+	 *            A mapping function to produce values
+	 */
+	public static <T, K, V> MapStream<K, V> of(final Stream<T> stream, final Function<T, K> keyFunction, final Function<T, V> valueFunction) {
+		return MapStreamPipeline.ofStream(stream, keyFunction, valueFunction);
+	}
+
+	/**
+	 * Return a new {@link MapStream} based on the elements from the given stream. Entries in the {@link MapStream} are the result of
+	 * applying the given mapping function to elements from the given stream.
+	 * <p>
+	 * The given stream should not be used after creating a {@link MapStream} from it.
+	 * 
+	 * @param stream
+	 *            The stream to transform into a {@link MapStream}
+	 * @param entryFunction
+	 *            A mapping function to produce entries
+	 */
+	public static <T, K, V> MapStream<K, V> of(final Stream<T> stream, final Function<T, Entry<K, V>> entryFunction) {
+		return MapStreamPipeline.ofStream(stream, entryFunction);
+	}
+
+	/**
+	 * Return a new {@link MapStream} of the entries in a file written by {@link #writeTo(Path, Serializer, Serializer)}. The file's index
+	 * is read immediately and its blocks are memory-mapped; entries are decoded lazily as they are traversed. The MapStream is ordered as
+	 * the file was written, and when {@link #parallel() parallel} it splits on block boundaries.
+	 * 
+	 * @param path
+	 *            the file to read
+	 * @param keySerializer
+	 *            reads the keys, which must have been written by an equivalent serializer
+	 * @param valueSerializer
+	 *            reads the values, which must have been written by an equivalent serializer
+	 * @throws IOException
+	 *             if the file can't be read, or isn't a MapStream file
+	 */
+	public static <K, V> MapStream<K, V> ofFile(final Path path, final Serializer<K> keySerializer, final Serializer<V> valueSerializer)
+			throws IOException {
+		final BlockFile<K, V> file = BlockFile.open(path, keySerializer, valueSerializer, null);
+		return new MapStreamPipeline.FileSource<>(file::spliterator, file.size());
+	}
+
+	/**
+	 * Return a new {@link MapStream} of the entries in a file written by {@link #writeTo(Path, Serializer, Serializer)} whose keys are
+	 * between {@code fromKey}, inclusive, and {@code toKey}, exclusive. If the file was written by
+	 * {@link #writeTo(Path, Serializer, Serializer, Comparator)} with a consistent comparator, blocks of the file containing no keys in the
+	 * range are skipped without being decoded, so reading a range of a file of sorted keys only decodes the blocks in that range.
+	 * 
+	 * @param comparator
+	 *            the order of the keys, or null for their natural order
+	 * @param fromKey
+	 *            the least key to read, or null to read from the least key in the file
+	 * @param toKey
+	 *            the key to stop reading before, or null to read to the greatest key in the file
+	 * @throws IOException
+	 *             if the file can't be read, or isn't a MapStream file
+	 * @see #ofFile(Path, Serializer, Serializer)
+	 */
+	public static <K, V> MapStream<K, V> ofFile(final Path path, final Serializer<K> keySerializer, final Serializer<V> valueSerializer,
+			final Comparator<? super K> comparator, final K fromKey, final K toKey) throws IOException {
+		final BlockFile<K, V> file = BlockFile.open(path, keySerializer, valueSerializer, new KeyRange<>(comparator, fromKey, toKey));
+		return new MapStreamPipeline.FileSource<>(file::spliterator, file.size());
+	}
+
+	/**
+	 * Return a new {@link MapStream} of the lines of a text file, e.g. of tab-separated values, each of which is a key and a value
+	 * separated by a delimiter. The file is memory-mapped, and keys and values are parsed directly from its bytes as they are traversed,
+	 * so e.g. {@link FieldParser#ofLongs()} doesn't create a string per key. When {@link #parallel() parallel}, the file is split into
+	 * ranges of bytes at line boundaries, so it splits as well as an array.
+	 * <p>
+	 * Lines end with a line feed, which may be preceded by a carriage return, and empty lines are skipped. The key is the bytes before the
+	 * first delimiter in a line and the value is the rest of the line, so the delimiter must be a single-byte character (e.g. {@code '\t'}
+	 * or {@code ','}) which can't appear in a key; quoted fields aren't supported.
+	 * 
+	 * @param path
+	 *            the file to read
+	 * @param delimiter
+	 *            the byte separating the key and value in each line
+	 * @param keyParser
+	 *            parses the keys
+	 * @param valueParser
+	 *            parses the values
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	public static <K, V> MapStream<K, V> ofDelimitedFile(final Path path, final byte delimiter, final FieldParser<K> keyParser,
+			final FieldParser<V> valueParser) throws IOException {
+		return new MapStreamPipeline.FileSource<>(DelimitedFile.open(path, delimiter, keyParser, valueParser)::spliterator, -1);
+	}
+
+	/** @return the stream of entries (key-value pairs) for this MapStream */
+	Stream<Entry<K, V>> entryStream();
+
+	/** @return a stream of the keys from this MapStream */
+	default Stream<K> keyStream() {
+		return entryStream().map(Entry::getKey);
+	}
+
+	/** @return a stream of the values from this MapStream */
+	default Stream<V> valueStream() {
+		return entryStream().map(Entry::getValue);
+	}
+
+	/**
+	 * Return a MapStream consisting of the elements from this MapStream which match the given predicate
+	 * 
+	 * @param predicate
+	 *            A predicate to apply to each key-value pair to determine whether the entry should be in the returned MapStream
+	 * @see Stream#filter(Predicate)
+	 */
+	default MapStream<K, V> filter(final BiPredicate<? super K, ? super V> predicate) {
+		return () -> entryStream().filter(entryPredicate(predicate));
+	}
+
+	/**
+	 * Return a MapStream consisting of the elements from this MapStream whose keys match the given predicate
+	 * <p>
+	 * The MapStreams returned by the {@code MapStream.of} methods test the keys before any immediately preceding mappings of only the
+	 * values, so those mappers aren't called for entries which are removed.
+	 * 
+	 * @param predicate
+	 *            A predicate to apply to each key to determine whether the key's entry should be in the returned MapStream
+	 * @see Stream#filter(Predicate)
+	 */
+	default MapStream<K, V> filterKeys(final Predicate<? super K> predicate) {
+		return () -> entryStream().filter(mappedPredicate(Entry::getKey, predicate));
+	}
+
+	/**
+	 * Return a MapStream consisting of the elements from this MapStream whose values match the given predicate
+	 * <p>
+	 * Like {@link #filterKeys(Predicate)}, the MapStreams returned by the {@code MapStream.of} methods test the values before any
+	 * immediately preceding mappings of only the keys.
+	 * 
+	 * @param predicate
+	 *            A predicate to apply to each value to determine whether the value's entry should be in the returned MapStream
+	 * @see Stream#filter(Predicate)
+	 */
+	default MapStream<K, V> filterValues(final Predicate<? super V> predicate) {
+		return () -> entryStream().filter(mappedPredicate(Entry::getValue, predicate));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream whose keys are between {@code fromKey}, inclusive, and
+	 * {@code toKey}, exclusive, in the natural order of the keys. Either bound may be null, for a range which is unbounded at that end.
+	 * 
+	 * @see #keyRange(Comparator, Object, Object)
+	 */
+	default MapStream<K, V> keyRange(final K fromKey, final K toKey) {
+		return keyRange(null, fromKey, toKey);
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream whose keys are between {@code fromKey}, inclusive, and
+	 * {@code toKey}, exclusive, in the order of the given comparator, or their natural order if it is null. Either bound may be null, for a
+	 * range which is unbounded at that end.
+	 * <p>
+	 * The MapStreams returned by the {@code MapStream.of} methods look up the range with {@link java.util.SortedMap#subMap(Object, Object)}
+	 * if they were created from a {@link java.util.SortedMap} in the same order, and no stage before this one changes the entries.
+	 */
+	default MapStream<K, V> keyRange(final Comparator<? super K> comparator, final K fromKey, final K toKey) {
+		return filterKeys(new KeyRange<>(comparator, fromKey, toKey)::contains);
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream whose keys are in the given set.
+	 * <p>
+	 * The MapStreams returned by the {@code MapStream.of} methods look up each of the keys in the map they were created from, if it is an
+	 * unordered {@link java.util.HashMap} or {@link ConcurrentHashMap}, or a {@link java.util.NavigableMap}, and no stage before this one
+	 * changes the entries. The lookups find the same entries as filtering the keys would.
+	 */
+	default MapStream<K, V> keyIn(final Set<? extends K> keys) {
+		return filterKeys(keys::contains);
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream whose keys are equal to the given key.
+	 * <p>
+	 * The MapStreams returned by the {@code MapStream.of} methods look up the key in the map they were created from, if it is a
+	 * {@link java.util.HashMap}, {@link ConcurrentHashMap} or {@link java.util.NavigableMap}, and no stage before this one changes the
+	 * entries. The lookup finds the same entry as filtering the keys would.
+	 */
+	default MapStream<K, V> keyEquals(final K key) {
+		return filterKeys(k -> Objects.equals(k, key));
+	}
+
+	/**
+	 * Return a stream consisting of the results of applying the given function to the key-value pairs of this MapStream.
+	 * <p>
+	 * NB: This flattens this MapStream into a {@link Stream}.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each key-value pair; the return values of this function will be in the returned stream
+	 * @see Stream#map(Function)
+	 */
+	default <R> Stream<R> map(final BiFunction<? super K, ? super V, ? extends R> mapper) {
+		return entryStream().map(entryFunction(mapper));
+	}
+
+	/**
+	 * Return a MapStream whose keys are the result of applying the given function to the keys of this MapStream.
+	 * <p>
+	 * The values of the entries will remain unchanged.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each key; the return values of this function will be used as the keys of the returned MapStream
+	 * @see Stream#map(Function)
+	 */
+	default <K2> MapStream<K2, V> mapKeys(final Function<? super K, ? extends K2> mapper) {
+		return map(mapper, identity());
+	}
+
+	/**
+	 * Return a MapStream whose keys are the result of applying the given function to the key-value pairs of this MapStream.
+	 * <p>
+	 * The values of the entries will remain unchanged.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each key-value pair; the return values of this function will be used as the keys of the returned
+	 *            MapStream
+	 * @see Stream#map(Function)
+	 */
+	default <K2> MapStream<K2, V> mapKeys(final BiFunction<? super K, ? super V, ? extends K2> mapper) {
+		return map(mapper, valueBiFunction());
+	}
+
+	/**
+	 * Return a MapStream whose values are the result of applying the given function to the values of this MapStream.
+	 * <p>
+	 * The keys of the entries will remain unchanged.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each value; the return values of this function will be used as the values of the returned MapStream
+	 * @see Stream#map(Function)
+	 */
+	default <V2> MapStream<K, V2> mapValues(final Function<? super V, ? extends V2> mapper) {
+		return map(identity(), mapper);
+	}
+
+	/**
+	 * Return a MapStream whose values are the result of applying the given function to the key-value pairs of this MapStream.
+	 * <p>
+	 * The keys of the entries will remain unchanged.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each key-value pair; the return values of this function will be used as the values of the returned
+	 *            MapStream
+	 * @see Stream#map(Function)
+	 */
+	default <V2> MapStream<K, V2> mapValues(final BiFunction<? super K, ? super V, ? extends V2> mapper) {
+		return map(keyBiFunction(), mapper);
+	}
+
+	/**
+	 * Return a MapStream whose entries are the result of applying the given functions to the keys and values of this MapStream.
+	 * 
+	 * @param keyMapper
+	 *            A function to apply to each key; the return values of this function will be used as the keys of the returned MapStream
+	 * @param valueMapper
+	 *            A function to apply to each value; the return values of this function will be used as the values of the returned MapStream
+	 * @see Stream#map(Function)
+	 */
+	default <K2, V2> MapStream<K2, V2> map(final Function<? super K, ? extends K2> keyMapper,
+			final Function<? super V, ? extends V2> valueMapper) {
+		return map((k, v) -> keyMapper.apply(k), (k, v) -> valueMapper.apply(v));
+	}
+
+	/**
+	 * Return a MapStream whose entries are the result of applying the given functions to the key-value pairs of this MapStream.
+	 * 
+	 * @param keyMapper
+	 *            A function to apply to each key-value pair; the return values of this function will be used as the keys of the returned
+	 *            MapStream
+	 * @param valueMapper
+	 *            A function to apply to each key-value pair; the return values of this function will be used as the values of the returned
+	 *            MapStream
+	 * @see Stream#map(Function)
+	 */
+	default <K2, V2> MapStream<K2, V2> map(final BiFunction<? super K, ? super V, ? extends K2> keyMapper,
+			final BiFunction<? super K, ? super V, ? extends V2> valueMapper) {
+		return () -> entryStream().map(
+				e -> new SimpleImmutableEntry<>(keyMapper.apply(e.getKey(), e.getValue()), valueMapper.apply(e.getKey(), e.getValue())));
+	}
+
+	/**
+	 * Return a stream whose values are the result of applying the given function to the values of this MapStream, specialized for
+	 * primitive {@code int} values to avoid boxing.
+	 * <p>
+	 * The keys of the entries will remain unchanged.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each value; the return values of this function will be used as the values of the returned stream
+	 * @see #mapValues(Function)
+	 */
+	default ObjIntMapStream<K> mapValuesToInt(final ToIntFunction<? super V> mapper) {
+		return ObjIntPipeline.of(this, mapper);
+	}
+
+	/**
+	 * Return a stream whose values are the result of applying the given function to the values of this MapStream, specialized for
+	 * primitive {@code long} values to avoid boxing.
+	 * <p>
+	 * The keys of the entries will remain unchanged.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each value; the return values of this function will be used as the values of the returned stream
+	 * @see #mapValues(Function)
+	 */
+	default ObjLongMapStream<K> mapValuesToLong(final ToLongFunction<? super V> mapper) {
+		return ObjLongPipeline.of(this, mapper);
+	}
+
+	/**
+	 * Return a stream whose values are the result of applying the given function to the values of this MapStream, specialized for
+	 * primitive {@code double} values to avoid boxing.
+	 * <p>
+	 * The keys of the entries will remain unchanged.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each value; the return values of this function will be used as the values of the returned stream
+	 * @see #mapValues(Function)
+	 */
+	default ObjDoubleMapStream<K> mapValuesToDouble(final ToDoubleFunction<? super V> mapper) {
+		return ObjDoublePipeline.of(this, mapper);
+	}
+
+	/**
+	 * Return a stream whose keys are the result of applying the given function to the keys of this MapStream, specialized for primitive
+	 * {@code int} keys to avoid boxing.
+	 * <p>
+	 * The values of the entries will remain unchanged.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each key; the return values of this function will be used as the keys of the returned stream
+	 * @see #mapKeys(Function)
+	 */
+	default IntObjMapStream<V> mapKeysToInt(final ToIntFunction<? super K> mapper) {
+		return IntObjPipeline.of(this, mapper);
+	}
+
+	/**
+	 * Return a stream whose keys are the result of applying the given function to the keys of this MapStream, specialized for primitive
+	 * {@code long} keys to avoid boxing.
+	 * <p>
+	 * The values of the entries will remain unchanged.
+	 * 
+	 * @param mapper
+	 *            A function to apply to each key; the return values of this function will be used as the keys of the returned stream
+	 * @see #mapKeys(Function)
+	 */
+	default LongObjMapStream<V> mapKeysToLong(final ToLongFunction<? super K> mapper) {
+		return LongObjPipeline.of(this, mapper);
+	}
+
+	/**
+	 * Return a MapStream consisting of the distinct key-value pairs of this MapStream.
+	 * <p>
+	 * Key-value pairs are considered equal if their keys and values both compare as {@link Object#equals(Object) equal}. Key-value pairs
+	 * with the same key but different values, or the same value but different keys, are not considered equal. This means that this method
+	 * can return a MapStream containing duplicate entries for a single key.
+	 * 
+	 * @see #distinctKeys() Retrieving a MapStream with distinct keys
+	 * @see #distinctValues() Retrieving a MapStream with distinct values
+	 * @see Stream#distinct()
+	 */
+	default MapStream<K, V> distinct() {
+		return () -> entryStream().distinct();
+	}
+
+	/**
+	 * Return a MapStream consisting of the key-value pairs of this MapStream with distinct keys.
+	 * <p>
+	 * If multiple key-value pairs share the same key (determined by {@link Object#equals(Object)}), only the first key-value pair
+	 * encountered will be present in the returned MapStream.
+	 * <p>
+	 * The MapStreams returned by the {@code MapStream.of} methods remember the keys seen so far in an unsynchronized hash set when
+	 * evaluated sequentially. When evaluated in parallel they remove duplicates from each partition separately and merge the partitions in
+	 * encounter order, and only use a concurrent set if the MapStream is {@link #unordered()}. If such a MapStream is known to be sorted by
+	 * key (e.g. after {@link #sortedKeys()}, or when created from a {@link java.util.SortedMap}), only the previous key is remembered.
+	 * 
+	 * @see Stream#distinct()
+	 */
+	default MapStream<K, V> distinctKeys() {
+		return filterKeys(distinctPredicate());
+	}
+
+	/**
+	 * Return a MapStream consisting of the key-value pairs of this MapStream with distinct values.
+	 * <p>
+	 * If multiple key-value pairs share the same value (determined by {@link Object#equals(Object)}), only the first key-value pair
+	 * encountered will be present in the returned MapStream.
+	 * <p>
+	 * The MapStreams returned by the {@code MapStream.of} methods remember the values seen so far in an unsynchronized hash set when
+	 * evaluated sequentially. When evaluated in parallel they remove duplicates from each partition separately and merge the partitions in
+	 * encounter order, and only use a concurrent set if the MapStream is {@link #unordered()}.
+	 * 
+	 * @see Stream#distinct()
+	 */
+	default MapStream<K, V> distinctValues() {
+		return filterValues(distinctPredicate());
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted according to the natural order of the keys.
+	 * <p>
+	 * If the keys of this MapStream are not {@code Comparable}, a {@code java.lang.ClassCastException} may be thrown when the terminal
+	 * operation is executed.
+	 * 
+	 * @see Stream#sorted()
+	 */
+	@SuppressWarnings("unchecked")
+	default MapStream<K, V> sortedKeys() {
+		return sortedKeys((Comparator<? super K>) Comparator.naturalOrder());
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted by their keys according to the given comparator
+	 * <p>
+	 * The MapStreams returned by the {@code MapStream.of} methods don't sort keys which are already known to be sorted by the same
+	 * comparator, e.g. when created from a {@link java.util.SortedMap} or after an earlier sort by key, through any filters, peeks, value
+	 * mappings, limits and skips.
+	 * 
+	 * @see Stream#sorted(Comparator)
+	 */
+	default MapStream<K, V> sortedKeys(final Comparator<? super K> comparator) {
+		return () -> entryStream().sorted(Entry.comparingByKey(comparator));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted by the given {@code long} function of their keys, e.g. a
+	 * timestamp. The sort is stable.
+	 * <p>
+	 * This is equivalent to {@code sortedKeys(Comparator.comparingLong(keyFunction))}, but the MapStreams returned by the
+	 * {@code MapStream.of} methods sort the entries with a radix sort of the extracted {@code long}s rather than comparing the keys, which
+	 * is several times faster for large MapStreams.
+	 * 
+	 * @see #sortedKeys(Comparator)
+	 */
+	default MapStream<K, V> sortedKeysByLong(final ToLongFunction<? super K> keyFunction) {
+		return sortedKeys(Comparator.comparingLong(keyFunction));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted by the given {@code int} function of their keys. The sort is
+	 * stable.
+	 * 
+	 * @see #sortedKeysByLong(ToLongFunction)
+	 */
+	default MapStream<K, V> sortedKeysByInt(final ToIntFunction<? super K> keyFunction) {
+		return sortedKeys(Comparator.comparingInt(keyFunction));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted by the given {@code double} function of their keys, in the
+	 * order of {@link Double#compare(double, double)}. The sort is stable.
+	 * 
+	 * @see #sortedKeysByLong(ToLongFunction)
+	 */
+	default MapStream<K, V> sortedKeysByDouble(final ToDoubleFunction<? super K> keyFunction) {
+		return sortedKeys(Comparator.comparingDouble(keyFunction));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted by their keys according to the given comparator, holding at
+	 * most about {@code memoryBudgetBytes} of entries in memory. Entries are serialized as they are consumed, and whenever their
+	 * serialized size (plus a small fixed overhead per entry) exceeds the budget, they are sorted and written to a temporary file. The
+	 * files are then merged lazily, through memory-mapped buffers, with the entries still in memory. The sort is stable.
+	 * <p>
+	 * Each temporary file is deleted once its entries have been read, and any which remain are deleted when this MapStream is
+	 * {@link #close() closed}, so use {@link #autoCloseable()} in a try-with-resources statement to make sure they are deleted.
+	 * 
+	 * @param comparator
+	 *            the comparator of the keys
+	 * @param keySerializer
+	 *            writes the keys to the temporary files and reads them back
+	 * @param valueSerializer
+	 *            writes the values to the temporary files and reads them back
+	 * @param memoryBudgetBytes
+	 *            the estimated size of the entries to hold in memory before writing them to a file
+	 * @see #sortedKeys(Comparator)
+	 */
+	default MapStream<K, V> externalSortedKeys(final Comparator<? super K> comparator, final Serializer<K> keySerializer,
+			final Serializer<V> valueSerializer, final long memoryBudgetBytes) {
+		return MapStreamPipeline.of(this).externalSortedKeys(comparator, keySerializer, valueSerializer, memoryBudgetBytes);
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted according to the natural order of the values.
+	 * <p>
+	 * If the values of this MapStream are not {@code Comparable}, a {@code java.lang.ClassCastException} may be thrown when the terminal
+	 * operation is executed.
+	 * 
+	 * @see Stream#sorted()
+	 */
+	@SuppressWarnings("unchecked")
+	default MapStream<K, V> sortedValues() {
+		return sortedValues((Comparator<? super V>) Comparator.naturalOrder());
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted by their values according to the given comparator
+	 * 
+	 * @see Stream#sorted(Comparator)
+	 */
+	default MapStream<K, V> sortedValues(final Comparator<? super V> comparator) {
+		return () -> entryStream().sorted(Entry.comparingByValue(comparator));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted by the given {@code long} function of their values. The sort
+	 * is stable.
+	 * 
+	 * @see #sortedKeysByLong(ToLongFunction)
+	 */
+	default MapStream<K, V> sortedValuesByLong(final ToLongFunction<? super V> valueFunction) {
+		return sortedValues(Comparator.comparingLong(valueFunction));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted by the given {@code int} function of their values. The sort
+	 * is stable.
+	 * 
+	 * @see #sortedKeysByLong(ToLongFunction)
+	 */
+	default MapStream<K, V> sortedValuesByInt(final ToIntFunction<? super V> valueFunction) {
+		return sortedValues(Comparator.comparingInt(valueFunction));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream sorted by the given {@code double} function of their values, in the
+	 * order of {@link Double#compare(double, double)}. The sort is stable.
+	 * 
+	 * @see #sortedKeysByLong(ToLongFunction)
+	 */
+	default MapStream<K, V> sortedValuesByDouble(final ToDoubleFunction<? super V> valueFunction) {
+		return sortedValues(Comparator.comparingDouble(valueFunction));
+	}
+
+	/**
+	 * Return a MapStream consisting of the {@code n} entries from this MapStream with the greatest keys according to the given comparator,
+	 * in descending order. Entries with equal keys are kept in encounter order.
+	 * <p>
+	 * This is equivalent to {@code sortedKeys(comparator.reversed()).limit(n)}. The MapStreams returned by the {@code MapStream.of} methods
+	 * evaluate both forms by keeping only the first {@code n} entries in a bounded heap, rather than sorting all of the entries; when
+	 * evaluated in parallel, each partition has its own heap and the heaps are merged.
+	 * 
+	 * @param n
+	 *            The maximum number of entries to return
+	 * @see #sortedKeys(Comparator)
+	 */
+	default MapStream<K, V> topByKey(final int n, final Comparator<? super K> comparator) {
+		return sortedKeys(comparator.reversed()).limit(n);
+	}
+
+	/**
+	 * Return a MapStream consisting of the {@code n} entries from this MapStream with the greatest values according to the given
+	 * comparator, in descending order. Entries with equal values are kept in encounter order.
+	 * <p>
+	 * This is equivalent to {@code sortedValues(comparator.reversed()).limit(n)}; see {@link #topByKey(int, Comparator)}.
+	 * 
+	 * @param n
+	 *            The maximum number of entries to return
+	 * @see #sortedValues(Comparator)
+	 */
+	default MapStream<K, V> topByValue(final int n, final Comparator<? super V> comparator) {
+		return sortedValues(comparator.reversed()).limit(n);
+	}
+
+	/**
+	 * Return a MapStream consisting of the {@code n} entries from this MapStream with the least values according to the given comparator,
+	 * in ascending order. Entries with equal values are kept in encounter order.
+	 * <p>
+	 * This is equivalent to {@code sortedValues(comparator).limit(n)}; see {@link #topByKey(int, Comparator)}.
+	 * 
+	 * @param n
+	 *            The maximum number of entries to return
+	 * @see #sortedValues(Comparator)
+	 */
+	default MapStream<K, V> bottomByValue(final int n, final Comparator<? super V> comparator) {
+		return sortedValues(comparator).limit(n);
+	}
+
+	/**
+	 * Return a MapStream consisting of each distinct key from this MapStream, with the result of reducing the values for that key using the
+	 * given associative function.
+	 * <p>
+	 * This is equivalent to collecting with {@link EntryCollectors#toMap(BinaryOperator)} and streaming the result, but the MapStreams
+	 * returned by the {@code MapStream.of} methods don't merge whole maps when evaluated in parallel: each thread reduces its pairs into
+	 * its own hash partitions of the keys, and the partitions are then merged in parallel. The keys are in order of first occurrence when
+	 * evaluated sequentially, and in no particular order when evaluated in parallel.
+	 * 
+	 * @param reducer
+	 *            an associative function which combines two values for the same key, earlier value first
+	 * @see Stream#reduce(BinaryOperator)
+	 */
+	default MapStream<K, V> reduceByKey(final BinaryOperator<V> reducer) {
+		return () -> collect(EntryCollectors.toMap(reducer, LinkedHashMap<K, V>::new)).entrySet().stream();
+	}
+
+	/**
+	 * Return a MapStream consisting of each distinct key from this MapStream, with a list of the values for that key in encounter order.
+	 * <p>
+	 * This is a special case of {@link #aggregateByKey(Supplier, BiConsumer, BinaryOperator)}.
+	 */
+	default MapStream<K, List<V>> groupByKey() {
+		return aggregateByKey(ArrayList<V>::new, List::add, (a, b) -> {
+			a.addAll(b);
+			return a;
+		});
+	}
+
+	/**
+	 * Return a MapStream consisting of each distinct key from this MapStream, with the result of a mutable reduction of the values for that
+	 * key. For each key, a container is created by the supplier, and each value is added to it by the accumulator; if this MapStream is
+	 * evaluated in parallel, containers for the same key are combined by the combiner.
+	 * <p>
+	 * See {@link #reduceByKey(BinaryOperator)} for how this is evaluated in parallel and the order of the keys.
+	 * 
+	 * @param supplier
+	 *            creates a new, empty container
+	 * @param accumulator
+	 *            adds a value to a container
+	 * @param combiner
+	 *            combines two containers for the same key, and returns the result; the first container has the earlier values
+	 * @see Stream#collect(Supplier, BiConsumer, BiConsumer)
+	 */
+	default <A> MapStream<K, A> aggregateByKey(final Supplier<A> supplier, final BiConsumer<A, ? super V> accumulator,
+			final BinaryOperator<A> combiner) {
+		final Collector<V, A, A> valueCollector = Collector.of(supplier, accumulator::accept, combiner);
+		return () -> collect(Collectors.groupingBy(Entry<K, V>::getKey, LinkedHashMap::new, Collectors.mapping(Entry<K, V>::getValue,
+				valueCollector))).entrySet().stream();
+	}
+
+	/**
+	 * Return a MapStream consisting of a pair for each pair of pairs from this MapStream and the given MapStream with equal keys, whose
+	 * value is the result of combining their values with the given function.
+	 * <p>
+	 * If the keys of both MapStreams are sorted by the same comparator (e.g. they are {@link java.util.SortedMap SortedMaps} or the result
+	 * of {@link #sortedKeys(Comparator)} with the same comparator) and the join is evaluated sequentially, the MapStreams are merged as
+	 * they are traversed, keys are compared with that comparator, and only the values from the other MapStream for the current key are
+	 * held in memory. Otherwise the keys are compared with {@link Object#equals(Object)}: the values of the smaller MapStream, if known,
+	 * are collected into a hash table by key, and the pairs of the larger MapStream are looked up in it, in parallel if the join is
+	 * evaluated in parallel. The order of the pairs is unspecified unless both MapStreams are sorted by key.
+	 * 
+	 * @param other
+	 *            the MapStream to join with this one; it is consumed when this MapStream is evaluated
+	 * @param combiner
+	 *            combines a value from this MapStream with a value from the other MapStream with an equal key
+	 * @see #leftJoin(MapStream, BiFunction)
+	 * @see #fullOuterJoin(MapStream, BiFunction)
+	 */
+	default <W, R> MapStream<K, R> join(final MapStream<K, W> other, final BiFunction<? super V, ? super W, ? extends R> combiner) {
+		return MapStreamPipeline.of(this).join(other, combiner);
+	}
+
+	/**
+	 * Return a MapStream which is the result of {@link #join(MapStream, BiFunction)}, plus a pair for each pair from this MapStream whose
+	 * key is not in the other MapStream, whose value is the result of the combiner with a null second argument. The other MapStream is
+	 * always the one collected into a hash table, so the pairs are in the order of this MapStream unless both MapStreams are sorted by key.
+	 */
+	default <W, R> MapStream<K, R> leftJoin(final MapStream<K, W> other, final BiFunction<? super V, ? super W, ? extends R> combiner) {
+		return MapStreamPipeline.of(this).leftJoin(other, combiner);
+	}
+
+	/**
+	 * Return a MapStream which is the result of {@link #leftJoin(MapStream, BiFunction)}, plus a pair for each pair from the other
+	 * MapStream whose key is not in this MapStream, whose value is the result of the combiner with a null first argument. Unless both
+	 * MapStreams are sorted by key, those pairs follow all of the others; a parallel evaluation therefore collects the result of the left
+	 * join before returning any pairs.
+	 */
+	default <W, R> MapStream<K, R> fullOuterJoin(final MapStream<K, W> other,
+			final BiFunction<? super V, ? super W, ? extends R> combiner) {
+		return MapStreamPipeline.of(this).fullOuterJoin(other, combiner);
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream, additionally performing the given action on each key-value pair as
+	 * elements are consumed from the resulting stream
+	 * 
+	 * @param action
+	 *            The action to perform on the elements as elements are consumed from the resulting stream
+	 * @see Stream#peek(Consumer)
+	 */
+	default MapStream<K, V> peek(final BiConsumer<? super K, ? super V> action) {
+		return () -> entryStream().peek(entryConsumer(action));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream, additionally performing the given action on each key as elements
+	 * are consumed from the resulting stream
+	 * 
+	 * @param action
+	 *            The action to perform on the keys as elements are consumed from the resulting stream
+	 * @see Stream#peek(Consumer)
+	 */
+	default MapStream<K, V> peekKeys(final Consumer<? super K> action) {
+		return () -> entryStream().peek(e -> action.accept(e.getKey()));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries from this MapStream, additionally performing the given action on each value as elements
+	 * are consumed from the resulting stream
+	 * 
+	 * @param action
+	 *            The action to perform on the values as elements are consumed from the resulting stream
+	 * @see Stream#peek(Consumer)
+	 */
+	default MapStream<K, V> peekValues(final Consumer<? super V> action) {
+		return () -> entryStream().peek(e -> action.accept(e.getValue()));
+	}
+
+	/**
+	 * Return a MapStream consisting of the entries of this MapStream, truncated to be no longer than maxSize in length.
+	 * 
+	 * @param maxSize
+	 *            The number of entries the stream should be limited to
+	 * @see Stream#limit(long)
+	 */
+	default MapStream<K, V> limit(final long maxSize) {
+		return () -> entryStream().limit(maxSize);
+	}
+
+	/**
+	 * Return a MapStream consisting of the remaining entries of this MapStream after discarding the first n entries
+	 * 
+	 * @param n
+	 *            The number of leading entries to skip
+	 * @see Stream#skip(long)
+	 */
+	default MapStream<K, V> skip(final long n) {
+		return () -> entryStream().skip(n);
+	}
+
+	/**
+	 * Returns whether this MapStream would execute terminal operations in parallel.
+	 * 
+	 * @see BaseStream#isParallel()
+	 */
+	default boolean isParallel() {
+		return entryStream().isParallel();
+	}
+
+	/**
+	 * Return an equivalent MapStream whose stateless operations are evaluated by classes dedicated to the functions given to them.
+	 * <p>
+	 * Normally each kind of operation (e.g. {@link #filter(BiPredicate)}) is evaluated by the same code for every MapStream, so in a
+	 * program which uses many different MapStreams, the JIT compiler sees many different functions called from the same place, and stops
+	 * inlining them. The MapStreams returned by the {@code MapStream.of} methods evaluate the filters, mappings and peeks since their most
+	 * recent stateful operation (e.g. a sort) with copies of their code which are only shared with other compiled MapStreams that use
+	 * functions from the same lambda expressions or classes, so the functions can be inlined. The first evaluation of each new combination
+	 * of functions loads a new class, so compilation only pays off for MapStreams which are evaluated many times, or built repeatedly by
+	 * the same code, over many entries. Call this again after a stateful operation to compile the operations following it.
+	 * <p>
+	 * Other MapStreams are returned unchanged.
+	 */
+	default MapStream<K, V> compile() {
+		return this;
+	}
+
+	/**
+	 * Return a description of the plan by which this MapStream is evaluated, for diagnostics. The MapStreams returned by the
+	 * {@code MapStream.of} methods describe their source and each stateful operation (a barrier) on a line of its own, followed by an
+	 * indented line for each stateless stage evaluated with it, after consecutive mappings have been fused and filters moved ahead of
+	 * mappings. For example, {@code MapStream.of(map).mapValues(f).mapValues(g).filterKeys(p).limit(5).limit(3)} is described as:
+	 * 
+	 * <pre>
+	 * MapSource[HashMap]
+	 *   FilterStage[keys]
+	 *   MapStage[values, 2 fused]
+	 * SliceBarrier[skip 0, limit 3]
+	 * </pre>
+	 * 
+	 * The format is not specified and may change.
+	 */
+	default String explain() {
+		return MapStreamPipeline.of(this).explain();
+	}
+
+	/**
+	 * Returns an equivalent MapStream that is sequential.
+	 *
+	 * @return a sequential stream
+	 * @see BaseStream#sequential()
+	 * @see #parallel()
+	 */
+	default MapStream<K, V> sequential() {
+		return () -> entryStream().sequential();
+	}
+
+	/**
+	 * Returns an equivalent MapStream that is parallel.
+	 *
+	 * @return a parallel stream
+	 * @see BaseStream#parallel()
+	 * @see #sequential()
+	 */
+	default MapStream<K, V> parallel() {
+		return () -> entryStream().parallel();
+	}
+
+	/**
+	 * Returns an equivalent MapStream that is unordered.
+	 * 
+	 * @see BaseStream#unordered()
+	 */
+	default MapStream<K, V> unordered() {
+		return () -> entryStream().unordered();
+	}
+
+	/**
+	 * Return an equivalent MapStream whose subsequent stateful operations retain at most about the given number of bytes each, spilling the
+	 * rest of their input to temporary files using Java serialization. See {@link #withMemoryBudget(MemoryBudget)}.
+	 */
+	default MapStream<K, V> withMemoryBudget(final long bytes) {
+		return withMemoryBudget(new MemoryBudget(bytes));
+	}
+
+	/**
+	 * Return an equivalent MapStream whose subsequent {@link #distinctKeys()}, {@link #distinctValues()}, {@link #groupByKey()},
+	 * {@link #reduceByKey(BinaryOperator)} and {@link #aggregateByKey(Supplier, BiConsumer, BinaryOperator)} operations retain at most
+	 * about the given budget of pairs in memory each. Once an operation exhausts the budget, it writes the rest of its input to temporary
+	 * files, hash-partitioned by key (or value), and processes the partitions one at a time after its input is exhausted, so each partition
+	 * must fit in memory on its own. The operations are evaluated sequentially, and if they spill, the order of their output is by
+	 * partition rather than by first occurrence. {@link MemoryBudget#spilledPairs()} and {@link MemoryBudget#spilledBytes()} report how
+	 * much was spilled.
+	 * <p>
+	 * {@link #reduceByKey(BinaryOperator)} and {@link #aggregateByKey(Supplier, BiConsumer, BinaryOperator)} keep one aggregate per key,
+	 * so they only count the first pair for each key against the budget, and only spill pairs whose keys aren't already in memory.
+	 * <p>
+	 * Temporary files are deleted once their partition has been processed, and any which remain are deleted when this MapStream is
+	 * {@link #close() closed}.
+	 */
+	default MapStream<K, V> withMemoryBudget(final MemoryBudget budget) {
+		return MapStreamPipeline.of(this).withMemoryBudget(budget);
+	}
+
+	/**
+	 * Evaluate this MapStream now, and return a MapStream of its entries which can be traversed any number of times without evaluating
+	 * this MapStream again. The keys and values are held in a pair of arrays, so subsequent operations split evenly when
+	 * {@link #parallel() parallel}. The returned MapStream is parallel if this one is, has the same close handlers, and keeps any ordering
+	 * or distinctness of keys known to this MapStream.
+	 * <p>
+	 * This is a terminal operation for this MapStream.
+	 * 
+	 * @see #cacheWithValueDictionary()
+	 */
+	default MapStream<K, V> cache() {
+		return MapStreamPipeline.of(this).cache();
+	}
+
+	/**
+	 * Evaluate this MapStream now, as {@link #cache()} does, but store each distinct value only once: values are replaced by their index
+	 * in a dictionary of the distinct values, so values which are equal but not identical (e.g. strings parsed from a file) are retained
+	 * once rather than once per entry. Equal values are therefore replaced by the first of them, so this is only suitable for values which
+	 * are immutable, and it is only worthwhile if many values are repeated.
+	 * <p>
+	 * This is a terminal operation for this MapStream.
+	 */
+	default MapStream<K, V> cacheWithValueDictionary() {
+		return MapStreamPipeline.of(this).cacheWithValueDictionary();
+	}
+
+	/**
+	 * Returns an equivalent stream with an additional close handler. Close handlers are run when the {@link #close()} method is called on
+	 * the stream, and are executed in the order they were added.
+	 *
+	 * @param closeHandler
+	 *            A task to execute when the stream is closed
+	 * @see BaseStream#onClose(Runnable)
+	 */
+	default MapStream<K, V> onClose(final Runnable closeHandler) {
+		return () -> entryStream().onClose(closeHandler);
+	}
+
+	/**
+	 * Closes this stream, causing all close handlers for this stream pipeline to be called.
+	 *
+	 * @see BaseStream#close()
+	 */
+	default void close() {
+		entryStream().close();
+	}
+
+	// Terminal operations
+
+	/**
+	 * Perform an action on each key-value pair of this MapStream.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @param action
+	 *            The action to perform on the key-value pairs
+	 * @see Stream#forEach(Consumer)
+	 */
+	default void forEach(final BiConsumer<? super K, ? super V> action) {
+		entryStream().forEach(entryConsumer(action));
+	}
+
+	/**
+	 * Perform an action on each key-value pair of this MapStream, in the encounter order of the stream if the stream has a defined
+	 * encounter order.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @param action
+	 *            The action to perform on the key-value pairs
+	 * @see Stream#forEachOrdered(Consumer)
+	 */
+	default void forEachOrdered(final BiConsumer<? super K, ? super V> action) {
+		entryStream().forEachOrdered(entryConsumer(action));
+	}
+
+	/**
+	 * Write the entries of this MapStream to a file, in encounter order, in a compact binary format which {@link #ofFile(Path, Serializer,
+	 * Serializer)} reads. The file is replaced if it exists, and deleted if writing fails.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @param path
+	 *            the file to write
+	 * @param keySerializer
+	 *            writes the keys
+	 * @param valueSerializer
+	 *            writes the values
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	default void writeTo(final Path path, final Serializer<K> keySerializer, final Serializer<V> valueSerializer) throws IOException {
+		BlockFile.write(this, path, keySerializer, valueSerializer, null);
+	}
+
+	/**
+	 * Write the entries of this MapStream to a file, as {@link #writeTo(Path, Serializer, Serializer)} does, also recording the least and
+	 * greatest key in each block of the file according to the given comparator, so that
+	 * {@link #ofFile(Path, Serializer, Serializer, Comparator, Object, Object)} can skip blocks outside a range of keys. This is most
+	 * effective if the entries are sorted by key.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @param comparator
+	 *            the order of the keys, or null for their natural order
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	@SuppressWarnings("unchecked")
+	default void writeTo(final Path path, final Serializer<K> keySerializer, final Serializer<V> valueSerializer,
+			final Comparator<? super K> comparator) throws IOException {
+		BlockFile.write(this, path, keySerializer, valueSerializer, comparator != null ? comparator
+				: (Comparator<? super K>) Comparator.naturalOrder());
+	}
+
+	/**
+	 * Return the count of the entries in this MapStream. If the count can be known without evaluating the MapStream, e.g. for a MapStream
+	 * of a map whose values are mapped, it may be returned without applying any intermediate operations except {@link #peek(BiConsumer)
+	 * peeks}.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see Stream#count()
+	 */
+	default long count() {
+		return entryStream().count();
+	}
+
+	/**
+	 * Return whether any key-value pairs of this MapStream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @param predicate
+	 *            A predicate to apply to the key-value pairs of this stream
+	 * @see Stream#anyMatch(Predicate)
+	 */
+	default boolean anyMatch(final BiPredicate<? super K, ? super V> predicate) {
+		return entryStream().anyMatch(entryPredicate(predicate));
+	}
+
+	/**
+	 * Return whether all key-value pairs of this MapStream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @param predicate
+	 *            A predicate to apply to the key-value pairs of this stream
+	 * @see Stream#allMatch(Predicate)
+	 */
+	default boolean allMatch(final BiPredicate<? super K, ? super V> predicate) {
+		return entryStream().allMatch(entryPredicate(predicate));
+	}
+
+	/**
+	 * Return whether no key-value pairs of this MapStream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @param predicate
+	 *            A predicate to apply to the key-value pairs of this stream
+	 * @see Stream#noneMatch(Predicate)
+	 */
+	default boolean noneMatch(final BiPredicate<? super K, ? super V> predicate) {
+		return entryStream().noneMatch(entryPredicate(predicate));
+	}
+
+	/**
+	 * Perform a mutable reduction operation on the entries of the MapStream using a Collector.
+	 * <p>
+	 * This is a convenience method for the most common collect operation. For other collect/reduce operations on key-value pairs, use
+	 * {@link #entryStream()} and then use the collect/reduce methods on {@link Stream}. For collect/reduce operations on keys or values,
+	 * call {@link #keyStream()} or {@link #valueStream()} and then use the collect/reduce methods on {@link Stream}.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @param collector
+	 *            The {@link Collector} describing the reduction
+	 * @return The result of the reduction
+	 * @see EntryCollectors#toMap()
+	 * @see MultimapStream#toMultimap()
+	 * @see Stream#collect(Collector)
+	 */
+	default <R, A> R collect(final Collector<? super Entry<K, V>, A, R> collector) {
+		return entryStream().collect(collector);
+	}
+
+	/**
+	 * Returns an iterator for the elements of this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	default Iterator<Entry<K, V>> iterator() {
+		return entryStream().iterator();
+	}
+
+	/**
+	 * Returns a cursor over the keys and values of this MapStream, which pulls them one at a time without creating an entry per pair as
+	 * {@link #iterator()} does. The MapStreams returned by the {@code MapStream.of} methods pull pairs sequentially from their source, and
+	 * through any stages, without going through a {@link Stream}; map, array and file sources read them directly, e.g. by iterating over
+	 * the map's entries. Other MapStreams adapt the spliterator of their entry stream.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	default BiCursor<K, V> cursor() {
+		return PairSpliterator.<K, V> ofEntries(spliterator()).cursor();
+	}
+
+	/**
+	 * Returns a spliterator for the elements of this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	default Spliterator<Entry<K, V>> spliterator() {
+		return entryStream().spliterator();
+	}
+
+	/** Subclass of MapStream for use in try-with-resources blocks */
+	interface CloseableMapStream<K, V> extends MapStream<K, V>, AutoCloseable {
+		@Override
+		default void close() {
+			MapStream.super.close();
+		}
+	}
+
+	/**
+	 * Return an equivalent stream that implements {@link AutoCloseable}, for use in try-with-resources blocks
+	 * <p>
+	 * The main {@link MapStream} class doesn't extend {@link AutoCloseable} to avoid superfluous "resource leak" warnings.
+	 * <p>
+	 * NB: {@link #onClose(Runnable) onClose} handlers added after this method call will not be called when close is called. Ensure all
+	 * handlers are added before this method is called
+	 */
+	default CloseableMapStream<K, V> autoCloseable() {
+		return this::entryStream;
+	}
+}
@@ -0,0 +1,107 @@
+package nz.net.dnh.mapstream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/** Internal helpers for {@link MapStream} */
+class MapStreamHelpers {
+	/** Object used in place of {@code null} in a ConcurrentHashMap */
+	private static final Object NULL = new Object();
+
+	public static <K, V> BiFunction<K, V, K> keyBiFunction() {
+		return (k, v) -> k;
+	}
+
+	public static <K, V> BiFunction<K, V, V> valueBiFunction() {
+		return (k, v) -> v;
+	}
+
+	public static <T, U> Predicate<T> mappedPredicate(final Function<T, U> mapper, final Predicate<U> predicate) {
+		return el -> predicate.test(mapper.apply(el));
+	}
+
+	public static <K, V> Predicate<Entry<K, V>> entryPredicate(final BiPredicate<? super K, ? super V> predicate) {
+		return e -> predicate.test(e.getKey(), e.getValue());
+	}
+
+	public static <K, V, R> Function<Entry<K, V>, ? extends R> entryFunction(final BiFunction<? super K, ? super V, ? extends R> function) {
+		return e -> function.apply(e.getKey(), e.getValue());
+	}
+
+	public static <K, V> Consumer<? super Entry<K, V>> entryConsumer(final BiConsumer<? super K, ? super V> action) {
+		return e -> action.accept(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * @return a stateful null-safe predicate which returns true if the given value has not been seen before by this predicate, and false if
+	 *         it has. The predicate is thread-safe, since a stream may be made parallel after the predicate is created.
+	 */
+	public static <T> Predicate<T> distinctPredicate() {
+		final Set<Object> seenKeys = Collections.newSetFromMap(new ConcurrentHashMap<>());
+		return o -> seenKeys.add(o == null ? NULL : o);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            the expected number of distinct values, or -1 if unknown
+	 * @return a stateful null-safe predicate like {@link #distinctPredicate()} which is not thread-safe, for use when the stream is known to
+	 *         be sequential
+	 */
+	public static <T> Predicate<T> sequentialDistinctPredicate(final long expectedSize) {
+		// The expected size is only a hint; avoid allocating a large table up front for a stream which is mostly duplicates
+		final ObjHashSet seen = new ObjHashSet((int) Math.max(0, Math.min(expectedSize, 1 << 16)));
+		return seen::add;
+	}
+
+	/**
+	 * Return a stateful predicate like {@link #distinctPredicate()} for values which are encountered sorted according to the given
+	 * comparator, or their natural order if it is null. Only the run of values which compare equal to the most recent value is remembered,
+	 * which is a single value unless the comparator is inconsistent with equals. The predicate is not thread-safe.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Predicate<T> sortedDistinctPredicate(final Comparator<? super T> comparator) {
+		final Comparator<? super T> order = comparator == null ? (Comparator<? super T>) Comparator.naturalOrder() : comparator;
+		final List<T> run = new ArrayList<>(1);
+		return o -> {
+			if (run.isEmpty() || order.compare(run.get(0), o) != 0) {
+				run.clear();
+			} else if (run.contains(o)) {
+				return false;
+			}
+			run.add(o);
+			return true;
+		};
+	}
+
+	/** @return a power of two table capacity which holds the given number of elements at a load factor of at most one half */
+	public static int tableSize(final int expectedSize) {
+		final int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Too many elements for a hash table: " + expectedSize);
+		}
+		return capacity;
+	}
+
+	/** @return a well-distributed hash of the given hash code, for indexing open-addressing tables */
+	public static int mix(final int hash) {
+		final int h = hash * 0x9E3779B9;
+		return h ^ h >>> 16;
+	}
+
+	/** @return a well-distributed hash of the given long, for indexing open-addressing tables */
+	public static int mix(final long value) {
+		final long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ h >>> 32);
+	}
+}
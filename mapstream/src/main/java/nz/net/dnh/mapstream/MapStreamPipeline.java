@@ -0,0 +1,2904 @@
+package nz.net.dnh.mapstream;
+
+import static nz.net.dnh.mapstream.MapStreamHelpers.distinctPredicate;
+import static nz.net.dnh.mapstream.MapStreamHelpers.entryConsumer;
+import static nz.net.dnh.mapstream.MapStreamHelpers.entryPredicate;
+import static nz.net.dnh.mapstream.MapStreamHelpers.sequentialDistinctPredicate;
+import static nz.net.dnh.mapstream.MapStreamHelpers.sortedDistinctPredicate;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import nz.net.dnh.mapstream.MapStream.CloseableMapStream;
+
+/**
+ * Push-based implementation of {@link MapStream}, used for the MapStreams returned by the {@code MapStream.of} methods.
+ * <p>
+ * A pipeline is a linked list of stages starting at a source. Stateless stages (filters, mappers and peeks) are fused into a chain of
+ * two-argument sinks driven by a {@link PairSpliterator} over the source, so terminal operations which don't need entries (e.g.
+ * {@link #forEach(BiConsumer)}, {@link #count()} and the match operations) don't create any. Entries are created only when they are
+ * requested, by {@link #entryStream()}, {@link #iterator()}, {@link #spliterator()} or {@link #collect(Collector)}, and then only once per
+ * pair regardless of the number of stages.
+ * <p>
+ * Stateful operations (e.g. sorting, limit and skip) are barriers: they are applied to the entry stream of the upstream pipeline, and the
+ * resulting stream is the source of the subsequent stages.
+ */
+abstract class MapStreamPipeline<K, V> implements CloseableMapStream<K, V> {
+	/** Return a new pipeline whose source is the given collection of entries */
+	static <K, V> MapStreamPipeline<K, V> ofEntries(final Collection<? extends Entry<K, V>> entries) {
+		return new EntryCollectionSource<>(entries);
+	}
+
+	/** Return a new pipeline whose source is the given stream, whose elements are mapped to keys and values by the given functions */
+	static <T, K, V> MapStreamPipeline<K, V> ofStream(final Stream<T> stream, final Function<T, K> keyFunction,
+			final Function<T, V> valueFunction) {
+		return new StreamSource<>(stream, keyFunction, valueFunction, t -> new SimpleImmutableEntry<>(keyFunction.apply(t),
+				valueFunction.apply(t)));
+	}
+
+	/** Return a new pipeline whose source is the given stream, whose elements are mapped to entries by the given function */
+	static <T, K, V> MapStreamPipeline<K, V> ofStream(final Stream<T> stream, final Function<T, Entry<K, V>> entryFunction) {
+		return new StreamSource<>(stream, null, null, entryFunction);
+	}
+
+	/** Return the given MapStream if it is a pipeline, otherwise a new pipeline whose source is the given MapStream's entry stream */
+	static <K, V> MapStreamPipeline<K, V> of(final MapStream<K, V> mapStream) {
+		return mapStream instanceof MapStreamPipeline ? (MapStreamPipeline<K, V>) mapStream : new MapStreamSource<>(mapStream);
+	}
+
+	/**
+	 * Whether any stage since the most recent source or barrier replaces keys or values. If not, {@link #entryStream()} can apply the
+	 * stages directly to the source's entry stream without creating any entries.
+	 */
+	final boolean mapsEntries;
+
+	MapStreamPipeline(final boolean mapsEntries) {
+		this.mapsEntries = mapsEntries;
+	}
+
+	/** @return the most recent source or barrier, whose spliterator drives the stages up to this one */
+	abstract Source<?, ?> segmentSource();
+
+	/**
+	 * @return a sink which accepts pairs from the {@link #segmentSource() segment source}, applies the stages up to and including this one,
+	 *         and passes the results to the given sink
+	 */
+	abstract BiConsumer<Object, Object> wrapSink(BiConsumer<? super K, ? super V> sink);
+
+	/** @return the spliterator characteristics of the pairs output by this stage, given the characteristics of its input */
+	abstract int opCharacteristics(int characteristics);
+
+	/** Add the close handlers of this pipeline to the given list, in the order they were added */
+	abstract void addCloseHandlers(List<Runnable> handlers);
+
+	/** @return the exact number of pairs output by this pipeline if it can be known without evaluating the pipeline, otherwise -1 */
+	long knownSize() {
+		return -1;
+	}
+
+	/** @return the budget set by the nearest {@link #withMemoryBudget(MemoryBudget)} upstream of this pipeline, or null if there is none */
+	MemoryBudget memoryBudget() {
+		return null;
+	}
+
+	/**
+	 * @return which of {@link Spliterator#SORTED} and {@link Spliterator#DISTINCT} the keys output by this pipeline are known to be without
+	 *         evaluating the pipeline; the pipeline's spliterator may report more
+	 */
+	int knownKeyCharacteristics() {
+		return 0;
+	}
+
+	/** @return the comparator by which the keys are known to be sorted, if {@link #knownKeyCharacteristics()} includes SORTED */
+	Comparator<? super K> knownComparator() {
+		return null;
+	}
+
+	@Override
+	public MapStream<K, V> compile() {
+		// Sources and barriers have no stages to compile
+		return this;
+	}
+
+	@Override
+	public String explain() {
+		final StringBuilder plan = new StringBuilder();
+		explain(plan, "");
+		return plan.toString();
+	}
+
+	/**
+	 * Append the plan of this pipeline to the given builder: a line for each source and barrier, followed by an indented line for each of
+	 * the stages fused into the sink which it drives
+	 */
+	void explain(final StringBuilder plan, final String indent) {
+		plan.append(indent).append(describe()).append('\n');
+	}
+
+	/** @return a one-line description of this source, barrier or stage for {@link #explain()} */
+	String describe() {
+		return getClass().getSimpleName();
+	}
+
+	/** @return whether evaluating this pipeline performs actions, i.e. peeks, so it must be evaluated even if its result is known */
+	boolean hasSideEffects() {
+		return false;
+	}
+
+	/** @return the map whose entries are exactly the pairs output by this pipeline, if it has no stages which change them, otherwise null */
+	Map<K, V> sourceMap() {
+		return null;
+	}
+
+	/**
+	 * @return a copy of this pipeline whose source is the given source rather than its {@link #sourceMap() source map}; only called if it
+	 *         has a source map
+	 */
+	MapStreamPipeline<K, V> withSource(final Source<K, V> source) {
+		throw new IllegalStateException("No source map");
+	}
+
+	/**
+	 * @param parallel
+	 *            whether the pipeline is being evaluated in parallel, which is applied to the upstream of any barrier
+	 * @return a spliterator over the pairs output by this pipeline
+	 */
+	PairSpliterator<K, V> pairSpliterator(final boolean parallel) {
+		return new WrappingPairSpliterator<>(this, segmentSource().sourceSpliterator(parallel));
+	}
+
+	/** @return the entry stream of this pipeline, created by pushing the pairs from the source through the fused stages */
+	Stream<Entry<K, V>> pairEntryStream() {
+		final boolean parallel = isParallel();
+		return StreamSupport.stream(() -> PairSpliterator.toEntries(pairSpliterator(parallel)), Spliterator.ORDERED, parallel).onClose(
+				this::close);
+	}
+
+	/** Evaluate a terminal operation, in parallel if this pipeline is parallel */
+	<R> R evaluate(final Supplier<? extends PairTask.Sink<K, V, R>> sinkFactory, final BinaryOperator<R> combiner,
+			final boolean shortCircuit) {
+		final Source<?, ?> source = segmentSource();
+		if (source instanceof ConcurrentMapSource && ((ConcurrentMapSource<?, ?>) source).isParallel() && isParallel()) {
+			return ((ConcurrentMapSource<?, ?>) source).evaluate(this, sinkFactory, combiner, shortCircuit);
+		}
+		if (isParallel()) {
+			return PairTask.invoke(pairSpliterator(true), sinkFactory, combiner, shortCircuit);
+		}
+		final PairTask.Sink<K, V, R> sink = sinkFactory.get();
+		final PairSpliterator<K, V> spliterator = pairSpliterator(false);
+		if (shortCircuit) {
+			while (!sink.done() && spliterator.tryAdvance(sink)) {
+				// Loop until done or exhausted
+			}
+		} else {
+			spliterator.forEachRemaining(sink);
+		}
+		return sink.get();
+	}
+
+	/** Evaluate a match operation which stops and returns {@code !resultIfNoneStop} when the predicate returns {@code stopOn} */
+	private boolean match(final BiPredicate<? super K, ? super V> predicate, final boolean stopOn, final boolean resultIfNoneStop) {
+		final boolean stopped = evaluate(() -> new MatchSink<K, V>(predicate, stopOn), (a, b) -> a || b, true);
+		return stopped != resultIfNoneStop;
+	}
+
+	@Override
+	public Stream<K> keyStream() {
+		return map((k, v) -> k);
+	}
+
+	@Override
+	public Stream<V> valueStream() {
+		return map((k, v) -> v);
+	}
+
+	@Override
+	public MapStream<K, V> filter(final BiPredicate<? super K, ? super V> predicate) {
+		return new FilterStage<>(this, predicate);
+	}
+
+	@Override
+	public MapStream<K, V> filterKeys(final Predicate<? super K> predicate) {
+		return keyFilterStage(this, predicate);
+	}
+
+	@Override
+	public MapStream<K, V> filterValues(final Predicate<? super V> predicate) {
+		return valueFilterStage(this, predicate);
+	}
+
+	/**
+	 * @return a stage which keeps the pairs output by the given pipeline whose keys match the given predicate; if the pipeline ends with
+	 *         stages which only replace values, the filter is applied before them, so that they don't map the values of dropped pairs
+	 */
+	@SuppressWarnings("unchecked")
+	static <K, V> MapStreamPipeline<K, V> keyFilterStage(final MapStreamPipeline<K, V> upstream, final Predicate<? super K> predicate) {
+		if (upstream instanceof MapStage && ((MapStage<?, ?, ?, ?>) upstream).keyMapper == null) {
+			final MapStage<K, Object, K, V> mapper = (MapStage<K, Object, K, V>) upstream;
+			return new MapStage<>(keyFilterStage(mapper.upstream, predicate), null, mapper.valueMapper, mapper.fused);
+		}
+		return new FilterStage<>(upstream, new KeyPredicate<>(predicate), "keys");
+	}
+
+	/** @return a stage which keeps the pairs whose values match the given predicate, applied before any key mappers like keyFilterStage */
+	@SuppressWarnings("unchecked")
+	static <K, V> MapStreamPipeline<K, V> valueFilterStage(final MapStreamPipeline<K, V> upstream, final Predicate<? super V> predicate) {
+		if (upstream instanceof MapStage && ((MapStage<?, ?, ?, ?>) upstream).valueMapper == null) {
+			final MapStage<Object, V, K, V> mapper = (MapStage<Object, V, K, V>) upstream;
+			return new MapStage<>(valueFilterStage(mapper.upstream, predicate), mapper.keyMapper, null, mapper.fused);
+		}
+		return new FilterStage<>(upstream, new ValuePredicate<>(predicate), "values");
+	}
+
+	@Override
+	public MapStream<K, V> keyRange(final Comparator<? super K> comparator, final K fromKey, final K toKey) {
+		final Map<K, V> sourceMap = sourceMap();
+		if (sourceMap instanceof SortedMap && sameOrder(((SortedMap<K, V>) sourceMap).comparator(), comparator)) {
+			final SortedMap<K, V> subMap = subMap((SortedMap<K, V>) sourceMap, comparator, fromKey, toKey);
+			if (subMap != null) {
+				return withSource(new MapSource<>(subMap));
+			}
+		}
+		return filterKeys(new KeyRange<>(comparator, fromKey, toKey)::contains);
+	}
+
+	@Override
+	public MapStream<K, V> keyIn(final Set<? extends K> keys) {
+		final Map<K, V> sourceMap = sourceMap();
+		// Lookups would lose the order of the entries of an ordered map, unless it is sorted
+		if (KeyLookupSource.canLookUp(sourceMap) && (sourceMap instanceof SortedMap || !sourceMap.entrySet().spliterator()
+				.hasCharacteristics(Spliterator.ORDERED))) {
+			return withSource(new KeyLookupSource<>(sourceMap, keys, segmentSource().isParallel()));
+		}
+		return filterKeys(keys::contains);
+	}
+
+	@Override
+	public MapStream<K, V> keyEquals(final K key) {
+		final Map<K, V> sourceMap = sourceMap();
+		if (KeyLookupSource.canLookUp(sourceMap)) {
+			return withSource(new KeyLookupSource<>(sourceMap, Collections.singleton(key), segmentSource().isParallel()));
+		}
+		return filterKeys(k -> Objects.equals(k, key));
+	}
+
+	/** @return whether the given comparators, either of which may be null for the natural order, are the same order */
+	private static boolean sameOrder(final Comparator<?> a, final Comparator<?> b) {
+		return Objects.equals(a != null ? a : Comparator.naturalOrder(), b != null ? b : Comparator.naturalOrder());
+	}
+
+	/** @return whether the keys output by this pipeline are known to be sorted by the given comparator, so sorting them would do nothing */
+	private boolean isSortedBy(final Comparator<? super K> comparator) {
+		return (knownKeyCharacteristics() & Spliterator.SORTED) != 0 && sameOrder(knownComparator(), comparator);
+	}
+
+	/**
+	 * @return a view of the given sorted map of the keys between {@code fromKey}, inclusive, and {@code toKey}, exclusive, or null if the
+	 *         map is itself a view of a range of keys which doesn't contain the bounds
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K, V> SortedMap<K, V> subMap(final SortedMap<K, V> map, final Comparator<? super K> comparator, final K fromKey,
+			final K toKey) {
+		try {
+			if (fromKey == null) {
+				return toKey == null ? map : map.headMap(toKey);
+			}
+			if (toKey == null) {
+				return map.tailMap(fromKey);
+			}
+			final Comparator<? super K> order = comparator != null ? comparator : (Comparator<? super K>) Comparator.naturalOrder();
+			// subMap rejects a range whose bounds are reversed, which is empty
+			return map.subMap(fromKey, order.compare(fromKey, toKey) < 0 ? toKey : fromKey);
+		} catch (final IllegalArgumentException e) {
+			// Views such as TreeMap.subMap reject bounds outside their own range
+			return null;
+		}
+	}
+
+	@Override
+	public <R> Stream<R> map(final BiFunction<? super K, ? super V, ? extends R> mapper) {
+		final boolean parallel = isParallel();
+		return StreamSupport.stream(() -> PairSpliterator.<K, V, R> map(pairSpliterator(parallel), mapper), Spliterator.ORDERED, parallel)
+				.onClose(this::close);
+	}
+
+	@Override
+	public <K2> MapStream<K2, V> mapKeys(final Function<? super K, ? extends K2> mapper) {
+		return mapStage(this, new KeyFunction<>(mapper), null);
+	}
+
+	@Override
+	public <K2> MapStream<K2, V> mapKeys(final BiFunction<? super K, ? super V, ? extends K2> mapper) {
+		return mapStage(this, mapper, null);
+	}
+
+	@Override
+	public <V2> MapStream<K, V2> mapValues(final Function<? super V, ? extends V2> mapper) {
+		return mapStage(this, null, new ValueFunction<>(mapper));
+	}
+
+	@Override
+	public <V2> MapStream<K, V2> mapValues(final BiFunction<? super K, ? super V, ? extends V2> mapper) {
+		return mapStage(this, null, mapper);
+	}
+
+	@Override
+	public <K2, V2> MapStream<K2, V2> map(final Function<? super K, ? extends K2> keyMapper,
+			final Function<? super V, ? extends V2> valueMapper) {
+		return mapStage(this, new KeyFunction<>(keyMapper), new ValueFunction<>(valueMapper));
+	}
+
+	@Override
+	public <K2, V2> MapStream<K2, V2> map(final BiFunction<? super K, ? super V, ? extends K2> keyMapper,
+			final BiFunction<? super K, ? super V, ? extends V2> valueMapper) {
+		return mapStage(this, keyMapper, valueMapper);
+	}
+
+	/**
+	 * @return a stage which replaces the keys and/or values output by the given pipeline, fused with the last stage of the pipeline if it
+	 *         only replaces the same one of them
+	 */
+	@SuppressWarnings("unchecked")
+	static <KI, VI, K, V> MapStreamPipeline<K, V> mapStage(final MapStreamPipeline<KI, VI> upstream,
+			final BiFunction<? super KI, ? super VI, ? extends K> keyMapper, final BiFunction<? super KI, ? super VI, ? extends V> valueMapper) {
+		if (upstream instanceof MapStage) {
+			final MapStage<Object, Object, KI, VI> previous = (MapStage<Object, Object, KI, VI>) upstream;
+			if (keyMapper == null && previous.keyMapper == null) {
+				return new MapStage<>(previous.upstream, null, new ValueComposition<Object, Object, VI, V>(previous.valueMapper,
+						(BiFunction<Object, VI, V>) valueMapper), previous.fused + 1);
+			}
+			if (valueMapper == null && previous.valueMapper == null) {
+				return new MapStage<>(previous.upstream, new KeyComposition<Object, Object, KI, K>(previous.keyMapper,
+						(BiFunction<KI, Object, K>) keyMapper), null, previous.fused + 1);
+			}
+		}
+		return new MapStage<>(upstream, keyMapper, valueMapper, 1);
+	}
+
+	@Override
+	public MapStream<K, V> distinct() {
+		return new Barrier<>(this, Stream::distinct, null);
+	}
+
+	@Override
+	public MapStream<K, V> distinctKeys() {
+		return new DistinctBarrier<>(this, true);
+	}
+
+	@Override
+	public MapStream<K, V> distinctValues() {
+		return new DistinctBarrier<>(this, false);
+	}
+
+	@Override
+	public MapStream<K, V> sortedKeys(final Comparator<? super K> comparator) {
+		if (isSortedBy(comparator)) {
+			return this;
+		}
+		return new SortBarrier<>(this, s -> s.sorted(Entry.comparingByKey(comparator)), true, comparator);
+	}
+
+	@Override
+	public MapStream<K, V> sortedValues(final Comparator<? super V> comparator) {
+		return new SortBarrier<>(this, s -> s.sorted(Entry.comparingByValue(comparator)), false, comparator);
+	}
+
+	@Override
+	public MapStream<K, V> sortedKeysByLong(final ToLongFunction<? super K> keyFunction) {
+		return new RadixSortBarrier<>(this, true, objectRadixKey(RadixSort.byLong(keyFunction)), Comparator.<K> comparingLong(keyFunction));
+	}
+
+	@Override
+	public MapStream<K, V> sortedKeysByInt(final ToIntFunction<? super K> keyFunction) {
+		return new RadixSortBarrier<>(this, true, objectRadixKey(RadixSort.byInt(keyFunction)), Comparator.<K> comparingInt(keyFunction));
+	}
+
+	@Override
+	public MapStream<K, V> sortedKeysByDouble(final ToDoubleFunction<? super K> keyFunction) {
+		return new RadixSortBarrier<>(this, true, objectRadixKey(RadixSort.byDouble(keyFunction)),
+				Comparator.<K> comparingDouble(keyFunction));
+	}
+
+	@Override
+	public MapStream<K, V> sortedValuesByLong(final ToLongFunction<? super V> valueFunction) {
+		return new RadixSortBarrier<>(this, false, objectRadixKey(RadixSort.byLong(valueFunction)),
+				Comparator.<V> comparingLong(valueFunction));
+	}
+
+	@Override
+	public MapStream<K, V> sortedValuesByInt(final ToIntFunction<? super V> valueFunction) {
+		return new RadixSortBarrier<>(this, false, objectRadixKey(RadixSort.byInt(valueFunction)),
+				Comparator.<V> comparingInt(valueFunction));
+	}
+
+	@Override
+	public MapStream<K, V> sortedValuesByDouble(final ToDoubleFunction<? super V> valueFunction) {
+		return new RadixSortBarrier<>(this, false, objectRadixKey(RadixSort.byDouble(valueFunction)),
+				Comparator.<V> comparingDouble(valueFunction));
+	}
+
+	/** @return the given radix key, applied by a {@link RadixSortBarrier} to the keys or values it buffers as objects */
+	@SuppressWarnings("unchecked")
+	private static RadixSort.RadixKey<Object> objectRadixKey(final RadixSort.RadixKey<?> radixKey) {
+		return (RadixSort.RadixKey<Object>) radixKey;
+	}
+
+	@Override
+	public MapStream<K, V> externalSortedKeys(final Comparator<? super K> comparator, final Serializer<K> keySerializer,
+			final Serializer<V> valueSerializer, final long memoryBudgetBytes) {
+		if (isSortedBy(comparator)) {
+			return this;
+		}
+		return new ExternalSortBarrier<>(this, comparator, () -> new ExternalSorter<>(comparator, keySerializer, valueSerializer,
+				memoryBudgetBytes));
+	}
+
+	@Override
+	public MapStream<K, V> reduceByKey(final BinaryOperator<V> reducer) {
+		return new AggregateBarrier<>(this, new KeyAggregator<K, V, V>(Function.identity(), reducer, reducer), false);
+	}
+
+	@Override
+	public MapStream<K, List<V>> groupByKey() {
+		// Unlike other aggregates, the lists grow with each value, so a memory budget is charged for every value
+		return new AggregateBarrier<>(this, containerAggregator(ArrayList<V>::new, List::add, (a, b) -> {
+			a.addAll(b);
+			return a;
+		}), true);
+	}
+
+	@Override
+	public <A> MapStream<K, A> aggregateByKey(final Supplier<A> supplier, final BiConsumer<A, ? super V> accumulator,
+			final BinaryOperator<A> combiner) {
+		return new AggregateBarrier<>(this, containerAggregator(supplier, accumulator, combiner), false);
+	}
+
+	/** @return a {@link KeyAggregator} which accumulates the values for each key into a mutable container */
+	private static <K, V, A> KeyAggregator<K, V, A> containerAggregator(final Supplier<A> supplier,
+			final BiConsumer<A, ? super V> accumulator, final BinaryOperator<A> combiner) {
+		return new KeyAggregator<K, V, A>(v -> {
+			final A aggregate = supplier.get();
+			accumulator.accept(aggregate, v);
+			return aggregate;
+		}, (a, v) -> {
+			accumulator.accept(a, v);
+			return a;
+		}, combiner);
+	}
+
+	@Override
+	public <W, R> MapStream<K, R> join(final MapStream<K, W> other, final BiFunction<? super V, ? super W, ? extends R> combiner) {
+		return new JoinBarrier<>(this, of(other), combiner, false, false);
+	}
+
+	@Override
+	public <W, R> MapStream<K, R> leftJoin(final MapStream<K, W> other, final BiFunction<? super V, ? super W, ? extends R> combiner) {
+		return new JoinBarrier<>(this, of(other), combiner, true, false);
+	}
+
+	@Override
+	public <W, R> MapStream<K, R> fullOuterJoin(final MapStream<K, W> other,
+			final BiFunction<? super V, ? super W, ? extends R> combiner) {
+		return new JoinBarrier<>(this, of(other), combiner, true, true);
+	}
+
+	@Override
+	public MapStream<K, V> peek(final BiConsumer<? super K, ? super V> action) {
+		return new PeekStage<>(this, action);
+	}
+
+	@Override
+	public MapStream<K, V> peekKeys(final Consumer<? super K> action) {
+		return peek(new KeyConsumer<>(action));
+	}
+
+	@Override
+	public MapStream<K, V> peekValues(final Consumer<? super V> action) {
+		return peek(new ValueConsumer<>(action));
+	}
+
+	@Override
+	public MapStream<K, V> limit(final long maxSize) {
+		// Stream.limit rejects a negative size when the pipeline is evaluated
+		return maxSize < 0 ? new Barrier<>(this, s -> s.limit(maxSize), null) : new SliceBarrier<>(this, 0, maxSize);
+	}
+
+	@Override
+	public MapStream<K, V> skip(final long n) {
+		return n < 0 ? new Barrier<>(this, s -> s.skip(n), null) : new SliceBarrier<>(this, n, -1);
+	}
+
+	@Override
+	public abstract boolean isParallel();
+
+	@Override
+	public MapStream<K, V> sequential() {
+		return new ParallelStage<>(this, false);
+	}
+
+	@Override
+	public MapStream<K, V> parallel() {
+		return new ParallelStage<>(this, true);
+	}
+
+	@Override
+	public MapStream<K, V> unordered() {
+		return new UnorderedStage<>(this);
+	}
+
+	@Override
+	public MapStream<K, V> onClose(final Runnable closeHandler) {
+		return new CloseStage<>(this, closeHandler);
+	}
+
+	@Override
+	public MapStream<K, V> withMemoryBudget(final MemoryBudget budget) {
+		return new MemoryBudgetStage<>(this, budget);
+	}
+
+	@Override
+	public MapStream<K, V> cache() {
+		return new CacheSource<>(this, false);
+	}
+
+	@Override
+	public MapStream<K, V> cacheWithValueDictionary() {
+		return new CacheSource<>(this, true);
+	}
+
+	/** Run all close handlers; if any throw an exception, the first is rethrown with any others suppressed */
+	@Override
+	public void close() {
+		final List<Runnable> handlers = new ArrayList<>();
+		addCloseHandlers(handlers);
+		Throwable failure = null;
+		for (final Runnable handler : handlers) {
+			try {
+				handler.run();
+			} catch (final Throwable t) {
+				if (failure == null) {
+					failure = t;
+				} else if (failure != t) {
+					failure.addSuppressed(t);
+				}
+			}
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	@Override
+	public void forEach(final BiConsumer<? super K, ? super V> action) {
+		evaluate(() -> new ForEachSink<K, V>(action), (a, b) -> null, false);
+	}
+
+	@Override
+	public void forEachOrdered(final BiConsumer<? super K, ? super V> action) {
+		if (isParallel()) {
+			entryStream().forEachOrdered(entryConsumer(action));
+		} else {
+			forEach(action);
+		}
+	}
+
+	@Override
+	public long count() {
+		final long size = knownSize();
+		if (size >= 0 && !hasSideEffects()) {
+			return size;
+		}
+		return evaluate(CountSink<K, V>::new, Long::sum, false);
+	}
+
+	@Override
+	public boolean anyMatch(final BiPredicate<? super K, ? super V> predicate) {
+		return match(predicate, true, false);
+	}
+
+	@Override
+	public boolean allMatch(final BiPredicate<? super K, ? super V> predicate) {
+		return match(predicate, false, true);
+	}
+
+	@Override
+	public boolean noneMatch(final BiPredicate<? super K, ? super V> predicate) {
+		return match(predicate, true, true);
+	}
+
+	@Override
+	public <R, A> R collect(final Collector<? super Entry<K, V>, A, R> collector) {
+		final Map<K, V> sourceMap = sourceMap();
+		if (sourceMap != null) {
+			final R copy = EntryCollectors.copyOf(collector, sourceMap);
+			if (copy != null) {
+				return copy;
+			}
+		}
+		return entryStream().collect(EntryCollectors.withExpectedSize(collector, this::knownSize));
+	}
+
+	@Override
+	public Iterator<Entry<K, V>> iterator() {
+		return Spliterators.iterator(spliterator());
+	}
+
+	@Override
+	public BiCursor<K, V> cursor() {
+		return pairSpliterator(false).cursor();
+	}
+
+	@Override
+	public Spliterator<Entry<K, V>> spliterator() {
+		return this.mapsEntries ? PairSpliterator.toEntries(pairSpliterator(isParallel())) : entryStream().spliterator();
+	}
+
+	@Override
+	public CloseableMapStream<K, V> autoCloseable() {
+		return this;
+	}
+
+	/** The start of a pipeline segment: either the source of the pipeline, or a barrier */
+	abstract static class Source<K, V> extends MapStreamPipeline<K, V> {
+		Source() {
+			super(false);
+		}
+
+		/** @return a spliterator over the pairs from this source */
+		abstract PairSpliterator<K, V> sourceSpliterator(boolean parallel);
+
+		@Override
+		final Source<?, ?> segmentSource() {
+			return this;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		final BiConsumer<Object, Object> wrapSink(final BiConsumer<? super K, ? super V> sink) {
+			return (BiConsumer<Object, Object>) sink;
+		}
+
+		@Override
+		final int opCharacteristics(final int characteristics) {
+			return characteristics;
+		}
+
+		@Override
+		PairSpliterator<K, V> pairSpliterator(final boolean parallel) {
+			return sourceSpliterator(parallel);
+		}
+
+		/** @return the pipeline this barrier is applied to, or null if this is a source */
+		MapStreamPipeline<?, ?> barrierUpstream() {
+			return null;
+		}
+
+		@Override
+		void explain(final StringBuilder plan, final String indent) {
+			final MapStreamPipeline<?, ?> upstream = barrierUpstream();
+			if (upstream != null) {
+				upstream.explain(plan, indent);
+			}
+			super.explain(plan, indent);
+		}
+	}
+
+	/** A source backed by a collection of entries, e.g. the entry set of a map */
+	static class EntryCollectionSource<K, V> extends Source<K, V> {
+		private final Collection<? extends Entry<K, V>> entries;
+
+		EntryCollectionSource(final Collection<? extends Entry<K, V>> entries) {
+			this.entries = entries;
+		}
+
+		/** @return the entries from this source; called each time the source is evaluated */
+		Collection<? extends Entry<K, V>> entries() {
+			return this.entries;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return (Stream<Entry<K, V>>) entries().stream();
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			return PairSpliterator.ofEntries(entries().spliterator());
+		}
+
+		@Override
+		long knownSize() {
+			return entries().size();
+		}
+
+		@Override
+		public boolean isParallel() {
+			return false;
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			// Collections have no resources to close
+		}
+	}
+
+	/** A source backed by a map, whose keys are always distinct, and are sorted if it is a {@link SortedMap} */
+	static class MapSource<K, V> extends EntryCollectionSource<K, V> {
+		private final Map<K, V> map;
+
+		MapSource(final Map<K, V> map) {
+			super(null);
+			this.map = map;
+		}
+
+		@Override
+		Collection<? extends Entry<K, V>> entries() {
+			return this.map.entrySet();
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			if (this.map instanceof CompactMap) {
+				return ((CompactMap<K, V>) this.map).pairSpliterator();
+			}
+			final PairSpliterator<K, V> spliterator = new MapPairSpliterator<>(this.map, super.sourceSpliterator(parallel));
+			if (this.map instanceof SortedMap) {
+				@SuppressWarnings("unchecked")
+				final Comparator<? super K> comparator = ((SortedMap<K, V>) this.map).comparator();
+				return new KeyCharacteristicsPairSpliterator<>(spliterator, Spliterator.DISTINCT | Spliterator.SORTED, comparator);
+			}
+			return new KeyCharacteristicsPairSpliterator<>(spliterator, Spliterator.DISTINCT, null);
+		}
+
+		@Override
+		long knownSize() {
+			return this.map.size();
+		}
+
+		@Override
+		Map<K, V> sourceMap() {
+			return this.map;
+		}
+
+		@Override
+		String describe() {
+			return "MapSource[" + this.map.getClass().getSimpleName() + "]";
+		}
+
+		@Override
+		MapStreamPipeline<K, V> withSource(final Source<K, V> source) {
+			return source;
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			return this.map instanceof SortedMap ? Spliterator.DISTINCT | Spliterator.SORTED : Spliterator.DISTINCT;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Comparator<? super K> knownComparator() {
+			return this.map instanceof SortedMap ? ((SortedMap<K, V>) this.map).comparator() : null;
+		}
+	}
+
+	/**
+	 * A source backed by a {@link ConcurrentHashMap}, whose terminal operations, when parallel, are evaluated by the map's own bulk
+	 * operations: {@link ConcurrentHashMap#forEach(long, BiConsumer)}, or {@link ConcurrentHashMap#search(long, BiFunction)} for those
+	 * which short-circuit. These split over the map's table, in parallel once the map has at least the given number of mappings, without
+	 * creating an entry per mapping. Each thread which takes part pushes the pairs through the fused stages into a sink of its own, and the
+	 * results of the sinks are combined once the traversal is complete.
+	 */
+	static class ConcurrentMapSource<K, V> extends MapSource<K, V> {
+		private final ConcurrentHashMap<K, V> map;
+		private final long parallelismThreshold;
+
+		ConcurrentMapSource(final ConcurrentHashMap<K, V> map, final long parallelismThreshold) {
+			super(map);
+			this.map = map;
+			this.parallelismThreshold = parallelismThreshold;
+		}
+
+		@Override
+		public boolean isParallel() {
+			// As for ConcurrentHashMap's bulk operations, a threshold of Long.MAX_VALUE means sequential
+			return this.parallelismThreshold != Long.MAX_VALUE;
+		}
+
+		@Override
+		String describe() {
+			return "ConcurrentMapSource[threshold " + this.parallelismThreshold + "]";
+		}
+
+		/** Evaluate a terminal operation of the given pipeline, whose segment source is this, with the map's bulk operations */
+		<K2, V2, R> R evaluate(final MapStreamPipeline<K2, V2> pipeline, final Supplier<? extends PairTask.Sink<K2, V2, R>> sinkFactory,
+				final BinaryOperator<R> combiner, final boolean shortCircuit) {
+			// Each thread creates its sink on its first pair, which is the only time it touches the queue of all the sinks
+			final Queue<ThreadSink<K2, V2, R>> sinks = new ConcurrentLinkedQueue<>();
+			final ThreadLocal<ThreadSink<K2, V2, R>> threadSink = ThreadLocal.withInitial(() -> {
+				final ThreadSink<K2, V2, R> sink = new ThreadSink<>(pipeline, sinkFactory.get());
+				sinks.add(sink);
+				return sink;
+			});
+			try {
+				traverse(threadSink, shortCircuit);
+			} finally {
+				// The entries of the other threads go stale, and are expunged, once the thread local is unreachable
+				threadSink.remove();
+			}
+			R result = null;
+			boolean first = true;
+			for (final ThreadSink<K2, V2, R> sink : sinks) {
+				result = first ? sink.sink.get() : combiner.apply(result, sink.sink.get());
+				first = false;
+			}
+			return first ? sinkFactory.get().get() : result;
+		}
+
+		/** Push each mapping into the sink of the thread which visits it, until a sink is done if the operation short-circuits */
+		private void traverse(final ThreadLocal<? extends ThreadSink<?, ?, ?>> threadSink, final boolean shortCircuit) {
+			if (shortCircuit) {
+				this.map.search(this.parallelismThreshold, (k, v) -> {
+					final ThreadSink<?, ?, ?> sink = threadSink.get();
+					sink.head.accept(k, v);
+					return sink.sink.done() ? Boolean.TRUE : null;
+				});
+			} else {
+				this.map.forEach(this.parallelismThreshold, (k, v) -> threadSink.get().head.accept(k, v));
+			}
+		}
+	}
+
+	/** The sink of one of the threads evaluating a {@link ConcurrentMapSource}, and the fused stages which push pairs into it */
+	static final class ThreadSink<K, V, R> {
+		final PairTask.Sink<K, V, R> sink;
+		final BiConsumer<Object, Object> head;
+
+		ThreadSink(final MapStreamPipeline<K, V> pipeline, final PairTask.Sink<K, V, R> sink) {
+			this.sink = sink;
+			this.head = pipeline.wrapSink(sink);
+		}
+	}
+
+	/**
+	 * A source of the entries of a map with the given keys, which looks up each key rather than traversing the map. The entries are in the
+	 * order of the map if it is a {@link SortedMap}, otherwise in the order of the keys. The entries found are those a filter of the keys
+	 * would find: a sorted map's own key is only used if it equals the key looked up, and null keys are absent from maps which reject them.
+	 */
+	static class KeyLookupSource<K, V> extends Source<K, V> {
+		private final Map<K, V> map;
+		private final Collection<? extends K> keys;
+		/** Whether the source this replaces was parallel, e.g. a {@link ConcurrentMapSource} */
+		private final boolean parallel;
+
+		KeyLookupSource(final Map<K, V> map, final Collection<? extends K> keys, final boolean parallel) {
+			this.map = map;
+			this.keys = keys;
+			this.parallel = parallel;
+		}
+
+		/**
+		 * @return whether the given map, which may be null, finds keys by {@link Object#equals(Object)}, or can return the key it finds for
+		 *         comparison with the one looked up; other maps, e.g. an {@link java.util.IdentityHashMap}, are filtered instead
+		 */
+		static boolean canLookUp(final Map<?, ?> map) {
+			return map instanceof NavigableMap || map instanceof HashMap || map instanceof ConcurrentHashMap || map instanceof CompactMap;
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return pairEntryStream();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			final Object[] keys = this.keys.toArray();
+			if (this.map instanceof SortedMap) {
+				final Comparator<? super K> comparator = ((SortedMap<K, V>) this.map).comparator();
+				Arrays.sort(keys, (Comparator<Object>) (comparator != null ? comparator : Comparator.naturalOrder()));
+			}
+			final PairBuffer<K, V> buffer = new PairBuffer<>();
+			for (final Object key : keys) {
+				try {
+					lookUp((K) key, buffer);
+				} catch (final NullPointerException e) {
+					// A map which doesn't permit null keys may throw for one, which a filter wouldn't match
+					if (key != null) {
+						throw e;
+					}
+				}
+			}
+			return new KeyCharacteristicsPairSpliterator<>(buffer.spliterator(0), knownKeyCharacteristics(), knownComparator());
+		}
+
+		/** Pass the map's entry for the given key to the given buffer, if it has one */
+		private void lookUp(final K key, final PairBuffer<K, V> buffer) {
+			if (this.map instanceof NavigableMap) {
+				// The map's order may find a key which compares equal to the given key without being equal to it
+				final Entry<K, V> entry = ((NavigableMap<K, V>) this.map).ceilingEntry(key);
+				if (entry != null && Objects.equals(entry.getKey(), key)) {
+					buffer.accept(entry.getKey(), entry.getValue());
+				}
+			} else {
+				final V value = this.map.get(key);
+				if (value != null || this.map.containsKey(key)) {
+					buffer.accept(key, value);
+				}
+			}
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			return this.map instanceof SortedMap ? Spliterator.DISTINCT | Spliterator.SORTED : Spliterator.DISTINCT;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Comparator<? super K> knownComparator() {
+			return this.map instanceof SortedMap ? ((SortedMap<K, V>) this.map).comparator() : null;
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.parallel;
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			// Maps have no resources to close
+		}
+	}
+
+	/**
+	 * Traverses a map with {@link Map#forEach(BiConsumer)}, which is faster than iterating over its entries for most maps, if the whole map
+	 * is traversed at once; otherwise traverses the map's entries
+	 */
+	static final class MapPairSpliterator<K, V> implements PairSpliterator<K, V> {
+		private final Map<K, V> map;
+		private final PairSpliterator<K, V> entries;
+		/** Whether the entries haven't been advanced or split, so the whole map remains to be traversed */
+		private boolean whole = true;
+		/** Whether the whole map has been traversed by {@link Map#forEach(BiConsumer)} */
+		private boolean traversed;
+
+		MapPairSpliterator(final Map<K, V> map, final PairSpliterator<K, V> entries) {
+			this.map = map;
+			this.entries = entries;
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			this.whole = false;
+			return !this.traversed && this.entries.tryAdvance(action);
+		}
+
+		@Override
+		public void forEachRemaining(final BiConsumer<? super K, ? super V> action) {
+			if (this.whole) {
+				this.whole = false;
+				this.traversed = true;
+				this.map.forEach(action);
+			} else if (!this.traversed) {
+				this.entries.forEachRemaining(action);
+			}
+		}
+
+		@Override
+		public BiCursor<K, V> cursor() {
+			if (!this.whole) {
+				return PairSpliterator.super.cursor();
+			}
+			this.whole = false;
+			this.traversed = true;
+			return new PairSpliterator.EntryIteratorCursor<>(this.map.entrySet().iterator());
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			if (this.traversed) {
+				return null;
+			}
+			this.whole = false;
+			return this.entries.trySplit();
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.traversed ? 0 : this.entries.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return this.entries.characteristics();
+		}
+	}
+
+	/** A source backed by a single-use stream of arbitrary elements */
+	static class StreamSource<T, K, V> extends Source<K, V> {
+		private final Stream<T> stream;
+		/** Functions to produce keys and values directly from the stream elements; may be null, in which case entries are unpacked */
+		private final Function<T, K> keyFunction;
+		private final Function<T, V> valueFunction;
+		private final Function<T, Entry<K, V>> entryFunction;
+
+		StreamSource(final Stream<T> stream, final Function<T, K> keyFunction, final Function<T, V> valueFunction,
+				final Function<T, Entry<K, V>> entryFunction) {
+			this.stream = stream;
+			this.keyFunction = keyFunction;
+			this.valueFunction = valueFunction;
+			this.entryFunction = entryFunction;
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return this.stream.map(this.entryFunction);
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			final Stream<T> stream = parallel ? this.stream.parallel() : this.stream.sequential();
+			if (this.keyFunction == null) {
+				return PairSpliterator.ofEntries(stream.map(this.entryFunction).spliterator());
+			}
+			return PairSpliterator.of(stream.spliterator(), this.keyFunction, this.valueFunction);
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.stream.isParallel();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			handlers.add(this.stream::close);
+		}
+	}
+
+	/**
+	 * A source backed by a memory-mapped file, e.g. a {@link BlockFile} or a {@link DelimitedFile}, which is read afresh each time the
+	 * source is evaluated
+	 */
+	static class FileSource<K, V> extends Source<K, V> {
+		private final Supplier<PairSpliterator<K, V>> spliterators;
+		private final long size;
+
+		/**
+		 * @param size
+		 *            the number of pairs in the file, or -1 if it isn't known
+		 */
+		FileSource(final Supplier<PairSpliterator<K, V>> spliterators, final long size) {
+			this.spliterators = spliterators;
+			this.size = size;
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return pairEntryStream();
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			return this.spliterators.get();
+		}
+
+		@Override
+		long knownSize() {
+			return this.size;
+		}
+
+		@Override
+		public boolean isParallel() {
+			return false;
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			// The file is closed once mapped, and the mapping is released when it is garbage collected
+		}
+	}
+
+	/**
+	 * A source holding the pairs output by another pipeline, which is evaluated when the source is created. The values are either held in
+	 * an array parallel to the keys, or as indexes into a dictionary of the distinct values.
+	 */
+	static class CacheSource<K, V> extends Source<K, V> {
+		/** The maximum number of distinct values for which the values are stored as {@code char} indexes into a dictionary */
+		private static final int MAX_DICTIONARY_SIZE = Character.MAX_VALUE + 1;
+
+		private final Object[] keys;
+		/** The values, or null if they are stored in the dictionary */
+		private final Object[] values;
+		private final char[] valueIndexes;
+		private final Object[] dictionary;
+		private final int keyCharacteristics;
+		private final Comparator<? super K> comparator;
+		private final boolean parallel;
+		private final MemoryBudget memoryBudget;
+		private final List<Runnable> closeHandlers = new ArrayList<>();
+
+		CacheSource(final MapStreamPipeline<K, V> upstream, final boolean encodeValues) {
+			this.parallel = upstream.isParallel();
+			this.memoryBudget = upstream.memoryBudget();
+			upstream.addCloseHandlers(this.closeHandlers);
+			final PairSpliterator<K, V> spliterator = upstream.pairSpliterator(this.parallel);
+			this.keyCharacteristics = spliterator.characteristics() & (Spliterator.SORTED | Spliterator.DISTINCT);
+			this.comparator = (this.keyCharacteristics & Spliterator.SORTED) != 0 ? spliterator.getComparator() : null;
+			final PairBuffer<K, V> buffer;
+			if (this.parallel) {
+				buffer = PairTask.invoke(spliterator, PairBuffer::new, PairBuffer::appendAll, false);
+			} else {
+				buffer = new PairBuffer<>();
+				spliterator.forEachRemaining(buffer);
+			}
+			this.keys = Arrays.copyOf(buffer.keyArray, buffer.size);
+			if (!encodeValues) {
+				this.values = Arrays.copyOf(buffer.valueArray, buffer.size);
+				this.valueIndexes = null;
+				this.dictionary = null;
+				return;
+			}
+			final Map<Object, Integer> indexes = new HashMap<>();
+			final List<Object> distinctValues = new ArrayList<>();
+			final char[] valueIndexes = new char[buffer.size];
+			for (int i = 0; i < buffer.size; i++) {
+				Integer index = indexes.get(buffer.valueArray[i]);
+				if (index == null) {
+					index = distinctValues.size();
+					indexes.put(buffer.valueArray[i], index);
+					distinctValues.add(buffer.valueArray[i]);
+				}
+				valueIndexes[i] = (char) index.intValue();
+				buffer.valueArray[i] = distinctValues.get(index);
+			}
+			if (distinctValues.size() <= MAX_DICTIONARY_SIZE) {
+				this.values = null;
+				this.valueIndexes = valueIndexes;
+				this.dictionary = distinctValues.toArray();
+			} else {
+				// Too many distinct values to index with a char, but equal values have still been replaced by the first of them
+				this.values = Arrays.copyOf(buffer.valueArray, buffer.size);
+				this.valueIndexes = null;
+				this.dictionary = null;
+			}
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return pairEntryStream();
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			final PairSpliterator<K, V> spliterator = this.values != null ? PairSpliterator.ofArrays(this.keys, this.values, 0,
+					this.keys.length, 0) : PairSpliterator.ofDictionary(this.keys, this.valueIndexes, this.dictionary, 0, this.keys.length);
+			return this.keyCharacteristics == 0 ? spliterator : new KeyCharacteristicsPairSpliterator<>(spliterator, this.keyCharacteristics,
+					this.comparator);
+		}
+
+		@Override
+		long knownSize() {
+			return this.keys.length;
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			return this.keyCharacteristics;
+		}
+
+		@Override
+		Comparator<? super K> knownComparator() {
+			return this.comparator;
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.parallel;
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.memoryBudget;
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			handlers.addAll(this.closeHandlers);
+		}
+	}
+
+	/** A stateful operation, applied to the entry stream of the upstream pipeline */
+	static class Barrier<K, V> extends Source<K, V> {
+		private final MapStreamPipeline<K, V> upstream;
+		private final UnaryOperator<Stream<Entry<K, V>>> operation;
+		/** The number of pairs output by the operation given the number input, or null if it isn't known */
+		private final LongUnaryOperator size;
+		/** Characteristics of the keys output by the operation, e.g. {@link Spliterator#SORTED} for a sort by key */
+		private final int keyCharacteristics;
+		/** The comparator by which the keys are sorted, if they are sorted */
+		private final Comparator<? super K> comparator;
+		/** The characteristics of the upstream keys which the operation preserves */
+		private final int preservedCharacteristics;
+
+		/** Create a barrier whose operation keeps the order and distinctness of the upstream keys, e.g. limit and skip */
+		Barrier(final MapStreamPipeline<K, V> upstream, final UnaryOperator<Stream<Entry<K, V>>> operation, final LongUnaryOperator size) {
+			this(upstream, operation, size, 0, null, Spliterator.SORTED | Spliterator.DISTINCT);
+		}
+
+		Barrier(final MapStreamPipeline<K, V> upstream, final UnaryOperator<Stream<Entry<K, V>>> operation, final LongUnaryOperator size,
+				final int keyCharacteristics, final Comparator<? super K> comparator, final int preservedCharacteristics) {
+			this.upstream = upstream;
+			this.operation = operation;
+			this.size = size;
+			this.keyCharacteristics = keyCharacteristics;
+			this.comparator = comparator;
+			this.preservedCharacteristics = preservedCharacteristics;
+		}
+
+		@Override
+		MapStreamPipeline<?, ?> barrierUpstream() {
+			return this.upstream;
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return this.operation.apply(this.upstream.entryStream());
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			final Stream<Entry<K, V>> upstream = this.upstream.entryStream();
+			final PairSpliterator<K, V> spliterator = PairSpliterator.ofEntries(this.operation.apply(parallel ? upstream.parallel() : upstream
+					.sequential()).spliterator());
+			final int keyCharacteristics = knownKeyCharacteristics();
+			return keyCharacteristics == 0 ? spliterator : new KeyCharacteristicsPairSpliterator<>(spliterator, keyCharacteristics,
+					knownComparator());
+		}
+
+		@Override
+		long knownSize() {
+			final long upstreamSize = this.size == null ? -1 : this.upstream.knownSize();
+			return upstreamSize < 0 ? -1 : this.size.applyAsLong(upstreamSize);
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			return this.keyCharacteristics | this.upstream.knownKeyCharacteristics() & this.preservedCharacteristics;
+		}
+
+		@Override
+		Comparator<? super K> knownComparator() {
+			return (this.keyCharacteristics & Spliterator.SORTED) != 0 ? this.comparator : this.upstream.knownComparator();
+		}
+
+		@Override
+		boolean hasSideEffects() {
+			return this.upstream.hasSideEffects();
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.upstream.isParallel();
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.upstream.memoryBudget();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			this.upstream.addCloseHandlers(handlers);
+		}
+	}
+
+	/** Sorts the pairs by key or by value; a subsequent {@link #limit(long)} keeps only the first pairs instead of sorting all of them */
+	static class SortBarrier<K, V> extends Barrier<K, V> {
+		private final MapStreamPipeline<K, V> upstream;
+		private final boolean byKey;
+		private final Comparator<?> comparator;
+
+		@SuppressWarnings("unchecked")
+		SortBarrier(final MapStreamPipeline<K, V> upstream, final UnaryOperator<Stream<Entry<K, V>>> sort, final boolean byKey,
+				final Comparator<?> comparator) {
+			super(upstream, sort, LongUnaryOperator.identity(), byKey ? Spliterator.SORTED : 0, byKey ? (Comparator<? super K>) comparator
+					: null, Spliterator.DISTINCT);
+			this.upstream = upstream;
+			this.byKey = byKey;
+			this.comparator = comparator;
+		}
+
+		@Override
+		public MapStream<K, V> limit(final long maxSize) {
+			// Leave huge limits, which don't fit in a heap's arrays, to a full sort
+			if (maxSize < 0 || maxSize > Integer.MAX_VALUE - 8) {
+				return super.limit(maxSize);
+			}
+			return new TopBarrier<>(this.upstream, (int) maxSize, this.byKey, this.comparator);
+		}
+
+		@Override
+		String describe() {
+			return "SortBarrier[" + (this.byKey ? "keys" : "values") + "]";
+		}
+	}
+
+	/** Skips the first pairs and/or limits the number of pairs; consecutive limits and skips are merged into one slice */
+	static class SliceBarrier<K, V> extends Barrier<K, V> {
+		private final MapStreamPipeline<K, V> upstream;
+		private final long skip;
+		/** The maximum number of pairs after skipping, or -1 for no limit */
+		private final long limit;
+
+		SliceBarrier(final MapStreamPipeline<K, V> upstream, final long skip, final long limit) {
+			super(upstream, s -> {
+				final Stream<Entry<K, V>> skipped = skip == 0 ? s : s.skip(skip);
+				return limit < 0 ? skipped : skipped.limit(limit);
+			}, size -> {
+				final long remaining = Math.max(0, size - skip);
+				return limit < 0 ? remaining : Math.min(remaining, limit);
+			});
+			this.upstream = upstream;
+			this.skip = skip;
+			this.limit = limit;
+		}
+
+		@Override
+		public MapStream<K, V> limit(final long maxSize) {
+			if (maxSize < 0) {
+				return super.limit(maxSize);
+			}
+			return new SliceBarrier<>(this.upstream, this.skip, this.limit < 0 ? maxSize : Math.min(this.limit, maxSize));
+		}
+
+		@Override
+		public MapStream<K, V> skip(final long n) {
+			if (n < 0) {
+				return super.skip(n);
+			}
+			// No stream has more than Long.MAX_VALUE pairs to skip
+			final long skip = this.skip + n < 0 ? Long.MAX_VALUE : this.skip + n;
+			return new SliceBarrier<>(this.upstream, skip, this.limit < 0 ? -1 : Math.max(0, this.limit - n));
+		}
+
+		@Override
+		String describe() {
+			return "SliceBarrier[skip " + this.skip + (this.limit < 0 ? "" : ", limit " + this.limit) + "]";
+		}
+	}
+
+	/** Keeps the first pairs in the order given by a comparator of their keys or values, using a {@link BoundedPairHeap} */
+	static class TopBarrier<K, V> extends Source<K, V> {
+		private final MapStreamPipeline<K, V> upstream;
+		private final int limit;
+		private final boolean byKey;
+		private final Comparator<?> comparator;
+
+		TopBarrier(final MapStreamPipeline<K, V> upstream, final int limit, final boolean byKey, final Comparator<?> comparator) {
+			this.upstream = upstream;
+			this.limit = limit;
+			this.byKey = byKey;
+			this.comparator = comparator;
+		}
+
+		@Override
+		MapStreamPipeline<?, ?> barrierUpstream() {
+			return this.upstream;
+		}
+
+		@Override
+		String describe() {
+			return "TopBarrier[" + (this.byKey ? "keys" : "values") + ", limit " + this.limit + "]";
+		}
+
+		@Override
+		public MapStream<K, V> limit(final long maxSize) {
+			if (maxSize < 0) {
+				return super.limit(maxSize);
+			}
+			return maxSize >= this.limit ? this : new TopBarrier<>(this.upstream, (int) maxSize, this.byKey, this.comparator);
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return pairEntryStream();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			final PairSpliterator<K, V> upstream = this.upstream.pairSpliterator(parallel);
+			final BoundedPairHeap<K, V> heap;
+			if (parallel) {
+				heap = PairTask.invoke(upstream, () -> new BoundedPairHeap<K, V>(this.limit, this.comparator, this.byKey),
+						BoundedPairHeap::merge, false);
+			} else {
+				heap = new BoundedPairHeap<>(this.limit, this.comparator, this.byKey);
+				upstream.forEachRemaining(heap);
+			}
+			final PairSpliterator<K, V> spliterator = heap.spliterator(0);
+			return this.byKey ? new KeyCharacteristicsPairSpliterator<>(spliterator, Spliterator.SORTED,
+					(Comparator<? super K>) this.comparator) : spliterator;
+		}
+
+		@Override
+		long knownSize() {
+			final long upstreamSize = this.upstream.knownSize();
+			return upstreamSize < 0 ? -1 : Math.min(upstreamSize, this.limit);
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			final int distinct = this.upstream.knownKeyCharacteristics() & Spliterator.DISTINCT;
+			return this.byKey ? distinct | Spliterator.SORTED : distinct;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Comparator<? super K> knownComparator() {
+			return this.byKey ? (Comparator<? super K>) this.comparator : null;
+		}
+
+		@Override
+		boolean hasSideEffects() {
+			return this.upstream.hasSideEffects();
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.upstream.isParallel();
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.upstream.memoryBudget();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			this.upstream.addCloseHandlers(handlers);
+		}
+	}
+
+	/**
+	 * Sorts the pairs by a primitive function of their keys or values with a {@link RadixSort} of the buffered pairs; a subsequent
+	 * {@link #limit(long)} keeps only the first pairs instead, like {@link SortBarrier}
+	 */
+	static class RadixSortBarrier<K, V> extends Source<K, V> {
+		private final MapStreamPipeline<K, V> upstream;
+		private final boolean byKey;
+		private final RadixSort.RadixKey<Object> radixKey;
+		/** The comparator equivalent to the radix key */
+		private final Comparator<?> comparator;
+
+		RadixSortBarrier(final MapStreamPipeline<K, V> upstream, final boolean byKey, final RadixSort.RadixKey<Object> radixKey,
+				final Comparator<?> comparator) {
+			this.upstream = upstream;
+			this.byKey = byKey;
+			this.radixKey = radixKey;
+			this.comparator = comparator;
+		}
+
+		@Override
+		MapStreamPipeline<?, ?> barrierUpstream() {
+			return this.upstream;
+		}
+
+		@Override
+		String describe() {
+			return "RadixSortBarrier[" + (this.byKey ? "keys" : "values") + "]";
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return pairEntryStream();
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			final PairSpliterator<K, V> upstream = this.upstream.pairSpliterator(parallel);
+			final PairBuffer<K, V> buffer;
+			if (parallel) {
+				buffer = PairTask.invoke(upstream, PairBuffer::new, PairBuffer::appendAll, false);
+			} else {
+				buffer = new PairBuffer<>();
+				upstream.forEachRemaining(buffer);
+			}
+			final int[] order = RadixSort.<Object> sortedIndexes(this.byKey ? buffer.keyArray : buffer.valueArray, buffer.size,
+					this.radixKey);
+			final Object[] keys = new Object[buffer.size];
+			final Object[] values = new Object[buffer.size];
+			for (int i = 0; i < buffer.size; i++) {
+				keys[i] = buffer.keyArray[order[i]];
+				values[i] = buffer.valueArray[order[i]];
+			}
+			final PairSpliterator<K, V> spliterator = PairSpliterator.ofArrays(keys, values, 0, keys.length, 0);
+			final int keyCharacteristics = knownKeyCharacteristics();
+			return keyCharacteristics == 0 ? spliterator : new KeyCharacteristicsPairSpliterator<>(spliterator, keyCharacteristics,
+					knownComparator());
+		}
+
+		@Override
+		public MapStream<K, V> limit(final long maxSize) {
+			// Leave huge limits, which don't fit in a heap's arrays, to a full sort
+			if (maxSize < 0 || maxSize > Integer.MAX_VALUE - 8) {
+				return super.limit(maxSize);
+			}
+			return new TopBarrier<>(this.upstream, (int) maxSize, this.byKey, this.comparator);
+		}
+
+		@Override
+		long knownSize() {
+			return this.upstream.knownSize();
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			final int distinct = this.upstream.knownKeyCharacteristics() & Spliterator.DISTINCT;
+			return this.byKey ? distinct | Spliterator.SORTED : distinct;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Comparator<? super K> knownComparator() {
+			return this.byKey ? (Comparator<? super K>) this.comparator : null;
+		}
+
+		@Override
+		boolean hasSideEffects() {
+			return this.upstream.hasSideEffects();
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.upstream.isParallel();
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.upstream.memoryBudget();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			this.upstream.addCloseHandlers(handlers);
+		}
+	}
+
+	/**
+	 * Sorts the pairs by key with an {@link ExternalSorter}, which may write them to temporary files. The files of every evaluation
+	 * which weren't deleted as they were read are deleted when the pipeline is closed.
+	 */
+	static class ExternalSortBarrier<K, V> extends Source<K, V> {
+		private final MapStreamPipeline<K, V> upstream;
+		private final Comparator<? super K> comparator;
+		private final Supplier<ExternalSorter<K, V>> sorterFactory;
+		private final Queue<ExternalSorter<K, V>> sorters = new ConcurrentLinkedQueue<>();
+
+		ExternalSortBarrier(final MapStreamPipeline<K, V> upstream, final Comparator<? super K> comparator,
+				final Supplier<ExternalSorter<K, V>> sorterFactory) {
+			this.upstream = upstream;
+			this.comparator = comparator;
+			this.sorterFactory = sorterFactory;
+		}
+
+		@Override
+		MapStreamPipeline<?, ?> barrierUpstream() {
+			return this.upstream;
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return pairEntryStream();
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			final ExternalSorter<K, V> sorter = this.sorterFactory.get();
+			this.sorters.add(sorter);
+			this.upstream.pairSpliterator(parallel).forEachRemaining(sorter);
+			return sorter.spliterator();
+		}
+
+		/** @return the number of runs written to temporary files by the evaluations of this barrier which haven't been closed */
+		int runCount() {
+			return this.sorters.stream().mapToInt(ExternalSorter::runCount).sum();
+		}
+
+		@Override
+		long knownSize() {
+			return this.upstream.knownSize();
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			return Spliterator.SORTED | this.upstream.knownKeyCharacteristics() & Spliterator.DISTINCT;
+		}
+
+		@Override
+		Comparator<? super K> knownComparator() {
+			return this.comparator;
+		}
+
+		@Override
+		boolean hasSideEffects() {
+			return this.upstream.hasSideEffects();
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.upstream.isParallel();
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.upstream.memoryBudget();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			this.upstream.addCloseHandlers(handlers);
+			handlers.add(() -> {
+				for (ExternalSorter<K, V> sorter; (sorter = this.sorters.poll()) != null;) {
+					sorter.deleteRuns();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Aggregates the values for each key using a {@link KeyAggregator}, or sequentially with {@link SpillingPairSpliterators#aggregate} if
+	 * the pipeline has a {@link MemoryBudget}
+	 */
+	static class AggregateBarrier<K, V, A> extends Source<K, A> {
+		private final MapStreamPipeline<K, V> upstream;
+		private final KeyAggregator<K, V, A> aggregator;
+		/** Whether the aggregates retain every value, rather than a bounded amount per key */
+		private final boolean retainsValues;
+
+		AggregateBarrier(final MapStreamPipeline<K, V> upstream, final KeyAggregator<K, V, A> aggregator, final boolean retainsValues) {
+			this.upstream = upstream;
+			this.aggregator = aggregator;
+			this.retainsValues = retainsValues;
+		}
+
+		@Override
+		MapStreamPipeline<?, ?> barrierUpstream() {
+			return this.upstream;
+		}
+
+		@Override
+		public Stream<Entry<K, A>> entryStream() {
+			return pairEntryStream();
+		}
+
+		@Override
+		PairSpliterator<K, A> sourceSpliterator(final boolean parallel) {
+			final MemoryBudget budget = this.upstream.memoryBudget();
+			if (budget != null) {
+				return SpillingPairSpliterators.aggregate(this.upstream.pairSpliterator(parallel), this.aggregator, budget,
+						this.retainsValues);
+			}
+			return this.aggregator.aggregate(this.upstream.pairSpliterator(parallel), parallel);
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			return Spliterator.DISTINCT;
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.upstream.isParallel();
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.upstream.memoryBudget();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			this.upstream.addCloseHandlers(handlers);
+		}
+	}
+
+	/**
+	 * Joins the pairs of two pipelines by key. If both are evaluated sequentially with keys sorted by the same comparator, they are merged by
+	 * a {@link JoinPairSpliterators.MergeJoin}. Otherwise one side is collected into a hash table of its values by key (in parallel by a
+	 * {@link KeyAggregator} if the join is evaluated in parallel) and the other side probes it with a
+	 * {@link JoinPairSpliterators.HashJoin}, which splits with the probe side. An inner join builds the table from the side with the smaller
+	 * known size, preferring the right side; outer joins always build it from the right side, so that unmatched left pairs are found as the
+	 * left side is traversed.
+	 */
+	static class JoinBarrier<K, V, W, R> extends Source<K, R> {
+		private final MapStreamPipeline<K, V> left;
+		private final MapStreamPipeline<K, W> right;
+		private final BiFunction<? super V, ? super W, ? extends R> combiner;
+		private final boolean keepUnmatchedLeft;
+		private final boolean keepUnmatchedRight;
+
+		JoinBarrier(final MapStreamPipeline<K, V> left, final MapStreamPipeline<K, W> right,
+				final BiFunction<? super V, ? super W, ? extends R> combiner, final boolean keepUnmatchedLeft,
+				final boolean keepUnmatchedRight) {
+			this.left = left;
+			this.right = right;
+			this.combiner = combiner;
+			this.keepUnmatchedLeft = keepUnmatchedLeft;
+			this.keepUnmatchedRight = keepUnmatchedRight;
+		}
+
+		@Override
+		MapStreamPipeline<?, ?> barrierUpstream() {
+			return this.left;
+		}
+
+		@Override
+		String describe() {
+			return "JoinBarrier[" + (this.keepUnmatchedLeft ? this.keepUnmatchedRight ? "full outer" : "left" : "inner") + "]";
+		}
+
+		@Override
+		void explain(final StringBuilder plan, final String indent) {
+			super.explain(plan, indent);
+			this.right.explain(plan, indent + "    ");
+		}
+
+		@Override
+		public Stream<Entry<K, R>> entryStream() {
+			return pairEntryStream();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		PairSpliterator<K, R> sourceSpliterator(final boolean parallel) {
+			final PairSpliterator<K, V> left = this.left.pairSpliterator(parallel);
+			final PairSpliterator<K, W> right = this.right.pairSpliterator(parallel);
+			if (!parallel && left.hasCharacteristics(Spliterator.SORTED) && right.hasCharacteristics(Spliterator.SORTED)
+					&& naturalIfNull(left.getComparator()).equals(naturalIfNull(right.getComparator()))) {
+				return new JoinPairSpliterators.MergeJoin<>(left, right, naturalIfNull(left.getComparator()), this.combiner,
+						this.keepUnmatchedLeft, this.keepUnmatchedRight);
+			}
+			final long leftSize = this.left.knownSize();
+			final long rightSize = this.right.knownSize();
+			final BiFunction<Object, Object, R> combiner = (BiFunction<Object, Object, R>) this.combiner;
+			if (!this.keepUnmatchedLeft && leftSize >= 0 && (rightSize < 0 || leftSize < rightSize)) {
+				return new JoinPairSpliterators.HashJoin<>(right, buildTable(left, parallel), (w, v) -> combiner.apply(v, w), false, false,
+						false);
+			}
+			final Map<Object, JoinPairSpliterators.Bucket> table = buildTable(right, parallel);
+			final JoinPairSpliterators.HashJoin<K, V, R> join = new JoinPairSpliterators.HashJoin<>(left, table, combiner,
+					this.keepUnmatchedLeft, this.keepUnmatchedRight, this.keepUnmatchedRight && !parallel);
+			if (!this.keepUnmatchedRight || !parallel) {
+				return join;
+			}
+			// The unmatched right pairs are only known once every split of the left side has been probed
+			final PairBuffer<K, R> buffer = PairTask.invoke(join, PairBuffer<K, R>::new, PairBuffer::appendAll, false);
+			table.forEach((key, bucket) -> {
+				if (!bucket.matched) {
+					for (final Object value : bucket.values) {
+						buffer.accept((K) key, combiner.apply(null, value));
+					}
+				}
+			});
+			return buffer.spliterator(0);
+		}
+
+		/** @return a hash table of the values of the given spliterator by key */
+		@SuppressWarnings("unchecked")
+		private static <K> Map<Object, JoinPairSpliterators.Bucket> buildTable(final PairSpliterator<K, ?> spliterator,
+				final boolean parallel) {
+			final PairSpliterator<K, JoinPairSpliterators.Bucket> buckets = new KeyAggregator<K, Object, JoinPairSpliterators.Bucket>(
+					JoinPairSpliterators.Bucket::new, JoinPairSpliterators.Bucket::add, JoinPairSpliterators.Bucket::addAll).aggregate(
+					(PairSpliterator<K, Object>) spliterator, parallel);
+			final Map<Object, JoinPairSpliterators.Bucket> table = new HashMap<>((int) Math.min(buckets.estimateSize() / 0.75 + 1,
+					Integer.MAX_VALUE));
+			buckets.forEachRemaining(table::put);
+			return table;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <K> Comparator<? super K> naturalIfNull(final Comparator<? super K> comparator) {
+			return comparator == null ? (Comparator<? super K>) Comparator.naturalOrder() : comparator;
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.left.isParallel();
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.left.memoryBudget();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			this.left.addCloseHandlers(handlers);
+			this.right.addCloseHandlers(handlers);
+		}
+	}
+
+	/**
+	 * Drops pairs whose key, or value, was seen earlier in the stream. Unlike {@link MapStream#distinctKeys()} this chooses how to remember
+	 * the keys or values when the pipeline is evaluated: keys which are already distinct are passed through, keys which are sorted are
+	 * compared with the previous key only, and a sequential evaluation uses an unsynchronized hash set.
+	 * <p>
+	 * A parallel evaluation of an ordered stream keeps the first pair in encounter order: each partition removes its own duplicates without
+	 * synchronization, then the partitions are merged in order, dropping pairs already seen in an earlier partition. A parallel evaluation
+	 * of an unordered stream filters lazily through a concurrent set, with a local set per partition in front of it so duplicates within a
+	 * partition don't contend on the shared set.
+	 * <p>
+	 * If the pipeline has a {@link MemoryBudget}, keys which aren't sorted are remembered by a {@link SpillingPairSpliterators.Distinct},
+	 * sequentially.
+	 */
+	static class DistinctBarrier<K, V> extends Source<K, V> {
+		private final MapStreamPipeline<K, V> upstream;
+		private final boolean keys;
+
+		DistinctBarrier(final MapStreamPipeline<K, V> upstream, final boolean keys) {
+			this.upstream = upstream;
+			this.keys = keys;
+		}
+
+		@Override
+		MapStreamPipeline<?, ?> barrierUpstream() {
+			return this.upstream;
+		}
+
+		@Override
+		String describe() {
+			return "DistinctBarrier[" + (this.keys ? "keys" : "values") + "]";
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return pairEntryStream();
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			final PairSpliterator<K, V> upstream = this.upstream.pairSpliterator(parallel);
+			final int characteristics = this.keys ? Spliterator.DISTINCT : 0;
+			final boolean sortedKeys = this.keys && upstream.hasCharacteristics(Spliterator.SORTED);
+			final MemoryBudget budget = this.upstream.memoryBudget();
+			if (this.keys && upstream.hasCharacteristics(Spliterator.DISTINCT)) {
+				return upstream;
+			} else if (budget != null && !sortedKeys) {
+				return new SpillingPairSpliterators.Distinct<>(upstream, budget, this.keys, characteristics);
+			} else if (parallel && budget == null && upstream.hasCharacteristics(Spliterator.ORDERED)) {
+				return PairTask.invoke(upstream, () -> new DistinctPairBuffer<K, V>(this.keys), DistinctPairBuffer::appendAll, false)
+						.spliterator(characteristics);
+			} else if (parallel && budget == null) {
+				final Predicate<Object> seen = distinctPredicate();
+				return new FilteringPairSpliterator<>(upstream, () -> {
+					final ObjHashSet seenLocally = new ObjHashSet(0);
+					return distinctPairPredicate(o -> seenLocally.add(o) && seen.test(o));
+				}, true, characteristics);
+			}
+			final Predicate<Object> distinct;
+			if (sortedKeys) {
+				@SuppressWarnings("unchecked")
+				final Comparator<Object> comparator = (Comparator<Object>) upstream.getComparator();
+				distinct = sortedDistinctPredicate(comparator);
+			} else {
+				distinct = sequentialDistinctPredicate(upstream.getExactSizeIfKnown());
+			}
+			return new FilteringPairSpliterator<>(upstream, () -> distinctPairPredicate(distinct), false, characteristics);
+		}
+
+		/** @return a predicate which tests the key or value of each pair with the given predicate */
+		private BiPredicate<K, V> distinctPairPredicate(final Predicate<Object> distinct) {
+			return this.keys ? (k, v) -> distinct.test(k) : (k, v) -> distinct.test(v);
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			// Only spilling to partitions changes the order, and sorted keys are never spilled
+			final int upstream = this.upstream.knownKeyCharacteristics();
+			if (this.keys) {
+				return Spliterator.DISTINCT | upstream & Spliterator.SORTED;
+			}
+			return this.upstream.memoryBudget() == null ? upstream : upstream & Spliterator.DISTINCT;
+		}
+
+		@Override
+		Comparator<? super K> knownComparator() {
+			return this.upstream.knownComparator();
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.upstream.isParallel();
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.upstream.memoryBudget();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			this.upstream.addCloseHandlers(handlers);
+		}
+	}
+
+	/** A source backed by the entry stream of a MapStream which isn't a pipeline */
+	static class MapStreamSource<K, V> extends Source<K, V> {
+		private final MapStream<K, V> mapStream;
+
+		MapStreamSource(final MapStream<K, V> mapStream) {
+			this.mapStream = mapStream;
+		}
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return this.mapStream.entryStream();
+		}
+
+		@Override
+		PairSpliterator<K, V> sourceSpliterator(final boolean parallel) {
+			final Stream<Entry<K, V>> stream = this.mapStream.entryStream();
+			return PairSpliterator.ofEntries((parallel ? stream.parallel() : stream.sequential()).spliterator());
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.mapStream.isParallel();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			handlers.add(this.mapStream::close);
+		}
+	}
+
+	/** A stateless stage, applied to each pair from the upstream pipeline */
+	abstract static class Stage<KI, VI, K, V> extends MapStreamPipeline<K, V> {
+		final MapStreamPipeline<KI, VI> upstream;
+
+		Stage(final MapStreamPipeline<KI, VI> upstream, final boolean mapsEntries) {
+			super(upstream.mapsEntries || mapsEntries);
+			this.upstream = upstream;
+		}
+
+		/** @return a sink which applies this stage to its input and passes the results to the given sink */
+		abstract BiConsumer<KI, VI> opWrapSink(BiConsumer<? super K, ? super V> sink);
+
+		/** @return the given upstream entry stream with this stage applied; only called if no stage in this segment maps entries */
+		abstract Stream<Entry<K, V>> opEntryStream(Stream<Entry<KI, VI>> upstream);
+
+		@Override
+		public Stream<Entry<K, V>> entryStream() {
+			return this.mapsEntries ? pairEntryStream() : opEntryStream(this.upstream.entryStream());
+		}
+
+		@Override
+		final Source<?, ?> segmentSource() {
+			return this.upstream.segmentSource();
+		}
+
+		@Override
+		final BiConsumer<Object, Object> wrapSink(final BiConsumer<? super K, ? super V> sink) {
+			return this.upstream.wrapSink(opWrapSink(sink));
+		}
+
+		@Override
+		void explain(final StringBuilder plan, final String indent) {
+			this.upstream.explain(plan, indent);
+			super.explain(plan, indent + "  ");
+		}
+
+		@Override
+		public MapStream<K, V> compile() {
+			return compiledCopy((MapStreamPipeline<KI, VI>) this.upstream.compile());
+		}
+
+		/** @return a copy of this stage applied to the given compiled copy of its upstream, whose sink is compiled if it can be */
+		MapStreamPipeline<K, V> compiledCopy(final MapStreamPipeline<KI, VI> upstream) {
+			return new CompiledStage<>(upstream, this, sink -> opWrapSink(sink));
+		}
+
+		/** @return the characteristics of the pairs output by this stage, given the characteristics of the segment source */
+		final int stageCharacteristics(final int sourceCharacteristics) {
+			final int characteristics = this.upstream instanceof Stage ? ((Stage<?, ?, ?, ?>) this.upstream)
+					.stageCharacteristics(sourceCharacteristics) : sourceCharacteristics;
+			return opCharacteristics(characteristics);
+		}
+
+		@Override
+		int opCharacteristics(final int characteristics) {
+			return characteristics;
+		}
+
+		@Override
+		long knownSize() {
+			return (opCharacteristics(Spliterator.SIZED) & Spliterator.SIZED) == 0 ? -1 : this.upstream.knownSize();
+		}
+
+		@Override
+		int knownKeyCharacteristics() {
+			final int characteristics = opCharacteristics(this.upstream.knownKeyCharacteristics() | Spliterator.ORDERED);
+			// Unordered keys aren't sorted
+			return characteristics & ((characteristics & Spliterator.ORDERED) == 0 ? Spliterator.DISTINCT : Spliterator.SORTED
+					| Spliterator.DISTINCT);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Comparator<? super K> knownComparator() {
+			// Only called if the keys are sorted, so this stage doesn't replace them
+			return (Comparator<? super K>) this.upstream.knownComparator();
+		}
+
+		@Override
+		boolean hasSideEffects() {
+			return this.upstream.hasSideEffects();
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.upstream.isParallel();
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.upstream.memoryBudget();
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			this.upstream.addCloseHandlers(handlers);
+		}
+	}
+
+	/** A predicate of pairs which tests only their keys; the {@link PipelineCompiler} specializes on the predicate of the keys */
+	static final class KeyPredicate<K, V> implements BiPredicate<K, V> {
+		final Predicate<? super K> predicate;
+
+		KeyPredicate(final Predicate<? super K> predicate) {
+			this.predicate = predicate;
+		}
+
+		@Override
+		public boolean test(final K key, final V value) {
+			return this.predicate.test(key);
+		}
+	}
+
+	/** A predicate of pairs which tests only their values; the {@link PipelineCompiler} specializes on the predicate of the values */
+	static final class ValuePredicate<K, V> implements BiPredicate<K, V> {
+		final Predicate<? super V> predicate;
+
+		ValuePredicate(final Predicate<? super V> predicate) {
+			this.predicate = predicate;
+		}
+
+		@Override
+		public boolean test(final K key, final V value) {
+			return this.predicate.test(value);
+		}
+	}
+
+	/** A function of pairs which applies a function to their keys, which the {@link PipelineCompiler} specializes on */
+	static final class KeyFunction<K, V, R> implements BiFunction<K, V, R> {
+		final Function<? super K, ? extends R> function;
+
+		KeyFunction(final Function<? super K, ? extends R> function) {
+			this.function = function;
+		}
+
+		@Override
+		public R apply(final K key, final V value) {
+			return this.function.apply(key);
+		}
+	}
+
+	/** A function of pairs which applies a function to their values, which the {@link PipelineCompiler} specializes on */
+	static final class ValueFunction<K, V, R> implements BiFunction<K, V, R> {
+		final Function<? super V, ? extends R> function;
+
+		ValueFunction(final Function<? super V, ? extends R> function) {
+			this.function = function;
+		}
+
+		@Override
+		public R apply(final K key, final V value) {
+			return this.function.apply(value);
+		}
+	}
+
+	/**
+	 * The key mapper of fused key mapping stages: the second mapper is applied to the result of the first and the value. The
+	 * {@link PipelineCompiler} compiles each mapper into its own sink.
+	 */
+	static final class KeyComposition<K, V, J, R> implements BiFunction<K, V, R> {
+		final BiFunction<? super K, ? super V, ? extends J> first;
+		final BiFunction<? super J, ? super V, ? extends R> second;
+
+		KeyComposition(final BiFunction<? super K, ? super V, ? extends J> first,
+				final BiFunction<? super J, ? super V, ? extends R> second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public R apply(final K key, final V value) {
+			return this.second.apply(this.first.apply(key, value), value);
+		}
+	}
+
+	/**
+	 * The value mapper of fused value mapping stages: the second mapper is applied to the key and the result of the first. The
+	 * {@link PipelineCompiler} compiles each mapper into its own sink.
+	 */
+	static final class ValueComposition<K, V, W, R> implements BiFunction<K, V, R> {
+		final BiFunction<? super K, ? super V, ? extends W> first;
+		final BiFunction<? super K, ? super W, ? extends R> second;
+
+		ValueComposition(final BiFunction<? super K, ? super V, ? extends W> first,
+				final BiFunction<? super K, ? super W, ? extends R> second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public R apply(final K key, final V value) {
+			return this.second.apply(key, this.first.apply(key, value));
+		}
+	}
+
+	/** An action on pairs which performs an action on their keys, which the {@link PipelineCompiler} specializes on */
+	static final class KeyConsumer<K, V> implements BiConsumer<K, V> {
+		final Consumer<? super K> action;
+
+		KeyConsumer(final Consumer<? super K> action) {
+			this.action = action;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			this.action.accept(key);
+		}
+	}
+
+	/** An action on pairs which performs an action on their values, which the {@link PipelineCompiler} specializes on */
+	static final class ValueConsumer<K, V> implements BiConsumer<K, V> {
+		final Consumer<? super V> action;
+
+		ValueConsumer(final Consumer<? super V> action) {
+			this.action = action;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			this.action.accept(value);
+		}
+	}
+
+	static class FilterStage<K, V> extends Stage<K, V, K, V> {
+		private final BiPredicate<? super K, ? super V> predicate;
+		/** What the predicate tests, for {@link #explain()} */
+		private final String tested;
+
+		FilterStage(final MapStreamPipeline<K, V> upstream, final BiPredicate<? super K, ? super V> predicate) {
+			this(upstream, predicate, "pairs");
+		}
+
+		FilterStage(final MapStreamPipeline<K, V> upstream, final BiPredicate<? super K, ? super V> predicate, final String tested) {
+			super(upstream, false);
+			this.predicate = predicate;
+			this.tested = tested;
+		}
+
+		@Override
+		String describe() {
+			return "FilterStage[" + this.tested + "]";
+		}
+
+		@Override
+		MapStreamPipeline<K, V> compiledCopy(final MapStreamPipeline<K, V> upstream) {
+			return new CompiledStage<>(upstream, this, sink -> PipelineCompiler.filter(this.predicate, sink));
+		}
+
+		@Override
+		BiConsumer<K, V> opWrapSink(final BiConsumer<? super K, ? super V> sink) {
+			return (k, v) -> {
+				if (this.predicate.test(k, v)) {
+					sink.accept(k, v);
+				}
+			};
+		}
+
+		@Override
+		Stream<Entry<K, V>> opEntryStream(final Stream<Entry<K, V>> upstream) {
+			return upstream.filter(entryPredicate(this.predicate));
+		}
+
+		@Override
+		int opCharacteristics(final int characteristics) {
+			return characteristics & ~(Spliterator.SIZED | Spliterator.SUBSIZED);
+		}
+	}
+
+	/**
+	 * Replaces keys and/or values; a null mapper leaves the keys or values unchanged. Consecutive mappings of only keys or only values are
+	 * fused into one stage by {@link MapStreamPipeline#mapStage(MapStreamPipeline, BiFunction, BiFunction)}.
+	 */
+	static class MapStage<KI, VI, K, V> extends Stage<KI, VI, K, V> {
+		private final BiFunction<? super KI, ? super VI, ? extends K> keyMapper;
+		private final BiFunction<? super KI, ? super VI, ? extends V> valueMapper;
+		/** The number of mapping operations fused into this stage */
+		private final int fused;
+
+		MapStage(final MapStreamPipeline<KI, VI> upstream, final BiFunction<? super KI, ? super VI, ? extends K> keyMapper,
+				final BiFunction<? super KI, ? super VI, ? extends V> valueMapper, final int fused) {
+			super(upstream, true);
+			this.keyMapper = keyMapper;
+			this.valueMapper = valueMapper;
+			this.fused = fused;
+		}
+
+		@Override
+		String describe() {
+			final String mapped = this.keyMapper == null ? "values" : this.valueMapper == null ? "keys" : "keys, values";
+			return "MapStage[" + mapped + (this.fused > 1 ? ", " + this.fused + " fused" : "") + "]";
+		}
+
+		@Override
+		MapStreamPipeline<K, V> compiledCopy(final MapStreamPipeline<KI, VI> upstream) {
+			if (this.keyMapper == null) {
+				return new CompiledStage<>(upstream, this, sink -> PipelineCompiler.mapValues(this.valueMapper, sink));
+			} else if (this.valueMapper == null) {
+				return new CompiledStage<>(upstream, this, sink -> PipelineCompiler.mapKeys(this.keyMapper, sink));
+			}
+			return new CompiledStage<>(upstream, this, sink -> PipelineCompiler.map(this.keyMapper, this.valueMapper, sink));
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		BiConsumer<KI, VI> opWrapSink(final BiConsumer<? super K, ? super V> sink) {
+			if (this.keyMapper == null) {
+				return (k, v) -> sink.accept((K) k, this.valueMapper.apply(k, v));
+			} else if (this.valueMapper == null) {
+				return (k, v) -> sink.accept(this.keyMapper.apply(k, v), (V) v);
+			}
+			return (k, v) -> sink.accept(this.keyMapper.apply(k, v), this.valueMapper.apply(k, v));
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		Stream<Entry<K, V>> opEntryStream(final Stream<Entry<KI, VI>> upstream) {
+			return upstream.map(e -> new SimpleImmutableEntry<>(this.keyMapper == null ? (K) e.getKey() : this.keyMapper.apply(e.getKey(),
+					e.getValue()), this.valueMapper == null ? (V) e.getValue() : this.valueMapper.apply(e.getKey(), e.getValue())));
+		}
+
+		@Override
+		int opCharacteristics(final int characteristics) {
+			return this.keyMapper == null ? characteristics : characteristics & ~(Spliterator.SORTED | Spliterator.DISTINCT);
+		}
+	}
+
+	static class PeekStage<K, V> extends Stage<K, V, K, V> {
+		private final BiConsumer<? super K, ? super V> action;
+
+		PeekStage(final MapStreamPipeline<K, V> upstream, final BiConsumer<? super K, ? super V> action) {
+			super(upstream, false);
+			this.action = action;
+		}
+
+		@Override
+		BiConsumer<K, V> opWrapSink(final BiConsumer<? super K, ? super V> sink) {
+			return (k, v) -> {
+				this.action.accept(k, v);
+				sink.accept(k, v);
+			};
+		}
+
+		@Override
+		Stream<Entry<K, V>> opEntryStream(final Stream<Entry<K, V>> upstream) {
+			return upstream.peek(entryConsumer(this.action));
+		}
+
+		@Override
+		MapStreamPipeline<K, V> compiledCopy(final MapStreamPipeline<K, V> upstream) {
+			return new CompiledStage<>(upstream, this, sink -> PipelineCompiler.peek(this.action, sink));
+		}
+
+		@Override
+		boolean hasSideEffects() {
+			return true;
+		}
+	}
+
+	/**
+	 * A stage defined by a function which wraps a sink, e.g. the conversion of a primitive-specialized stream back to a MapStream. The
+	 * stage may replace keys and values, and may drop pairs.
+	 */
+	static class SinkStage<KI, VI, K, V> extends Stage<KI, VI, K, V> {
+		private final Function<BiConsumer<? super K, ? super V>, BiConsumer<KI, VI>> wrap;
+
+		SinkStage(final MapStreamPipeline<KI, VI> upstream, final Function<BiConsumer<? super K, ? super V>, BiConsumer<KI, VI>> wrap) {
+			super(upstream, true);
+			this.wrap = wrap;
+		}
+
+		@Override
+		BiConsumer<KI, VI> opWrapSink(final BiConsumer<? super K, ? super V> sink) {
+			return this.wrap.apply(sink);
+		}
+
+		@Override
+		Stream<Entry<K, V>> opEntryStream(final Stream<Entry<KI, VI>> upstream) {
+			return pairEntryStream();
+		}
+
+		@Override
+		int opCharacteristics(final int characteristics) {
+			return characteristics & ~(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.SORTED | Spliterator.DISTINCT);
+		}
+	}
+
+	/** A stage which doesn't change the pairs, only how the entry stream is evaluated */
+	abstract static class PassThroughStage<K, V> extends Stage<K, V, K, V> {
+		PassThroughStage(final MapStreamPipeline<K, V> upstream) {
+			super(upstream, false);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		BiConsumer<K, V> opWrapSink(final BiConsumer<? super K, ? super V> sink) {
+			return (BiConsumer<K, V>) sink;
+		}
+
+		@Override
+		Map<K, V> sourceMap() {
+			return this.upstream.sourceMap();
+		}
+
+		@Override
+		final MapStreamPipeline<K, V> withSource(final Source<K, V> source) {
+			return withUpstream(this.upstream.withSource(source));
+		}
+
+		/** @return a copy of this stage applied to the given upstream pipeline */
+		abstract PassThroughStage<K, V> withUpstream(MapStreamPipeline<K, V> upstream);
+
+		@Override
+		MapStreamPipeline<K, V> compiledCopy(final MapStreamPipeline<K, V> upstream) {
+			// Passes its sink through, so there is nothing to compile
+			return upstream == this.upstream ? this : withUpstream(upstream);
+		}
+	}
+
+	/**
+	 * A copy of a stage in a {@link MapStream#compile() compiled} pipeline, which wraps sinks with the given function, e.g. one creating
+	 * the stage's sink with the {@link PipelineCompiler}, and is otherwise the same as the original stage
+	 */
+	static class CompiledStage<KI, VI, K, V> extends Stage<KI, VI, K, V> {
+		private final Stage<KI, VI, K, V> original;
+		private final Function<BiConsumer<? super K, ? super V>, BiConsumer<KI, VI>> wrap;
+
+		CompiledStage(final MapStreamPipeline<KI, VI> upstream, final Stage<KI, VI, K, V> original,
+				final Function<BiConsumer<? super K, ? super V>, BiConsumer<KI, VI>> wrap) {
+			super(upstream, original.mapsEntries);
+			this.original = original;
+			this.wrap = wrap;
+		}
+
+		@Override
+		BiConsumer<KI, VI> opWrapSink(final BiConsumer<? super K, ? super V> sink) {
+			return this.wrap.apply(sink);
+		}
+
+		@Override
+		Stream<Entry<K, V>> opEntryStream(final Stream<Entry<KI, VI>> upstream) {
+			return this.original.opEntryStream(upstream);
+		}
+
+		@Override
+		int opCharacteristics(final int characteristics) {
+			return this.original.opCharacteristics(characteristics);
+		}
+
+		@Override
+		boolean hasSideEffects() {
+			return this.original.hasSideEffects();
+		}
+
+		@Override
+		public MapStream<K, V> compile() {
+			return this;
+		}
+
+		@Override
+		MapStreamPipeline<K, V> compiledCopy(final MapStreamPipeline<KI, VI> upstream) {
+			return new CompiledStage<>(upstream, this.original, this.wrap);
+		}
+
+		@Override
+		String describe() {
+			return "CompiledStage[" + this.original.describe() + "]";
+		}
+	}
+
+	static class ParallelStage<K, V> extends PassThroughStage<K, V> {
+		private final boolean parallel;
+
+		ParallelStage(final MapStreamPipeline<K, V> upstream, final boolean parallel) {
+			super(upstream);
+			this.parallel = parallel;
+		}
+
+		@Override
+		Stream<Entry<K, V>> opEntryStream(final Stream<Entry<K, V>> upstream) {
+			return this.parallel ? upstream.parallel() : upstream.sequential();
+		}
+
+		@Override
+		PassThroughStage<K, V> withUpstream(final MapStreamPipeline<K, V> upstream) {
+			return new ParallelStage<>(upstream, this.parallel);
+		}
+
+		@Override
+		public boolean isParallel() {
+			return this.parallel;
+		}
+	}
+
+	static class UnorderedStage<K, V> extends PassThroughStage<K, V> {
+		UnorderedStage(final MapStreamPipeline<K, V> upstream) {
+			super(upstream);
+		}
+
+		@Override
+		Stream<Entry<K, V>> opEntryStream(final Stream<Entry<K, V>> upstream) {
+			return upstream.unordered();
+		}
+
+		@Override
+		Stream<Entry<K, V>> pairEntryStream() {
+			return super.pairEntryStream().unordered();
+		}
+
+		@Override
+		int opCharacteristics(final int characteristics) {
+			return characteristics & ~Spliterator.ORDERED;
+		}
+
+		@Override
+		PassThroughStage<K, V> withUpstream(final MapStreamPipeline<K, V> upstream) {
+			return new UnorderedStage<>(upstream);
+		}
+	}
+
+	static class CloseStage<K, V> extends PassThroughStage<K, V> {
+		private final Runnable closeHandler;
+
+		CloseStage(final MapStreamPipeline<K, V> upstream, final Runnable closeHandler) {
+			super(upstream);
+			this.closeHandler = closeHandler;
+		}
+
+		@Override
+		Stream<Entry<K, V>> opEntryStream(final Stream<Entry<K, V>> upstream) {
+			return upstream.onClose(this.closeHandler);
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			super.addCloseHandlers(handlers);
+			handlers.add(this.closeHandler);
+		}
+
+		@Override
+		PassThroughStage<K, V> withUpstream(final MapStreamPipeline<K, V> upstream) {
+			return new CloseStage<>(upstream, this.closeHandler);
+		}
+	}
+
+	/** Sets the memory budget of the stateful operations downstream, and deletes any of its temporary files when closed */
+	static class MemoryBudgetStage<K, V> extends PassThroughStage<K, V> {
+		private final MemoryBudget budget;
+
+		MemoryBudgetStage(final MapStreamPipeline<K, V> upstream, final MemoryBudget budget) {
+			super(upstream);
+			this.budget = budget;
+		}
+
+		@Override
+		Stream<Entry<K, V>> opEntryStream(final Stream<Entry<K, V>> upstream) {
+			return upstream;
+		}
+
+		@Override
+		MemoryBudget memoryBudget() {
+			return this.budget;
+		}
+
+		@Override
+		void addCloseHandlers(final List<Runnable> handlers) {
+			super.addCloseHandlers(handlers);
+			handlers.add(this.budget::deleteSpillFiles);
+		}
+
+		@Override
+		PassThroughStage<K, V> withUpstream(final MapStreamPipeline<K, V> upstream) {
+			return new MemoryBudgetStage<>(upstream, this.budget);
+		}
+	}
+
+	/** Drives the fused stages of a pipeline segment from a spliterator over the segment source */
+	static final class WrappingPairSpliterator<K, V> implements PairSpliterator<K, V>, BiConsumer<K, V> {
+		private final MapStreamPipeline<K, V> pipeline;
+		private final PairSpliterator<Object, Object> source;
+		/** The stages, wrapping this spliterator as their sink; created on the first call to {@link #tryAdvance(BiConsumer)} */
+		private BiConsumer<Object, Object> head;
+		private BiConsumer<? super K, ? super V> action;
+		private boolean advanced;
+
+		@SuppressWarnings("unchecked")
+		WrappingPairSpliterator(final MapStreamPipeline<K, V> pipeline, final PairSpliterator<?, ?> source) {
+			this.pipeline = pipeline;
+			this.source = (PairSpliterator<Object, Object>) source;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			this.advanced = true;
+			this.action.accept(key, value);
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			if (this.head == null) {
+				this.head = this.pipeline.wrapSink(this);
+			}
+			this.action = action;
+			this.advanced = false;
+			while (!this.advanced && this.source.tryAdvance(this.head)) {
+				// Stages produce at most one pair per input pair, so stop as soon as one reaches this sink
+			}
+			return this.advanced;
+		}
+
+		@Override
+		public void forEachRemaining(final BiConsumer<? super K, ? super V> action) {
+			this.source.forEachRemaining(this.pipeline.wrapSink(action));
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			final PairSpliterator<Object, Object> split = this.source.trySplit();
+			return split == null ? null : new WrappingPairSpliterator<>(this.pipeline, split);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.source.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			final int characteristics = this.source.characteristics();
+			return this.pipeline instanceof Stage ? ((Stage<?, ?, ?, ?>) this.pipeline).stageCharacteristics(characteristics)
+					: characteristics;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public Comparator<? super K> getComparator() {
+			// Stages which replace keys clear SORTED, so sorted keys are the source's keys
+			return (Comparator<? super K>) this.source.getComparator();
+		}
+	}
+
+	/**
+	 * Passes on the pairs from a spliterator which match a predicate. Each spliterator, including each one split from it, tests pairs with
+	 * its own predicate from the given factory, so predicates may hold state local to a partition.
+	 */
+	static final class FilteringPairSpliterator<K, V> implements PairSpliterator<K, V>, BiConsumer<K, V> {
+		private final PairSpliterator<K, V> spliterator;
+		private final Supplier<? extends BiPredicate<? super K, ? super V>> predicateFactory;
+		private final BiPredicate<? super K, ? super V> predicate;
+		/** Whether the predicates may be used by different threads, so the spliterator may be split */
+		private final boolean splittable;
+		/** Characteristics added by the predicate, e.g. {@link Spliterator#DISTINCT} */
+		private final int addedCharacteristics;
+		private BiConsumer<? super K, ? super V> action;
+		private boolean matched;
+
+		FilteringPairSpliterator(final PairSpliterator<K, V> spliterator,
+				final Supplier<? extends BiPredicate<? super K, ? super V>> predicateFactory, final boolean splittable,
+				final int addedCharacteristics) {
+			this.spliterator = spliterator;
+			this.predicateFactory = predicateFactory;
+			this.predicate = predicateFactory.get();
+			this.splittable = splittable;
+			this.addedCharacteristics = addedCharacteristics;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			if (this.predicate.test(key, value)) {
+				this.matched = true;
+				this.action.accept(key, value);
+			}
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			this.action = action;
+			this.matched = false;
+			while (!this.matched && this.spliterator.tryAdvance(this)) {
+				// Loop until a pair matches or the spliterator is exhausted
+			}
+			return this.matched;
+		}
+
+		@Override
+		public void forEachRemaining(final BiConsumer<? super K, ? super V> action) {
+			this.action = action;
+			this.spliterator.forEachRemaining(this);
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			final PairSpliterator<K, V> split = this.splittable ? this.spliterator.trySplit() : null;
+			return split == null ? null : new FilteringPairSpliterator<>(split, this.predicateFactory, true, this.addedCharacteristics);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.spliterator.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return this.spliterator.characteristics() & ~(Spliterator.SIZED | Spliterator.SUBSIZED) | this.addedCharacteristics;
+		}
+
+		@Override
+		public Comparator<? super K> getComparator() {
+			return this.spliterator.getComparator();
+		}
+	}
+
+	/** Adds characteristics of the keys, e.g. {@link Spliterator#DISTINCT}, to a spliterator whose keys are known to have them */
+	static final class KeyCharacteristicsPairSpliterator<K, V> implements PairSpliterator<K, V> {
+		private final PairSpliterator<K, V> spliterator;
+		private final int keyCharacteristics;
+		/** The comparator by which the keys are sorted, if {@link #keyCharacteristics} includes {@link Spliterator#SORTED} */
+		private final Comparator<? super K> comparator;
+
+		KeyCharacteristicsPairSpliterator(final PairSpliterator<K, V> spliterator, final int keyCharacteristics,
+				final Comparator<? super K> comparator) {
+			this.spliterator = spliterator;
+			this.keyCharacteristics = keyCharacteristics;
+			this.comparator = comparator;
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			return this.spliterator.tryAdvance(action);
+		}
+
+		@Override
+		public void forEachRemaining(final BiConsumer<? super K, ? super V> action) {
+			this.spliterator.forEachRemaining(action);
+		}
+
+		@Override
+		public BiCursor<K, V> cursor() {
+			return this.spliterator.cursor();
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			final PairSpliterator<K, V> split = this.spliterator.trySplit();
+			return split == null ? null : new KeyCharacteristicsPairSpliterator<>(split, this.keyCharacteristics, this.comparator);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.spliterator.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return this.spliterator.characteristics() | this.keyCharacteristics;
+		}
+
+		@Override
+		public Comparator<? super K> getComparator() {
+			if ((this.keyCharacteristics & Spliterator.SORTED) == 0) {
+				return this.spliterator.getComparator();
+			}
+			return this.comparator;
+		}
+	}
+
+	/**
+	 * Collects the pairs with distinct keys, or values, from a partition of a parallel evaluation, in encounter order. Buffers of adjacent
+	 * partitions are merged by {@link #appendAll(DistinctPairBuffer, DistinctPairBuffer)}, so the first pair for each key in encounter order
+	 * is kept.
+	 */
+	static final class DistinctPairBuffer<K, V> implements PairTask.Sink<K, V, DistinctPairBuffer<K, V>> {
+		private final boolean keys;
+		private final ObjHashSet seen = new ObjHashSet(0);
+		private Object[] keyArray = new Object[8];
+		private Object[] valueArray = new Object[8];
+		private int size;
+
+		DistinctPairBuffer(final boolean keys) {
+			this.keys = keys;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			if (this.seen.add(this.keys ? key : value)) {
+				if (this.size == this.keyArray.length) {
+					this.keyArray = Arrays.copyOf(this.keyArray, this.size * 2);
+					this.valueArray = Arrays.copyOf(this.valueArray, this.size * 2);
+				}
+				this.keyArray[this.size] = key;
+				this.valueArray[this.size] = value;
+				this.size++;
+			}
+		}
+
+		@Override
+		public DistinctPairBuffer<K, V> get() {
+			return this;
+		}
+
+		/** Append the pairs from the later partition {@code right} which weren't seen in the earlier partition {@code left} to {@code left} */
+		@SuppressWarnings("unchecked")
+		static <K, V> DistinctPairBuffer<K, V> appendAll(final DistinctPairBuffer<K, V> left, final DistinctPairBuffer<K, V> right) {
+			for (int i = 0; i < right.size; i++) {
+				left.accept((K) right.keyArray[i], (V) right.valueArray[i]);
+			}
+			return left;
+		}
+
+		/** @return a spliterator over the buffered pairs, with the given additional characteristics */
+		PairSpliterator<K, V> spliterator(final int characteristics) {
+			return PairSpliterator.ofArrays(this.keyArray, this.valueArray, 0, this.size, characteristics);
+		}
+	}
+
+	/** Collects the pairs from a partition of a parallel evaluation, in encounter order */
+	static final class PairBuffer<K, V> implements PairTask.Sink<K, V, PairBuffer<K, V>> {
+		private Object[] keyArray = new Object[8];
+		private Object[] valueArray = new Object[8];
+		private int size;
+
+		@Override
+		public void accept(final K key, final V value) {
+			if (this.size == this.keyArray.length) {
+				this.keyArray = Arrays.copyOf(this.keyArray, this.size * 2);
+				this.valueArray = Arrays.copyOf(this.valueArray, this.size * 2);
+			}
+			this.keyArray[this.size] = key;
+			this.valueArray[this.size] = value;
+			this.size++;
+		}
+
+		@Override
+		public PairBuffer<K, V> get() {
+			return this;
+		}
+
+		/** Append the pairs from the later partition {@code right} to {@code left} */
+		@SuppressWarnings("unchecked")
+		static <K, V> PairBuffer<K, V> appendAll(final PairBuffer<K, V> left, final PairBuffer<K, V> right) {
+			for (int i = 0; i < right.size; i++) {
+				left.accept((K) right.keyArray[i], (V) right.valueArray[i]);
+			}
+			return left;
+		}
+
+		/** @return a spliterator over the buffered pairs, with the given additional characteristics */
+		PairSpliterator<K, V> spliterator(final int characteristics) {
+			return PairSpliterator.ofArrays(this.keyArray, this.valueArray, 0, this.size, characteristics);
+		}
+	}
+
+	static final class ForEachSink<K, V> implements PairTask.Sink<K, V, Void> {
+		private final BiConsumer<? super K, ? super V> action;
+
+		ForEachSink(final BiConsumer<? super K, ? super V> action) {
+			this.action = action;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			this.action.accept(key, value);
+		}
+
+		@Override
+		public Void get() {
+			return null;
+		}
+	}
+
+	static final class CountSink<K, V> implements PairTask.Sink<K, V, Long> {
+		private long count;
+
+		@Override
+		public void accept(final K key, final V value) {
+			this.count++;
+		}
+
+		@Override
+		public Long get() {
+			return this.count;
+		}
+	}
+
+	/** Accumulates whether the predicate returned {@code stopOn} for any pair */
+	static final class MatchSink<K, V> implements PairTask.Sink<K, V, Boolean> {
+		private final BiPredicate<? super K, ? super V> predicate;
+		private final boolean stopOn;
+		private boolean stopped;
+
+		MatchSink(final BiPredicate<? super K, ? super V> predicate, final boolean stopOn) {
+			this.predicate = predicate;
+			this.stopOn = stopOn;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			if (this.predicate.test(key, value) == this.stopOn) {
+				this.stopped = true;
+			}
+		}
+
+		@Override
+		public boolean done() {
+			return this.stopped;
+		}
+
+		@Override
+		public Boolean get() {
+			return this.stopped;
+		}
+	}
+}
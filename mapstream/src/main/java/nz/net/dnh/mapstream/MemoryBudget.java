@@ -0,0 +1,109 @@
+package nz.net.dnh.mapstream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the memory retained by the stateful operations of a MapStream, set by {@link MapStream#withMemoryBudget(MemoryBudget)}, and
+ * a counter of how much those operations spilled to temporary files to stay within it. The memory retained is estimated from the
+ * serialized size of a sample of the pairs, so the limit is approximate. A budget may be shared between MapStreams, in which case its
+ * counters are totals for all of them.
+ */
+public final class MemoryBudget {
+	private final long bytes;
+	private final Serializer<Object> serializer;
+	private final AtomicLong spilledPairs = new AtomicLong();
+	private final AtomicLong spilledBytes = new AtomicLong();
+	private final Set<Path> spillFiles = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Create a budget which spills keys and values using Java serialization, so they must be {@link java.io.Serializable}.
+	 * 
+	 * @param bytes
+	 *            the approximate number of bytes each stateful operation may retain
+	 */
+	public MemoryBudget(final long bytes) {
+		this(bytes, Serializer.ofSerializable());
+	}
+
+	/**
+	 * @param bytes
+	 *            the approximate number of bytes each stateful operation may retain
+	 * @param serializer
+	 *            writes the keys and values which are spilled, and reads them back
+	 */
+	public MemoryBudget(final long bytes, final Serializer<Object> serializer) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException(Long.toString(bytes));
+		}
+		this.bytes = bytes;
+		this.serializer = serializer;
+	}
+
+	/** @return the approximate number of bytes each stateful operation may retain */
+	public long bytes() {
+		return this.bytes;
+	}
+
+	/** @return the number of pairs written to temporary files by operations under this budget */
+	public long spilledPairs() {
+		return this.spilledPairs.get();
+	}
+
+	/** @return the number of bytes written to temporary files by operations under this budget */
+	public long spilledBytes() {
+		return this.spilledBytes.get();
+	}
+
+	Serializer<Object> serializer() {
+		return this.serializer;
+	}
+
+	/** Add to the counters after an operation has finished writing its temporary files */
+	void recordSpill(final long pairs, final long bytes) {
+		this.spilledPairs.addAndGet(pairs);
+		this.spilledBytes.addAndGet(bytes);
+	}
+
+	/** @return a new temporary file, which is deleted by {@link #deleteSpillFiles()} if it hasn't been already */
+	Path createSpillFile() throws IOException {
+		final Path file = Files.createTempFile("mapstream-spill", ".part");
+		this.spillFiles.add(file);
+		return file;
+	}
+
+	/** Delete a temporary file created by {@link #createSpillFile()} */
+	void deleteSpillFile(final Path file) throws IOException {
+		Files.deleteIfExists(file);
+		this.spillFiles.remove(file);
+	}
+
+	/** Delete any temporary files which haven't been deleted after being read, e.g. because a MapStream wasn't fully traversed */
+	void deleteSpillFiles() {
+		UncheckedIOException failure = null;
+		for (final Path file : this.spillFiles) {
+			try {
+				deleteSpillFile(file);
+			} catch (final IOException e) {
+				if (failure == null) {
+					failure = new UncheckedIOException(e);
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MemoryBudget[bytes=" + this.bytes + ", spilledPairs=" + spilledPairs() + ", spilledBytes=" + spilledBytes() + "]";
+	}
+}
@@ -30,7 +30,7 @@ public class MultimapStream {
 	 * values, the returned MapStream may contain duplicate keys and values.
 	 */
 	public static <K, V> MapStream<K, V> of(final Multimap<K, V> map) {
-		return map.entries()::stream;
+		return MapStreamPipeline.ofEntries(map.entries());
 	}
 
 	/**
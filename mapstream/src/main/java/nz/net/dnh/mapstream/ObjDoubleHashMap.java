@@ -0,0 +1,145 @@
+package nz.net.dnh.mapstream;
+
+import static nz.net.dnh.mapstream.MapStreamHelpers.mix;
+import static nz.net.dnh.mapstream.MapStreamHelpers.tableSize;
+
+import java.util.Objects;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * A hash map from object keys to primitive {@code double} values, using open addressing with linear probing so that neither entry objects
+ * nor boxed values are created. Keys must not be null. Mappings cannot be removed.
+ * 
+ * @see ObjDoubleMapStream#toMap()
+ */
+public class ObjDoubleHashMap<K> {
+	private Object[] keys;
+	private double[] values;
+	private int size;
+
+	/** Create an empty map */
+	public ObjDoubleHashMap() {
+		this(0);
+	}
+
+	/** Create an empty map which can hold the given number of mappings without resizing */
+	public ObjDoubleHashMap(final int expectedSize) {
+		final int capacity = tableSize(expectedSize);
+		this.keys = new Object[capacity];
+		this.values = new double[capacity];
+	}
+
+	/** @return the number of mappings in this map */
+	public int size() {
+		return this.size;
+	}
+
+	/** @return true if this map contains no mappings */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/** @return true if this map contains a mapping for the given key */
+	public boolean containsKey(final Object key) {
+		return this.keys[indexOf(key)] != null;
+	}
+
+	/** @return the value mapped to the given key, or {@code defaultValue} if there is no mapping for the key */
+	public double getOrDefault(final Object key, final double defaultValue) {
+		final int index = indexOf(key);
+		return this.keys[index] == null ? defaultValue : this.values[index];
+	}
+
+	/** Map the given key to the given value, replacing any existing mapping */
+	public void put(final K key, final double value) {
+		final int index = indexOf(key);
+		if (this.keys[index] == null) {
+			insert(index, key, value);
+		} else {
+			this.values[index] = value;
+		}
+	}
+
+	/**
+	 * If the given key has no mapping, map it to the given value; otherwise replace its value with the result of applying the given function
+	 * to the existing value and the given value
+	 * 
+	 * @return the new value mapped to the key
+	 * @see java.util.Map#merge(Object, Object, java.util.function.BiFunction)
+	 */
+	public double merge(final K key, final double value, final DoubleBinaryOperator remappingFunction) {
+		final int index = indexOf(key);
+		if (this.keys[index] == null) {
+			insert(index, key, value);
+			return value;
+		}
+		return this.values[index] = remappingFunction.applyAsDouble(this.values[index], value);
+	}
+
+	/** Map the given key to the given value, failing with an {@link IllegalStateException} if the key is already mapped */
+	void putUnique(final K key, final double value) {
+		final int index = indexOf(key);
+		if (this.keys[index] != null) {
+			throw new IllegalStateException("Duplicate key " + key);
+		}
+		insert(index, key, value);
+	}
+
+	/** Merge all mappings from the given map into this map using the given function; see {@link #merge(Object, double, DoubleBinaryOperator)} */
+	public void mergeAll(final ObjDoubleHashMap<? extends K> other, final DoubleBinaryOperator remappingFunction) {
+		other.forEach((k, v) -> merge(k, v, remappingFunction));
+	}
+
+	/** Perform the given action on each key-value pair in this map */
+	@SuppressWarnings("unchecked")
+	public void forEach(final ObjDoubleConsumer<? super K> action) {
+		final Object[] keys = this.keys;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				action.accept((K) keys[i], this.values[i]);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder("{");
+		forEach((k, v) -> builder.append(builder.length() == 1 ? "" : ", ").append(k).append('=').append(v));
+		return builder.append('}').toString();
+	}
+
+	/** @return the index of the given key, or of the empty slot where it would be inserted */
+	private int indexOf(final Object key) {
+		Objects.requireNonNull(key, "key");
+		final Object[] keys = this.keys;
+		final int mask = keys.length - 1;
+		int index = mix(key.hashCode()) & mask;
+		while (keys[index] != null && !keys[index].equals(key)) {
+			index = index + 1 & mask;
+		}
+		return index;
+	}
+
+	private void insert(final int index, final K key, final double value) {
+		this.keys[index] = key;
+		this.values[index] = value;
+		if (++this.size > this.keys.length / 2) {
+			resize();
+		}
+	}
+
+	private void resize() {
+		final Object[] oldKeys = this.keys;
+		final double[] oldValues = this.values;
+		this.keys = new Object[oldKeys.length * 2];
+		this.values = new double[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				final int index = indexOf(oldKeys[i]);
+				this.keys[index] = oldKeys[i];
+				this.values[index] = oldValues[i];
+			}
+		}
+	}
+}
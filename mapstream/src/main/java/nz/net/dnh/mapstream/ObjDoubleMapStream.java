@@ -0,0 +1,203 @@
+package nz.net.dnh.mapstream;
+
+import java.util.DoubleSummaryStatistics;
+import java.util.OptionalDouble;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleFunction;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.Predicate;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+
+/**
+ * A {@link MapStream} whose values are primitive {@code double}s, so that the values are never boxed.
+ * <p>
+ * To obtain an {@link ObjDoubleMapStream} from a {@link MapStream}, use {@link MapStream#mapValuesToDouble(java.util.function.ToDoubleFunction)}.
+ * To convert back to a {@link MapStream}, use {@link #boxed()} or {@link #mapValuesToObj(DoubleFunction)}.
+ * 
+ * @see MapStream
+ */
+public interface ObjDoubleMapStream<K> {
+	/** A predicate on a key and a primitive {@code double} value */
+	@FunctionalInterface
+	interface ObjDoublePredicate<K> {
+		boolean test(K key, double value);
+	}
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream which match the given predicate
+	 * 
+	 * @see MapStream#filter(java.util.function.BiPredicate)
+	 */
+	ObjDoubleMapStream<K> filter(ObjDoublePredicate<? super K> predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose keys match the given predicate
+	 * 
+	 * @see MapStream#filterKeys(Predicate)
+	 */
+	ObjDoubleMapStream<K> filterKeys(Predicate<? super K> predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose values match the given predicate
+	 * 
+	 * @see MapStream#filterValues(Predicate)
+	 */
+	ObjDoubleMapStream<K> filterValues(DoublePredicate predicate);
+
+	/**
+	 * Return a stream whose keys are the result of applying the given function to the keys of this stream
+	 * 
+	 * @see MapStream#mapKeys(Function)
+	 */
+	<K2> ObjDoubleMapStream<K2> mapKeys(Function<? super K, ? extends K2> mapper);
+
+	/**
+	 * Return a stream whose values are the result of applying the given function to the values of this stream
+	 * 
+	 * @see MapStream#mapValues(Function)
+	 */
+	ObjDoubleMapStream<K> mapValues(DoubleUnaryOperator mapper);
+
+	/**
+	 * Return a {@link MapStream} whose values are the result of applying the given function to the values of this stream
+	 * 
+	 * @see MapStream#mapValues(Function)
+	 */
+	<V> MapStream<K, V> mapValuesToObj(DoubleFunction<? extends V> mapper);
+
+	/** Return a {@link MapStream} with the values of this stream boxed */
+	MapStream<K, Double> boxed();
+
+	/**
+	 * Return a stream consisting of the key-value pairs of this stream, additionally performing the given action on each key-value pair as
+	 * they are consumed
+	 * 
+	 * @see MapStream#peek(java.util.function.BiConsumer)
+	 */
+	ObjDoubleMapStream<K> peek(ObjDoubleConsumer<? super K> action);
+
+	/** @return a stream of the keys from this stream */
+	Stream<K> keyStream();
+
+	/** @return a stream of the values from this stream */
+	DoubleStream valueStream();
+
+	/** @see MapStream#isParallel() */
+	boolean isParallel();
+
+	/** @see MapStream#parallel() */
+	ObjDoubleMapStream<K> parallel();
+
+	/** @see MapStream#sequential() */
+	ObjDoubleMapStream<K> sequential();
+
+	// Terminal operations
+
+	/**
+	 * Perform an action on each key-value pair of this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see MapStream#forEach(java.util.function.BiConsumer)
+	 */
+	void forEach(ObjDoubleConsumer<? super K> action);
+
+	/**
+	 * Return the count of the key-value pairs in this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	long count();
+
+	/**
+	 * Return the sum of the values in this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see DoubleStream#sum()
+	 */
+	double sum();
+
+	/**
+	 * Return the minimum of the values in this stream, or an empty optional if this stream is empty.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see DoubleStream#min()
+	 */
+	OptionalDouble min();
+
+	/**
+	 * Return the maximum of the values in this stream, or an empty optional if this stream is empty.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see DoubleStream#max()
+	 */
+	OptionalDouble max();
+
+	/**
+	 * Return the arithmetic mean of the values in this stream, or an empty optional if this stream is empty.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see DoubleStream#average()
+	 */
+	OptionalDouble average();
+
+	/**
+	 * Return the count, sum, minimum, maximum and average of the values in this stream, computed in a single pass.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see DoubleStream#summaryStatistics()
+	 */
+	DoubleSummaryStatistics summaryStatistics();
+
+	/**
+	 * Return whether any key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean anyMatch(ObjDoublePredicate<? super K> predicate);
+
+	/**
+	 * Return whether all key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean allMatch(ObjDoublePredicate<? super K> predicate);
+
+	/**
+	 * Return whether no key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean noneMatch(ObjDoublePredicate<? super K> predicate);
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link ObjDoubleHashMap}.
+	 * <p>
+	 * If the keys have duplicates, an {@link IllegalStateException} is thrown. Keys must not be null.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap()
+	 */
+	ObjDoubleHashMap<K> toMap();
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link ObjDoubleHashMap}.
+	 * <p>
+	 * If the keys have duplicates, the given function is called to merge the values into a single value. Keys must not be null.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap(java.util.function.BinaryOperator)
+	 */
+	ObjDoubleHashMap<K> toMap(DoubleBinaryOperator mergeFunction);
+}
@@ -0,0 +1,217 @@
+package nz.net.dnh.mapstream;
+
+import java.util.DoubleSummaryStatistics;
+import java.util.OptionalDouble;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleFunction;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implementation of {@link ObjDoubleMapStream} on top of a {@link MapStreamPipeline}. The primitive stages are a function which wraps a
+ * primitive sink in a sink accepting the upstream pipeline's pairs, so terminal operations are evaluated by the upstream pipeline (in
+ * parallel if it is parallel) without boxing the values.
+ */
+final class ObjDoublePipeline<K> implements ObjDoubleMapStream<K> {
+	@SuppressWarnings("unchecked")
+	static <K, V> ObjDoubleMapStream<K> of(final MapStream<K, V> mapStream, final ToDoubleFunction<? super V> mapper) {
+		return new ObjDoublePipeline<K>((MapStreamPipeline<Object, Object>) MapStreamPipeline.of(mapStream), sink -> (k, v) -> sink.accept(
+				(K) k, mapper.applyAsDouble((V) v)));
+	}
+
+	private final MapStreamPipeline<Object, Object> upstream;
+	private final Function<ObjDoubleConsumer<? super K>, BiConsumer<Object, Object>> wrap;
+
+	private ObjDoublePipeline(final MapStreamPipeline<Object, Object> upstream,
+			final Function<ObjDoubleConsumer<? super K>, BiConsumer<Object, Object>> wrap) {
+		this.upstream = upstream;
+		this.wrap = wrap;
+	}
+
+	/** @return a new pipeline with the given stage, which wraps a sink of the new pipeline's pairs in a sink of this pipeline's pairs */
+	private <K2> ObjDoublePipeline<K2> then(final Function<ObjDoubleConsumer<? super K2>, ObjDoubleConsumer<K>> stage) {
+		return new ObjDoublePipeline<>(this.upstream, sink -> this.wrap.apply(stage.apply(sink)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private ObjDoublePipeline<K> withUpstream(final MapStream<Object, Object> upstream) {
+		return new ObjDoublePipeline<>((MapStreamPipeline<Object, Object>) upstream, this.wrap);
+	}
+
+	@Override
+	public ObjDoubleMapStream<K> filter(final ObjDoublePredicate<? super K> predicate) {
+		return then(sink -> (k, v) -> {
+			if (predicate.test(k, v)) {
+				sink.accept(k, v);
+			}
+		});
+	}
+
+	@Override
+	public ObjDoubleMapStream<K> filterKeys(final Predicate<? super K> predicate) {
+		return filter((k, v) -> predicate.test(k));
+	}
+
+	@Override
+	public ObjDoubleMapStream<K> filterValues(final DoublePredicate predicate) {
+		return filter((k, v) -> predicate.test(v));
+	}
+
+	@Override
+	public <K2> ObjDoubleMapStream<K2> mapKeys(final Function<? super K, ? extends K2> mapper) {
+		return this.<K2> then(sink -> (k, v) -> sink.accept(mapper.apply(k), v));
+	}
+
+	@Override
+	public ObjDoubleMapStream<K> mapValues(final DoubleUnaryOperator mapper) {
+		return then(sink -> (k, v) -> sink.accept(k, mapper.applyAsDouble(v)));
+	}
+
+	@Override
+	public <V> MapStream<K, V> mapValuesToObj(final DoubleFunction<? extends V> mapper) {
+		return new MapStreamPipeline.SinkStage<Object, Object, K, V>(this.upstream, sink -> this.wrap.apply((k, v) -> sink.accept(k, mapper
+				.apply(v))));
+	}
+
+	@Override
+	public MapStream<K, Double> boxed() {
+		return mapValuesToObj(Double::valueOf);
+	}
+
+	@Override
+	public ObjDoubleMapStream<K> peek(final ObjDoubleConsumer<? super K> action) {
+		return then(sink -> (k, v) -> {
+			action.accept(k, v);
+			sink.accept(k, v);
+		});
+	}
+
+	@Override
+	public Stream<K> keyStream() {
+		// The values are discarded, so don't box them
+		return mapValuesToObj(v -> null).keyStream();
+	}
+
+	@Override
+	public DoubleStream valueStream() {
+		final boolean parallel = isParallel();
+		return StreamSupport.doubleStream(() -> new PrimitivePairSpliterators.OfDouble(this.upstream.pairSpliterator(parallel), sink -> this.wrap
+				.apply((k, v) -> sink.accept(v))), Spliterator.ORDERED, parallel).onClose(this.upstream::close);
+	}
+
+	@Override
+	public boolean isParallel() {
+		return this.upstream.isParallel();
+	}
+
+	@Override
+	public ObjDoubleMapStream<K> parallel() {
+		return withUpstream(this.upstream.parallel());
+	}
+
+	@Override
+	public ObjDoubleMapStream<K> sequential() {
+		return withUpstream(this.upstream.sequential());
+	}
+
+	@Override
+	public void forEach(final ObjDoubleConsumer<? super K> action) {
+		this.upstream.evaluate(() -> PairTask.chain(this.wrap.apply(action), () -> null, null), (a, b) -> null, false);
+	}
+
+	@Override
+	public long count() {
+		return this.upstream.evaluate(() -> {
+			final long[] count = new long[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> count[0]++), () -> count[0], null);
+		}, Long::sum, false);
+	}
+
+	@Override
+	public double sum() {
+		return summaryStatistics().getSum();
+	}
+
+	@Override
+	public OptionalDouble min() {
+		final DoubleSummaryStatistics statistics = summaryStatistics();
+		return statistics.getCount() == 0 ? OptionalDouble.empty() : OptionalDouble.of(statistics.getMin());
+	}
+
+	@Override
+	public OptionalDouble max() {
+		final DoubleSummaryStatistics statistics = summaryStatistics();
+		return statistics.getCount() == 0 ? OptionalDouble.empty() : OptionalDouble.of(statistics.getMax());
+	}
+
+	@Override
+	public OptionalDouble average() {
+		final DoubleSummaryStatistics statistics = summaryStatistics();
+		return statistics.getCount() == 0 ? OptionalDouble.empty() : OptionalDouble.of(statistics.getAverage());
+	}
+
+	@Override
+	public DoubleSummaryStatistics summaryStatistics() {
+		return this.upstream.evaluate(() -> {
+			final DoubleSummaryStatistics statistics = new DoubleSummaryStatistics();
+			return PairTask.chain(this.wrap.apply((k, v) -> statistics.accept(v)), () -> statistics, null);
+		}, (a, b) -> {
+			a.combine(b);
+			return a;
+		}, false);
+	}
+
+	@Override
+	public boolean anyMatch(final ObjDoublePredicate<? super K> predicate) {
+		return ((ObjDoublePipeline<K>) filter(predicate)).any();
+	}
+
+	@Override
+	public boolean allMatch(final ObjDoublePredicate<? super K> predicate) {
+		return !anyMatch((k, v) -> !predicate.test(k, v));
+	}
+
+	@Override
+	public boolean noneMatch(final ObjDoublePredicate<? super K> predicate) {
+		return !anyMatch(predicate);
+	}
+
+	/** @return whether this stream contains any key-value pairs, stopping at the first */
+	private boolean any() {
+		return this.upstream.evaluate(() -> {
+			final boolean[] found = new boolean[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> found[0] = true), () -> found[0], () -> found[0]);
+		}, (a, b) -> a || b, true);
+	}
+
+	@Override
+	public ObjDoubleHashMap<K> toMap() {
+		return this.upstream.evaluate(() -> {
+			final ObjDoubleHashMap<K> map = new ObjDoubleHashMap<>();
+			return PairTask.chain(this.wrap.apply(map::putUnique), () -> map, null);
+		}, (a, b) -> {
+			b.forEach(a::putUnique);
+			return a;
+		}, false);
+	}
+
+	@Override
+	public ObjDoubleHashMap<K> toMap(final DoubleBinaryOperator mergeFunction) {
+		return this.upstream.evaluate(() -> {
+			final ObjDoubleHashMap<K> map = new ObjDoubleHashMap<>();
+			return PairTask.chain(this.wrap.apply((k, v) -> map.merge(k, v, mergeFunction)), () -> map, null);
+		}, (a, b) -> {
+			a.mergeAll(b, mergeFunction);
+			return a;
+		}, false);
+	}
+}
@@ -0,0 +1,65 @@
+package nz.net.dnh.mapstream;
+
+import static nz.net.dnh.mapstream.MapStreamHelpers.mix;
+import static nz.net.dnh.mapstream.MapStreamHelpers.tableSize;
+
+/**
+ * An unsynchronized hash set of objects using open addressing with linear probing, so adding an element doesn't create a node object. Null
+ * elements are permitted. Elements cannot be removed.
+ */
+final class ObjHashSet {
+	/** Object stored in place of {@code null}, since null marks an empty slot */
+	private static final Object NULL = new Object();
+
+	private Object[] elements;
+	private int size;
+
+	ObjHashSet(final int expectedSize) {
+		this.elements = new Object[tableSize(expectedSize)];
+	}
+
+	/** @return the number of elements in this set */
+	int size() {
+		return this.size;
+	}
+
+	/** @return whether the given element is in this set */
+	boolean contains(final Object element) {
+		return this.elements[indexOf(element == null ? NULL : element)] != null;
+	}
+
+	/** Add the given element to this set; return true if it was not already present */
+	boolean add(final Object element) {
+		final Object e = element == null ? NULL : element;
+		final int index = indexOf(e);
+		if (this.elements[index] != null) {
+			return false;
+		}
+		this.elements[index] = e;
+		if (++this.size > this.elements.length / 2) {
+			resize();
+		}
+		return true;
+	}
+
+	/** @return the index of the given non-null element, or of the empty slot where it would be inserted */
+	private int indexOf(final Object element) {
+		final Object[] elements = this.elements;
+		final int mask = elements.length - 1;
+		int index = mix(element.hashCode()) & mask;
+		while (elements[index] != null && !elements[index].equals(element)) {
+			index = index + 1 & mask;
+		}
+		return index;
+	}
+
+	private void resize() {
+		final Object[] oldElements = this.elements;
+		this.elements = new Object[oldElements.length * 2];
+		for (final Object element : oldElements) {
+			if (element != null) {
+				this.elements[indexOf(element)] = element;
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package nz.net.dnh.mapstream;
+
+import java.util.IntSummaryStatistics;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A {@link MapStream} whose values are primitive {@code int}s, so that the values are never boxed.
+ * <p>
+ * To obtain an {@link ObjIntMapStream} from a {@link MapStream}, use {@link MapStream#mapValuesToInt(java.util.function.ToIntFunction)}.
+ * To convert back to a {@link MapStream}, use {@link #boxed()} or {@link #mapValuesToObj(IntFunction)}.
+ * 
+ * @see MapStream
+ */
+public interface ObjIntMapStream<K> {
+	/** A predicate on a key and a primitive {@code int} value */
+	@FunctionalInterface
+	interface ObjIntPredicate<K> {
+		boolean test(K key, int value);
+	}
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream which match the given predicate
+	 * 
+	 * @see MapStream#filter(java.util.function.BiPredicate)
+	 */
+	ObjIntMapStream<K> filter(ObjIntPredicate<? super K> predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose keys match the given predicate
+	 * 
+	 * @see MapStream#filterKeys(Predicate)
+	 */
+	ObjIntMapStream<K> filterKeys(Predicate<? super K> predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose values match the given predicate
+	 * 
+	 * @see MapStream#filterValues(Predicate)
+	 */
+	ObjIntMapStream<K> filterValues(IntPredicate predicate);
+
+	/**
+	 * Return a stream whose keys are the result of applying the given function to the keys of this stream
+	 * 
+	 * @see MapStream#mapKeys(Function)
+	 */
+	<K2> ObjIntMapStream<K2> mapKeys(Function<? super K, ? extends K2> mapper);
+
+	/**
+	 * Return a stream whose values are the result of applying the given function to the values of this stream
+	 * 
+	 * @see MapStream#mapValues(Function)
+	 */
+	ObjIntMapStream<K> mapValues(IntUnaryOperator mapper);
+
+	/**
+	 * Return a {@link MapStream} whose values are the result of applying the given function to the values of this stream
+	 * 
+	 * @see MapStream#mapValues(Function)
+	 */
+	<V> MapStream<K, V> mapValuesToObj(IntFunction<? extends V> mapper);
+
+	/** Return a {@link MapStream} with the values of this stream boxed */
+	MapStream<K, Integer> boxed();
+
+	/**
+	 * Return a stream consisting of the key-value pairs of this stream, additionally performing the given action on each key-value pair as
+	 * they are consumed
+	 * 
+	 * @see MapStream#peek(java.util.function.BiConsumer)
+	 */
+	ObjIntMapStream<K> peek(ObjIntConsumer<? super K> action);
+
+	/** @return a stream of the keys from this stream */
+	Stream<K> keyStream();
+
+	/** @return a stream of the values from this stream */
+	IntStream valueStream();
+
+	/** @see MapStream#isParallel() */
+	boolean isParallel();
+
+	/** @see MapStream#parallel() */
+	ObjIntMapStream<K> parallel();
+
+	/** @see MapStream#sequential() */
+	ObjIntMapStream<K> sequential();
+
+	// Terminal operations
+
+	/**
+	 * Perform an action on each key-value pair of this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see MapStream#forEach(java.util.function.BiConsumer)
+	 */
+	void forEach(ObjIntConsumer<? super K> action);
+
+	/**
+	 * Return the count of the key-value pairs in this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	long count();
+
+	/**
+	 * Return the sum of the values in this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see IntStream#sum()
+	 */
+	int sum();
+
+	/**
+	 * Return the minimum of the values in this stream, or an empty optional if this stream is empty.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see IntStream#min()
+	 */
+	OptionalInt min();
+
+	/**
+	 * Return the maximum of the values in this stream, or an empty optional if this stream is empty.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see IntStream#max()
+	 */
+	OptionalInt max();
+
+	/**
+	 * Return the arithmetic mean of the values in this stream, or an empty optional if this stream is empty.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see IntStream#average()
+	 */
+	OptionalDouble average();
+
+	/**
+	 * Return the count, sum, minimum, maximum and average of the values in this stream, computed in a single pass.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see IntStream#summaryStatistics()
+	 */
+	IntSummaryStatistics summaryStatistics();
+
+	/**
+	 * Return whether any key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean anyMatch(ObjIntPredicate<? super K> predicate);
+
+	/**
+	 * Return whether all key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean allMatch(ObjIntPredicate<? super K> predicate);
+
+	/**
+	 * Return whether no key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean noneMatch(ObjIntPredicate<? super K> predicate);
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link ObjIntHashMap}.
+	 * <p>
+	 * If the keys have duplicates, an {@link IllegalStateException} is thrown. Keys must not be null.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap()
+	 */
+	ObjIntHashMap<K> toMap();
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link ObjIntHashMap}.
+	 * <p>
+	 * If the keys have duplicates, the given function is called to merge the values into a single value. Keys must not be null.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap(java.util.function.BinaryOperator)
+	 */
+	ObjIntHashMap<K> toMap(IntBinaryOperator mergeFunction);
+}
@@ -0,0 +1,218 @@
+package nz.net.dnh.mapstream;
+
+import java.util.IntSummaryStatistics;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implementation of {@link ObjIntMapStream} on top of a {@link MapStreamPipeline}. The primitive stages are a function which wraps a
+ * primitive sink in a sink accepting the upstream pipeline's pairs, so terminal operations are evaluated by the upstream pipeline (in
+ * parallel if it is parallel) without boxing the values.
+ */
+final class ObjIntPipeline<K> implements ObjIntMapStream<K> {
+	@SuppressWarnings("unchecked")
+	static <K, V> ObjIntMapStream<K> of(final MapStream<K, V> mapStream, final ToIntFunction<? super V> mapper) {
+		return new ObjIntPipeline<K>((MapStreamPipeline<Object, Object>) MapStreamPipeline.of(mapStream), sink -> (k, v) -> sink.accept(
+				(K) k, mapper.applyAsInt((V) v)));
+	}
+
+	private final MapStreamPipeline<Object, Object> upstream;
+	private final Function<ObjIntConsumer<? super K>, BiConsumer<Object, Object>> wrap;
+
+	private ObjIntPipeline(final MapStreamPipeline<Object, Object> upstream,
+			final Function<ObjIntConsumer<? super K>, BiConsumer<Object, Object>> wrap) {
+		this.upstream = upstream;
+		this.wrap = wrap;
+	}
+
+	/** @return a new pipeline with the given stage, which wraps a sink of the new pipeline's pairs in a sink of this pipeline's pairs */
+	private <K2> ObjIntPipeline<K2> then(final Function<ObjIntConsumer<? super K2>, ObjIntConsumer<K>> stage) {
+		return new ObjIntPipeline<>(this.upstream, sink -> this.wrap.apply(stage.apply(sink)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private ObjIntPipeline<K> withUpstream(final MapStream<Object, Object> upstream) {
+		return new ObjIntPipeline<>((MapStreamPipeline<Object, Object>) upstream, this.wrap);
+	}
+
+	@Override
+	public ObjIntMapStream<K> filter(final ObjIntPredicate<? super K> predicate) {
+		return then(sink -> (k, v) -> {
+			if (predicate.test(k, v)) {
+				sink.accept(k, v);
+			}
+		});
+	}
+
+	@Override
+	public ObjIntMapStream<K> filterKeys(final Predicate<? super K> predicate) {
+		return filter((k, v) -> predicate.test(k));
+	}
+
+	@Override
+	public ObjIntMapStream<K> filterValues(final IntPredicate predicate) {
+		return filter((k, v) -> predicate.test(v));
+	}
+
+	@Override
+	public <K2> ObjIntMapStream<K2> mapKeys(final Function<? super K, ? extends K2> mapper) {
+		return this.<K2> then(sink -> (k, v) -> sink.accept(mapper.apply(k), v));
+	}
+
+	@Override
+	public ObjIntMapStream<K> mapValues(final IntUnaryOperator mapper) {
+		return then(sink -> (k, v) -> sink.accept(k, mapper.applyAsInt(v)));
+	}
+
+	@Override
+	public <V> MapStream<K, V> mapValuesToObj(final IntFunction<? extends V> mapper) {
+		return new MapStreamPipeline.SinkStage<Object, Object, K, V>(this.upstream, sink -> this.wrap.apply((k, v) -> sink.accept(k, mapper
+				.apply(v))));
+	}
+
+	@Override
+	public MapStream<K, Integer> boxed() {
+		return mapValuesToObj(Integer::valueOf);
+	}
+
+	@Override
+	public ObjIntMapStream<K> peek(final ObjIntConsumer<? super K> action) {
+		return then(sink -> (k, v) -> {
+			action.accept(k, v);
+			sink.accept(k, v);
+		});
+	}
+
+	@Override
+	public Stream<K> keyStream() {
+		// The values are discarded, so don't box them
+		return mapValuesToObj(v -> null).keyStream();
+	}
+
+	@Override
+	public IntStream valueStream() {
+		final boolean parallel = isParallel();
+		return StreamSupport.intStream(() -> new PrimitivePairSpliterators.OfInt(this.upstream.pairSpliterator(parallel), sink -> this.wrap
+				.apply((k, v) -> sink.accept(v))), Spliterator.ORDERED, parallel).onClose(this.upstream::close);
+	}
+
+	@Override
+	public boolean isParallel() {
+		return this.upstream.isParallel();
+	}
+
+	@Override
+	public ObjIntMapStream<K> parallel() {
+		return withUpstream(this.upstream.parallel());
+	}
+
+	@Override
+	public ObjIntMapStream<K> sequential() {
+		return withUpstream(this.upstream.sequential());
+	}
+
+	@Override
+	public void forEach(final ObjIntConsumer<? super K> action) {
+		this.upstream.evaluate(() -> PairTask.chain(this.wrap.apply(action), () -> null, null), (a, b) -> null, false);
+	}
+
+	@Override
+	public long count() {
+		return this.upstream.evaluate(() -> {
+			final long[] count = new long[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> count[0]++), () -> count[0], null);
+		}, Long::sum, false);
+	}
+
+	@Override
+	public int sum() {
+		return (int) summaryStatistics().getSum();
+	}
+
+	@Override
+	public OptionalInt min() {
+		final IntSummaryStatistics statistics = summaryStatistics();
+		return statistics.getCount() == 0 ? OptionalInt.empty() : OptionalInt.of(statistics.getMin());
+	}
+
+	@Override
+	public OptionalInt max() {
+		final IntSummaryStatistics statistics = summaryStatistics();
+		return statistics.getCount() == 0 ? OptionalInt.empty() : OptionalInt.of(statistics.getMax());
+	}
+
+	@Override
+	public OptionalDouble average() {
+		final IntSummaryStatistics statistics = summaryStatistics();
+		return statistics.getCount() == 0 ? OptionalDouble.empty() : OptionalDouble.of(statistics.getAverage());
+	}
+
+	@Override
+	public IntSummaryStatistics summaryStatistics() {
+		return this.upstream.evaluate(() -> {
+			final IntSummaryStatistics statistics = new IntSummaryStatistics();
+			return PairTask.chain(this.wrap.apply((k, v) -> statistics.accept(v)), () -> statistics, null);
+		}, (a, b) -> {
+			a.combine(b);
+			return a;
+		}, false);
+	}
+
+	@Override
+	public boolean anyMatch(final ObjIntPredicate<? super K> predicate) {
+		return ((ObjIntPipeline<K>) filter(predicate)).any();
+	}
+
+	@Override
+	public boolean allMatch(final ObjIntPredicate<? super K> predicate) {
+		return !anyMatch((k, v) -> !predicate.test(k, v));
+	}
+
+	@Override
+	public boolean noneMatch(final ObjIntPredicate<? super K> predicate) {
+		return !anyMatch(predicate);
+	}
+
+	/** @return whether this stream contains any key-value pairs, stopping at the first */
+	private boolean any() {
+		return this.upstream.evaluate(() -> {
+			final boolean[] found = new boolean[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> found[0] = true), () -> found[0], () -> found[0]);
+		}, (a, b) -> a || b, true);
+	}
+
+	@Override
+	public ObjIntHashMap<K> toMap() {
+		return this.upstream.evaluate(() -> {
+			final ObjIntHashMap<K> map = new ObjIntHashMap<>();
+			return PairTask.chain(this.wrap.apply(map::putUnique), () -> map, null);
+		}, (a, b) -> {
+			b.forEach(a::putUnique);
+			return a;
+		}, false);
+	}
+
+	@Override
+	public ObjIntHashMap<K> toMap(final IntBinaryOperator mergeFunction) {
+		return this.upstream.evaluate(() -> {
+			final ObjIntHashMap<K> map = new ObjIntHashMap<>();
+			return PairTask.chain(this.wrap.apply((k, v) -> map.merge(k, v, mergeFunction)), () -> map, null);
+		}, (a, b) -> {
+			a.mergeAll(b, mergeFunction);
+			return a;
+		}, false);
+	}
+}
@@ -0,0 +1,204 @@
+package nz.net.dnh.mapstream;
+
+import java.util.LongSummaryStatistics;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * A {@link MapStream} whose values are primitive {@code long}s, so that the values are never boxed.
+ * <p>
+ * To obtain an {@link ObjLongMapStream} from a {@link MapStream}, use {@link MapStream#mapValuesToLong(java.util.function.ToLongFunction)}.
+ * To convert back to a {@link MapStream}, use {@link #boxed()} or {@link #mapValuesToObj(LongFunction)}.
+ * 
+ * @see MapStream
+ */
+public interface ObjLongMapStream<K> {
+	/** A predicate on a key and a primitive {@code long} value */
+	@FunctionalInterface
+	interface ObjLongPredicate<K> {
+		boolean test(K key, long value);
+	}
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream which match the given predicate
+	 * 
+	 * @see MapStream#filter(java.util.function.BiPredicate)
+	 */
+	ObjLongMapStream<K> filter(ObjLongPredicate<? super K> predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose keys match the given predicate
+	 * 
+	 * @see MapStream#filterKeys(Predicate)
+	 */
+	ObjLongMapStream<K> filterKeys(Predicate<? super K> predicate);
+
+	/**
+	 * Return a stream consisting of the key-value pairs from this stream whose values match the given predicate
+	 * 
+	 * @see MapStream#filterValues(Predicate)
+	 */
+	ObjLongMapStream<K> filterValues(LongPredicate predicate);
+
+	/**
+	 * Return a stream whose keys are the result of applying the given function to the keys of this stream
+	 * 
+	 * @see MapStream#mapKeys(Function)
+	 */
+	<K2> ObjLongMapStream<K2> mapKeys(Function<? super K, ? extends K2> mapper);
+
+	/**
+	 * Return a stream whose values are the result of applying the given function to the values of this stream
+	 * 
+	 * @see MapStream#mapValues(Function)
+	 */
+	ObjLongMapStream<K> mapValues(LongUnaryOperator mapper);
+
+	/**
+	 * Return a {@link MapStream} whose values are the result of applying the given function to the values of this stream
+	 * 
+	 * @see MapStream#mapValues(Function)
+	 */
+	<V> MapStream<K, V> mapValuesToObj(LongFunction<? extends V> mapper);
+
+	/** Return a {@link MapStream} with the values of this stream boxed */
+	MapStream<K, Long> boxed();
+
+	/**
+	 * Return a stream consisting of the key-value pairs of this stream, additionally performing the given action on each key-value pair as
+	 * they are consumed
+	 * 
+	 * @see MapStream#peek(java.util.function.BiConsumer)
+	 */
+	ObjLongMapStream<K> peek(ObjLongConsumer<? super K> action);
+
+	/** @return a stream of the keys from this stream */
+	Stream<K> keyStream();
+
+	/** @return a stream of the values from this stream */
+	LongStream valueStream();
+
+	/** @see MapStream#isParallel() */
+	boolean isParallel();
+
+	/** @see MapStream#parallel() */
+	ObjLongMapStream<K> parallel();
+
+	/** @see MapStream#sequential() */
+	ObjLongMapStream<K> sequential();
+
+	// Terminal operations
+
+	/**
+	 * Perform an action on each key-value pair of this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see MapStream#forEach(java.util.function.BiConsumer)
+	 */
+	void forEach(ObjLongConsumer<? super K> action);
+
+	/**
+	 * Return the count of the key-value pairs in this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	long count();
+
+	/**
+	 * Return the sum of the values in this stream.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see LongStream#sum()
+	 */
+	long sum();
+
+	/**
+	 * Return the minimum of the values in this stream, or an empty optional if this stream is empty.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see LongStream#min()
+	 */
+	OptionalLong min();
+
+	/**
+	 * Return the maximum of the values in this stream, or an empty optional if this stream is empty.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see LongStream#max()
+	 */
+	OptionalLong max();
+
+	/**
+	 * Return the arithmetic mean of the values in this stream, or an empty optional if this stream is empty.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see LongStream#average()
+	 */
+	OptionalDouble average();
+
+	/**
+	 * Return the count, sum, minimum, maximum and average of the values in this stream, computed in a single pass.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see LongStream#summaryStatistics()
+	 */
+	LongSummaryStatistics summaryStatistics();
+
+	/**
+	 * Return whether any key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean anyMatch(ObjLongPredicate<? super K> predicate);
+
+	/**
+	 * Return whether all key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean allMatch(ObjLongPredicate<? super K> predicate);
+
+	/**
+	 * Return whether no key-value pairs of this stream match the provided predicate.
+	 * <p>
+	 * This is a terminal operation.
+	 */
+	boolean noneMatch(ObjLongPredicate<? super K> predicate);
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link ObjLongHashMap}.
+	 * <p>
+	 * If the keys have duplicates, an {@link IllegalStateException} is thrown. Keys must not be null.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap()
+	 */
+	ObjLongHashMap<K> toMap();
+
+	/**
+	 * Collect the key-value pairs of this stream into an {@link ObjLongHashMap}.
+	 * <p>
+	 * If the keys have duplicates, the given function is called to merge the values into a single value. Keys must not be null.
+	 * <p>
+	 * This is a terminal operation.
+	 * 
+	 * @see EntryCollectors#toMap(java.util.function.BinaryOperator)
+	 */
+	ObjLongHashMap<K> toMap(LongBinaryOperator mergeFunction);
+}
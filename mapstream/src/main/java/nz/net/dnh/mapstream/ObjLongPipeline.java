@@ -0,0 +1,218 @@
+package nz.net.dnh.mapstream;
+
+import java.util.LongSummaryStatistics;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongUnaryOperator;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implementation of {@link ObjLongMapStream} on top of a {@link MapStreamPipeline}. The primitive stages are a function which wraps a
+ * primitive sink in a sink accepting the upstream pipeline's pairs, so terminal operations are evaluated by the upstream pipeline (in
+ * parallel if it is parallel) without boxing the values.
+ */
+final class ObjLongPipeline<K> implements ObjLongMapStream<K> {
+	@SuppressWarnings("unchecked")
+	static <K, V> ObjLongMapStream<K> of(final MapStream<K, V> mapStream, final ToLongFunction<? super V> mapper) {
+		return new ObjLongPipeline<K>((MapStreamPipeline<Object, Object>) MapStreamPipeline.of(mapStream), sink -> (k, v) -> sink.accept(
+				(K) k, mapper.applyAsLong((V) v)));
+	}
+
+	private final MapStreamPipeline<Object, Object> upstream;
+	private final Function<ObjLongConsumer<? super K>, BiConsumer<Object, Object>> wrap;
+
+	private ObjLongPipeline(final MapStreamPipeline<Object, Object> upstream,
+			final Function<ObjLongConsumer<? super K>, BiConsumer<Object, Object>> wrap) {
+		this.upstream = upstream;
+		this.wrap = wrap;
+	}
+
+	/** @return a new pipeline with the given stage, which wraps a sink of the new pipeline's pairs in a sink of this pipeline's pairs */
+	private <K2> ObjLongPipeline<K2> then(final Function<ObjLongConsumer<? super K2>, ObjLongConsumer<K>> stage) {
+		return new ObjLongPipeline<>(this.upstream, sink -> this.wrap.apply(stage.apply(sink)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private ObjLongPipeline<K> withUpstream(final MapStream<Object, Object> upstream) {
+		return new ObjLongPipeline<>((MapStreamPipeline<Object, Object>) upstream, this.wrap);
+	}
+
+	@Override
+	public ObjLongMapStream<K> filter(final ObjLongPredicate<? super K> predicate) {
+		return then(sink -> (k, v) -> {
+			if (predicate.test(k, v)) {
+				sink.accept(k, v);
+			}
+		});
+	}
+
+	@Override
+	public ObjLongMapStream<K> filterKeys(final Predicate<? super K> predicate) {
+		return filter((k, v) -> predicate.test(k));
+	}
+
+	@Override
+	public ObjLongMapStream<K> filterValues(final LongPredicate predicate) {
+		return filter((k, v) -> predicate.test(v));
+	}
+
+	@Override
+	public <K2> ObjLongMapStream<K2> mapKeys(final Function<? super K, ? extends K2> mapper) {
+		return this.<K2> then(sink -> (k, v) -> sink.accept(mapper.apply(k), v));
+	}
+
+	@Override
+	public ObjLongMapStream<K> mapValues(final LongUnaryOperator mapper) {
+		return then(sink -> (k, v) -> sink.accept(k, mapper.applyAsLong(v)));
+	}
+
+	@Override
+	public <V> MapStream<K, V> mapValuesToObj(final LongFunction<? extends V> mapper) {
+		return new MapStreamPipeline.SinkStage<Object, Object, K, V>(this.upstream, sink -> this.wrap.apply((k, v) -> sink.accept(k, mapper
+				.apply(v))));
+	}
+
+	@Override
+	public MapStream<K, Long> boxed() {
+		return mapValuesToObj(Long::valueOf);
+	}
+
+	@Override
+	public ObjLongMapStream<K> peek(final ObjLongConsumer<? super K> action) {
+		return then(sink -> (k, v) -> {
+			action.accept(k, v);
+			sink.accept(k, v);
+		});
+	}
+
+	@Override
+	public Stream<K> keyStream() {
+		// The values are discarded, so don't box them
+		return mapValuesToObj(v -> null).keyStream();
+	}
+
+	@Override
+	public LongStream valueStream() {
+		final boolean parallel = isParallel();
+		return StreamSupport.longStream(() -> new PrimitivePairSpliterators.OfLong(this.upstream.pairSpliterator(parallel), sink -> this.wrap
+				.apply((k, v) -> sink.accept(v))), Spliterator.ORDERED, parallel).onClose(this.upstream::close);
+	}
+
+	@Override
+	public boolean isParallel() {
+		return this.upstream.isParallel();
+	}
+
+	@Override
+	public ObjLongMapStream<K> parallel() {
+		return withUpstream(this.upstream.parallel());
+	}
+
+	@Override
+	public ObjLongMapStream<K> sequential() {
+		return withUpstream(this.upstream.sequential());
+	}
+
+	@Override
+	public void forEach(final ObjLongConsumer<? super K> action) {
+		this.upstream.evaluate(() -> PairTask.chain(this.wrap.apply(action), () -> null, null), (a, b) -> null, false);
+	}
+
+	@Override
+	public long count() {
+		return this.upstream.evaluate(() -> {
+			final long[] count = new long[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> count[0]++), () -> count[0], null);
+		}, Long::sum, false);
+	}
+
+	@Override
+	public long sum() {
+		return summaryStatistics().getSum();
+	}
+
+	@Override
+	public OptionalLong min() {
+		final LongSummaryStatistics statistics = summaryStatistics();
+		return statistics.getCount() == 0 ? OptionalLong.empty() : OptionalLong.of(statistics.getMin());
+	}
+
+	@Override
+	public OptionalLong max() {
+		final LongSummaryStatistics statistics = summaryStatistics();
+		return statistics.getCount() == 0 ? OptionalLong.empty() : OptionalLong.of(statistics.getMax());
+	}
+
+	@Override
+	public OptionalDouble average() {
+		final LongSummaryStatistics statistics = summaryStatistics();
+		return statistics.getCount() == 0 ? OptionalDouble.empty() : OptionalDouble.of(statistics.getAverage());
+	}
+
+	@Override
+	public LongSummaryStatistics summaryStatistics() {
+		return this.upstream.evaluate(() -> {
+			final LongSummaryStatistics statistics = new LongSummaryStatistics();
+			return PairTask.chain(this.wrap.apply((k, v) -> statistics.accept(v)), () -> statistics, null);
+		}, (a, b) -> {
+			a.combine(b);
+			return a;
+		}, false);
+	}
+
+	@Override
+	public boolean anyMatch(final ObjLongPredicate<? super K> predicate) {
+		return ((ObjLongPipeline<K>) filter(predicate)).any();
+	}
+
+	@Override
+	public boolean allMatch(final ObjLongPredicate<? super K> predicate) {
+		return !anyMatch((k, v) -> !predicate.test(k, v));
+	}
+
+	@Override
+	public boolean noneMatch(final ObjLongPredicate<? super K> predicate) {
+		return !anyMatch(predicate);
+	}
+
+	/** @return whether this stream contains any key-value pairs, stopping at the first */
+	private boolean any() {
+		return this.upstream.evaluate(() -> {
+			final boolean[] found = new boolean[1];
+			return PairTask.chain(this.wrap.apply((k, v) -> found[0] = true), () -> found[0], () -> found[0]);
+		}, (a, b) -> a || b, true);
+	}
+
+	@Override
+	public ObjLongHashMap<K> toMap() {
+		return this.upstream.evaluate(() -> {
+			final ObjLongHashMap<K> map = new ObjLongHashMap<>();
+			return PairTask.chain(this.wrap.apply(map::putUnique), () -> map, null);
+		}, (a, b) -> {
+			b.forEach(a::putUnique);
+			return a;
+		}, false);
+	}
+
+	@Override
+	public ObjLongHashMap<K> toMap(final LongBinaryOperator mergeFunction) {
+		return this.upstream.evaluate(() -> {
+			final ObjLongHashMap<K> map = new ObjLongHashMap<>();
+			return PairTask.chain(this.wrap.apply((k, v) -> map.merge(k, v, mergeFunction)), () -> map, null);
+		}, (a, b) -> {
+			a.mergeAll(b, mergeFunction);
+			return a;
+		}, false);
+	}
+}
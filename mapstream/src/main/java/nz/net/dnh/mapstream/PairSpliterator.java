@@ -0,0 +1,513 @@
+package nz.net.dnh.mapstream;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The key-value pair equivalent of a {@link Spliterator}: traverses and partitions key-value pairs without requiring an {@link Entry}
+ * object per pair.
+ * <p>
+ * Characteristics have the same meaning as for {@link Spliterator}, except that {@link Spliterator#SORTED} and
+ * {@link Spliterator#DISTINCT} refer to the keys.
+ */
+interface PairSpliterator<K, V> {
+	/**
+	 * If a remaining key-value pair exists, perform the given action on it and return true; otherwise return false
+	 * 
+	 * @see Spliterator#tryAdvance(Consumer)
+	 */
+	boolean tryAdvance(BiConsumer<? super K, ? super V> action);
+
+	/**
+	 * Perform the given action on each remaining key-value pair
+	 * 
+	 * @see Spliterator#forEachRemaining(Consumer)
+	 */
+	default void forEachRemaining(final BiConsumer<? super K, ? super V> action) {
+		while (tryAdvance(action)) {
+			// Loop until exhausted
+		}
+	}
+
+	/**
+	 * @return a cursor over the remaining key-value pairs, which takes them from this spliterator; by default it calls
+	 *         {@link #tryAdvance(BiConsumer)} for each pair, but spliterators over arrays and maps read them directly
+	 */
+	default BiCursor<K, V> cursor() {
+		return new SpliteratorCursor<>(this);
+	}
+
+	/** @see Spliterator#trySplit() */
+	PairSpliterator<K, V> trySplit();
+
+	/** @see Spliterator#estimateSize() */
+	long estimateSize();
+
+	/** @see Spliterator#characteristics() */
+	int characteristics();
+
+	/**
+	 * @return the comparator by which the keys are sorted, or null if they are sorted in their natural order
+	 * @throws IllegalStateException
+	 *             if this spliterator isn't {@link Spliterator#SORTED}
+	 * @see Spliterator#getComparator()
+	 */
+	default Comparator<? super K> getComparator() {
+		throw new IllegalStateException();
+	}
+
+	/** @see Spliterator#getExactSizeIfKnown() */
+	default long getExactSizeIfKnown() {
+		return (characteristics() & Spliterator.SIZED) == 0 ? -1L : estimateSize();
+	}
+
+	/** @see Spliterator#hasCharacteristics(int) */
+	default boolean hasCharacteristics(final int characteristics) {
+		return (characteristics() & characteristics) == characteristics;
+	}
+
+	/** @return a {@link PairSpliterator} traversing the keys and values of the entries from the given spliterator */
+	static <K, V> PairSpliterator<K, V> ofEntries(final Spliterator<? extends Entry<? extends K, ? extends V>> spliterator) {
+		return new EntryPairSpliterator<>(spliterator);
+	}
+
+	/**
+	 * @return a {@link PairSpliterator} traversing the result of applying the given functions to the elements from the given spliterator
+	 */
+	static <T, K, V> PairSpliterator<K, V> of(final Spliterator<T> spliterator, final Function<? super T, ? extends K> keyFunction,
+			final Function<? super T, ? extends V> valueFunction) {
+		return new MappingPairSpliterator<>(spliterator, keyFunction, valueFunction);
+	}
+
+	/**
+	 * @return a {@link PairSpliterator} traversing the keys and values at the same indices in the given arrays, from {@code fromIndex}
+	 *         (inclusive) to {@code toIndex} (exclusive); the spliterator is {@link Spliterator#ORDERED}, {@link Spliterator#SIZED} and
+	 *         {@link Spliterator#SUBSIZED} as well as having the given additional characteristics
+	 */
+	static <K, V> PairSpliterator<K, V> ofArrays(final Object[] keys, final Object[] values, final int fromIndex, final int toIndex,
+			final int additionalCharacteristics) {
+		return new ArrayPairSpliterator<>(keys, values, fromIndex, toIndex, Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED
+				| additionalCharacteristics);
+	}
+
+	/**
+	 * @return a {@link PairSpliterator} traversing the keys in the given array, from {@code fromIndex} (inclusive) to {@code toIndex}
+	 *         (exclusive), with the values in the given dictionary at the indexes at the same indices in {@code valueIndexes}; the
+	 *         spliterator is {@link Spliterator#ORDERED}, {@link Spliterator#SIZED} and {@link Spliterator#SUBSIZED}
+	 */
+	static <K, V> PairSpliterator<K, V> ofDictionary(final Object[] keys, final char[] valueIndexes, final Object[] dictionary,
+			final int fromIndex, final int toIndex) {
+		return new DictionaryPairSpliterator<>(keys, valueIndexes, dictionary, fromIndex, toIndex);
+	}
+
+	/** @return a {@link Spliterator} creating an {@link Entry} for each key-value pair from the given pair spliterator */
+	static <K, V> Spliterator<Entry<K, V>> toEntries(final PairSpliterator<K, V> spliterator) {
+		return new PairMappingSpliterator<>(spliterator, SimpleImmutableEntry<K, V>::new, true);
+	}
+
+	/** @return a {@link Spliterator} of the results of applying the given function to each key-value pair from the given pair spliterator */
+	static <K, V, R> Spliterator<R> map(final PairSpliterator<K, V> spliterator, final BiFunction<? super K, ? super V, ? extends R> mapper) {
+		return new PairMappingSpliterator<>(spliterator, mapper, false);
+	}
+
+	/**
+	 * Adapts a {@link Spliterator} of entries. The adapter is its own {@link Consumer} so traversal doesn't need to capture the action in a
+	 * new lambda for each call.
+	 */
+	final class EntryPairSpliterator<K, V> implements PairSpliterator<K, V>, Consumer<Entry<? extends K, ? extends V>> {
+		private final Spliterator<? extends Entry<? extends K, ? extends V>> spliterator;
+		private BiConsumer<? super K, ? super V> action;
+
+		EntryPairSpliterator(final Spliterator<? extends Entry<? extends K, ? extends V>> spliterator) {
+			this.spliterator = spliterator;
+		}
+
+		@Override
+		public void accept(final Entry<? extends K, ? extends V> entry) {
+			this.action.accept(entry.getKey(), entry.getValue());
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			this.action = action;
+			return this.spliterator.tryAdvance(this);
+		}
+
+		@Override
+		public void forEachRemaining(final BiConsumer<? super K, ? super V> action) {
+			this.action = action;
+			this.spliterator.forEachRemaining(this);
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			final Spliterator<? extends Entry<? extends K, ? extends V>> split = this.spliterator.trySplit();
+			return split == null ? null : new EntryPairSpliterator<>(split);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.spliterator.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			// Sorted, distinct or non-null entries don't imply sorted, distinct or non-null keys
+			return this.spliterator.characteristics() & ~(Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL);
+		}
+	}
+
+	/** Traverses keys and values stored in a pair of arrays */
+	final class ArrayPairSpliterator<K, V> implements PairSpliterator<K, V> {
+		private final Object[] keys;
+		private final Object[] values;
+		private int index;
+		private final int toIndex;
+		private final int characteristics;
+
+		ArrayPairSpliterator(final Object[] keys, final Object[] values, final int fromIndex, final int toIndex, final int characteristics) {
+			this.keys = keys;
+			this.values = values;
+			this.index = fromIndex;
+			this.toIndex = toIndex;
+			this.characteristics = characteristics;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			if (this.index >= this.toIndex) {
+				return false;
+			}
+			action.accept((K) this.keys[this.index], (V) this.values[this.index]);
+			this.index++;
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void forEachRemaining(final BiConsumer<? super K, ? super V> action) {
+			final Object[] keys = this.keys;
+			final Object[] values = this.values;
+			final int toIndex = this.toIndex;
+			for (int i = this.index; i < toIndex; i++) {
+				action.accept((K) keys[i], (V) values[i]);
+			}
+			this.index = toIndex;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public BiCursor<K, V> cursor() {
+			final int fromIndex = this.index;
+			this.index = this.toIndex;
+			return new IndexCursor<K, V>(fromIndex, this.toIndex) {
+				@Override
+				public K key() {
+					return (K) ArrayPairSpliterator.this.keys[this.index];
+				}
+
+				@Override
+				public V value() {
+					return (V) ArrayPairSpliterator.this.values[this.index];
+				}
+			};
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			final int fromIndex = this.index;
+			final int midIndex = fromIndex + this.toIndex >>> 1;
+			if (midIndex <= fromIndex) {
+				return null;
+			}
+			this.index = midIndex;
+			return new ArrayPairSpliterator<>(this.keys, this.values, fromIndex, midIndex, this.characteristics);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.toIndex - this.index;
+		}
+
+		@Override
+		public int characteristics() {
+			return this.characteristics;
+		}
+	}
+
+	/** Traverses keys stored in an array and values stored as indexes into a dictionary */
+	final class DictionaryPairSpliterator<K, V> implements PairSpliterator<K, V> {
+		private final Object[] keys;
+		private final char[] valueIndexes;
+		private final Object[] dictionary;
+		private int index;
+		private final int toIndex;
+
+		DictionaryPairSpliterator(final Object[] keys, final char[] valueIndexes, final Object[] dictionary, final int fromIndex,
+				final int toIndex) {
+			this.keys = keys;
+			this.valueIndexes = valueIndexes;
+			this.dictionary = dictionary;
+			this.index = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			if (this.index >= this.toIndex) {
+				return false;
+			}
+			action.accept((K) this.keys[this.index], (V) this.dictionary[this.valueIndexes[this.index]]);
+			this.index++;
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public void forEachRemaining(final BiConsumer<? super K, ? super V> action) {
+			final Object[] keys = this.keys;
+			final char[] valueIndexes = this.valueIndexes;
+			final Object[] dictionary = this.dictionary;
+			final int toIndex = this.toIndex;
+			for (int i = this.index; i < toIndex; i++) {
+				action.accept((K) keys[i], (V) dictionary[valueIndexes[i]]);
+			}
+			this.index = toIndex;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public BiCursor<K, V> cursor() {
+			final int fromIndex = this.index;
+			this.index = this.toIndex;
+			return new IndexCursor<K, V>(fromIndex, this.toIndex) {
+				@Override
+				public K key() {
+					return (K) DictionaryPairSpliterator.this.keys[this.index];
+				}
+
+				@Override
+				public V value() {
+					return (V) DictionaryPairSpliterator.this.dictionary[DictionaryPairSpliterator.this.valueIndexes[this.index]];
+				}
+			};
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			final int fromIndex = this.index;
+			final int midIndex = fromIndex + this.toIndex >>> 1;
+			if (midIndex <= fromIndex) {
+				return null;
+			}
+			this.index = midIndex;
+			return new DictionaryPairSpliterator<>(this.keys, this.valueIndexes, this.dictionary, fromIndex, midIndex);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.toIndex - this.index;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+		}
+	}
+
+	/** Adapts a {@link Spliterator} of arbitrary elements using a key function and a value function */
+	final class MappingPairSpliterator<T, K, V> implements PairSpliterator<K, V>, Consumer<T> {
+		private final Spliterator<T> spliterator;
+		private final Function<? super T, ? extends K> keyFunction;
+		private final Function<? super T, ? extends V> valueFunction;
+		private BiConsumer<? super K, ? super V> action;
+
+		MappingPairSpliterator(final Spliterator<T> spliterator, final Function<? super T, ? extends K> keyFunction,
+				final Function<? super T, ? extends V> valueFunction) {
+			this.spliterator = spliterator;
+			this.keyFunction = keyFunction;
+			this.valueFunction = valueFunction;
+		}
+
+		@Override
+		public void accept(final T element) {
+			this.action.accept(this.keyFunction.apply(element), this.valueFunction.apply(element));
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			this.action = action;
+			return this.spliterator.tryAdvance(this);
+		}
+
+		@Override
+		public void forEachRemaining(final BiConsumer<? super K, ? super V> action) {
+			this.action = action;
+			this.spliterator.forEachRemaining(this);
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			final Spliterator<T> split = this.spliterator.trySplit();
+			return split == null ? null : new MappingPairSpliterator<>(split, this.keyFunction, this.valueFunction);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.spliterator.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return this.spliterator.characteristics() & ~(Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL);
+		}
+	}
+
+	/** A cursor over the pairs at a range of indexes, e.g. of arrays, which reads the current pair at {@link #index} */
+	abstract class IndexCursor<K, V> implements BiCursor<K, V> {
+		/** The index of the current pair, which is one before the first index before the first call to {@link #advance()} */
+		int index;
+		private final int toIndex;
+
+		IndexCursor(final int fromIndex, final int toIndex) {
+			this.index = fromIndex - 1;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		public boolean advance() {
+			if (this.index + 1 >= this.toIndex) {
+				this.index = this.toIndex;
+				return false;
+			}
+			this.index++;
+			return true;
+		}
+	}
+
+	/** A cursor over the pairs from a {@link PairSpliterator}, which holds each pair passed to it by the spliterator's tryAdvance */
+	final class SpliteratorCursor<K, V> implements BiCursor<K, V>, BiConsumer<K, V> {
+		private final PairSpliterator<K, V> spliterator;
+		private K key;
+		private V value;
+
+		SpliteratorCursor(final PairSpliterator<K, V> spliterator) {
+			this.spliterator = spliterator;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public boolean advance() {
+			if (this.spliterator.tryAdvance(this)) {
+				return true;
+			}
+			// Don't keep the last pair reachable
+			this.key = null;
+			this.value = null;
+			return false;
+		}
+
+		@Override
+		public K key() {
+			return this.key;
+		}
+
+		@Override
+		public V value() {
+			return this.value;
+		}
+	}
+
+	/** A cursor over the entries from an iterator, e.g. over a map's entry set, which doesn't create them */
+	final class EntryIteratorCursor<K, V> implements BiCursor<K, V> {
+		private final Iterator<? extends Entry<? extends K, ? extends V>> iterator;
+		private Entry<? extends K, ? extends V> entry;
+
+		EntryIteratorCursor(final Iterator<? extends Entry<? extends K, ? extends V>> iterator) {
+			this.iterator = iterator;
+		}
+
+		@Override
+		public boolean advance() {
+			this.entry = this.iterator.hasNext() ? this.iterator.next() : null;
+			return this.entry != null;
+		}
+
+		@Override
+		public K key() {
+			return this.entry.getKey();
+		}
+
+		@Override
+		public V value() {
+			return this.entry.getValue();
+		}
+	}
+
+	/**
+	 * Adapts a {@link PairSpliterator} to a {@link Spliterator} of elements produced by a function of each key-value pair; when the function
+	 * creates entries this is where entry objects are created
+	 */
+	final class PairMappingSpliterator<K, V, R> implements Spliterator<R>, BiConsumer<K, V> {
+		private final PairSpliterator<K, V> spliterator;
+		private final BiFunction<? super K, ? super V, ? extends R> mapper;
+		private final boolean entries;
+		private Consumer<? super R> action;
+
+		PairMappingSpliterator(final PairSpliterator<K, V> spliterator, final BiFunction<? super K, ? super V, ? extends R> mapper,
+				final boolean entries) {
+			this.spliterator = spliterator;
+			this.mapper = mapper;
+			this.entries = entries;
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			this.action.accept(this.mapper.apply(key, value));
+		}
+
+		@Override
+		public boolean tryAdvance(final Consumer<? super R> action) {
+			this.action = action;
+			return this.spliterator.tryAdvance(this);
+		}
+
+		@Override
+		public void forEachRemaining(final Consumer<? super R> action) {
+			this.action = action;
+			this.spliterator.forEachRemaining(this);
+		}
+
+		@Override
+		public Spliterator<R> trySplit() {
+			final PairSpliterator<K, V> split = this.spliterator.trySplit();
+			return split == null ? null : new PairMappingSpliterator<>(split, this.mapper, this.entries);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.spliterator.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			final int characteristics = this.spliterator.characteristics() & ~(Spliterator.SORTED | Spliterator.NONNULL);
+			// Entries are never null, and distinct keys imply distinct entries
+			return this.entries ? characteristics | Spliterator.NONNULL : characteristics & ~Spliterator.DISTINCT;
+		}
+	}
+}
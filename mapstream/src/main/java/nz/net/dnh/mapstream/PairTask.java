@@ -0,0 +1,118 @@
+package nz.net.dnh.mapstream;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Fork-join task which evaluates a terminal operation in parallel by recursively splitting a {@link PairSpliterator}, pushing the pairs of
+ * each leaf into its own {@link Sink}, and combining the results of the leaves.
+ */
+final class PairTask<K, V, R> extends RecursiveTask<R> {
+	private static final long serialVersionUID = 1L;
+
+	/** A terminal sink which accumulates a result from the key-value pairs pushed into it */
+	interface Sink<K, V, R> extends BiConsumer<K, V>, Supplier<R> {
+		/** @return true if the result is already known, so the remaining pairs need not be traversed */
+		default boolean done() {
+			return false;
+		}
+	}
+
+	/**
+	 * Return a sink which passes pairs to the head of a chain of stages, and whose result is taken from the accumulator at the end of the
+	 * chain
+	 * 
+	 * @param head
+	 *            The first stage of the chain
+	 * @param result
+	 *            Supplies the result of the accumulator at the end of the chain
+	 * @param done
+	 *            Whether the result is already known; may be null if the operation is not short-circuiting
+	 */
+	static <K, V, R> Sink<K, V, R> chain(final BiConsumer<K, V> head, final Supplier<R> result, final BooleanSupplier done) {
+		return new Sink<K, V, R>() {
+			@Override
+			public void accept(final K key, final V value) {
+				head.accept(key, value);
+			}
+
+			@Override
+			public R get() {
+				return result.get();
+			}
+
+			@Override
+			public boolean done() {
+				return done != null && done.getAsBoolean();
+			}
+		};
+	}
+
+	/**
+	 * Evaluate a terminal operation in parallel
+	 * 
+	 * @param spliterator
+	 *            The pairs to evaluate the operation on
+	 * @param sinkFactory
+	 *            Creates a new sink for each leaf task
+	 * @param combiner
+	 *            Combines the results of two leaf tasks; the first argument is the result for the earlier pairs in encounter order
+	 * @param shortCircuit
+	 *            Whether {@link Sink#done()} should be checked before each pair; once any leaf is done, all other leaves stop traversal
+	 */
+	static <K, V, R> R invoke(final PairSpliterator<K, V> spliterator, final Supplier<? extends Sink<K, V, R>> sinkFactory,
+			final BinaryOperator<R> combiner, final boolean shortCircuit) {
+		final long threshold = Math.max(1, spliterator.estimateSize() / (ForkJoinPool.getCommonPoolParallelism() * 4L));
+		return new PairTask<>(spliterator, sinkFactory, combiner, shortCircuit ? new AtomicBoolean() : null, threshold).invoke();
+	}
+
+	private final PairSpliterator<K, V> spliterator;
+	private final Supplier<? extends Sink<K, V, R>> sinkFactory;
+	private final BinaryOperator<R> combiner;
+	/** Set once any leaf is done; null if the operation is not short-circuiting */
+	private final AtomicBoolean cancelled;
+	private final long threshold;
+
+	private PairTask(final PairSpliterator<K, V> spliterator, final Supplier<? extends Sink<K, V, R>> sinkFactory,
+			final BinaryOperator<R> combiner, final AtomicBoolean cancelled, final long threshold) {
+		this.spliterator = spliterator;
+		this.sinkFactory = sinkFactory;
+		this.combiner = combiner;
+		this.cancelled = cancelled;
+		this.threshold = threshold;
+	}
+
+	@Override
+	protected R compute() {
+		if (this.spliterator.estimateSize() > this.threshold && !cancellationRequested()) {
+			final PairSpliterator<K, V> prefix = this.spliterator.trySplit();
+			if (prefix != null) {
+				final PairTask<K, V, R> left = new PairTask<>(prefix, this.sinkFactory, this.combiner, this.cancelled, this.threshold);
+				left.fork();
+				final R right = new PairTask<>(this.spliterator, this.sinkFactory, this.combiner, this.cancelled, this.threshold).compute();
+				return this.combiner.apply(left.join(), right);
+			}
+		}
+		final Sink<K, V, R> sink = this.sinkFactory.get();
+		if (this.cancelled == null) {
+			this.spliterator.forEachRemaining(sink);
+		} else {
+			while (!sink.done() && !cancellationRequested() && this.spliterator.tryAdvance(sink)) {
+				// Loop until done, cancelled or exhausted
+			}
+			if (sink.done()) {
+				this.cancelled.set(true);
+			}
+		}
+		return sink.get();
+	}
+
+	private boolean cancellationRequested() {
+		return this.cancelled != null && this.cancelled.get();
+	}
+}
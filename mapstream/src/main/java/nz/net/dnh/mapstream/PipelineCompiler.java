@@ -0,0 +1,352 @@
+package nz.net.dnh.mapstream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Creates the sinks of {@link MapStream#compile() compiled} pipelines. Each sink is an instance of a private copy of one of the template
+ * classes below, loaded by its own class loader from the template's class file, so the JIT profiles its calls to the user's function and
+ * to the next sink separately from every other pipeline, and can inline them even when the shared stage classes have seen many different
+ * functions. A copy is made for each combination of template, function classes and next sink class, and is reused by every pipeline with
+ * that combination: lambdas from the same expression share a class, so pipelines built repeatedly by the same code share their copies.
+ * <p>
+ * The function a copy is specialized on is the user's own: the adapters {@link MapStreamPipeline} wraps functions of only keys or only
+ * values in (e.g. for {@link MapStream#filterKeys(Predicate)}) are unwrapped into templates which take the functions of keys or values,
+ * and the mappers of fused mapping stages are compiled into a sink for each of them.
+ * <p>
+ * The templates only refer to the JDK's functional interfaces, so that the copies, which are in a different runtime package, can be
+ * loaded. If a template's class file can't be read, the template itself is used.
+ */
+final class PipelineCompiler {
+	/**
+	 * The constructors of the copies of the templates, by the class of the first function they are created with, then by the template, the
+	 * classes of any other functions and the class of the next sink; keyed by the first function so they can be unloaded with it
+	 */
+	private static final ClassValue<Map<List<Class<?>>, Constructor<?>>> COPIES = new ClassValue<Map<List<Class<?>>, Constructor<?>>>() {
+		@Override
+		protected Map<List<Class<?>>, Constructor<?>> computeValue(final Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	private PipelineCompiler() {
+	}
+
+	/** @return a sink which passes the pairs which match the predicate to the next sink */
+	static <K, V> BiConsumer<K, V> filter(final BiPredicate<?, ?> predicate, final BiConsumer<?, ?> next) {
+		if (predicate instanceof MapStreamPipeline.KeyPredicate) {
+			return create(KeyFilterSink.class, next, ((MapStreamPipeline.KeyPredicate<?, ?>) predicate).predicate);
+		} else if (predicate instanceof MapStreamPipeline.ValuePredicate) {
+			return create(ValueFilterSink.class, next, ((MapStreamPipeline.ValuePredicate<?, ?>) predicate).predicate);
+		}
+		return create(FilterSink.class, next, predicate);
+	}
+
+	/** @return a sink which passes the result of the mapper and each value to the next sink */
+	static <K, V> BiConsumer<K, V> mapKeys(final BiFunction<?, ?, ?> keyMapper, final BiConsumer<?, ?> next) {
+		if (keyMapper instanceof MapStreamPipeline.KeyComposition) {
+			final MapStreamPipeline.KeyComposition<?, ?, ?, ?> composition = (MapStreamPipeline.KeyComposition<?, ?, ?, ?>) keyMapper;
+			return mapKeys(composition.first, mapKeys(composition.second, next));
+		} else if (keyMapper instanceof MapStreamPipeline.KeyFunction) {
+			return create(KeyFunctionMapSink.class, next, ((MapStreamPipeline.KeyFunction<?, ?, ?>) keyMapper).function);
+		}
+		return create(KeyMapSink.class, next, keyMapper);
+	}
+
+	/** @return a sink which passes each key and the result of the mapper to the next sink */
+	static <K, V> BiConsumer<K, V> mapValues(final BiFunction<?, ?, ?> valueMapper, final BiConsumer<?, ?> next) {
+		if (valueMapper instanceof MapStreamPipeline.ValueComposition) {
+			final MapStreamPipeline.ValueComposition<?, ?, ?, ?> composition = (MapStreamPipeline.ValueComposition<?, ?, ?, ?>) valueMapper;
+			return mapValues(composition.first, mapValues(composition.second, next));
+		} else if (valueMapper instanceof MapStreamPipeline.ValueFunction) {
+			return create(ValueFunctionMapSink.class, next, ((MapStreamPipeline.ValueFunction<?, ?, ?>) valueMapper).function);
+		}
+		return create(ValueMapSink.class, next, valueMapper);
+	}
+
+	/** @return a sink which passes the results of both mappers to the next sink */
+	static <K, V> BiConsumer<K, V> map(final BiFunction<?, ?, ?> keyMapper, final BiFunction<?, ?, ?> valueMapper,
+			final BiConsumer<?, ?> next) {
+		if (valueMapper instanceof MapStreamPipeline.ValueFunction) {
+			// The value mapper doesn't see the key, so the value can be mapped after the key
+			return mapKeys(keyMapper, mapValues(valueMapper, next));
+		}
+		return create(PairMapSink.class, next, keyMapper, valueMapper);
+	}
+
+	/** @return a sink which performs the action on each pair before passing it to the next sink */
+	static <K, V> BiConsumer<K, V> peek(final BiConsumer<?, ?> action, final BiConsumer<?, ?> next) {
+		if (action instanceof MapStreamPipeline.KeyConsumer) {
+			return create(KeyPeekSink.class, next, ((MapStreamPipeline.KeyConsumer<?, ?>) action).action);
+		} else if (action instanceof MapStreamPipeline.ValueConsumer) {
+			return create(ValuePeekSink.class, next, ((MapStreamPipeline.ValueConsumer<?, ?>) action).action);
+		}
+		return create(PeekSink.class, next, action);
+	}
+
+	/** Create an instance of the copy of the given template for the given functions and next sink */
+	@SuppressWarnings("unchecked")
+	private static <K, V> BiConsumer<K, V> create(final Class<?> template, final Object next, final Object... functions) {
+		final Class<?>[] classes = new Class<?>[functions.length + 1];
+		final Object[] arguments = Arrays.copyOf(functions, functions.length + 1);
+		classes[0] = template;
+		for (int i = 1; i < functions.length; i++) {
+			classes[i] = functions[i].getClass();
+		}
+		classes[functions.length] = next.getClass();
+		arguments[functions.length] = next;
+		final Constructor<?> constructor = COPIES.get(functions[0].getClass()).computeIfAbsent(Arrays.asList(classes), k -> copy(
+				template));
+		try {
+			return (BiConsumer<K, V>) constructor.newInstance(arguments);
+		} catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Failed to create a compiled sink", e);
+		}
+	}
+
+	/** @return the constructor of a new copy of the given template, or of the template if it can't be copied */
+	private static Constructor<?> copy(final Class<?> template) {
+		Class<?> copy = template;
+		final String resource = template.getName().substring(template.getName().lastIndexOf('.') + 1) + ".class";
+		try (InputStream in = template.getResourceAsStream(resource)) {
+			if (in != null) {
+				copy = new CopyClassLoader(template.getClassLoader(), template.getName(), readFully(in)).loadClass(template.getName());
+			}
+		} catch (IOException | ClassNotFoundException | LinkageError | SecurityException e) {
+			// Sharing the template is slower when its call sites are megamorphic, but still correct
+		}
+		return copy.getConstructors()[0];
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	/** Defines a copy of a single class from its class file, and delegates the loading of every other class to its parent */
+	private static final class CopyClassLoader extends ClassLoader {
+		private final String name;
+		private final byte[] classFile;
+
+		CopyClassLoader(final ClassLoader parent, final String name, final byte[] classFile) {
+			super(parent);
+			this.name = name;
+			this.classFile = classFile;
+		}
+
+		@Override
+		protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(this.name)) {
+				return super.loadClass(name, resolve);
+			}
+			synchronized (getClassLoadingLock(name)) {
+				final Class<?> loaded = findLoadedClass(name);
+				return loaded != null ? loaded : defineClass(name, this.classFile, 0, this.classFile.length);
+			}
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class FilterSink implements BiConsumer {
+		private final BiPredicate predicate;
+		private final BiConsumer next;
+
+		public FilterSink(final BiPredicate predicate, final BiConsumer next) {
+			this.predicate = predicate;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			if (this.predicate.test(key, value)) {
+				this.next.accept(key, value);
+			}
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class KeyFilterSink implements BiConsumer {
+		private final Predicate predicate;
+		private final BiConsumer next;
+
+		public KeyFilterSink(final Predicate predicate, final BiConsumer next) {
+			this.predicate = predicate;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			if (this.predicate.test(key)) {
+				this.next.accept(key, value);
+			}
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class ValueFilterSink implements BiConsumer {
+		private final Predicate predicate;
+		private final BiConsumer next;
+
+		public ValueFilterSink(final Predicate predicate, final BiConsumer next) {
+			this.predicate = predicate;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			if (this.predicate.test(value)) {
+				this.next.accept(key, value);
+			}
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class KeyMapSink implements BiConsumer {
+		private final BiFunction keyMapper;
+		private final BiConsumer next;
+
+		public KeyMapSink(final BiFunction keyMapper, final BiConsumer next) {
+			this.keyMapper = keyMapper;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			this.next.accept(this.keyMapper.apply(key, value), value);
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class ValueMapSink implements BiConsumer {
+		private final BiFunction valueMapper;
+		private final BiConsumer next;
+
+		public ValueMapSink(final BiFunction valueMapper, final BiConsumer next) {
+			this.valueMapper = valueMapper;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			this.next.accept(key, this.valueMapper.apply(key, value));
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class KeyFunctionMapSink implements BiConsumer {
+		private final Function keyMapper;
+		private final BiConsumer next;
+
+		public KeyFunctionMapSink(final Function keyMapper, final BiConsumer next) {
+			this.keyMapper = keyMapper;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			this.next.accept(this.keyMapper.apply(key), value);
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class ValueFunctionMapSink implements BiConsumer {
+		private final Function valueMapper;
+		private final BiConsumer next;
+
+		public ValueFunctionMapSink(final Function valueMapper, final BiConsumer next) {
+			this.valueMapper = valueMapper;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			this.next.accept(key, this.valueMapper.apply(value));
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class PairMapSink implements BiConsumer {
+		private final BiFunction keyMapper;
+		private final BiFunction valueMapper;
+		private final BiConsumer next;
+
+		public PairMapSink(final BiFunction keyMapper, final BiFunction valueMapper, final BiConsumer next) {
+			this.keyMapper = keyMapper;
+			this.valueMapper = valueMapper;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			this.next.accept(this.keyMapper.apply(key, value), this.valueMapper.apply(key, value));
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class PeekSink implements BiConsumer {
+		private final BiConsumer action;
+		private final BiConsumer next;
+
+		public PeekSink(final BiConsumer action, final BiConsumer next) {
+			this.action = action;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			this.action.accept(key, value);
+			this.next.accept(key, value);
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class KeyPeekSink implements BiConsumer {
+		private final Consumer action;
+		private final BiConsumer next;
+
+		public KeyPeekSink(final Consumer action, final BiConsumer next) {
+			this.action = action;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			this.action.accept(key);
+			this.next.accept(key, value);
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static final class ValuePeekSink implements BiConsumer {
+		private final Consumer action;
+		private final BiConsumer next;
+
+		public ValuePeekSink(final Consumer action, final BiConsumer next) {
+			this.action = action;
+			this.next = next;
+		}
+
+		@Override
+		public void accept(final Object key, final Object value) {
+			this.action.accept(value);
+			this.next.accept(key, value);
+		}
+	}
+}
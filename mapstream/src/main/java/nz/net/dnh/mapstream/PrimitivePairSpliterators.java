@@ -0,0 +1,182 @@
+package nz.net.dnh.mapstream;
+
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Primitive {@link Spliterator Spliterators} driven by a {@link PairSpliterator}, for the key or value streams of the primitive-specialized
+ * MapStreams. Each wraps a consumer of primitives in a chain of stages accepting the source's pairs, in the same way as
+ * {@link MapStreamPipeline.WrappingPairSpliterator}.
+ */
+final class PrimitivePairSpliterators {
+	private PrimitivePairSpliterators() {
+	}
+
+	/** The characteristics which survive the stages of a primitive-specialized MapStream */
+	private static int characteristics(final PairSpliterator<?, ?> source) {
+		return source.characteristics() & Spliterator.ORDERED;
+	}
+
+	static final class OfInt implements Spliterator.OfInt, IntConsumer {
+		private final PairSpliterator<Object, Object> source;
+		private final Function<IntConsumer, BiConsumer<Object, Object>> wrap;
+		private BiConsumer<Object, Object> head;
+		private IntConsumer action;
+		private boolean advanced;
+
+		OfInt(final PairSpliterator<Object, Object> source, final Function<IntConsumer, BiConsumer<Object, Object>> wrap) {
+			this.source = source;
+			this.wrap = wrap;
+		}
+
+		@Override
+		public void accept(final int value) {
+			this.advanced = true;
+			this.action.accept(value);
+		}
+
+		@Override
+		public boolean tryAdvance(final IntConsumer action) {
+			if (this.head == null) {
+				this.head = this.wrap.apply(this);
+			}
+			this.action = action;
+			this.advanced = false;
+			while (!this.advanced && this.source.tryAdvance(this.head)) {
+				// Stages produce at most one value per input pair
+			}
+			return this.advanced;
+		}
+
+		@Override
+		public void forEachRemaining(final IntConsumer action) {
+			this.source.forEachRemaining(this.wrap.apply(action));
+		}
+
+		@Override
+		public Spliterator.OfInt trySplit() {
+			final PairSpliterator<Object, Object> split = this.source.trySplit();
+			return split == null ? null : new PrimitivePairSpliterators.OfInt(split, this.wrap);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.source.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return PrimitivePairSpliterators.characteristics(this.source);
+		}
+	}
+
+	static final class OfLong implements Spliterator.OfLong, LongConsumer {
+		private final PairSpliterator<Object, Object> source;
+		private final Function<LongConsumer, BiConsumer<Object, Object>> wrap;
+		private BiConsumer<Object, Object> head;
+		private LongConsumer action;
+		private boolean advanced;
+
+		OfLong(final PairSpliterator<Object, Object> source, final Function<LongConsumer, BiConsumer<Object, Object>> wrap) {
+			this.source = source;
+			this.wrap = wrap;
+		}
+
+		@Override
+		public void accept(final long value) {
+			this.advanced = true;
+			this.action.accept(value);
+		}
+
+		@Override
+		public boolean tryAdvance(final LongConsumer action) {
+			if (this.head == null) {
+				this.head = this.wrap.apply(this);
+			}
+			this.action = action;
+			this.advanced = false;
+			while (!this.advanced && this.source.tryAdvance(this.head)) {
+				// Stages produce at most one value per input pair
+			}
+			return this.advanced;
+		}
+
+		@Override
+		public void forEachRemaining(final LongConsumer action) {
+			this.source.forEachRemaining(this.wrap.apply(action));
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit() {
+			final PairSpliterator<Object, Object> split = this.source.trySplit();
+			return split == null ? null : new PrimitivePairSpliterators.OfLong(split, this.wrap);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.source.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return PrimitivePairSpliterators.characteristics(this.source);
+		}
+	}
+
+	static final class OfDouble implements Spliterator.OfDouble, DoubleConsumer {
+		private final PairSpliterator<Object, Object> source;
+		private final Function<DoubleConsumer, BiConsumer<Object, Object>> wrap;
+		private BiConsumer<Object, Object> head;
+		private DoubleConsumer action;
+		private boolean advanced;
+
+		OfDouble(final PairSpliterator<Object, Object> source, final Function<DoubleConsumer, BiConsumer<Object, Object>> wrap) {
+			this.source = source;
+			this.wrap = wrap;
+		}
+
+		@Override
+		public void accept(final double value) {
+			this.advanced = true;
+			this.action.accept(value);
+		}
+
+		@Override
+		public boolean tryAdvance(final DoubleConsumer action) {
+			if (this.head == null) {
+				this.head = this.wrap.apply(this);
+			}
+			this.action = action;
+			this.advanced = false;
+			while (!this.advanced && this.source.tryAdvance(this.head)) {
+				// Stages produce at most one value per input pair
+			}
+			return this.advanced;
+		}
+
+		@Override
+		public void forEachRemaining(final DoubleConsumer action) {
+			this.source.forEachRemaining(this.wrap.apply(action));
+		}
+
+		@Override
+		public Spliterator.OfDouble trySplit() {
+			final PairSpliterator<Object, Object> split = this.source.trySplit();
+			return split == null ? null : new PrimitivePairSpliterators.OfDouble(split, this.wrap);
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.source.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return PrimitivePairSpliterators.characteristics(this.source);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package nz.net.dnh.mapstream;
+
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Stable least-significant-digit radix sort of key-value pairs by a primitive sort key extracted from their keys or values. Each sort key
+ * is converted to an unsigned {@code long} whose unsigned order is the order of the sort key, and the pairs are sorted by those in passes
+ * of eight bits, skipping the passes in which every pair has the same digit (e.g. the upper half of an {@code int}). This takes O(n) time
+ * and no comparisons, so is much faster than a comparison sort of boxed numbers for large inputs.
+ */
+final class RadixSort {
+	/** The number of bits sorted by each pass */
+	private static final int DIGIT_BITS = 8;
+	private static final int RADIX = 1 << DIGIT_BITS;
+	private static final int PASSES = Long.SIZE / DIGIT_BITS;
+
+	private RadixSort() {
+	}
+
+	/** Converts a key or value to an unsigned {@code long} whose unsigned order is the order in which it is to be sorted */
+	@FunctionalInterface
+	interface RadixKey<T> {
+		long radixKey(T o);
+	}
+
+	/** @return a radix key which sorts by the given {@code long} function */
+	static <T> RadixKey<T> byLong(final ToLongFunction<? super T> function) {
+		return o -> function.applyAsLong(o) ^ Long.MIN_VALUE;
+	}
+
+	/** @return a radix key which sorts by the given {@code int} function; the upper 32 bits are always zero, so are never sorted */
+	static <T> RadixKey<T> byInt(final ToIntFunction<? super T> function) {
+		return o -> (function.applyAsInt(o) ^ Integer.MIN_VALUE) & 0xFFFF_FFFFL;
+	}
+
+	/** @return a radix key which sorts by the given {@code double} function in the order of {@link Double#compare(double, double)} */
+	static <T> RadixKey<T> byDouble(final ToDoubleFunction<? super T> function) {
+		return o -> {
+			final long bits = Double.doubleToLongBits(function.applyAsDouble(o));
+			// Negative numbers are ordered by decreasing magnitude, so flip all of their bits; positive numbers only need the sign bit set
+			return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+		};
+	}
+
+	/**
+	 * Stably sort the indexes of the first {@code size} elements of the given array by their radix keys.
+	 * 
+	 * @return the indexes of the elements in sorted order
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> int[] sortedIndexes(final Object[] elements, final int size, final RadixKey<? super T> radixKey) {
+		long[] radixKeys = new long[size];
+		int[] indexes = new int[size];
+		final int[][] counts = new int[PASSES][RADIX];
+		for (int i = 0; i < size; i++) {
+			final long key = radixKey.radixKey((T) elements[i]);
+			radixKeys[i] = key;
+			indexes[i] = i;
+			for (int pass = 0; pass < PASSES; pass++) {
+				counts[pass][digit(key, pass)]++;
+			}
+		}
+		long[] radixKeysOut = null;
+		int[] indexesOut = null;
+		for (int pass = 0; pass < PASSES && size > 1; pass++) {
+			final int[] offsets = counts[pass];
+			if (offsets[digit(radixKeys[0], pass)] == size) {
+				// Every element has the same digit, so this pass wouldn't move any
+				continue;
+			}
+			int offset = 0;
+			for (int d = 0; d < RADIX; d++) {
+				final int count = offsets[d];
+				offsets[d] = offset;
+				offset += count;
+			}
+			if (radixKeysOut == null) {
+				radixKeysOut = new long[size];
+				indexesOut = new int[size];
+			}
+			for (int i = 0; i < size; i++) {
+				final int to = offsets[digit(radixKeys[i], pass)]++;
+				radixKeysOut[to] = radixKeys[i];
+				indexesOut[to] = indexes[i];
+			}
+			final long[] swapKeys = radixKeys;
+			radixKeys = radixKeysOut;
+			radixKeysOut = swapKeys;
+			final int[] swapIndexes = indexes;
+			indexes = indexesOut;
+			indexesOut = swapIndexes;
+		}
+		return indexes;
+	}
+
+	/** @return the digit of the given radix key sorted by the given pass, the first pass sorting the least significant digit */
+	private static int digit(final long radixKey, final int pass) {
+		return (int) (radixKey >>> pass * DIGIT_BITS) & RADIX - 1;
+	}
+}
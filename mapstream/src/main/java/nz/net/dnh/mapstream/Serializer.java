@@ -0,0 +1,100 @@
+package nz.net.dnh.mapstream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Writes objects of a type to binary form and reads them back, for operations which hold keys or values outside the heap, e.g.
+ * {@link MapStream#externalSortedKeys(java.util.Comparator, Serializer, Serializer, long)}. An object read back must be equivalent to the
+ * object written, for the purposes of the operation (e.g. compare equal with the same comparator).
+ * 
+ * @param <T>
+ *            the type of the objects
+ */
+public interface Serializer<T> {
+	/** Write the given object to the given output */
+	void write(T object, DataOutput output) throws IOException;
+
+	/** Read an object written by {@link #write(Object, DataOutput)} from the given input */
+	T read(DataInput input) throws IOException;
+
+	/**
+	 * @return a serializer of {@link java.io.Serializable} objects (or null), using Java serialization; each object is written with its
+	 *         own stream header, so this is much larger and slower than a serializer for a specific type
+	 */
+	static <T> Serializer<T> ofSerializable() {
+		return new Serializer<T>() {
+			@Override
+			public void write(final T object, final DataOutput output) throws IOException {
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+					objectOutput.writeObject(object);
+				}
+				output.writeInt(bytes.size());
+				output.write(bytes.toByteArray());
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public T read(final DataInput input) throws IOException {
+				final byte[] bytes = new byte[input.readInt()];
+				input.readFully(bytes);
+				try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+					return (T) objectInput.readObject();
+				} catch (final ClassNotFoundException e) {
+					throw new IOException(e);
+				}
+			}
+		};
+	}
+
+	/** @return a serializer of non-null strings, using modified UTF-8, which limits them to 65535 bytes */
+	static Serializer<String> ofStrings() {
+		return new Serializer<String>() {
+			@Override
+			public void write(final String object, final DataOutput output) throws IOException {
+				output.writeUTF(object);
+			}
+
+			@Override
+			public String read(final DataInput input) throws IOException {
+				return input.readUTF();
+			}
+		};
+	}
+
+	/** @return a serializer of non-null integers */
+	static Serializer<Integer> ofIntegers() {
+		return new Serializer<Integer>() {
+			@Override
+			public void write(final Integer object, final DataOutput output) throws IOException {
+				output.writeInt(object);
+			}
+
+			@Override
+			public Integer read(final DataInput input) throws IOException {
+				return input.readInt();
+			}
+		};
+	}
+
+	/** @return a serializer of non-null longs */
+	static Serializer<Long> ofLongs() {
+		return new Serializer<Long>() {
+			@Override
+			public void write(final Long object, final DataOutput output) throws IOException {
+				output.writeLong(object);
+			}
+
+			@Override
+			public Long read(final DataInput input) throws IOException {
+				return input.readLong();
+			}
+		};
+	}
+}
@@ -0,0 +1,209 @@
+package nz.net.dnh.mapstream;
+
+import static nz.net.dnh.mapstream.MapStreamHelpers.mix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+
+/**
+ * Admits pairs to the memory of a stateful operation until its {@link MemoryBudget} is exhausted, then writes them to temporary files, one
+ * per hash partition of their keys (or values), so that the partitions can be processed one at a time. Pairs with equal keys are in the
+ * same partition, in encounter order.
+ * <p>
+ * The memory retained by the admitted pairs is estimated from the serialized size of every {@value #SAMPLE_INTERVAL}th pair plus a fixed
+ * overhead per pair.
+ */
+final class SpillPartitions<K, V> {
+	static final int PARTITIONS = 32;
+	/** The estimated heap size of an admitted pair beyond its serialized size: its references and object headers */
+	private static final int PAIR_OVERHEAD = 48;
+	private static final int SAMPLE_INTERVAL = 16;
+
+	private final MemoryBudget budget;
+	private final Serializer<Object> serializer;
+	private final boolean byKey;
+	private final CountingOutputStream sampleCounter = new CountingOutputStream();
+	private final DataOutputStream sampleOutput = new DataOutputStream(this.sampleCounter);
+	private long admitted;
+	private int samples;
+	private Path[] files;
+	private DataOutputStream[] outputs;
+	private long[] counts;
+
+	/**
+	 * @param byKey
+	 *            whether to partition the pairs by key; otherwise they are partitioned by value
+	 */
+	SpillPartitions(final MemoryBudget budget, final boolean byKey) {
+		this.budget = budget;
+		this.serializer = budget.serializer();
+		this.byKey = byKey;
+	}
+
+	/** @return the partition of a pair with the given key, or value; uses the high bits of the hash, which hash tables use least */
+	static int partitionOf(final Object keyOrValue) {
+		return mix(Objects.hashCode(keyOrValue)) >>> Integer.numberOfLeadingZeros(PARTITIONS - 1);
+	}
+
+	/**
+	 * Count a pair against the budget and return true if it fits; otherwise, or if earlier pairs have already been spilled, write it to its
+	 * partition and return false
+	 */
+	boolean admit(final K key, final V value) {
+		if (this.outputs == null) {
+			if (this.admitted++ % SAMPLE_INTERVAL == 0) {
+				sample(key, value);
+			}
+			final long estimatedBytes = this.admitted * (this.sampleCounter.count / this.samples + PAIR_OVERHEAD);
+			if (estimatedBytes <= this.budget.bytes()) {
+				return true;
+			}
+			open();
+		}
+		write(key, value);
+		return false;
+	}
+
+	/** @return whether any pairs have been written to partitions */
+	boolean spilled() {
+		return this.outputs != null;
+	}
+
+	/** Close the partition files and count them in the budget; must be called before reading partitions */
+	void finish() {
+		long pairs = 0;
+		long bytes = 0;
+		try {
+			for (int p = 0; p < PARTITIONS; p++) {
+				this.outputs[p].close();
+				pairs += this.counts[p];
+				bytes += Files.size(this.files[p]);
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.budget.recordSpill(pairs, bytes);
+	}
+
+	/** @return a spliterator over the pairs in a partition, in encounter order, which deletes the partition's file once traversed */
+	PairSpliterator<K, V> partition(final int partition) {
+		try {
+			return new PartitionPairSpliterator<>(this.budget, this.files[partition], this.counts[partition]);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void sample(final K key, final V value) {
+		try {
+			this.serializer.write(key, this.sampleOutput);
+			this.serializer.write(value, this.sampleOutput);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.samples++;
+	}
+
+	private void open() {
+		this.files = new Path[PARTITIONS];
+		this.outputs = new DataOutputStream[PARTITIONS];
+		this.counts = new long[PARTITIONS];
+		try {
+			for (int p = 0; p < PARTITIONS; p++) {
+				this.files[p] = this.budget.createSpillFile();
+				this.outputs[p] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.files[p])));
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void write(final K key, final V value) {
+		final int partition = partitionOf(this.byKey ? key : value);
+		try {
+			this.serializer.write(key, this.outputs[partition]);
+			this.serializer.write(value, this.outputs[partition]);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.counts[partition]++;
+	}
+
+	/** An OutputStream which only counts the bytes written to it */
+	private static final class CountingOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(final int b) {
+			this.count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			this.count += len;
+		}
+	}
+
+	/** Reads the pairs of a partition file */
+	private static final class PartitionPairSpliterator<K, V> implements PairSpliterator<K, V> {
+		private final MemoryBudget budget;
+		private final Path file;
+		private final DataInputStream input;
+		private long remaining;
+		private boolean deleted;
+
+		PartitionPairSpliterator(final MemoryBudget budget, final Path file, final long count) throws IOException {
+			this.budget = budget;
+			this.file = file;
+			this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+			this.remaining = count;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			try {
+				if (this.remaining == 0) {
+					if (!this.deleted) {
+						this.deleted = true;
+						this.input.close();
+						this.budget.deleteSpillFile(this.file);
+					}
+					return false;
+				}
+				this.remaining--;
+				final K key = (K) this.budget.serializer().read(this.input);
+				final V value = (V) this.budget.serializer().read(this.input);
+				action.accept(key, value);
+				return true;
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.remaining;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.ORDERED | Spliterator.SIZED;
+		}
+	}
+}
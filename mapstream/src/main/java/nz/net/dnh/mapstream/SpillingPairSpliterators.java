@@ -0,0 +1,200 @@
+package nz.net.dnh.mapstream;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+import nz.net.dnh.mapstream.MapStreamPipeline.FilteringPairSpliterator;
+import nz.net.dnh.mapstream.MapStreamPipeline.PairBuffer;
+
+/**
+ * {@link PairSpliterator PairSpliterators} for the stateful operations of a MapStream with a {@link MemoryBudget}, which keep state in
+ * memory until the budget is exhausted and then spill the remaining pairs to {@link SpillPartitions}, processing one partition at a time
+ * once the upstream spliterator is exhausted. Each partition must fit in memory on its own.
+ */
+final class SpillingPairSpliterators {
+	private SpillingPairSpliterators() {
+	}
+
+	/**
+	 * Drops pairs whose key, or value, was seen earlier. While the budget allows, the keys seen are kept in a set and the first pair for
+	 * each is passed on immediately; afterwards, pairs whose key isn't in the set are spilled, and passed on once the upstream spliterator
+	 * is exhausted if they are the first for their key in their partition. So the first pair for each key is kept, but pairs which were
+	 * spilled follow the others.
+	 */
+	static final class Distinct<K, V> implements PairSpliterator<K, V>, BiConsumer<K, V> {
+		private final PairSpliterator<K, V> upstream;
+		private final boolean keys;
+		private final int characteristics;
+		private final SpillPartitions<K, V> partitions;
+		private ObjHashSet seen = new ObjHashSet(0);
+		private BiConsumer<? super K, ? super V> action;
+		private boolean advanced;
+		/** The distinct pairs of the current partition, once the upstream spliterator is exhausted */
+		private PairSpliterator<K, V> current;
+		private int nextPartition = -1;
+
+		Distinct(final PairSpliterator<K, V> upstream, final MemoryBudget budget, final boolean keys, final int characteristics) {
+			this.upstream = upstream;
+			this.keys = keys;
+			this.characteristics = characteristics;
+			this.partitions = new SpillPartitions<>(budget, keys);
+		}
+
+		@Override
+		public void accept(final K key, final V value) {
+			final Object keyOrValue = this.keys ? key : value;
+			if (!this.seen.contains(keyOrValue) && this.partitions.admit(key, value)) {
+				this.seen.add(keyOrValue);
+				this.advanced = true;
+				this.action.accept(key, value);
+			}
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super V> action) {
+			if (this.nextPartition < 0) {
+				this.action = action;
+				do {
+					this.advanced = false;
+					if (!this.upstream.tryAdvance(this)) {
+						this.seen = null;
+						this.nextPartition = this.partitions.spilled() ? 0 : SpillPartitions.PARTITIONS;
+						if (this.partitions.spilled()) {
+							this.partitions.finish();
+						}
+						break;
+					}
+				} while (!this.advanced);
+				if (this.advanced) {
+					return true;
+				}
+			}
+			while (this.current == null || !this.current.tryAdvance(action)) {
+				if (this.nextPartition == SpillPartitions.PARTITIONS) {
+					return false;
+				}
+				final ObjHashSet partitionSeen = new ObjHashSet(0);
+				final BiPredicate<K, V> distinct = this.keys ? (k, v) -> partitionSeen.add(k) : (k, v) -> partitionSeen.add(v);
+				this.current = new FilteringPairSpliterator<>(this.partitions.partition(this.nextPartition++), () -> distinct, false, 0);
+			}
+			return true;
+		}
+
+		@Override
+		public PairSpliterator<K, V> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return this.upstream.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return this.characteristics;
+		}
+	}
+
+	/**
+	 * Aggregate the values for each key, admitting pairs to an in-memory aggregation until the budget is exhausted and spilling later
+	 * pairs. Unless the aggregates retain every value, only the first pair for each key is counted against the budget, and later pairs
+	 * for keys already in memory are aggregated in memory even once the budget is exhausted, so only pairs with new keys are spilled. Each
+	 * partition is then aggregated separately, and its aggregates are combined with the in-memory aggregates for the same keys, which are
+	 * from earlier pairs. The keys are ordered by partition, then with keys which were aggregated in memory first.
+	 * 
+	 * @param retainsValues
+	 *            whether the aggregates retain every value, as for {@link MapStream#groupByKey()}, so every pair is counted against the
+	 *            budget
+	 */
+	static <K, V, A> PairSpliterator<K, A> aggregate(final PairSpliterator<K, V> upstream, final KeyAggregator<K, V, A> aggregator,
+			final MemoryBudget budget, final boolean retainsValues) {
+		final SpillPartitions<K, V> partitions = new SpillPartitions<>(budget, true);
+		final BiPredicate<K, V> admit;
+		if (retainsValues) {
+			admit = partitions::admit;
+		} else {
+			final ObjHashSet inMemoryKeys = new ObjHashSet(0);
+			admit = (k, v) -> inMemoryKeys.contains(k) || partitions.admit(k, v) && inMemoryKeys.add(k);
+		}
+		final PairSpliterator<K, A> inMemory = aggregator.aggregate(new FilteringPairSpliterator<>(upstream, () -> admit, false, 0),
+				false);
+		if (!partitions.spilled()) {
+			return inMemory;
+		}
+		partitions.finish();
+		return new Aggregate<>(inMemory, partitions, aggregator);
+	}
+
+	/** Combines the aggregates of the spilled partitions with the in-memory aggregates, one partition at a time */
+	private static final class Aggregate<K, V, A> implements PairSpliterator<K, A> {
+		private final SpillPartitions<K, V> partitions;
+		private final KeyAggregator<K, V, A> aggregator;
+		/** The in-memory aggregates, grouped by partition */
+		private final List<List<Object>> inMemoryKeys = new ArrayList<>(SpillPartitions.PARTITIONS);
+		private final List<List<A>> inMemoryAggregates = new ArrayList<>(SpillPartitions.PARTITIONS);
+		private PairSpliterator<K, A> current;
+		private int nextPartition;
+
+		Aggregate(final PairSpliterator<K, A> inMemory, final SpillPartitions<K, V> partitions, final KeyAggregator<K, V, A> aggregator) {
+			this.partitions = partitions;
+			this.aggregator = aggregator;
+			for (int p = 0; p < SpillPartitions.PARTITIONS; p++) {
+				this.inMemoryKeys.add(new ArrayList<>());
+				this.inMemoryAggregates.add(new ArrayList<>());
+			}
+			inMemory.forEachRemaining((k, a) -> {
+				final int partition = SpillPartitions.partitionOf(k);
+				this.inMemoryKeys.get(partition).add(k);
+				this.inMemoryAggregates.get(partition).add(a);
+			});
+		}
+
+		@Override
+		public boolean tryAdvance(final BiConsumer<? super K, ? super A> action) {
+			while (this.current == null || !this.current.tryAdvance(action)) {
+				if (this.nextPartition == SpillPartitions.PARTITIONS) {
+					return false;
+				}
+				this.current = combinePartition(this.nextPartition++);
+			}
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		private PairSpliterator<K, A> combinePartition(final int partition) {
+			final Map<Object, A> spilled = new LinkedHashMap<>();
+			this.aggregator.aggregate(this.partitions.partition(partition), false).forEachRemaining(spilled::put);
+			final List<Object> keys = this.inMemoryKeys.set(partition, null);
+			final List<A> aggregates = this.inMemoryAggregates.set(partition, null);
+			final PairBuffer<K, A> buffer = new PairBuffer<>();
+			for (int i = 0; i < keys.size(); i++) {
+				final Object key = keys.get(i);
+				final A aggregate = aggregates.get(i);
+				buffer.accept((K) key, spilled.containsKey(key) ? this.aggregator.combine(aggregate, spilled.remove(key)) : aggregate);
+			}
+			spilled.forEach((k, a) -> buffer.accept((K) k, a));
+			return buffer.spliterator(0);
+		}
+
+		@Override
+		public PairSpliterator<K, A> trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return Spliterator.DISTINCT;
+		}
+	}
+}
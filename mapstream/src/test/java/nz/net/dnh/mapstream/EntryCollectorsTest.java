@@ -0,0 +1,123 @@
+package nz.net.dnh.mapstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collector.Characteristics;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class EntryCollectorsTest {
+	private static final Map<Integer, String> MAP = ImmutableMap.of(1, "2", 3, "4", 5, "6", 7, "8");
+
+	@Test
+	public void toMapWithNoArgumentsReturnsSimpleMapCollector() {
+		assertEquals(MAP, MAP.entrySet().stream().collect(EntryCollectors.toMap()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void toMapWithNoArgumentsFailsWithDuplicateKeys() {
+		Stream.concat(MAP.entrySet().stream(), Stream.of(new SimpleEntry<>(1, "new"))).collect(EntryCollectors.toMap());
+	}
+
+	@Test
+	public void toMapWithMergeFunctionCollectsSimpleMap() {
+		assertEquals(MAP, MAP.entrySet().stream().collect(EntryCollectors.toMap((s1, s2) -> s1 + s2)));
+	}
+
+	@Test
+	public void toMapWithMergeFunctionCollectsDuplicateKeys() {
+		final Map<Integer, String> collectedMap = Stream.concat(MAP.entrySet().stream(), Stream.of(new SimpleEntry<>(1, "new"))).collect(
+				EntryCollectors.toMap((s1, s2) -> s1 + s2));
+		assertEquals(ImmutableMap.of(1, "2new", 3, "4", 5, "6", 7, "8"), collectedMap);
+	}
+
+	@Test
+	public void toMapWithMergeFunctionAndSupplierReturnsTypedMap() {
+		final TreeMap<Integer, String> collectedMap = Stream.concat(MAP.entrySet().stream(), Stream.of(new SimpleEntry<>(1, "new")))
+				.collect(
+						EntryCollectors.toMap((s1, s2) -> s1 + s2, TreeMap::new));
+		assertEquals(ImmutableMap.of(1, "2new", 3, "4", 5, "6", 7, "8"), collectedMap);
+	}
+
+	@Test
+	public void toMapWithExpectedSizeCollectsSimpleMap() {
+		assertEquals(MAP, MAP.entrySet().stream().collect(EntryCollectors.toMapWithExpectedSize(4)));
+		assertEquals(MAP, MAP.entrySet().stream().collect(EntryCollectors.toMapWithExpectedSize((s1, s2) -> s1 + s2, 0)));
+	}
+
+	@Test
+	public void toConcurrentMapIsConcurrentAndUnordered() {
+		assertEquals(EnumSet.of(Characteristics.CONCURRENT, Characteristics.UNORDERED, Characteristics.IDENTITY_FINISH), EntryCollectors
+				.toConcurrentMap().characteristics());
+		assertEquals(MAP, MAP.entrySet().stream().collect(EntryCollectors.toConcurrentMap()));
+		assertEquals(MAP, MAP.entrySet().stream().collect(EntryCollectors.toConcurrentMapWithExpectedSize(4)));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void toConcurrentMapFailsWithDuplicateKeys() {
+		Stream.concat(MAP.entrySet().stream(), Stream.of(new SimpleEntry<>(1, "new"))).collect(EntryCollectors.toConcurrentMap());
+	}
+
+	@Test
+	public void toConcurrentMapWithMergeFunctionCollectsDuplicateKeysInParallel() {
+		final ConcurrentMap<Integer, Integer> collectedMap = IntStream.range(0, 10_000).parallel().mapToObj(i -> new SimpleEntry<>(i % 10,
+				1)).collect(EntryCollectors.toConcurrentMapWithExpectedSize(Integer::sum, 10));
+		assertEquals(10, collectedMap.size());
+		assertEquals(1_000, (int) collectedMap.get(3));
+	}
+
+	@Test
+	public void toConcurrentMapWithMergeFunctionAndSupplierReturnsTypedMap() {
+		final ConcurrentSkipListMap<Integer, String> collectedMap = Stream.concat(MAP.entrySet().stream(), Stream.of(new SimpleEntry<>(1,
+				"new"))).collect(EntryCollectors.toConcurrentMap((s1, s2) -> s1 + s2, ConcurrentSkipListMap::new));
+		assertEquals(ImmutableMap.of(1, "2new", 3, "4", 5, "6", 7, "8"), collectedMap);
+	}
+
+	@Test
+	public void toCompactMapCollectsImmutableMapInEncounterOrder() {
+		final Map<Integer, String> collectedMap = MAP.entrySet().stream().collect(EntryCollectors.toCompactMap());
+		assertEquals(MAP, collectedMap);
+		assertEquals(MAP.hashCode(), collectedMap.hashCode());
+		assertEquals(Lists.newArrayList(MAP.keySet()), Lists.newArrayList(collectedMap.keySet()));
+		assertEquals("6", collectedMap.get(5));
+		assertNull(collectedMap.get(2));
+		assertFalse(collectedMap.containsKey(null));
+		assertTrue(collectedMap.entrySet().contains(new SimpleEntry<>(3, "4")));
+		assertFalse(collectedMap.entrySet().contains(new SimpleEntry<>(3, "5")));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void toCompactMapIsImmutable() {
+		MAP.entrySet().stream().collect(EntryCollectors.toCompactMap()).put(9, "10");
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void toCompactMapFailsWithDuplicateKeys() {
+		Stream.concat(MAP.entrySet().stream(), Stream.of(new SimpleEntry<>(1, "new"))).collect(EntryCollectors.toCompactMap());
+	}
+
+	@Test
+	public void toCompactMapWithMergeFunctionCollectsDuplicateAndNullKeysInParallel() {
+		final Map<Integer, Integer> collectedMap = IntStream.range(0, 100_000).parallel().mapToObj(i -> new SimpleEntry<>(i % 10_000 == 0
+				? null : i % 10_000, 1)).collect(EntryCollectors.toCompactMap(Integer::sum));
+		assertEquals(10_000, collectedMap.size());
+		assertEquals(10, (int) collectedMap.get(null));
+		assertEquals(10, (int) collectedMap.get(9_999));
+		assertEquals(10_000, MapStream.of(collectedMap).parallel().filterValues(v -> v == 10).count());
+		assertEquals(collectedMap, MapStream.of(collectedMap).parallel().collect(EntryCollectors.toMap()));
+	}
+}
@@ -0,0 +1,1275 @@
+package nz.net.dnh.mapstream;
+
+import static java.util.stream.Collectors.toList;
+import static nz.net.dnh.mapstream.EntryCollectors.toMap;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.theInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import nz.net.dnh.mapstream.MapStream.CloseableMapStream;
+
+import org.hamcrest.FeatureMatcher;
+import org.hamcrest.Matcher;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MapStreamTest {
+	private static final Map<String, Integer> MAP = ImmutableMap.of("key1", 1, "key2", 2, "key3", 3);
+
+	@Mock
+	private Map<String, Object> mockMap;
+	@Mock
+	private Set<Entry<String, Object>> mockEntrySet;
+	@Mock
+	private Stream<Entry<String, Object>> mockEntryStream;
+	@Mock
+	private Collector<Entry<String, Object>, ?, Integer> collector;
+
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+
+	@Before
+	public void setup() {
+		when(this.mockMap.entrySet()).thenReturn(this.mockEntrySet);
+		when(this.mockEntrySet.stream()).thenReturn(this.mockEntryStream);
+	}
+
+	@Test
+	public void entryStreamReturnsStreamOfMapEntries() {
+		assertThat(MapStream.of(this.mockMap), hasEntryStream(theInstance(this.mockEntryStream)));
+	}
+
+	@Test
+	public void mapStreamOfStreamWithKeyAndValueFunctions() {
+		assertThat(MapStream.of(Stream.of(1, 2, 3, 4), String::valueOf, Function.identity()).collect(toList()),
+				contains(entries("1", 1, "2", 2, "3", 3, "4", 4)));
+	}
+
+	@Test
+	public void mapStreamOfStreamWithEntryFunction() {
+		assertThat(MapStream.of(Stream.of(1, 2, 3, 4), i -> new SimpleImmutableEntry<>(i.toString(), i)).collect(toList()),
+				contains(entries("1", 1, "2", 2, "3", 3, "4", 4)));
+	}
+
+	@Test
+	public void keyStreamReturnsStreamOfMapKeys() {
+		assertThat(MapStream.of(MAP).keyStream().collect(toList()), is(listOf(MAP.keySet())));
+	}
+
+	@Test
+	public void valueStreamReturnsStreamOfMapValues() {
+		assertThat(MapStream.of(MAP).valueStream().collect(toList()), is(listOf(MAP.values())));
+	}
+
+	@Test
+	public void collectPassesCollectorToEntryStream() {
+		when(this.mockEntryStream.collect(this.collector)).thenReturn(7);
+		assertEquals(7, (int) MapStream.of(this.mockMap).collect(this.collector));
+	}
+
+	@Test
+	public void filterFiltersByKeyAndValue() {
+		assertThat(MapStream.of(MAP).filter((k, v) -> k.equals("key1") && v.equals(1)).collect(toMap()),
+				is(Collections.singletonMap("key1", 1)));
+	}
+
+	@Test
+	public void filterKeysFiltersByKey() {
+		assertThat(MapStream.of(MAP).filterKeys("key2"::equals).collect(toMap()), is(Collections.singletonMap("key2", 2)));
+	}
+
+	@Test
+	public void filterValuesFiltersByValue() {
+		assertThat(MapStream.of(MAP).filterValues(v -> v == 3).collect(toMap()), is(Collections.singletonMap("key3", 3)));
+	}
+
+	@Test
+	public void mapMapsKeysAndValuesToSingleStream() {
+		assertThat(MapStream.of(MAP).map((k, v) -> k + "=" + v).collect(toList()), contains("key1=1", "key2=2", "key3=3"));
+	}
+
+	@Test
+	public void mapKeysMapsKeysToMapStreamWithNewKeys() {
+		assertThat(MapStream.of(MAP).mapKeys(s -> s.charAt(3)).collect(toList()), contains(entries('1', 1, '2', 2, '3', 3)));
+	}
+
+	@Test
+	public void mapKeysMapsKeysAndValuesToMapStreamWithNewKeys() {
+		assertThat(MapStream.of(MAP).mapKeys((k, v) -> k + "=" + v).collect(toList()),
+				contains(entries("key1=1", 1, "key2=2", 2, "key3=3", 3)));
+	}
+
+	@Test
+	public void mapValuesMapsValuesToMapStreamWithNewValues() {
+		assertThat(MapStream.of(MAP).mapValues(v -> v * 2).collect(toList()), contains(entries("key1", 2, "key2", 4, "key3", 6)));
+	}
+
+	@Test
+	public void mapValuesMapsKeysAndValuesToMapStreamWithNewValues() {
+		assertThat(MapStream.of(MAP).mapValues((k, v) -> v + k.length()).collect(toList()),
+				contains(entries("key1", 5, "key2", 6, "key3", 7)));
+	}
+
+	@Test
+	public void mapWithKeyAndValueFunctionsReturnsMapStreamWithNewKeysAndValues() {
+		assertThat(MapStream.of(MAP).map(k -> k.toUpperCase(), v -> v * 2).collect(toList()),
+				contains(entries("KEY1", 2, "KEY2", 4, "KEY3", 6)));
+	}
+
+	@Test
+	public void mapWithKeyAndValueBiFunctionsReturnsMapStreamWithNewKeysAndValues() {
+		assertThat(MapStream.of(MAP).map((k, v) -> v, (k, v) -> k).collect(toList()), contains(entries(1, "key1", 2, "key2", 3, "key3")));
+	}
+
+	@Test
+	public void distinctReturnsMapStreamOfDistinctEntries() {
+		final MapStream<String, Integer> stream = () -> Stream.concat(MAP.entrySet().stream(),
+				Stream.of(new SimpleEntry<>("key2", 2), new SimpleEntry<>("key2", 4), new SimpleEntry<>("key4", 2)));
+
+		assertThat(stream.distinct().collect(toList()), contains(entries("key1", 1, "key2", 2, "key3", 3, "key2", 4, "key4", 2)));
+	}
+
+	@Test
+	public void distinctKeysReturnsMapStreamOfDistinctKeys() {
+		final MapStream<String, Integer> stream = () -> Stream.concat(MAP.entrySet().stream(),
+				Stream.of(new SimpleEntry<>("key2", 2), new SimpleEntry<>("key2", 4), new SimpleEntry<>("key4", 2)));
+
+		assertThat(stream.distinctKeys().collect(toList()), contains(entries("key1", 1, "key2", 2, "key3", 3, "key4", 2)));
+	}
+
+	@Test
+	public void distinctValuesReturnsMapStreamOfDistinctValues() {
+		final MapStream<String, Integer> stream = () -> Stream.concat(MAP.entrySet().stream(),
+				Stream.of(new SimpleEntry<>("key2", 2), new SimpleEntry<>("key2", 4), new SimpleEntry<>("key4", 2)));
+
+		assertThat(stream.distinctValues().collect(toList()), contains(entries("key1", 1, "key2", 2, "key3", 3, "key2", 4)));
+	}
+
+	@Test
+	public void sortedKeysReturnsMapStreamInNaturalOrder() {
+		assertThat(MapStream.of(ImmutableMap.of(5, "foo", 4, "bar", 3, "baz")).sortedKeys().collect(toList()),
+				contains(entries(3, "baz", 4, "bar", 5, "foo")));
+	}
+
+	@Test
+	public void sortedKeysThrowsExceptionOnTerminalOpForNonComparableKeys() {
+		final MapStream<NotComparable<Integer>, String> stream = MapStream.of(ImmutableMap.of(new NotComparable<>(5), "foo",
+				new NotComparable<>(4), "bar", new NotComparable<>(3), "baz")).sortedKeys();
+
+		this.expectedException.expect(Exception.class);
+
+		stream.collect(toList());
+	}
+
+	@Test
+	public void sortedKeysWithComparatorReturnsMapStreamInComparatorOrder() {
+		final MapStream<NotComparable<Integer>, String> stream = MapStream.of(ImmutableMap.of(new NotComparable<>(5), "foo",
+				new NotComparable<>(4), "bar", new NotComparable<>(3), "baz")).sortedKeys(NotComparable.comparator());
+
+		assertThat(
+				stream.collect(toList()),
+				contains(entries(new NotComparable<Integer>(3), "baz",
+						new NotComparable<Integer>(4), "bar",
+						new NotComparable<Integer>(5), "foo"
+				)));
+	}
+
+	@Test
+	public void sortedValuesReturnsMapStreamInNaturalOrder() {
+		assertThat(MapStream.of(ImmutableMap.of(5, "foo", 4, "bar", 3, "baz")).sortedValues().collect(toList()),
+				contains(entries(4, "bar", 3, "baz", 5, "foo")));
+	}
+
+	@Test
+	public void sortedValuesThrowsExceptionOnTerminalOpForNonComparableValues() {
+		final MapStream<Integer, NotComparable<String>> stream = MapStream.of(
+				ImmutableMap.of(5, new NotComparable<>("foo"), 4, new NotComparable<>("bar"), 3, new NotComparable<>("baz")))
+				.sortedValues();
+
+		this.expectedException.expect(Exception.class);
+
+		stream.collect(toList());
+	}
+
+	@Test
+	public void sortedValuesWithComparatorReturnsMapStreamInComparatorOrder() {
+		final MapStream<Integer, NotComparable<String>> stream = MapStream.of(
+				ImmutableMap.of(5, new NotComparable<>("foo"), 4, new NotComparable<>("bar"), 3, new NotComparable<>("baz")))
+				.sortedValues(NotComparable.comparator());
+
+		assertThat(stream.collect(toList()),
+				contains(entries(4, new NotComparable<>("bar"), 3, new NotComparable<>("baz"), 5, new NotComparable<>("foo"))));
+	}
+
+	@Test
+	public void peekPassesKeysAndValuesToBiConsumerOnTerminalOp() {
+		final Map<String, Integer> seenEntries = new LinkedHashMap<>();
+		final MapStream<String, Integer> stream = MapStream.of(MAP).peek(seenEntries::put);
+
+		assertThat(seenEntries, is(emptyMap()));
+
+		assertEquals(MAP.size(), stream.count());
+		assertThat(seenEntries, is(MAP));
+	}
+
+	@Test
+	public void peekKeysPassesKeysToConsumerOnTerminalOp() {
+		final List<String> seenKeys = new ArrayList<>();
+		final MapStream<String, Integer> stream = MapStream.of(MAP).peekKeys(seenKeys::add);
+
+		assertThat(seenKeys, is(empty()));
+
+		assertEquals(MAP.size(), stream.count());
+		assertThat(seenKeys, contains("key1", "key2", "key3"));
+	}
+
+	@Test
+	public void peekValuesPassesKeysToConsumerOnTerminalOp() {
+		final List<Integer> seenValues = new ArrayList<>();
+		final MapStream<String, Integer> stream = MapStream.of(MAP).peekValues(seenValues::add);
+
+		assertThat(seenValues, is(empty()));
+
+		assertEquals(MAP.size(), stream.count());
+		assertThat(seenValues, contains(1, 2, 3));
+	}
+
+	@Test
+	public void limitReturnsLimitedMapStream() {
+		assertThat(MapStream.of(MAP).limit(2).collect(toList()), contains(entries("key1", 1, "key2", 2)));
+	}
+
+	@Test
+	public void skipReturnsMapStreamSkippingNEntries() {
+		assertThat(MapStream.of(MAP).skip(2).collect(toList()), contains(entries("key3", 3)));
+	}
+
+	@Test
+	public void forEachPassesKeysAndValuesToBiConsumer() {
+		final Map<String, Integer> seenEntries = new LinkedHashMap<>();
+		MapStream.of(MAP).forEach(seenEntries::put);
+
+		assertThat(seenEntries, is(MAP));
+	}
+
+	@Test
+	public void forEachOrderedPassesKeysAndValuesToBiConsumer() {
+		final Map<String, Integer> seenEntries = new LinkedHashMap<>();
+		MapStream.of(MAP).forEachOrdered(seenEntries::put);
+
+		assertThat(seenEntries, is(MAP));
+	}
+
+	@Test
+	public void anyMatchReturnsTrueIfAnyItemsMatch() {
+		assertTrue(MapStream.of(MAP).anyMatch((k, v) -> v.equals(2)));
+	}
+
+	@Test
+	public void anyMatchReturnsFalseIfNoItemsMatch() {
+		assertFalse(MapStream.of(MAP).anyMatch((k, v) -> v.equals(4)));
+	}
+
+	@Test
+	public void allMatchReturnsTrueIfAllItemsMatch() {
+		assertTrue(MapStream.of(MAP).allMatch((k, v) -> Integer.valueOf(k.substring(3)).equals(v)));
+	}
+
+	@Test
+	public void allMatchReturnsFalseIfAnyItemsDontMatch() {
+		assertFalse(MapStream.of(MAP).allMatch((k, v) -> v < 3));
+	}
+
+	@Test
+	public void noneMatchReturnsTrueIfNoItemsMatch() {
+		assertTrue(MapStream.of(MAP).noneMatch((k, v) -> v < 0));
+	}
+
+	@Test
+	public void noneMatchReturnsFalseIfAnyItemsMatch() {
+		assertFalse(MapStream.of(MAP).noneMatch((k, v) -> k.equals("key1")));
+	}
+
+	@Test
+	public void parallelReturnsParallelMapStream() {
+		assertTrue(MapStream.of(MAP).parallel().isParallel());
+		assertTrue(MapStream.of(MAP).sequential().parallel().isParallel());
+	}
+
+	@Test
+	public void sequentialReturnsNonParallelMapStream() {
+		assertFalse(MapStream.of(MAP).sequential().isParallel());
+		assertFalse(MapStream.of(MAP).parallel().sequential().isParallel());
+	}
+
+	@Test
+	public void onCloseCalledOnClose() {
+		final AtomicInteger closeCalled = new AtomicInteger();
+		final MapStream<String, Integer> stream = MapStream.of(MAP).onClose(closeCalled::incrementAndGet);
+		assertEquals(0, closeCalled.get());
+		stream.close();
+		assertEquals(1, closeCalled.get());
+	}
+
+	@Test
+	public void autoCloseableMapStreamTryWithResources() {
+		final AtomicInteger closeCalled = new AtomicInteger();
+		try (CloseableMapStream<String, Integer> mapStream = MapStream.of(MAP).onClose(closeCalled::incrementAndGet).autoCloseable()) {
+			assertEquals(0, closeCalled.get());
+		}
+		assertEquals(1, closeCalled.get());
+	}
+
+	@Test
+	public void autoCloseableMapStreamTryWithResourcesDoesNotCallOnCloseHandlersAddedAfterAutoCloseableCall() {
+		final AtomicInteger closeCalled = new AtomicInteger();
+		try (CloseableMapStream<String, Integer> mapStream = MapStream.of(MAP).autoCloseable()) {
+			mapStream.onClose(closeCalled::incrementAndGet);
+			assertEquals(0, closeCalled.get());
+		}
+		assertEquals(0, closeCalled.get());
+	}
+
+	@Test
+	public void unorderedReturnsMapStreamWithUnorderedEntryStream() {
+		when(this.mockEntryStream.unordered()).thenReturn(this.mockEntryStream);
+
+		assertThat(MapStream.of(this.mockMap).unordered(), hasEntryStream(theInstance(this.mockEntryStream)));
+
+		verify(this.mockEntryStream).unordered();
+	}
+
+	@Test
+	public void forEachOnMapDoesNotCreateEntryStream() {
+		when(this.mockEntrySet.spliterator()).thenReturn(Spliterators.emptySpliterator());
+
+		MapStream.of(this.mockMap).mapValues(v -> String.valueOf(v)).filterKeys("key1"::equals).forEach((k, v) -> {});
+
+		verify(this.mockEntrySet, never()).stream();
+	}
+
+	@Test
+	public void chainedStagesArePushedThroughToForEach() {
+		final Map<String, String> seenEntries = new LinkedHashMap<>();
+		MapStream.of(MAP).mapValues(v -> v * 2).filterValues(v -> v > 2).mapKeys((k, v) -> k + "=" + v).map(k -> k, String::valueOf)
+				.forEach(seenEntries::put);
+
+		assertThat(seenEntries, is(ImmutableMap.of("key2=4", "4", "key3=6", "6")));
+	}
+
+	@Test
+	public void chainedStagesCreateEntriesForEntryStream() {
+		assertThat(MapStream.of(MAP).mapValues(v -> v * 2).filterKeys(k -> !k.equals("key2")).mapKeys(String::length).entryStream()
+				.collect(toList()), contains(entries(4, 2, 4, 6)));
+	}
+
+	@Test
+	public void stagesAfterStatefulOperationAreApplied() {
+		assertThat(MapStream.of(ImmutableMap.of(5, "foo", 4, "bar", 3, "baz")).mapValues(String::length).sortedKeys()
+				.mapValues((k, v) -> k + v).skip(1).collect(toList()), contains(entries(4, 7, 5, 8)));
+	}
+
+	@Test
+	public void parallelTerminalOperationsSplitSource() {
+		final Map<Integer, Integer> map = new HashMap<>();
+		for (int i = 0; i < 10_000; i++) {
+			map.put(i, i * 2);
+		}
+		final MapStream<Integer, Integer> stream = MapStream.of(map).parallel().filterKeys(k -> k % 2 == 0).mapValues(v -> v + 1);
+		final Set<Integer> seenKeys = ConcurrentHashMap.newKeySet();
+		stream.forEach((k, v) -> seenKeys.add(k));
+
+		assertEquals(5_000, seenKeys.size());
+		assertEquals(5_000, stream.count());
+		assertTrue(stream.anyMatch((k, v) -> v == 9_997));
+		assertFalse(stream.anyMatch((k, v) -> v % 2 == 0));
+		assertTrue(stream.allMatch((k, v) -> v == k * 2 + 1));
+		assertTrue(stream.noneMatch((k, v) -> k % 2 == 1));
+	}
+
+	@Test
+	public void mapStreamOfStreamClosesStreamOnClose() {
+		final AtomicInteger closeCalled = new AtomicInteger();
+		final MapStream<String, Integer> stream = MapStream.of(Stream.of(1, 2).onClose(closeCalled::incrementAndGet), String::valueOf,
+				Function.identity()).mapValues(v -> v * 2);
+		stream.close();
+		assertEquals(1, closeCalled.get());
+	}
+
+	@Test
+	public void distinctKeysOnPipelineKeepsFirstPairForEachKey() {
+		final MapStream<String, Integer> stream = MapStream.of(ImmutableMap.of("a", 1, "bb", 2, "c", 3, "dd", 4, "eee", 5)).mapKeys(
+				k -> k.length() == 3 ? null : k.substring(0, 1).replace('c', 'a').replace('d', 'b'));
+
+		assertThat(stream.distinctKeys().collect(toList()), contains(entries("a", 1, "b", 2, null, 5)));
+		assertThat(stream.distinctValues().filterValues(v -> v > 2).collect(toList()), contains(entries("a", 3, "b", 4, null, 5)));
+	}
+
+	@Test
+	public void distinctKeysOnSortedKeysHandlesComparatorInconsistentWithEquals() {
+		final MapStream<String, Integer> stream = MapStream.of(Stream.of("b", "A", "a", "B", "a", "b"), Function.identity(), String::length)
+				.mapValues((k, v) -> k.hashCode());
+
+		assertThat(stream.sortedKeys(String.CASE_INSENSITIVE_ORDER).distinctKeys().keyStream().collect(toList()), contains("A", "a", "b",
+				"B"));
+	}
+
+	@Test
+	public void distinctKeysOnSortedMapPassesPairsThrough() {
+		final TreeMap<String, Integer> map = new TreeMap<>(ImmutableMap.of("b", 2, "a", 1));
+
+		assertThat(MapStream.of(map).distinctKeys().collect(toList()), contains(entries("a", 1, "b", 2)));
+	}
+
+	@Test
+	public void parallelDistinctKeysAndValues() {
+		final Map<Integer, Integer> map = new HashMap<>();
+		for (int i = 0; i < 10_000; i++) {
+			map.put(i, i % 7);
+		}
+
+		assertEquals(100, MapStream.of(map).parallel().mapKeys(k -> k % 100).distinctKeys().count());
+		assertEquals(7, MapStream.of(map).parallel().distinctValues().count());
+		assertEquals(7, MapStream.of(map).parallel().distinctValues().collect(toList()).size());
+	}
+
+	@Test
+	public void parallelDistinctKeysOnOrderedStreamKeepsFirstPairInEncounterOrder() {
+		final List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) {
+			list.add(i);
+		}
+		final Supplier<MapStream<Integer, Integer>> stream = () -> MapStream.of(list.parallelStream(), i -> i % 1_000, Function.identity());
+
+		assertEquals(list.subList(0, 1_000), stream.get().distinctKeys().valueStream().collect(toList()));
+		assertEquals(list.subList(0, 1_000), stream.get().mapValues(v -> v % 1_000).distinctValues().keyStream().collect(toList()));
+		assertTrue(stream.get().distinctKeys().allMatch((k, v) -> k.equals(v)));
+	}
+
+	@Test
+	public void parallelDistinctKeysOnUnorderedStreamKeepsOnePairPerKey() {
+		final Set<Integer> seenKeys = ConcurrentHashMap.newKeySet();
+		MapStream.of(Stream.iterate(0, i -> i + 1).limit(100_000).parallel(), i -> i % 1_000, Function.identity()).unordered()
+				.distinctKeys().forEach((k, v) -> assertTrue(seenKeys.add(k)));
+
+		assertEquals(1_000, seenKeys.size());
+	}
+
+	@Test
+	public void topAndBottomReturnFirstEntriesInOrderWithTiesInEncounterOrder() {
+		final MapStream<String, Integer> stream = MapStream.of(ImmutableMap.of("a", 3, "b", 1, "c", 3, "d", 2, "e", 1));
+
+		assertThat(stream.topByValue(2, Comparator.naturalOrder()).collect(toList()), contains(entries("a", 3, "c", 3)));
+		assertThat(stream.bottomByValue(3, Comparator.naturalOrder()).collect(toList()), contains(entries("b", 1, "e", 1, "d", 2)));
+		assertThat(stream.topByKey(2, Comparator.naturalOrder()).collect(toList()), contains(entries("e", 1, "d", 2)));
+		assertThat(stream.sortedValues().limit(0).collect(toList()), is(empty()));
+		assertThat(stream.sortedValues().limit(10).keyStream().collect(toList()), contains("b", "e", "d", "a", "c"));
+	}
+
+	@Test
+	public void parallelTopByValueMatchesSortAndLimit() {
+		final List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) {
+			list.add(i);
+		}
+		final Supplier<MapStream<Integer, Integer>> stream = () -> MapStream.of(list.parallelStream(), Function.identity(), i -> i * 7 % 1_000);
+		final List<Entry<Integer, Integer>> expected = list.stream().map(i -> new SimpleImmutableEntry<>(i, i * 7 % 1_000))
+				.sorted(Entry.<Integer, Integer> comparingByValue().reversed()).limit(250).collect(toList());
+
+		assertEquals(expected, stream.get().topByValue(250, Comparator.naturalOrder()).collect(toList()));
+		assertEquals(expected, stream.get().sortedValues(Comparator.reverseOrder()).limit(250).collect(toList()));
+		assertEquals(250, stream.get().topByValue(250, Comparator.naturalOrder()).mapValues(v -> v + 1).count());
+	}
+
+	@Test
+	public void reduceByKeyKeepsKeysInOrderOfFirstOccurrence() {
+		final MapStream<String, Integer> stream = MapStream.of(Stream.of("b1", "a2", "b3", "x4", "a5"), s -> s.startsWith("x") ? null : s
+				.substring(0, 1), s -> Integer.valueOf(s.substring(1)));
+
+		assertThat(stream.reduceByKey(Integer::sum).collect(toList()), contains(entries("b", 4, "a", 7, null, 4)));
+	}
+
+	@Test
+	public void groupAndAggregateByKey() {
+		final Supplier<MapStream<Integer, String>> stream = () -> MapStream.of(Stream.of("a", "bb", "c", "dd", "eee"), String::length,
+				Function.identity());
+
+		assertThat(stream.get().groupByKey().collect(toList()), contains(entries(1, Arrays.asList("a", "c"), 2, Arrays.asList("bb", "dd"),
+				3, Arrays.asList("eee"))));
+		assertThat(stream.get().aggregateByKey(StringBuilder::new, StringBuilder::append, StringBuilder::append).mapValues(
+				StringBuilder::toString).collect(toList()), contains(entries(1, "ac", 2, "bbdd", 3, "eee")));
+	}
+
+	@Test
+	public void defaultReduceAndGroupByKeyCollectEntryStream() {
+		final MapStream<String, Integer> stream = () -> Stream.of(new SimpleImmutableEntry<>("a", 1), new SimpleImmutableEntry<>("b", 2),
+				new SimpleImmutableEntry<>("a", 3));
+
+		assertThat(stream.reduceByKey(Integer::sum).collect(toList()), contains(entries("a", 4, "b", 2)));
+		assertThat(stream.groupByKey().collect(toList()), contains(entries("a", Arrays.asList(1, 3), "b", Arrays.asList(2))));
+	}
+
+	@Test
+	public void parallelReduceAndGroupByKeyMatchSequentialResults() {
+		final List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 100_000; i++) {
+			list.add(i);
+		}
+		final Supplier<MapStream<Integer, Integer>> stream = () -> MapStream.of(list.parallelStream(), i -> i % 1_000, Function.identity());
+
+		final Map<Integer, Integer> sums = stream.get().reduceByKey(Integer::sum).collect(toMap());
+		assertEquals(1_000, sums.size());
+		assertEquals(list.stream().filter(i -> i % 1_000 == 7).mapToInt(i -> i).sum(), (int) sums.get(7));
+		final Map<Integer, List<Integer>> groups = stream.get().groupByKey().collect(toMap());
+		assertEquals(list.stream().filter(i -> i % 1_000 == 999).collect(toList()), groups.get(999));
+		assertEquals(1_000, stream.get().groupByKey().parallel().count());
+	}
+
+	@Test
+	public void knownSizeIsPassedToPresizableCollectors() {
+		final MapStream<String, Integer> stream = MapStream.of(MAP).mapValues(v -> v * 2).peek((k, v) -> {});
+
+		assertEquals(3, ((MapStreamPipeline<String, Integer>) stream).knownSize());
+		assertEquals(-1, ((MapStreamPipeline<String, Integer>) stream.filterValues(v -> v > 2)).knownSize());
+		assertEquals(ImmutableMap.of("key1", 2, "key2", 4, "key3", 6), stream.collect(toMap()));
+		assertEquals(ImmutableMap.of("key1", 2, "key2", 4, "key3", 6), stream.parallel().collect(EntryCollectors.toConcurrentMap()));
+	}
+
+	@Test
+	public void pipelineMetadataIsKnownWithoutEvaluation() {
+		final AtomicInteger mapped = new AtomicInteger();
+		final AtomicInteger peeked = new AtomicInteger();
+		final TreeMap<Integer, Integer> map = new TreeMap<>(Comparator.reverseOrder());
+		for (int i = 0; i < 100; i++) {
+			map.put(i, i);
+		}
+
+		final MapStream<Integer, Integer> mappedValues = MapStream.of(map).mapValues(v -> mapped.incrementAndGet()).sortedValues().limit(
+				10);
+		assertEquals(10, mappedValues.count());
+		assertEquals(0, mapped.get());
+		assertEquals(50, MapStream.of(map).peek((k, v) -> peeked.incrementAndGet()).parallel().skip(50).sortedKeys().count());
+		assertEquals(100, peeked.get());
+
+		final MapStreamPipeline<Integer, Integer> sorted = (MapStreamPipeline<Integer, Integer>) MapStream.of(map).filterValues(v -> v > 5)
+				.limit(3);
+		assertEquals(Spliterator.SORTED | Spliterator.DISTINCT, sorted.knownKeyCharacteristics());
+		assertEquals(Comparator.reverseOrder(), sorted.knownComparator());
+		assertEquals(Spliterator.DISTINCT, ((MapStreamPipeline<Integer, Integer>) sorted.unordered()).knownKeyCharacteristics());
+		assertEquals(0, ((MapStreamPipeline<Integer, Integer>) sorted.mapKeys(k -> k / 2)).knownKeyCharacteristics());
+		assertEquals(Spliterator.DISTINCT, ((MapStreamPipeline<Integer, Integer>) sorted.mapKeys(k -> k / 2).reduceByKey(Integer::sum))
+				.knownKeyCharacteristics());
+		assertEquals(Arrays.asList(99, 98, 97), sorted.keyStream().collect(toList()));
+	}
+
+	@Test
+	public void sortedKeysIsSkippedWhenKeysAreAlreadySorted() {
+		final TreeMap<String, Integer> map = new TreeMap<>(ImmutableMap.of("c", 3, "a", 1, "b", 2));
+		final MapStream<String, Integer> stream = MapStream.of(map).filterValues(v -> v > 1).mapValues(v -> v * 2).peekKeys(k -> {})
+				.skip(0).limit(5);
+
+		assertThat(stream.sortedKeys(), is(theInstance(stream)));
+		assertThat(stream.sortedKeys(Comparator.naturalOrder()), is(theInstance(stream)));
+		assertEquals(Arrays.asList("b", "c"), stream.sortedKeys().keyStream().collect(toList()));
+		assertThat(stream.sortedKeys(Comparator.reverseOrder()).keyStream().collect(toList()), contains("c", "b"));
+		final MapStream<String, Integer> unordered = stream.unordered();
+		assertThat(unordered.sortedKeys(), is(not(theInstance(unordered))));
+
+		final MapStream<String, Integer> resorted = MapStream.of(ImmutableMap.of("b", 2, "a", 1)).sortedKeys(String.CASE_INSENSITIVE_ORDER);
+		assertThat(resorted.sortedKeys(String.CASE_INSENSITIVE_ORDER), is(theInstance(resorted)));
+		final MapStream<String, Integer> mappedKeys = resorted.mapKeys(k -> k);
+		assertThat(mappedKeys.sortedKeys(String.CASE_INSENSITIVE_ORDER), is(not(theInstance(mappedKeys))));
+		assertThat(mappedKeys.sortedKeys(String.CASE_INSENSITIVE_ORDER).keyStream().collect(toList()), contains("a", "b"));
+	}
+
+	@Test
+	public void primitiveSortsMatchComparatorSortsAndAreStable() {
+		final Random random = new Random(42);
+		final List<Entry<Long, Double>> entries = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			final long key = random.nextInt(1_000) - 500L << random.nextInt(40);
+			entries.add(new SimpleImmutableEntry<>(key, i % 7 == 0 ? -0.0 : i % 11 == 0 ? Double.NaN : random.nextGaussian()));
+		}
+		final Supplier<MapStream<Long, Double>> stream = () -> MapStream.of(entries.stream(), e -> e);
+
+		assertEquals(stream.get().sortedKeys().collect(toList()), stream.get().sortedKeysByLong(k -> k).collect(toList()));
+		assertEquals(stream.get().sortedKeys().collect(toList()), stream.get().parallel().sortedKeysByLong(k -> k).collect(toList()));
+		assertEquals(stream.get().sortedKeys(Comparator.comparingInt(Long::intValue)).collect(toList()), stream.get().sortedKeysByInt(
+				Long::intValue).collect(toList()));
+		assertEquals(stream.get().sortedValues().collect(toList()), stream.get().sortedValuesByDouble(v -> v).collect(toList()));
+		assertEquals(stream.get().sortedValues(Comparator.comparingLong(Double::longValue)).collect(toList()), stream.get()
+				.sortedValuesByLong(Double::longValue).collect(toList()));
+		assertEquals(stream.get().sortedKeys().limit(20).collect(toList()), stream.get().sortedKeysByLong(k -> k).limit(20).collect(
+				toList()));
+
+		final MapStreamPipeline<Long, Double> sorted = (MapStreamPipeline<Long, Double>) stream.get().sortedKeysByLong(k -> k);
+		assertEquals(Spliterator.SORTED, sorted.knownKeyCharacteristics());
+		assertEquals(10_000, sorted.count());
+		assertThat(MapStream.of(ImmutableMap.of("b", 2, "a", 1, "c", 2)).sortedValuesByInt(v -> v).keyStream().collect(toList()),
+				contains("a", "b", "c"));
+	}
+
+	@Test
+	public void explainShowsFusedMappingsFiltersMovedAheadOfMappingsAndMergedSlices() {
+		final AtomicInteger mapped = new AtomicInteger();
+		final MapStream<String, Integer> stream = MapStream.of(new HashMap<>(MAP)).mapValues(v -> v * 10).mapValues(v -> {
+			mapped.incrementAndGet();
+			return v + 1;
+		}).filterKeys(k -> !k.equals("key2")).skip(1).limit(5).limit(3).skip(1);
+
+		assertEquals("MapSource[HashMap]\n  FilterStage[keys]\n  MapStage[values, 2 fused]\nSliceBarrier[skip 2, limit 2]\n",
+				stream.explain());
+		assertThat(stream.collect(toList()), is(empty()));
+		assertEquals(2, mapped.get());
+
+		final MapStream<String, Integer> kept = MapStream.of(MAP).mapValues(v -> {
+			mapped.incrementAndGet();
+			return v * 10;
+		}).filterKeys(k -> !k.equals("key2")).mapKeys(k -> k + "!").mapKeys((String k) -> k.toUpperCase()).filterValues(v -> v > 10);
+		assertEquals(ImmutableMap.of("KEY3!", 30), kept.collect(toMap()));
+		assertEquals(4, mapped.get());
+		assertEquals("MapSource[RegularImmutableMap]\n  FilterStage[keys]\n  MapStage[values]\n  FilterStage[values]\n"
+				+ "  MapStage[keys, 2 fused]\n", kept.explain());
+
+		final MapStream<String, Integer> sliced = MapStream.of(MAP).limit(3).skip(1).limit(1);
+		assertEquals("MapSource[RegularImmutableMap]\nSliceBarrier[skip 1, limit 1]\n", sliced.explain());
+		assertThat(sliced.keyStream().collect(toList()), contains("key2"));
+		assertEquals(0, MapStream.of(MAP).skip(5).skip(Long.MAX_VALUE).count());
+		assertEquals("MapStreamSource\n", ((MapStream<String, Integer>) () -> MAP.entrySet().stream()).explain());
+	}
+
+	@Test
+	public void compiledPipelineMatchesInterpretedPipeline() {
+		final List<String> peeked = new ArrayList<>();
+		final Function<MapStream<String, Integer>, MapStream<String, Integer>> stages = s -> s.filterValues(v -> v != 2).peekKeys(
+				peeked::add).map((k, v) -> k.toUpperCase(), (k, v) -> v * 10).unordered().filter((k, v) -> v > 0).mapValues(v -> v + 1)
+				.sequential();
+		final MapStream<String, Integer> compiled = stages.apply(MapStream.of(MAP)).compile();
+
+		assertEquals(ImmutableMap.of("KEY1", 11, "KEY3", 31), compiled.collect(toMap()));
+		assertEquals(stages.apply(MapStream.of(MAP)).collect(toMap()), compiled.collect(toMap()));
+		assertEquals(2, compiled.count());
+		assertEquals(Arrays.asList("key1", "key3", "key1", "key3", "key1", "key3", "key1", "key3"), peeked);
+		assertThat(compiled.compile(), is(theInstance(compiled)));
+		assertEquals("MapSource[RegularImmutableMap]\n  CompiledStage[FilterStage[values]]\n  CompiledStage[PeekStage]\n"
+				+ "  CompiledStage[MapStage[keys, values]]\n  UnorderedStage\n  CompiledStage[FilterStage[pairs]]\n"
+				+ "  CompiledStage[MapStage[values]]\n  ParallelStage\n", compiled.explain());
+
+		final MapStream<String, Integer> sorted = compiled.sortedKeys(Comparator.reverseOrder()).filterKeys(k -> k.endsWith("3"))
+				.compile();
+		assertEquals(ImmutableMap.of("KEY3", 31), sorted.collect(toMap()));
+		assertEquals(Arrays.asList(11), compiled.parallel().limit(1).valueStream().collect(toList()));
+
+		final Function<MapStream<String, Integer>, MapStream<String, Integer>> fused = s -> s.mapValues(v -> v + 1).mapValues((k, v) -> k
+				.length() + v).mapKeys(k -> k + "!").mapKeys((k, v) -> k + v).map(k -> k.toUpperCase(), v -> v * 2).filterKeys(k -> !k
+						.startsWith("KEY2"));
+		assertEquals(ImmutableMap.of("KEY1!6", 12, "KEY3!8", 16), fused.apply(MapStream.of(MAP)).compile().collect(toMap()));
+	}
+
+	@Test
+	public void compiledSinksAreCopiesSharedByFunctionAndNextSinkClass() {
+		final BiConsumer<Object, Object> next = (k, v) -> {};
+		final BiConsumer<Object, Object> first = PipelineCompiler.filter((k, v) -> true, next);
+		final BiConsumer<Object, Object> second = PipelineCompiler.filter((k, v) -> false, next);
+
+		assertEquals(PipelineCompiler.FilterSink.class.getName(), first.getClass().getName());
+		assertFalse(first.getClass() == PipelineCompiler.FilterSink.class);
+		assertFalse(first.getClass() == second.getClass());
+		final List<BiConsumer<Object, Object>> sameFunction = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			final int captured = i;
+			sameFunction.add(PipelineCompiler.mapValues((k, v) -> captured, next));
+		}
+		assertTrue(sameFunction.get(0).getClass() == sameFunction.get(1).getClass());
+
+		// Copies are specialized on the functions of keys or values, not on the adapters wrapping them
+		final BiConsumer<Object, Object> evenKeys = PipelineCompiler.filter(new MapStreamPipeline.KeyPredicate<>(k -> k.hashCode() % 2 == 0),
+				next);
+		final BiConsumer<Object, Object> nonNullKeys = PipelineCompiler.filter(new MapStreamPipeline.KeyPredicate<>(k -> k != null), next);
+		assertEquals(PipelineCompiler.KeyFilterSink.class.getName(), evenKeys.getClass().getName());
+		assertFalse(evenKeys.getClass() == nonNullKeys.getClass());
+		final BiConsumer<Object, Object> unchanged = PipelineCompiler.mapValues(new MapStreamPipeline.ValueFunction<>(v -> v), next);
+		final BiConsumer<Object, Object> stringified = PipelineCompiler.mapValues(new MapStreamPipeline.ValueFunction<>(v -> v
+				.toString()), next);
+		assertEquals(PipelineCompiler.ValueFunctionMapSink.class.getName(), unchanged.getClass().getName());
+		assertFalse(unchanged.getClass() == stringified.getClass());
+	}
+
+	@Test
+	public void concurrentMapSourceEvaluatesTerminalOperationsWithBulkOperations() {
+		final AtomicInteger bulkCalls = new AtomicInteger();
+		final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void forEach(final long parallelismThreshold, final BiConsumer<? super Integer, ? super Integer> action) {
+				bulkCalls.incrementAndGet();
+				super.forEach(parallelismThreshold, action);
+			}
+
+			@Override
+			public <U> U search(final long parallelismThreshold, final BiFunction<? super Integer, ? super Integer, ? extends U> function) {
+				bulkCalls.incrementAndGet();
+				return super.search(parallelismThreshold, function);
+			}
+		};
+		for (int i = 0; i < 10_000; i++) {
+			map.put(i, i % 100);
+		}
+
+		final MapStream<Integer, Integer> stream = MapStream.of(map, 1);
+		final Set<Integer> keys = ConcurrentHashMap.newKeySet();
+		stream.forEach((k, v) -> keys.add(k));
+		assertEquals(map.keySet(), keys);
+		assertEquals(5_000, stream.filterKeys(k -> k % 2 == 0).count());
+		assertTrue(stream.mapValues(v -> v * 2).anyMatch((k, v) -> v == 198));
+		assertTrue(stream.noneMatch((k, v) -> v >= 100));
+		assertEquals(IntStream.range(0, 10_000).map(i -> i % 100).sum(), stream.mapValuesToInt(v -> v).sum());
+		assertEquals(5, bulkCalls.get());
+
+		assertEquals(0, MapStream.of(new ConcurrentHashMap<Integer, Integer>(), 1).filterKeys(k -> k > 0).count());
+		// Sequential and ordered evaluations don't use the bulk operations
+		assertEquals(5_000, stream.sequential().filterKeys(k -> k % 2 == 0).count());
+		assertEquals(5_000, MapStream.of(map, Long.MAX_VALUE).filterKeys(k -> k % 2 == 0).count());
+		// Nor does a parallel evaluation of a source which doesn't run them in parallel, which splits the map's entries instead
+		final MapStream<Integer, Integer> parallel = MapStream.of(map, Long.MAX_VALUE).parallel();
+		assertTrue(parallel.isParallel());
+		assertEquals(5_000, parallel.filterKeys(k -> k % 2 == 0).count());
+		assertEquals(10, stream.sortedKeys().limit(10).filterValues(v -> v < 10).count());
+		assertEquals(5, bulkCalls.get());
+	}
+
+	@Test
+	public void cursorTraversesPairsFromEachKindOfSource() throws IOException {
+		final Map<Integer, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < 1000; i++) {
+			map.put(i * 7 % 1000, "v" + i % 10);
+		}
+		final List<Entry<Integer, String>> entries = new ArrayList<>(map.entrySet());
+		assertEquals(entries, cursorEntries(MapStream.of(map).cursor()));
+		assertEquals(new ArrayList<>(new TreeMap<>(map).entrySet()), cursorEntries(MapStream.of(new TreeMap<>(map)).cursor()));
+		assertEquals(entries, cursorEntries(MapStream.of(map).cache().cursor()));
+		assertEquals(entries, cursorEntries(MapStream.of(map).cacheWithValueDictionary().cursor()));
+		assertEquals(entries, cursorEntries(MapStream.of(map).parallel().cursor()));
+		assertEquals(entries, cursorEntries(((MapStream<Integer, String>) () -> map.entrySet().stream()).cursor()));
+		assertEquals(MapStream.of(map).filterKeys(k -> k % 3 == 0).mapValues(String::length).collect(toList()), cursorEntries(MapStream
+				.of(map).filterKeys(k -> k % 3 == 0).mapValues(String::length).cursor()));
+
+		final Path file = Files.createTempFile("mapstream-test", ".bin");
+		try {
+			MapStream.of(map).writeTo(file, Serializer.ofIntegers(), Serializer.ofStrings());
+			assertEquals(entries, cursorEntries(MapStream.ofFile(file, Serializer.ofIntegers(), Serializer.ofStrings()).cursor()));
+		} finally {
+			Files.delete(file);
+		}
+
+		final BiCursor<String, Integer> empty = MapStream.of(Collections.<String, Integer> emptyMap()).cache().cursor();
+		assertFalse(empty.advance());
+		assertFalse(empty.advance());
+	}
+
+	private static <K, V> List<Entry<K, V>> cursorEntries(final BiCursor<K, V> cursor) {
+		final List<Entry<K, V>> entries = new ArrayList<>();
+		while (cursor.advance()) {
+			entries.add(new SimpleImmutableEntry<>(cursor.key(), cursor.value()));
+		}
+		assertFalse(cursor.advance());
+		return entries;
+	}
+
+	@Test
+	public void mapSourceUsesMapOperationsForTerminalOperations() {
+		final AtomicInteger forEachCalls = new AtomicInteger();
+		final Map<String, Integer> map = new LinkedHashMap<String, Integer>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void forEach(final BiConsumer<? super String, ? super Integer> action) {
+				forEachCalls.incrementAndGet();
+				super.forEach(action);
+			}
+		};
+		map.put("key1", 1);
+		map.put("key2", 2);
+		map.put("key3", 3);
+
+		final List<String> keys = new ArrayList<>();
+		MapStream.of(map).filterValues(v -> v > 1).forEach((k, v) -> keys.add(k));
+		assertEquals(Arrays.asList("key2", "key3"), keys);
+		assertEquals(1, forEachCalls.get());
+		assertEquals(3, MapStream.of(map).count());
+
+		final Map<String, Integer> copy = MapStream.of(map).unordered().collect(toMap());
+		assertEquals(map, copy);
+		assertFalse(copy == map);
+		assertEquals(1, forEachCalls.get());
+
+		map.put("key4", null);
+		this.expectedException.expect(NullPointerException.class);
+		MapStream.of(map).collect(toMap());
+	}
+
+	@Test
+	public void keyPredicatesAreLookedUpInMapSources() {
+		final AtomicInteger gets = new AtomicInteger();
+		final TreeMap<Integer, String> map = new TreeMap<Integer, String>() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Entry<Integer, String> ceilingEntry(final Integer key) {
+				gets.incrementAndGet();
+				return super.ceilingEntry(key);
+			}
+		};
+		for (int i = 0; i < 1000; i++) {
+			map.put(i, "v" + i);
+		}
+		map.put(1000, null);
+
+		final AtomicInteger closed = new AtomicInteger();
+		final MapStream<Integer, String> range = MapStream.of(map).onClose(closed::incrementAndGet).parallel().keyRange(10, 20);
+		assertEquals(map.subMap(10, 20), range.collect(toMap()));
+		assertTrue(range.isParallel());
+		range.close();
+		assertEquals(1, closed.get());
+		assertEquals(10, ((MapStreamPipeline<Integer, String>) range).sourceMap().size());
+		assertEquals(Arrays.asList(998, 999, 1000), MapStream.of(map).keyRange(998, null).keyStream().collect(toList()));
+		assertEquals(0, MapStream.of(map).keyRange(20, 10).count());
+		assertEquals(Arrays.asList(18, 19), MapStream.of(map).keyRange(Comparator.reverseOrder(), 19, 17).keyStream().collect(toList()));
+		final SortedMap<Integer, String> view = map.subMap(5, 10);
+		assertEquals(Arrays.asList(5, 6), MapStream.of(view).keyRange(0, 7).keyStream().collect(toList()));
+		assertEquals(Arrays.asList(8, 9), MapStream.of(view).keyRange(8, 20).keyStream().collect(toList()));
+		assertEquals(view, MapStream.of(view).keyRange(null, 20).collect(toMap()));
+		assertEquals(0, MapStream.of(view).keyRange(20, null).count());
+
+		assertEquals(Arrays.asList(3, 500, 1000), MapStream.of(map).keyIn(new HashSet<>(Arrays.asList(1000, 500, 3, -1))).keyStream()
+				.collect(toList()));
+		assertEquals(4, gets.get());
+		assertEquals(Collections.singletonMap(7, "v7"), MapStream.of(map).keyEquals(7).collect(toMap()));
+		assertEquals(0, MapStream.of(map).mapValues(v -> v).keyEquals(-1).count());
+		assertEquals(5, gets.get());
+
+		final Map<String, Integer> ordered = new LinkedHashMap<>();
+		ordered.put("b", 1);
+		ordered.put("a", 2);
+		ordered.put("c", 3);
+		assertEquals(Arrays.asList("b", "a"), MapStream.of(ordered).keyIn(new TreeSet<>(Arrays.asList("a", "b"))).keyStream().collect(
+				toList()));
+
+		// Lookups find the same entries as filters: null keys are absent from maps which reject them, and only equal keys match
+		assertEquals(0, MapStream.of(map).keyEquals(null).count());
+		final ConcurrentHashMap<Integer, String> concurrent = new ConcurrentHashMap<>(map.headMap(10));
+		assertEquals(Collections.singletonMap(3, "v3"), MapStream.of(concurrent).keyIn(new HashSet<>(Arrays.asList(null, 3))).collect(
+				toMap()));
+		final TreeMap<String, Integer> caseInsensitive = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		caseInsensitive.put("A", 1);
+		assertEquals(0, MapStream.of(caseInsensitive).keyEquals("a").count());
+		assertEquals(Collections.singletonMap("A", 1), MapStream.of(caseInsensitive).keyIn(Collections.singleton("A")).collect(toMap()));
+		// A concurrent map's lookups are as parallel as its bulk operations
+		assertTrue(MapStream.of(concurrent, 1).keyEquals(3).isParallel());
+		assertEquals(Collections.singletonMap(3, "v3"), MapStream.of(concurrent, 1).keyIn(new HashSet<>(Arrays.asList(3, 30))).collect(
+				toMap()));
+		assertFalse(MapStream.of(concurrent, Long.MAX_VALUE).keyEquals(3).isParallel());
+	}
+
+	@Test
+	public void cacheEvaluatesUpstreamOnceForRepeatedTerminalOperations() {
+		final AtomicInteger evaluated = new AtomicInteger();
+		final AtomicInteger closed = new AtomicInteger();
+		final TreeMap<Integer, String> map = new TreeMap<>();
+		for (int i = 0; i < 10_000; i++) {
+			map.put(i, "v" + i % 10);
+		}
+
+		final MapStream<Integer, String> cached = MapStream.of(map).onClose(closed::incrementAndGet).peek((k, v) -> evaluated
+				.incrementAndGet()).filterKeys(k -> k % 2 == 0).cache();
+		assertEquals(10_000, evaluated.get());
+		assertEquals(5_000, cached.count());
+		assertEquals(map.keySet().stream().filter(k -> k % 2 == 0).collect(toList()), cached.parallel().keyStream().collect(toList()));
+		assertEquals(Arrays.asList(0, 2), cached.sortedKeys().limit(2).keyStream().collect(toList()));
+		assertEquals(10_000, evaluated.get());
+		assertEquals(5_000, ((MapStreamPipeline<Integer, String>) cached).knownSize());
+		cached.close();
+		assertEquals(1, closed.get());
+
+		final MapStream<Integer, String> dictionary = MapStream.of(map).mapValues(v -> new String(v)).parallel().cacheWithValueDictionary();
+		assertTrue(dictionary.isParallel());
+		assertEquals(map, dictionary.collect(toMap()));
+		assertEquals(10, dictionary.valueStream().map(System::identityHashCode).distinct().count());
+	}
+
+	@Test
+	public void externalSortedKeysSpillsRunsAndDeletesThemOnceReadOrOnClose() throws IOException {
+		final List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 20_000; i++) {
+			list.add(i * 7_919 % 20_000);
+		}
+		final List<Entry<Integer, String>> expected = list.stream().map(i -> new SimpleImmutableEntry<>(i / 2, "v" + i)).sorted(Entry
+				.comparingByKey()).collect(toList());
+		final Path tempDir = Paths.get(System.getProperty("java.io.tmpdir"));
+		final long filesBefore = countRunFiles(tempDir);
+
+		try (CloseableMapStream<Integer, String> sorted = MapStream.of(list.stream(), i -> i / 2, i -> "v" + i).externalSortedKeys(
+				Comparator.naturalOrder(), Serializer.ofIntegers(), Serializer.ofStrings(), 64 * 1024).autoCloseable()) {
+			assertEquals(expected, sorted.collect(toList()));
+			assertTrue(((MapStreamPipeline.ExternalSortBarrier<Integer, String>) sorted).runCount() > 1);
+			assertEquals(filesBefore, countRunFiles(tempDir));
+		}
+
+		try (CloseableMapStream<Integer, String> sorted = MapStream.of(list.stream(), i -> i / 2, i -> "v" + i).externalSortedKeys(
+				Comparator.naturalOrder(), Serializer.ofIntegers(), Serializer.ofStrings(), 64 * 1024).autoCloseable()) {
+			final PairSpliterator<Integer, String> spliterator = ((MapStreamPipeline<Integer, String>) sorted).pairSpliterator(false);
+			assertEquals(20_000, spliterator.estimateSize());
+			assertTrue(spliterator.tryAdvance((k, v) -> {}));
+			assertEquals(19_999, spliterator.estimateSize());
+			assertTrue(countRunFiles(tempDir) > filesBefore);
+		}
+		assertEquals(filesBefore, countRunFiles(tempDir));
+
+		final MapStream<Integer, String> inMemory = MapStream.of(list.stream(), i -> i / 2, i -> "v" + i).externalSortedKeys(Comparator
+				.naturalOrder(), Serializer.ofIntegers(), Serializer.ofStrings(), Long.MAX_VALUE);
+		assertEquals(expected, inMemory.collect(toList()));
+		assertEquals(0, ((MapStreamPipeline.ExternalSortBarrier<Integer, String>) inMemory).runCount());
+	}
+
+	@Test
+	public void memoryBudgetSpillsDistinctKeysToPartitions() throws IOException {
+		final List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 20_000; i++) {
+			list.add(i * 7_919 % 20_000);
+		}
+		final Map<Integer, Integer> expected = MapStream.of(list.stream(), i -> i % 5_000, Function.identity()).distinctKeys().collect(
+				toMap());
+		final MemoryBudget budget = new MemoryBudget(4 * 1024);
+
+		final Map<Integer, Integer> distinct = MapStream.of(list.stream(), i -> i % 5_000, Function.identity()).withMemoryBudget(budget)
+				.distinctKeys().collect(toMap());
+		assertEquals(expected, distinct);
+		assertTrue(budget.spilledPairs() > 0);
+		assertTrue(budget.spilledBytes() > 0);
+		assertEquals(0, countFiles(Paths.get(System.getProperty("java.io.tmpdir")), "mapstream-spill"));
+		assertEquals(5_000, MapStream.of(list.stream(), i -> i, i -> i % 5_000).withMemoryBudget(4 * 1024).distinctValues().count());
+	}
+
+	@Test
+	public void memoryBudgetSpillsGroupByKeyAndCombinesWithInMemoryGroups() {
+		final List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 20_000; i++) {
+			list.add(i);
+		}
+		final Supplier<MapStream<Integer, Integer>> stream = () -> MapStream.of(list.stream(), i -> i % 1_000, Function.identity());
+		final MemoryBudget budget = new MemoryBudget(16 * 1024);
+
+		final Map<Integer, List<Integer>> groups = stream.get().withMemoryBudget(budget).groupByKey().collect(toMap());
+		assertEquals(stream.get().groupByKey().collect(toMap()), groups);
+		assertEquals(list.stream().filter(i -> i % 1_000 == 3).collect(toList()), groups.get(3));
+		final long spilled = budget.spilledPairs();
+		assertTrue(spilled > 0);
+		assertEquals(stream.get().reduceByKey(Integer::sum).collect(toMap()), stream.get().withMemoryBudget(budget).reduceByKey(
+				Integer::sum).collect(toMap()));
+		assertTrue(budget.spilledPairs() > spilled);
+		assertEquals(0, new MemoryBudget(Long.MAX_VALUE).spilledPairs());
+	}
+
+	@Test
+	public void memoryBudgetIsChargedPerKeyByReductions() {
+		final Supplier<MapStream<Integer, Integer>> stream = () -> MapStream.of(IntStream.range(0, 200_000).boxed(), i -> i % 10,
+				Function.identity());
+		final MemoryBudget budget = new MemoryBudget(1024 * 1024);
+
+		assertEquals(stream.get().reduceByKey(Integer::sum).collect(toMap()), stream.get().withMemoryBudget(budget).reduceByKey(
+				Integer::sum).collect(toMap()));
+		assertEquals(stream.get().aggregateByKey(AtomicInteger::new, (a, v) -> a.incrementAndGet(), (a, b) -> a).mapValues(
+				AtomicInteger::get).collect(toMap()), stream.get().withMemoryBudget(budget).aggregateByKey(AtomicInteger::new, (a, v) -> a
+						.incrementAndGet(), (a, b) -> a).mapValues(AtomicInteger::get).collect(toMap()));
+		assertEquals(0, budget.spilledPairs());
+		// Groups retain every value, so they are charged per pair
+		assertEquals(200_000, stream.get().withMemoryBudget(budget).groupByKey().collect(toMap()).values().stream().mapToInt(List::size)
+				.sum());
+		assertTrue(budget.spilledPairs() > 0);
+	}
+
+	private static long countRunFiles(final Path directory) throws IOException {
+		return countFiles(directory, "mapstream-sort");
+	}
+
+	private static long countFiles(final Path directory, final String prefix) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(p -> p.getFileName().toString().startsWith(prefix)).count();
+		}
+	}
+
+	@Test
+	public void hashJoinCombinesValuesWithEqualKeys() {
+		final Map<String, Integer> left = new LinkedHashMap<>();
+		left.put("a", 1);
+		left.put("b", 2);
+		left.put("c", 3);
+		final Supplier<MapStream<String, String>> right = () -> MapStream.of(Stream.of("b:x", "c:y", "c:z", "d:w"), s -> s.substring(0, 1),
+				s -> s.substring(2));
+
+		// The left side has the only known size, so it is the build side and the pairs are in the order of the right side
+		assertThat(MapStream.of(left).join(right.get(), (v, w) -> v + w).collect(toList()), contains(entries("b", "2x", "c", "3y", "c",
+				"3z")));
+		assertThat(MapStream.of(left).leftJoin(right.get(), (v, w) -> v + w).collect(toList()), contains(entries("a", "1null", "b", "2x",
+				"c", "3y", "c", "3z")));
+		assertThat(MapStream.of(left).fullOuterJoin(right.get(), (v, w) -> v + w).collect(toList()), contains(entries("a", "1null", "b",
+				"2x", "c", "3y", "c", "3z", "d", "nullw")));
+		assertThat(MapStream.of(left).fullOuterJoin(right.get(), (v, w) -> v + w).limit(2).collect(toList()), contains(entries("a",
+				"1null", "b", "2x")));
+	}
+
+	@Test
+	public void joinOfSortedKeysMergesInKeyOrder() {
+		final Map<String, Integer> left = new TreeMap<>(ImmutableMap.of("e", 5, "a", 1, "c", 3));
+		final Supplier<MapStream<String, String>> right = () -> MapStream.of(Stream.of("f:u", "c:y", "b:x", "e:v", "c:z"), s -> s.substring(0,
+				1), s -> s.substring(2)).sortedKeys();
+
+		assertThat(MapStream.of(left).join(right.get(), (v, w) -> v + w).collect(toList()), contains(entries("c", "3y", "c", "3z", "e",
+				"5v")));
+		assertThat(MapStream.of(left).fullOuterJoin(right.get(), (v, w) -> v + w).collect(toList()), contains(entries("a", "1null", "b",
+				"nullx", "c", "3y", "c", "3z", "e", "5v", "f", "nullu")));
+		assertThat(right.get().leftJoin(MapStream.of(left), (w, v) -> w + v).collect(toList()), contains(entries("b", "xnull", "c", "y3",
+				"c", "z3", "e", "v5", "f", "unull")));
+	}
+
+	@Test
+	public void parallelJoinsMatchSequentialResults() {
+		final List<Integer> list = new ArrayList<>();
+		final Map<Integer, Integer> right = new HashMap<>();
+		for (int i = 0; i < 100_000; i++) {
+			list.add(i);
+			right.put(i * 3, i);
+		}
+		final Supplier<MapStream<Integer, Integer>> left = () -> MapStream.of(list.parallelStream(), Function.identity(), i -> i);
+
+		assertEquals(list.stream().filter(i -> i % 3 == 0).collect(toList()), left.get().join(MapStream.of(right), (v, w) -> v).keyStream()
+				.collect(toList()));
+		assertEquals(100_000, left.get().leftJoin(MapStream.of(right), (v, w) -> w).count());
+		final Map<Integer, Integer> outer = left.get().fullOuterJoin(MapStream.of(right), (v, w) -> v == null ? -w : w == null ? v : 0)
+				.collect(toMap());
+		assertEquals(100_000 + 100_000 * 2 / 3, outer.size());
+		assertEquals(0, (int) outer.get(3));
+		assertEquals(4, (int) outer.get(4));
+		assertEquals(-50_000, (int) outer.get(150_000));
+		assertEquals(outer, left.get().sequential().fullOuterJoin(MapStream.of(right), (v, w) -> v == null ? -w : w == null ? v : 0)
+				.collect(toMap()));
+	}
+
+	@Test
+	public void writeToFileAndReadBackSequentiallyAndInParallel() throws IOException {
+		final Map<Integer, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < 50_000; i++) {
+			map.put(i * 7_919 % 50_000, "v" + i);
+		}
+		final Path file = Files.createTempFile("mapstream-test", ".bin");
+		try {
+			MapStream.of(map).writeTo(file, Serializer.ofIntegers(), Serializer.ofStrings());
+
+			final MapStream<Integer, String> read = MapStream.ofFile(file, Serializer.ofIntegers(), Serializer.ofStrings());
+			assertEquals(new ArrayList<>(map.entrySet()), read.collect(toList()));
+			assertEquals(new ArrayList<>(map.keySet()), read.parallel().keyStream().collect(toList()));
+			assertEquals(MapStream.of(map).filterKeys(k -> k % 2 == 0).collect(toMap()), read.parallel().filterKeys(k -> k % 2 == 0)
+					.collect(toMap()));
+			assertEquals(50_000, read.count());
+
+			MapStream.of(Collections.<Integer, String> emptyMap()).writeTo(file, Serializer.ofIntegers(), Serializer.ofStrings());
+			assertEquals(0, MapStream.ofFile(file, Serializer.ofIntegers(), Serializer.ofStrings()).count());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void ofDelimitedFileParsesLinesSequentiallyAndInParallel() throws IOException {
+		final Map<Long, String> expected = new LinkedHashMap<>();
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100_000; i++) {
+			final long key = (i - 50_000) * 1_000_003L;
+			expected.put(key, "value\t" + i);
+			text.append(key).append('\t').append("value\t").append(i).append(i % 1_000 == 0 ? "\r\n\n" : "\n");
+		}
+		final Path file = Files.createTempFile("mapstream-test", ".tsv");
+		try {
+			Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+			final MapStream<Long, String> read = MapStream.ofDelimitedFile(file, (byte) '\t', FieldParser.ofLongs(), FieldParser.ofStrings());
+			assertEquals(new ArrayList<>(expected.entrySet()), read.collect(toList()));
+			assertEquals(new ArrayList<>(expected.keySet()), read.parallel().keyStream().collect(toList()));
+			assertEquals(50_000, read.parallel().filterKeys(k -> k < 0).count());
+
+			Files.write(file, "1,a\n-2147483648,é\nb".getBytes(StandardCharsets.UTF_8));
+			assertEquals(Arrays.asList(new SimpleImmutableEntry<>(1, "a"), new SimpleImmutableEntry<>(Integer.MIN_VALUE, "é")), MapStream
+					.ofDelimitedFile(file, (byte) ',', FieldParser.ofIntegers(), FieldParser.ofStrings()).limit(2).collect(toList()));
+			this.expectedException.expect(IllegalArgumentException.class);
+			MapStream.ofDelimitedFile(file, (byte) ',', FieldParser.ofStrings(), FieldParser.ofStrings()).count();
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void ofFileWithKeyRangeSkipsBlocksOutsideTheRange() throws IOException {
+		final AtomicInteger keysRead = new AtomicInteger();
+		final Serializer<Integer> countingKeys = new Serializer<Integer>() {
+			@Override
+			public void write(final Integer object, final DataOutput output) throws IOException {
+				Serializer.ofIntegers().write(object, output);
+			}
+
+			@Override
+			public Integer read(final DataInput input) throws IOException {
+				keysRead.incrementAndGet();
+				return Serializer.ofIntegers().read(input);
+			}
+		};
+		final Path file = Files.createTempFile("mapstream-test", ".bin");
+		try {
+			MapStream.of(IntStream.range(0, 100_000).boxed(), Function.identity(), i -> (long) i).writeTo(file, countingKeys, Serializer
+					.ofLongs(), null);
+			keysRead.set(0);
+
+			final MapStream<Integer, Long> range = MapStream.ofFile(file, countingKeys, Serializer.ofLongs(), null, 40_000, 40_100);
+			assertEquals(LongStream.range(40_000, 40_100).boxed().collect(toList()), range.valueStream().collect(toList()));
+			assertTrue(keysRead.get() < 10_000);
+			assertEquals(100, range.parallel().count());
+			assertEquals(60_000, MapStream.ofFile(file, countingKeys, Serializer.ofLongs(), null, 40_000, null).count());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void iteratorReturnsEntrySetIterator() {
+		assertThat(Lists.newArrayList(MapStream.of(MAP).iterator()), contains(entries("key1", 1, "key2", 2, "key3", 3)));
+	}
+
+	@Test
+	public void spliteratorReturnsEntrySetSpliterator() {
+		assertThat(spliteratorToList(MapStream.of(MAP).spliterator()), contains(entries("key1", 1, "key2", 2, "key3", 3)));
+	}
+
+	private static <T> List<T> spliteratorToList(final Spliterator<T> spliterator) {
+		final List<T> list = new ArrayList<>();
+		spliterator.forEachRemaining(list::add);
+		return list;
+	}
+
+	private static <K, V> Matcher<Map<K, V>> emptyMap() {
+		return new FeatureMatcher<Map<K, V>, Set<Entry<K, V>>>(empty(), "empty map", "entry set") {
+			@Override
+			protected Set<Entry<K, V>> featureValueOf(final Map<K, V> map) {
+				return map.entrySet();
+			}
+		};
+	}
+
+	private static <K, V> Matcher<MapStream<K, V>> hasEntryStream(final Matcher<? super Stream<Entry<K, V>>> entryStreamMatcher) {
+		return new FeatureMatcher<MapStream<K, V>, Stream<Entry<K, V>>>(entryStreamMatcher, "has entry stream", "entry stream") {
+			@Override
+			protected Stream<Entry<K, V>> featureValueOf(final MapStream<K, V> mapStream) {
+				return mapStream.entryStream();
+			}
+		};
+	}
+
+	private static <T> List<T> listOf(final Collection<T> collection) {
+		return Lists.newArrayList(collection);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <K, V> Entry<K, V>[] entries(final K key1, final V value1, final Object... others) {
+		final Entry<K, V>[] entries = new Entry[others.length / 2 + 1];
+		entries[0] = new SimpleEntry<>(key1, value1);
+		for (int i = 0; i < others.length / 2; i++) {
+			entries[i + 1] = new SimpleEntry<>((K) others[i * 2], (V) others[i * 2 + 1]);
+		}
+		return entries;
+	}
+
+	/** Object wrapper which does not implement Comparable, to test the sortedX methods on non-Comparable objects */
+	private static class NotComparable<T> {
+		/** Return a comparator for comparing the wrapped objects (assuming the wrapped objects implement Comparable) */
+		public static <T extends Comparable<? super T>> Comparator<NotComparable<T>> comparator() {
+			return (o1, o2) -> o1.obj.compareTo(o2.obj);
+		}
+
+		private final T obj;
+
+		public NotComparable(final T obj) {
+			this.obj = obj;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(this.obj);
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			return other instanceof NotComparable && Objects.equals(this.obj, ((NotComparable<?>) other).obj);
+		}
+
+		@Override
+		public String toString() {
+			return "NotComparable [obj=" + this.obj + "]";
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package nz.net.dnh.mapstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PrimitiveHashMapTest {
+	@Test
+	public void objIntHashMapPutGetAndMerge() {
+		final ObjIntHashMap<String> map = new ObjIntHashMap<>();
+		assertTrue(map.isEmpty());
+		map.put("a", 1);
+		map.put("a", 2);
+		assertEquals(5, map.merge("a", 3, Integer::sum));
+		assertEquals(7, map.merge("b", 7, Integer::sum));
+
+		assertEquals(2, map.size());
+		assertEquals(5, map.getOrDefault("a", 0));
+		assertTrue(map.containsKey("b"));
+		assertFalse(map.containsKey("c"));
+	}
+
+	@Test
+	public void objDoubleHashMapGrowsPastInitialCapacity() {
+		final ObjDoubleHashMap<Integer> map = new ObjDoubleHashMap<>(2);
+		for (int i = 0; i < 10_000; i++) {
+			map.put(i, i / 2.0);
+		}
+
+		assertEquals(10_000, map.size());
+		for (int i = 0; i < 10_000; i++) {
+			assertEquals(i / 2.0, map.getOrDefault(i, -1), 0);
+		}
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void objLongHashMapRejectsNullKeys() {
+		new ObjLongHashMap<String>().put(null, 1);
+	}
+
+	@Test
+	public void objLongHashMapMergeAllAndToString() {
+		final ObjLongHashMap<String> map = new ObjLongHashMap<>();
+		map.put("a", 1);
+		final ObjLongHashMap<String> other = new ObjLongHashMap<>();
+		other.put("a", 10);
+		map.mergeAll(other, Long::sum);
+
+		assertEquals("{a=11}", map.toString());
+	}
+
+	@Test
+	public void longObjHashMapHandlesZeroAndNegativeKeysAndNullValues() {
+		final LongObjHashMap<String> map = new LongObjHashMap<>();
+		for (long i = -5_000; i < 5_000; i++) {
+			map.put(i * 1_000_000_007L, Long.toString(i));
+		}
+		map.put(42, null);
+
+		assertEquals(10_001, map.size());
+		assertEquals("0", map.get(0));
+		assertEquals("-5000", map.get(-5_000 * 1_000_000_007L));
+		assertTrue(map.containsKey(42));
+		assertNull(map.get(42));
+		assertEquals("default", map.getOrDefault(43, "default"));
+	}
+
+	@Test
+	public void intObjHashMapMergeAndForEach() {
+		final IntObjHashMap<String> map = new IntObjHashMap<>();
+		map.merge(1, "a", String::concat);
+		map.merge(1, "b", String::concat);
+		map.merge(-1, "c", String::concat);
+		final StringBuilder seen = new StringBuilder();
+		map.forEach((k, v) -> seen.append(k).append(v));
+
+		assertEquals(2, map.size());
+		assertEquals("ab", map.get(1));
+		assertEquals(6, seen.length());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void putUniqueFailsForDuplicateKey() {
+		final IntObjHashMap<String> map = new IntObjHashMap<>();
+		map.putUnique(1, "a");
+		map.putUnique(1, "b");
+	}
+}
@@ -0,0 +1,153 @@
+package nz.net.dnh.mapstream;
+
+import static java.util.stream.Collectors.toList;
+import static nz.net.dnh.mapstream.MapStreamTest.entries;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class PrimitiveMapStreamTest {
+	private static final Map<String, String> MAP = ImmutableMap.of("a", "1", "bb", "22", "ccc", "333");
+
+	@Test
+	public void mapValuesToIntReducesValuesWithoutBoxing() {
+		final ObjIntMapStream<String> stream = MapStream.of(MAP).mapValuesToInt(Integer::parseInt);
+
+		assertEquals(356, stream.sum());
+		assertEquals(OptionalInt.of(1), stream.min());
+		assertEquals(OptionalInt.of(333), stream.max());
+		assertEquals(OptionalDouble.of(356 / 3.0), stream.average());
+		assertEquals(3, stream.summaryStatistics().getCount());
+	}
+
+	@Test
+	public void emptyStreamHasEmptyMinMaxAndAverage() {
+		final ObjLongMapStream<String> stream = MapStream.of(MAP).mapValuesToLong(Long::parseLong).filterValues(v -> v > 1000);
+
+		assertEquals(0, stream.sum());
+		assertEquals(OptionalLong.empty(), stream.min());
+		assertEquals(OptionalLong.empty(), stream.max());
+		assertEquals(OptionalDouble.empty(), stream.average());
+	}
+
+	@Test
+	public void objDoubleStagesAreApplied() {
+		final Map<String, Double> seen = new LinkedHashMap<>();
+		MapStream.of(MAP).mapValuesToDouble(Double::parseDouble).filterKeys(k -> k.length() > 1).mapValues(v -> v / 2)
+				.mapKeys(String::toUpperCase).filter((k, v) -> v > 1).peek(seen::put).forEach((k, v) -> {});
+
+		assertEquals(ImmutableMap.of("BB", 11.0, "CCC", 166.5), seen);
+	}
+
+	@Test
+	public void objDoubleValueStreamAndKeyStream() {
+		final ObjDoubleMapStream<String> stream = MapStream.of(MAP).mapValuesToDouble(Double::parseDouble);
+
+		assertEquals(356, stream.valueStream().sum(), 0);
+		assertThat(stream.keyStream().collect(toList()), contains("a", "bb", "ccc"));
+	}
+
+	@Test
+	public void boxedAndMapValuesToObjReturnMapStream() {
+		assertThat(MapStream.of(MAP).mapValuesToInt(Integer::parseInt).boxed().collect(toList()),
+				contains(entries("a", 1, "bb", 22, "ccc", 333)));
+		assertThat(MapStream.of(MAP).mapValuesToLong(Long::parseLong).mapValuesToObj(Long::toHexString).collect(toList()),
+				contains(entries("a", "1", "bb", "16", "ccc", "14d")));
+	}
+
+	@Test
+	public void matchOperations() {
+		final ObjIntMapStream<String> stream = MapStream.of(MAP).mapValuesToInt(Integer::parseInt);
+
+		assertTrue(stream.anyMatch((k, v) -> v == 22));
+		assertFalse(stream.anyMatch((k, v) -> v == 23));
+		assertTrue(stream.allMatch((k, v) -> v > 0));
+		assertFalse(stream.allMatch((k, v) -> v > 1));
+		assertTrue(stream.noneMatch((k, v) -> k.isEmpty()));
+	}
+
+	@Test
+	public void toMapCollectsPrimitiveValuedMap() {
+		final ObjIntHashMap<Integer> map = MapStream.of(MAP).mapKeys(String::length).mapValuesToInt(Integer::parseInt).toMap();
+
+		assertEquals(3, map.size());
+		assertEquals(22, map.getOrDefault(2, -1));
+		assertEquals(-1, map.getOrDefault(4, -1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void toMapFailsWithDuplicateKeys() {
+		MapStream.of(MAP).mapValuesToDouble(Double::parseDouble).mapKeys(k -> "same").toMap();
+	}
+
+	@Test
+	public void toMapWithMergeFunctionMergesDuplicateKeys() {
+		final ObjLongHashMap<String> map = MapStream.of(MAP).mapValuesToLong(Long::parseLong).mapKeys(k -> "same").toMap(Long::sum);
+
+		assertEquals(356, map.getOrDefault("same", 0));
+	}
+
+	@Test
+	public void mapKeysToLongFiltersAndCollectsPrimitiveKeyedMap() {
+		final LongObjHashMap<String> map = MapStream.of(MAP).mapKeysToLong(String::length).filterKeys(k -> k > 1).mapKeys(k -> k * 10)
+				.mapValues(v -> v + "!").toMap();
+
+		assertEquals(2, map.size());
+		assertEquals("22!", map.get(20));
+		assertEquals("333!", map.get(30));
+		assertEquals(null, map.get(10));
+	}
+
+	@Test
+	public void mapKeysToIntKeyStreamValueStreamAndBoxed() {
+		final IntObjMapStream<String> stream = MapStream.of(MAP).mapKeysToInt(String::length);
+
+		assertEquals(6, stream.keyStream().sum());
+		assertThat(stream.valueStream().collect(toList()), contains("1", "22", "333"));
+		assertThat(stream.mapKeysToObj(Integer::toBinaryString).collect(toList()), contains(entries("1", "1", "10", "22", "11", "333")));
+		assertThat(stream.boxed().keyStream().collect(toList()), contains(1, 2, 3));
+	}
+
+	@Test
+	public void intObjToMapWithMergeFunction() {
+		final IntObjHashMap<String> map = MapStream.of(MAP).mapKeysToInt(k -> 0).toMap(String::concat);
+
+		assertEquals("122333", map.get(0));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void parallelReductionsCombinePartitions() {
+		final Map<Integer, Integer> map = new HashMap<>();
+		for (int i = 0; i < 10_000; i++) {
+			map.put(i, i % 100);
+		}
+		final ObjDoubleMapStream<Integer> stream = MapStream.of(map).mapValuesToDouble(Integer::doubleValue).parallel();
+
+		assertTrue(stream.isParallel());
+		final DoubleSummaryStatistics statistics = stream.summaryStatistics();
+		assertEquals(10_000, statistics.getCount());
+		assertEquals(495_000, statistics.getSum(), 0);
+		assertEquals(10_000, stream.count());
+		assertEquals(100, stream.mapKeys(k -> k % 100).toMap(Double::sum).size());
+		assertEquals(map.entrySet().stream().filter(e -> e.getValue() == 7).count(), stream.filterValues(v -> v == 7).count());
+		assertTrue(stream.anyMatch((k, v) -> k == 9_999));
+		assertEquals(10_000, MapStream.of(map).mapKeysToLong(Integer::longValue).parallel().toMap().size());
+		assertEquals(10_000, stream.sequential().valueStream().boxed().collect(Collectors.toSet()).size() * 100);
+	}
+}